@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.benchmarks;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.rcsbusinessmessaging.v1.RCSBusinessMessaging;
+import com.google.api.services.rcsbusinessmessaging.v1.RbmHttpRequestInitializer;
+import com.google.api.services.rcsbusinessmessaging.v1.RbmTransportOptions;
+import com.google.api.services.rcsbusinessmessaging.v1.RetryPolicy;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedReply;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shared fixtures for the benchmarks: clients that talk to a {@code FakeRbmServer} without
+ * credentials, and representative message payloads.
+ */
+final class BenchmarkClients {
+    static final String MSISDN = "+12223334444";
+
+    static final String PARENT = "phones/" + MSISDN;
+
+    private BenchmarkClients() { }
+
+    /**
+     * Builds an RBM client the same way {@code RbmApiHelper} does, minus the credential.
+     * @param transport The transport to send requests over.
+     * @param rootUrl The root URL of the server to send requests to.
+     * @return The RBM API client.
+     */
+    static RCSBusinessMessaging newClient(HttpTransport transport, String rootUrl) {
+        return new RCSBusinessMessaging.Builder(transport, JacksonFactory.getDefaultInstance(), null)
+                .setApplicationName("rbm-benchmarks")
+                .setHttpRequestInitializer(
+                        new RbmHttpRequestInitializer(null, RetryPolicy.noRetries()))
+                .setRootUrl(rootUrl)
+                .build();
+    }
+
+    /**
+     * Creates a transport for the given options.
+     * @param options The transport settings.
+     * @return The transport.
+     */
+    static HttpTransport newTransport(RbmTransportOptions options) {
+        try {
+            return options.newTransport();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return A list of suggested replies like the ones the samples attach to cards.
+     */
+    static List<Suggestion> suggestions(int count) {
+        List<Suggestion> suggestions = new ArrayList<Suggestion>();
+        for (int i = 0; i < count; i++) {
+            suggestions.add(new Suggestion().setReply(new SuggestedReply()
+                    .setText("Option " + i)
+                    .setPostbackData("option_" + i)));
+        }
+
+        return suggestions;
+    }
+
+    /**
+     * @return A text message with two suggested replies.
+     */
+    static AgentMessage textMessage() {
+        return new AgentMessage().setContentMessage(new AgentContentMessage()
+                .setText("Hello from the RBM benchmarks")
+                .setSuggestions(suggestions(2)));
+    }
+}
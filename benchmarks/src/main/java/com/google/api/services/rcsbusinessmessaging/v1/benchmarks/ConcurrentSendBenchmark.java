@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.benchmarks;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.services.rcsbusinessmessaging.v1.AsyncRequestExecutor;
+import com.google.api.services.rcsbusinessmessaging.v1.MessageIdGenerator;
+import com.google.api.services.rcsbusinessmessaging.v1.RCSBusinessMessaging;
+import com.google.api.services.rcsbusinessmessaging.v1.RbmTransportOptions;
+import com.google.api.services.rcsbusinessmessaging.v1.TransportType;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sending bursts of agent messages concurrently through an
+ * {@link AsyncRequestExecutor}, on a fixed platform thread pool or on virtual threads. The
+ * server adds latency so the executor, rather than the loopback socket, is what is measured.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// the JDK server behind FakeRbmServer stalls on delayed ACKs without TCP_NODELAY
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class ConcurrentSendBenchmark {
+    private static final int MESSAGES_PER_BURST = 500;
+
+    /**
+     * The kinds of executor the sends can run on.
+     */
+    public enum ExecutorType {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    @Param({"PLATFORM"})
+    public ExecutorType executorType;
+
+    @Param({"64"})
+    public int maxInFlight;
+
+    @Param({"20"})
+    public long latencyMillis;
+
+    private FakeRbmServer server;
+
+    private HttpTransport transport;
+
+    private RCSBusinessMessaging rbmApi;
+
+    private ExecutorService executorService;
+
+    private AsyncRequestExecutor asyncRequestExecutor;
+
+    private AgentMessage agentMessage;
+
+    // the server rejects repeated message ids, so every send needs a new one
+    private final MessageIdGenerator messageIds = MessageIdGenerator.random();
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeRbmServer(0, maxInFlight * 2).start().setLatencyMillis(latencyMillis);
+        transport = BenchmarkClients.newTransport(new RbmTransportOptions()
+                .setTransportType(TransportType.APACHE_POOLED)
+                .setMaxConnectionsPerRoute(maxInFlight));
+        rbmApi = BenchmarkClients.newClient(transport, server.getRootUrl());
+        agentMessage = BenchmarkClients.textMessage();
+
+        if (executorType == ExecutorType.VIRTUAL) {
+            // throws UnsupportedOperationException before JDK 21
+            asyncRequestExecutor = AsyncRequestExecutor.newVirtualThreadExecutor(maxInFlight);
+        } else {
+            executorService = Executors.newFixedThreadPool(maxInFlight);
+            asyncRequestExecutor = new AsyncRequestExecutor(executorService, maxInFlight);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        asyncRequestExecutor.close();
+        if (executorService != null) {
+            executorService.shutdown();
+        }
+
+        transport.shutdown();
+        server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES_PER_BURST)
+    public void sendBurst() throws IOException {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[MESSAGES_PER_BURST];
+        for (int i = 0; i < MESSAGES_PER_BURST; i++) {
+            futures[i] = asyncRequestExecutor.executeAsync(rbmApi.phones().agentMessages()
+                    .create(BenchmarkClients.PARENT, agentMessage)
+                    .setMessageId(messageIds.newMessageId(BenchmarkClients.MSISDN)));
+        }
+
+        CompletableFuture.allOf(futures).join();
+    }
+}
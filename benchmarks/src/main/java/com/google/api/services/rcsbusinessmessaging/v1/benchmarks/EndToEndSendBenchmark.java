@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.benchmarks;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.services.rcsbusinessmessaging.v1.AgentMessageTemplate;
+import com.google.api.services.rcsbusinessmessaging.v1.MessageIdGenerator;
+import com.google.api.services.rcsbusinessmessaging.v1.RCSBusinessMessaging;
+import com.google.api.services.rcsbusinessmessaging.v1.RbmTransportOptions;
+import com.google.api.services.rcsbusinessmessaging.v1.TransportType;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures sending one agent message at a time to a {@link FakeRbmServer} over each
+ * {@link TransportType}, built per request or from a pre-serialized
+ * {@link AgentMessageTemplate}, and reports how many connections the server saw per 10,000 messages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// the JDK server behind FakeRbmServer stalls on delayed ACKs without TCP_NODELAY
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class EndToEndSendBenchmark {
+    @Param({"NET_HTTP", "APACHE_POOLED"})
+    public TransportType transportType;
+
+    private FakeRbmServer server;
+
+    private HttpTransport transport;
+
+    private RCSBusinessMessaging rbmApi;
+
+    private AgentMessage agentMessage;
+
+    private AgentMessageTemplate template;
+
+    // the server rejects repeated message ids, so every send needs a new one
+    private final MessageIdGenerator messageIds = MessageIdGenerator.random();
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+        transport = BenchmarkClients.newTransport(
+                new RbmTransportOptions().setTransportType(transportType));
+        rbmApi = BenchmarkClients.newClient(transport, server.getRootUrl());
+        agentMessage = BenchmarkClients.textMessage();
+        template = AgentMessageTemplate.compile(agentMessage, rbmApi.getJsonFactory());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        long messages = server.getRequestCount();
+        if (messages > 0) {
+            System.out.printf("%n%s: %d connections for %d messages (%.2f per 10,000 messages)%n",
+                    transportType,
+                    server.getConnectionCount(),
+                    messages,
+                    server.getConnectionCount() * 10000.0 / messages);
+        }
+
+        transport.shutdown();
+        server.close();
+    }
+
+    @Benchmark
+    public AgentMessage send() throws IOException {
+        return rbmApi.phones().agentMessages()
+                .create(BenchmarkClients.PARENT, agentMessage)
+                .setMessageId(messageIds.newMessageId(BenchmarkClients.MSISDN))
+                .execute();
+    }
+
+    @Benchmark
+    public AgentMessage sendTemplate() throws IOException {
+        return template.send(rbmApi, BenchmarkClients.MSISDN,
+                messageIds.newMessageId(BenchmarkClients.MSISDN));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.benchmarks;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.FileContent;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.services.rcsbusinessmessaging.v1.FileUploader;
+import com.google.api.services.rcsbusinessmessaging.v1.HashingContent;
+import com.google.api.services.rcsbusinessmessaging.v1.RCSBusinessMessaging;
+import com.google.api.services.rcsbusinessmessaging.v1.RbmTransportOptions;
+import com.google.api.services.rcsbusinessmessaging.v1.model.File;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of computing the CRC32C and SHA-256 of media while it is uploaded:
+ * reading a file through {@link HashingContent} against reading it plainly, and uploading it
+ * to a {@link FakeRbmServer} with a {@link FileUploader} with and without hashes. Each
+ * operation covers the whole file, so MB/s is the score times {@code sizeMegabytes}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// the JDK server behind FakeRbmServer stalls on delayed ACKs without TCP_NODELAY
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+@State(Scope.Benchmark)
+public class MediaHashingBenchmark {
+    @Param({"false", "true"})
+    public boolean computeHashes;
+
+    @Param({"32"})
+    public int sizeMegabytes;
+
+    private Path file;
+
+    private FakeRbmServer server;
+
+    private HttpTransport transport;
+
+    private FileUploader fileUploader;
+
+    private final byte[] buffer = new byte[64 * 1024];
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] media = new byte[sizeMegabytes << 20];
+        new Random(1).nextBytes(media);
+
+        file = Files.createTempFile("rbm-media", ".mp4");
+        Files.write(file, media);
+
+        server = new FakeRbmServer().start();
+        transport = BenchmarkClients.newTransport(new RbmTransportOptions());
+        RCSBusinessMessaging rbmApi = BenchmarkClients.newClient(transport, server.getRootUrl());
+        fileUploader = FileUploader.newBuilder(rbmApi)
+                .setComputeHashes(computeHashes)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        transport.shutdown();
+        server.close();
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        AbstractInputStreamContent content = new FileContent("video/mp4", file.toFile());
+        HashingContent hashingContent = null;
+        if (computeHashes) {
+            content = hashingContent = new HashingContent(content);
+        }
+
+        long length = 0;
+        try (InputStream in = content.getInputStream()) {
+            for (int count; (count = in.read(buffer)) >= 0; ) {
+                length += count;
+            }
+        }
+
+        return hashingContent != null ? hashingContent.getCrc32c() : length;
+    }
+
+    @Benchmark
+    public File upload() throws IOException {
+        return fileUploader.upload(file, "video/mp4", null);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.benchmarks;
+
+import com.google.api.services.rcsbusinessmessaging.v1.RbmApiHelper;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CardContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.StandaloneCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion;
+import com.google.api.services.rcsbusinessmessaging.v1.model.cards.CardOrientation;
+import com.google.api.services.rcsbusinessmessaging.v1.model.cards.MediaHeight;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building card messages through the {@link RbmApiHelper} helpers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageBuildingBenchmark {
+    private static final String IMAGE_URL = "https://storage.googleapis.com/kitten-images/cat.jpg";
+
+    private RbmApiHelper rbmApiHelper;
+
+    private List<Suggestion> suggestions;
+
+    @Setup
+    public void setUp() {
+        // the message builders do not touch the API, so no credentials are needed
+        rbmApiHelper = new RbmApiHelper();
+        suggestions = BenchmarkClients.suggestions(4);
+    }
+
+    @Benchmark
+    public CardContent createCardContent() {
+        return rbmApiHelper.createCardContent(
+                "Title", "Description", IMAGE_URL, MediaHeight.MEDIUM, suggestions);
+    }
+
+    @Benchmark
+    public StandaloneCard createStandaloneCard() {
+        return rbmApiHelper.createStandaloneCard(
+                "Title",
+                "Description",
+                IMAGE_URL,
+                MediaHeight.MEDIUM,
+                CardOrientation.VERTICAL,
+                suggestions);
+    }
+}
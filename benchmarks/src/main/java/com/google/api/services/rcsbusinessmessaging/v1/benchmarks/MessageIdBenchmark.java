@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.benchmarks;
+
+import com.google.api.services.rcsbusinessmessaging.v1.MessageIdGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares message id strategies with {@link UUID#randomUUID()}, from several threads at once
+ * so contention on its shared {@code SecureRandom} shows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class MessageIdBenchmark {
+    private final MessageIdGenerator random = MessageIdGenerator.random();
+
+    private final MessageIdGenerator timeOrdered = MessageIdGenerator.timeOrdered();
+
+    private final MessageIdGenerator nameBased = MessageIdGenerator.nameBased("campaign");
+
+    @Benchmark
+    public String randomUuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String random() {
+        return random.newMessageId(BenchmarkClients.MSISDN);
+    }
+
+    @Benchmark
+    public String timeOrdered() {
+        return timeOrdered.newMessageId(BenchmarkClients.MSISDN);
+    }
+
+    @Benchmark
+    public String nameBased() {
+        return nameBased.newMessageId(BenchmarkClients.MSISDN);
+    }
+}
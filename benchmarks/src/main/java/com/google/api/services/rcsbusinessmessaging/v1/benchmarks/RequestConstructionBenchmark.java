@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.benchmarks;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.UriTemplate;
+import com.google.api.services.rcsbusinessmessaging.v1.RCSBusinessMessaging;
+import com.google.api.services.rcsbusinessmessaging.v1.RbmTransportOptions;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures creating agent message requests, comparing a shared client with building a new
+ * client per request, and the URI template expansion done for every request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestConstructionBenchmark {
+    private static final String ROOT_URL = "https://rcsbusinessmessaging.googleapis.com/";
+
+    private HttpTransport transport;
+
+    private RCSBusinessMessaging sharedClient;
+
+    private AgentMessage agentMessage;
+
+    private Map<String, Object> templateParameters;
+
+    @Setup
+    public void setUp() {
+        transport = BenchmarkClients.newTransport(new RbmTransportOptions());
+        sharedClient = BenchmarkClients.newClient(transport, ROOT_URL);
+        agentMessage = BenchmarkClients.textMessage();
+        templateParameters = Collections.<String, Object>singletonMap(
+                "parent", BenchmarkClients.PARENT);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        transport.shutdown();
+    }
+
+    @Benchmark
+    public RCSBusinessMessaging.Phones.AgentMessages.Create sharedClient() throws IOException {
+        return sharedClient.phones().agentMessages().create(BenchmarkClients.PARENT, agentMessage);
+    }
+
+    @Benchmark
+    public RCSBusinessMessaging.Phones.AgentMessages.Create clientPerRequest() throws IOException {
+        // what RbmApiHelper did before the client was built once and reused
+        return BenchmarkClients.newClient(transport, ROOT_URL)
+                .phones().agentMessages().create(BenchmarkClients.PARENT, agentMessage);
+    }
+
+    @Benchmark
+    public String expandUriTemplate() {
+        return UriTemplate.expand(ROOT_URL, "v1/{+parent}/agentMessages", templateParameters, true);
+    }
+}
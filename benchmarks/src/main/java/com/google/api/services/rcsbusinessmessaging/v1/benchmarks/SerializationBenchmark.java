@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.benchmarks;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.rcsbusinessmessaging.v1.RbmApiHelper;
+import com.google.api.services.rcsbusinessmessaging.v1.RbmJsonCodec;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CardContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CarouselCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.RichCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.cards.CardWidth;
+import com.google.api.services.rcsbusinessmessaging.v1.model.cards.MediaHeight;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures JSON serialization of the request payloads on the send path, and compares the
+ * reflective code with {@link RbmJsonCodec}. Run with {@code -prof gc} to see the allocation
+ * per message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+    private final JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+
+    private AgentMessage textMessage;
+
+    private AgentMessage carouselMessage;
+
+    private CarouselCard carouselCard;
+
+    private byte[] carouselMessageJson;
+
+    @Setup
+    public void setUp() {
+        RbmApiHelper rbmApiHelper = new RbmApiHelper();
+
+        List<CardContent> cardContents = new ArrayList<CardContent>();
+        for (int i = 0; i < 5; i++) {
+            cardContents.add(rbmApiHelper.createCardContent(
+                    "Card " + i,
+                    "Description " + i,
+                    "https://storage.googleapis.com/kitten-images/cat" + i + ".jpg",
+                    MediaHeight.MEDIUM,
+                    BenchmarkClients.suggestions(2)));
+        }
+
+        carouselCard = new CarouselCard()
+                .setCardWidth(CardWidth.MEDIUM.toString())
+                .setCardContents(cardContents);
+
+        textMessage = BenchmarkClients.textMessage();
+        carouselMessage = new AgentMessage().setContentMessage(new AgentContentMessage()
+                .setRichCard(new RichCard().setCarouselCard(carouselCard)));
+
+        try {
+            carouselMessageJson = jsonFactory.toByteArray(carouselMessage);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Benchmark
+    public String serializeTextMessage() throws IOException {
+        return jsonFactory.toString(textMessage);
+    }
+
+    @Benchmark
+    public String serializeCarouselMessage() throws IOException {
+        return jsonFactory.toString(carouselMessage);
+    }
+
+    @Benchmark
+    public String serializeCarouselCard() throws IOException {
+        return jsonFactory.toString(carouselCard);
+    }
+
+    @Benchmark
+    public byte[] reflectiveTextMessage() throws IOException {
+        return jsonFactory.toByteArray(textMessage);
+    }
+
+    @Benchmark
+    public byte[] streamingTextMessage() throws IOException {
+        return RbmJsonCodec.toByteArray(jsonFactory, textMessage);
+    }
+
+    @Benchmark
+    public byte[] reflectiveCarouselMessage() throws IOException {
+        return jsonFactory.toByteArray(carouselMessage);
+    }
+
+    @Benchmark
+    public byte[] streamingCarouselMessage() throws IOException {
+        return RbmJsonCodec.toByteArray(jsonFactory, carouselMessage);
+    }
+
+    @Benchmark
+    public AgentMessage reflectiveParseCarouselMessage() throws IOException {
+        return jsonFactory.createJsonParser(new ByteArrayInputStream(carouselMessageJson))
+                .parseAndClose(AgentMessage.class);
+    }
+
+    @Benchmark
+    public AgentMessage streamingParseCarouselMessage() throws IOException {
+        return RbmJsonCodec.parseAndClose(
+                jsonFactory, new ByteArrayInputStream(carouselMessageJson), AgentMessage.class);
+    }
+}
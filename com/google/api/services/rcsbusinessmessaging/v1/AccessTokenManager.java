@@ -0,0 +1,389 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Authorizes requests with the access token of a {@link Credential}, refreshing the token in
+ * the background well before it expires.
+ *
+ * <p>A credential installed on its own refreshes the token inside the request that finds it
+ * about to expire, and every other request waits for that round trip. This manager instead
+ * refreshes once the token has used up its lifetime less the refresh margin, or half of it for
+ * short-lived tokens, on a background thread. Requests read the current token without locking.
+ * A failed refresh is retried with exponential backoff while the current token stays valid;
+ * requests only wait for a refresh when there is no valid token at all, on the first request or
+ * after refreshing has failed until expiry.</p>
+ *
+ * <p>Install it as the delegate of {@link RbmHttpRequestInitializer}. A request rejected with
+ * 401 refreshes the token it was sent with and is retried.</p>
+ */
+public class AccessTokenManager implements HttpRequestInitializer, HttpExecuteInterceptor,
+        HttpUnsuccessfulResponseHandler, Closeable {
+    private static final Logger logger = Logger.getLogger(AccessTokenManager.class.getName());
+
+    public static final long DEFAULT_REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_MIN_RETRY_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    public static final long DEFAULT_MAX_RETRY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    // a token this close to expiry, or a quarter of its lifetime for short-lived tokens, is not
+    // sent, it could expire before the request arrives
+    private static final long EXPIRY_SKEW_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Credential credential;
+    private final long refreshMarginMillis;
+    private final long minRetryIntervalMillis;
+    private final long maxRetryIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private volatile Token token;
+
+    // guarded by this
+    private ScheduledFuture<?> scheduledRefresh;
+    private long retryIntervalMillis;
+
+    private final LongAdder refreshCount = new LongAdder();
+    private final LongAdder refreshFailureCount = new LongAdder();
+    private final LongAdder blockingRefreshCount = new LongAdder();
+    private final LongAdder totalRefreshLatencyMillis = new LongAdder();
+    private final AtomicLong maxRefreshLatencyMillis = new AtomicLong();
+    private volatile long lastRefreshLatencyMillis;
+    private volatile long lastRefreshTimeMillis;
+
+    private AccessTokenManager(Builder builder) {
+        this.credential = builder.credential;
+        this.refreshMarginMillis = builder.refreshMarginMillis;
+        this.minRetryIntervalMillis = builder.minRetryIntervalMillis;
+        this.maxRetryIntervalMillis = builder.maxRetryIntervalMillis;
+        this.retryIntervalMillis = minRetryIntervalMillis;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rbm-access-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a builder for a manager of the given credential's tokens.
+     * @param credential The credential to refresh, for example a scoped service account
+     *                   {@code GoogleCredential}.
+     * @return The builder.
+     */
+    public static Builder newBuilder(Credential credential) {
+        return new Builder(credential);
+    }
+
+    /**
+     * Fetches the first token in the background, so that it is usually ready by the first
+     * request.
+     * @return This manager.
+     */
+    public AccessTokenManager start() {
+        scheduleRefresh(0);
+        return this;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) {
+        request.setInterceptor(this);
+        request.setUnsuccessfulResponseHandler(this);
+    }
+
+    @Override
+    public void intercept(HttpRequest request) throws IOException {
+        request.getHeaders().setAuthorization(authorization(getAccessToken()));
+    }
+
+    @Override
+    public boolean handleResponse(HttpRequest request, HttpResponse response,
+                                  boolean supportsRetry) {
+        if (response.getStatusCode() != 401) {
+            return false;
+        }
+
+        // another request may have refreshed the token since this one was sent
+        Token current = token;
+        if (current != null && authorization(current.accessToken)
+                .equals(request.getHeaders().getAuthorization())) {
+            try {
+                refresh(current);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "unable to refresh the access token", e);
+                return false;
+            }
+        }
+
+        return supportsRetry;
+    }
+
+    /**
+     * Returns a valid access token, waiting for a refresh only if there is none.
+     * @return The access token.
+     * @throws IOException If there was no valid token and refreshing failed.
+     */
+    public String getAccessToken() throws IOException {
+        Token current = token;
+        if (current == null || !current.isValid(System.currentTimeMillis())) {
+            blockingRefreshCount.increment();
+            current = refresh(current);
+        }
+
+        return current.accessToken;
+    }
+
+    /**
+     * @return The current access token if it is still valid, or null; never waits.
+     */
+    public String getCachedAccessToken() {
+        Token current = token;
+        return current != null && current.isValid(System.currentTimeMillis())
+                ? current.accessToken : null;
+    }
+
+    /**
+     * @return When the current token expires, in milliseconds since the epoch, or null if
+     * there is no token or its lifetime is unknown.
+     */
+    public Long getExpirationTimeMillis() {
+        Token current = token;
+        return current != null && current.expiresAtMillis != Long.MAX_VALUE
+                ? current.expiresAtMillis : null;
+    }
+
+    /**
+     * @return The number of successful refreshes.
+     */
+    public long getRefreshCount() {
+        return refreshCount.sum();
+    }
+
+    /**
+     * @return The number of failed refreshes, including background retries.
+     */
+    public long getRefreshFailureCount() {
+        return refreshFailureCount.sum();
+    }
+
+    /**
+     * @return The number of times a request had to wait for a refresh because there was no
+     * valid token.
+     */
+    public long getBlockingRefreshCount() {
+        return blockingRefreshCount.sum();
+    }
+
+    /**
+     * @return How long the last successful refresh took, in milliseconds.
+     */
+    public long getLastRefreshLatencyMillis() {
+        return lastRefreshLatencyMillis;
+    }
+
+    /**
+     * @return How long the slowest successful refresh took, in milliseconds.
+     */
+    public long getMaxRefreshLatencyMillis() {
+        return maxRefreshLatencyMillis.get();
+    }
+
+    /**
+     * @return The mean duration of successful refreshes, in milliseconds, or 0 if there were
+     * none.
+     */
+    public double getMeanRefreshLatencyMillis() {
+        long count = refreshCount.sum();
+        return count > 0 ? (double) totalRefreshLatencyMillis.sum() / count : 0;
+    }
+
+    /**
+     * @return When the last successful refresh completed, in milliseconds since the epoch, or
+     * 0 if there was none.
+     */
+    public long getLastRefreshTimeMillis() {
+        return lastRefreshTimeMillis;
+    }
+
+    /**
+     * Stops refreshing in the background. Requests still refresh the token when they find it
+     * expired.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Refreshes the token unless it has changed since it was read, so that concurrent callers
+     * that found the same token share a single refresh.
+     * @param seen The token the caller found, or null.
+     * @return The new token.
+     */
+    private synchronized Token refresh(Token seen) throws IOException {
+        Token current = token;
+        if (current != seen && current != null && current.isValid(System.currentTimeMillis())) {
+            return current;
+        }
+
+        long startNanos = System.nanoTime();
+        try {
+            // a 5xx from the token server is reported as false rather than thrown
+            if (!credential.refreshToken() || credential.getAccessToken() == null) {
+                throw new IOException("the token server did not return an access token");
+            }
+        } catch (IOException | RuntimeException e) {
+            refreshFailureCount.increment();
+            throw e;
+        }
+
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        long now = System.currentTimeMillis();
+        Long expiresAtMillis = credential.getExpirationTimeMilliseconds();
+
+        Token refreshed;
+        if (expiresAtMillis != null) {
+            long lifetimeMillis = Math.max(0, expiresAtMillis - now);
+            refreshed = new Token(credential.getAccessToken(), expiresAtMillis,
+                    expiresAtMillis - Math.min(EXPIRY_SKEW_MILLIS, lifetimeMillis / 4));
+            scheduleRefresh(Math.max(lifetimeMillis - refreshMarginMillis, lifetimeMillis / 2));
+        } else {
+            refreshed = new Token(credential.getAccessToken(), Long.MAX_VALUE, Long.MAX_VALUE);
+        }
+        token = refreshed;
+
+        refreshCount.increment();
+        totalRefreshLatencyMillis.add(latencyMillis);
+        maxRefreshLatencyMillis.accumulateAndGet(latencyMillis, Math::max);
+        lastRefreshLatencyMillis = latencyMillis;
+        lastRefreshTimeMillis = now;
+        retryIntervalMillis = minRetryIntervalMillis;
+
+        return refreshed;
+    }
+
+    private void refreshInBackground() {
+        try {
+            refresh(token);
+        } catch (IOException | RuntimeException e) {
+            long delayMillis;
+            synchronized (this) {
+                delayMillis = retryIntervalMillis;
+                retryIntervalMillis = Math.min(retryIntervalMillis * 2, maxRetryIntervalMillis);
+            }
+
+            logger.log(Level.WARNING, "unable to refresh the access token, retrying in "
+                    + delayMillis + " ms", e);
+            scheduleRefresh(delayMillis);
+        }
+    }
+
+    private synchronized void scheduleRefresh(long delayMillis) {
+        if (scheduler.isShutdown()) {
+            return;
+        }
+
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+        }
+
+        scheduledRefresh = scheduler.schedule(
+                this::refreshInBackground, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static String authorization(String accessToken) {
+        return "Bearer " + accessToken;
+    }
+
+    /**
+     * An access token, when it expires and until when it is sent.
+     */
+    private static final class Token {
+        final String accessToken;
+        final long expiresAtMillis;
+        final long validUntilMillis;
+
+        Token(String accessToken, long expiresAtMillis, long validUntilMillis) {
+            this.accessToken = accessToken;
+            this.expiresAtMillis = expiresAtMillis;
+            this.validUntilMillis = validUntilMillis;
+        }
+
+        boolean isValid(long now) {
+            return now < validUntilMillis;
+        }
+    }
+
+    /**
+     * Builder for {@link AccessTokenManager}.
+     */
+    public static final class Builder {
+        private final Credential credential;
+        private long refreshMarginMillis = DEFAULT_REFRESH_MARGIN_MILLIS;
+        private long minRetryIntervalMillis = DEFAULT_MIN_RETRY_INTERVAL_MILLIS;
+        private long maxRetryIntervalMillis = DEFAULT_MAX_RETRY_INTERVAL_MILLIS;
+
+        private Builder(Credential credential) {
+            if (credential == null) {
+                throw new NullPointerException("credential");
+            }
+
+            this.credential = credential;
+        }
+
+        /**
+         * Sets how long before expiry a token is refreshed. Tokens that live less than twice
+         * as long are refreshed halfway through their lifetime instead.
+         */
+        public Builder setRefreshMarginMillis(long refreshMarginMillis) {
+            this.refreshMarginMillis = refreshMarginMillis;
+            return this;
+        }
+
+        /**
+         * Sets the first and the longest wait between retries of a failed background refresh.
+         */
+        public Builder setRetryIntervalMillis(long minRetryIntervalMillis,
+                                              long maxRetryIntervalMillis) {
+            if (minRetryIntervalMillis < 1 || maxRetryIntervalMillis < minRetryIntervalMillis) {
+                throw new IllegalArgumentException(
+                        "retry intervals must be positive, the minimum no more than the maximum");
+            }
+
+            this.minRetryIntervalMillis = minRetryIntervalMillis;
+            this.maxRetryIntervalMillis = maxRetryIntervalMillis;
+            return this;
+        }
+
+        public AccessTokenManager build() {
+            return new AccessTokenManager(this);
+        }
+    }
+}
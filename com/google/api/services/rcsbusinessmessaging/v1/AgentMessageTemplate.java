@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An agent message serialized once and sent to many users, for campaigns where every
+ * recipient gets the same content.
+ *
+ * <p>The message is serialized to JSON when the template is compiled, and the same bytes are
+ * the body of every request made with it, so sending skips the reflective serialization of
+ * the message. Text fields may contain placeholders of the form <code>{{name}}</code>; their
+ * values are JSON-escaped and spliced into the serialized bytes for each recipient.</p>
+ *
+ * <p>Templates are immutable and can be shared between threads.</p>
+ */
+public final class AgentMessageTemplate {
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    private static final byte[] PLACEHOLDER_START = "{{".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PLACEHOLDER_END = "}}".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final AgentMessage agentMessage;
+    private final byte[] body;
+
+    // the body split around its placeholders: literals has one more entry than placeholders
+    private final List<byte[]> literals;
+    private final List<String> placeholders;
+
+    private AgentMessageTemplate(AgentMessage agentMessage, byte[] body) {
+        this.agentMessage = agentMessage;
+        this.body = body;
+
+        List<byte[]> literals = new ArrayList<byte[]>();
+        List<String> placeholders = new ArrayList<String>();
+
+        int literalStart = 0;
+        int start = indexOf(body, PLACEHOLDER_START, 0);
+        while (start >= 0) {
+            int end = indexOf(body, PLACEHOLDER_END, start + PLACEHOLDER_START.length);
+            if (end < 0) {
+                break;
+            }
+
+            String name = new String(body, start + PLACEHOLDER_START.length,
+                    end - start - PLACEHOLDER_START.length, StandardCharsets.UTF_8);
+            if (!isPlaceholderName(name)) {
+                start = indexOf(body, PLACEHOLDER_START, start + 1);
+                continue;
+            }
+
+            literals.add(Arrays.copyOfRange(body, literalStart, start));
+            placeholders.add(name);
+            literalStart = end + PLACEHOLDER_END.length;
+
+            start = indexOf(body, PLACEHOLDER_START, literalStart);
+        }
+        literals.add(Arrays.copyOfRange(body, literalStart, body.length));
+
+        this.literals = Collections.unmodifiableList(literals);
+        this.placeholders = Collections.unmodifiableList(placeholders);
+    }
+
+    /**
+     * Serializes a message into a template.
+     * @param agentMessage The message to send. Later changes to it do not affect the template.
+     * @param jsonFactory The JSON factory of the client the template is sent with.
+     * @return The template.
+     */
+    public static AgentMessageTemplate compile(AgentMessage agentMessage, JsonFactory jsonFactory)
+            throws IOException {
+        return new AgentMessageTemplate(
+                agentMessage.clone(), jsonFactory.toByteArray(agentMessage));
+    }
+
+    /**
+     * @return The names of the placeholders in the message, in the order they appear.
+     */
+    public List<String> getPlaceholders() {
+        return placeholders;
+    }
+
+    /**
+     * @return A copy of the message the template was compiled from.
+     */
+    public AgentMessage getAgentMessage() {
+        return agentMessage.clone();
+    }
+
+    /**
+     * Renders the request body, substituting the placeholders.
+     * @param values The value of every placeholder, by name.
+     * @return The JSON body; the shared serialized message if there are no placeholders.
+     * @throws IllegalArgumentException If a placeholder has no value.
+     */
+    byte[] render(Map<String, String> values) {
+        if (placeholders.isEmpty()) {
+            return body;
+        }
+
+        byte[][] escapedValues = new byte[placeholders.size()][];
+        int length = 0;
+        for (int i = 0; i < placeholders.size(); i++) {
+            String value = values.get(placeholders.get(i));
+            if (value == null) {
+                throw new IllegalArgumentException(
+                        "no value for placeholder " + placeholders.get(i));
+            }
+
+            escapedValues[i] = escapeJson(value);
+            length += literals.get(i).length + escapedValues[i].length;
+        }
+        length += literals.get(literals.size() - 1).length;
+
+        byte[] rendered = new byte[length];
+        int position = 0;
+        for (int i = 0; i < escapedValues.length; i++) {
+            byte[] literal = literals.get(i);
+            System.arraycopy(literal, 0, rendered, position, literal.length);
+            position += literal.length;
+
+            System.arraycopy(escapedValues[i], 0, rendered, position, escapedValues[i].length);
+            position += escapedValues[i].length;
+        }
+        byte[] lastLiteral = literals.get(literals.size() - 1);
+        System.arraycopy(lastLiteral, 0, rendered, position, lastLiteral.length);
+
+        return rendered;
+    }
+
+    /**
+     * Sends the message to a user.
+     * @param rbmApi The RBM API client to send with.
+     * @param msisdn The phone number in E.164 format.
+     * @param messageId The id of the message, a UUID.
+     * @return The message created by the platform.
+     */
+    public AgentMessage send(RCSBusinessMessaging rbmApi, String msisdn, String messageId)
+            throws IOException {
+        return send(rbmApi, msisdn, messageId, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Sends the message to a user, substituting the placeholders.
+     * @param rbmApi The RBM API client to send with.
+     * @param msisdn The phone number in E.164 format.
+     * @param messageId The id of the message, a UUID.
+     * @param values The value of every placeholder, by name.
+     * @return The message created by the platform.
+     */
+    public AgentMessage send(RCSBusinessMessaging rbmApi,
+                             String msisdn,
+                             String messageId,
+                             Map<String, String> values) throws IOException {
+        RCSBusinessMessaging.Phones.AgentMessages.Create create = rbmApi
+                .phones()
+                .agentMessages()
+                .create(RbmApiHelper.convertToApiFormat(msisdn), agentMessage)
+                .setMessageId(messageId);
+
+        // the request is built as usual, then its body is swapped for the pre-serialized one
+        HttpRequest request = create.buildHttpRequest();
+        request.setContent(new ByteArrayContent(JSON_CONTENT_TYPE, render(values)));
+
+        // errors are thrown as GoogleJsonResponseException by the client's response interceptor
+        return request.execute().parseAs(AgentMessage.class);
+    }
+
+    /**
+     * Escapes a value for use inside a JSON string, as UTF-8, the same way Jackson does so that
+     * a rendered body matches the serialized message byte for byte.
+     */
+    private static byte[] escapeJson(String value) {
+        ByteArrayOutputStream escaped = new ByteArrayOutputStream(value.length() + 16);
+
+        int plainStart = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            // Jackson also escapes the surrogate pairs of characters outside the BMP
+            if (c != '"' && c != '\\' && c >= 0x20 && !Character.isSurrogate(c)) {
+                continue;
+            }
+
+            writeUtf8(escaped, value.substring(plainStart, i));
+            plainStart = i + 1;
+
+            escaped.write('\\');
+            switch (c) {
+                case '"':
+                case '\\':
+                    escaped.write(c);
+                    break;
+                case '\n':
+                    escaped.write('n');
+                    break;
+                case '\r':
+                    escaped.write('r');
+                    break;
+                case '\t':
+                    escaped.write('t');
+                    break;
+                case '\b':
+                    escaped.write('b');
+                    break;
+                case '\f':
+                    escaped.write('f');
+                    break;
+                default:
+                    escaped.write('u');
+                    escaped.write(HEX[c >> 12]);
+                    escaped.write(HEX[(c >> 8) & 0xf]);
+                    escaped.write(HEX[(c >> 4) & 0xf]);
+                    escaped.write(HEX[c & 0xf]);
+            }
+        }
+        writeUtf8(escaped, value.substring(plainStart));
+
+        return escaped.toByteArray();
+    }
+
+    private static void writeUtf8(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static boolean isPlaceholderName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.' && c != '-') {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] target, int from) {
+        outer:
+        for (int i = from; i <= bytes.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (bytes[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs blocking RBM API calls on an executor and exposes them as {@link CompletableFuture}s.
+ *
+ * <p>The number of calls in flight is capped by a semaphore. When the cap is reached,
+ * {@link #submit(Callable)} blocks the submitting thread until a running call finishes, which
+ * gives dispatchers natural back-pressure instead of an unbounded queue of pending work.
+ * Callbacks of other calls, which may run on the executor's own threads, use
+ * {@link #submitOrQueue(Callable)} instead, which never blocks.</p>
+ *
+ * <p>On JDK 21 and later, {@link #newVirtualThreadExecutor(int)} runs every call on its own
+ * virtual thread, so the in-flight cap rather than a thread pool size bounds concurrency. The
+ * library still targets Java 8; virtual thread support is looked up at runtime.</p>
+ */
+public class AsyncRequestExecutor implements Closeable {
+    // Executors.newVirtualThreadPerTaskExecutor(), or null before JDK 21
+    private static final MethodHandle NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadFactory();
+
+    private final Executor executor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+
+    // calls submitted without blocking, started as slots free up
+    private final Queue<Runnable> queued = new ConcurrentLinkedQueue<Runnable>();
+
+    // Set when this object created the executor and is responsible for shutting it down
+    private final boolean ownsExecutor;
+
+    /**
+     * @param executor The executor the blocking calls run on.
+     * @param maxInFlight The maximum number of calls allowed to run at the same time.
+     */
+    public AsyncRequestExecutor(Executor executor, int maxInFlight) {
+        this(executor, maxInFlight, false);
+    }
+
+    private AsyncRequestExecutor(Executor executor, int maxInFlight, boolean ownsExecutor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * @return Whether the running JVM supports virtual threads.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that runs each call on a new virtual thread. Requires JDK 21 or later.
+     * The returned executor owns its thread factory and should be closed when no longer needed.
+     * @param maxInFlight The maximum number of calls allowed to run at the same time.
+     * @return The virtual thread backed executor.
+     * @throws UnsupportedOperationException If the running JVM has no virtual threads.
+     */
+    public static AsyncRequestExecutor newVirtualThreadExecutor(int maxInFlight) {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+            throw new UnsupportedOperationException(
+                    "virtual threads require JDK 21 or later, running on "
+                            + System.getProperty("java.version"));
+        }
+
+        ExecutorService executorService;
+        try {
+            executorService = (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke();
+        } catch (Throwable t) {
+            throw new IllegalStateException("unable to create a virtual thread executor", t);
+        }
+
+        return new AsyncRequestExecutor(executorService, maxInFlight, true);
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * @return The number of calls currently running or waiting for an executor thread.
+     */
+    public int getInFlightCount() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Executes an RBM API request asynchronously, for example an
+     * {@link RCSBusinessMessaging.Phones.AgentMessages.Create} request.
+     * @param request The request to execute.
+     * @return A future completed with the parsed response.
+     */
+    public <T> CompletableFuture<T> executeAsync(RCSBusinessMessagingRequest<T> request) {
+        return submit(request::execute);
+    }
+
+    /**
+     * Submits a blocking call, waiting for a free slot if the in-flight cap has been reached.
+     * @param call The blocking call to run.
+     * @return A future completed with the result of the call.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        start(call, future);
+        return future;
+    }
+
+    /**
+     * Submits a blocking call without waiting for a free slot. If the in-flight cap has been
+     * reached, the call is queued and started when a running call finishes. Use it to chain a
+     * call onto another: a callback that blocked in {@link #submit(Callable)} on one of the
+     * executor's threads, whose call still holds its slot, could wait forever at the cap.
+     * @param call The blocking call to run.
+     * @return A future completed with the result of the call.
+     */
+    public <T> CompletableFuture<T> submitOrQueue(Callable<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+
+        queued.add(() -> start(call, future));
+        startQueued();
+
+        return future;
+    }
+
+    /**
+     * Runs a call on the executor. The caller holds a slot, which is released when the call
+     * completes.
+     */
+    private <T> void start(Callable<T> call, CompletableFuture<T> future) {
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release();
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void release() {
+        inFlight.release();
+        startQueued();
+    }
+
+    /**
+     * Starts queued calls while there are free slots.
+     */
+    private void startQueued() {
+        // a call queued after another thread found the queue empty is started by its submitter
+        while (!queued.isEmpty() && inFlight.tryAcquire()) {
+            Runnable next = queued.poll();
+            if (next != null) {
+                next.run();
+            } else {
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * Shuts down the executor if it was created by this class. Executors passed to the
+     * public constructor are left running; their owner is responsible for them.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    /**
+     * Looks up the JDK 21 virtual thread executor factory.
+     * @return The factory method, or null when running on an older JDK.
+     */
+    private static MethodHandle findVirtualThreadFactory() {
+        try {
+            return MethodHandles.publicLookup().findStatic(
+                    Executors.class,
+                    "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonErrorContainer;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentEvent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces RBM API requests into HTTP batch requests sent to the service's batch endpoint.
+ *
+ * <p>Requests are collected until either {@code maxBatchSize} requests are waiting or the
+ * first waiting request is {@code lingerMillis} old, and are then sent together as one
+ * multipart request. Each caller gets a future that is completed from its own part of the
+ * batch response. Parts that fail with a retryable status (429, 500, 502, 503 or 504) are put
+ * back into a later batch with exponential backoff; parts that succeeded are never resent.
+ * When the batch request as a whole fails, its parts are retried by the same rule, or after an
+ * I/O error, and failed right away otherwise, for example when the client-side rate limiter
+ * rejected the batch.</p>
+ *
+ * <p>Instances are thread-safe. Call {@link #close()} to flush waiting requests and stop the
+ * sender's threads.</p>
+ */
+public class BatchingSender implements Closeable {
+    // The batch endpoint accepts at most this many parts per request
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    private final RCSBusinessMessaging rbmApi;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final int maxAttempts;
+    private final long initialRetryDelayMillis;
+    private final MessageIdGenerator messageIdGenerator;
+    private final ScheduledThreadPoolExecutor scheduler;
+
+    // Requests waiting out a retry delay, failed if the sender is closed before they resend
+    private final Set<PendingRequest<?>> awaitingRetry =
+            ConcurrentHashMap.<PendingRequest<?>>newKeySet();
+
+    // Requests waiting for the next batch, guarded by lock
+    private final Object lock = new Object();
+    private List<PendingRequest<?>> pending = new ArrayList<PendingRequest<?>>();
+    private ScheduledFuture<?> lingerFlush;
+    private boolean closed;
+
+    private BatchingSender(Builder builder) {
+        this.rbmApi = builder.rbmApi;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.lingerMillis = builder.lingerMillis;
+        this.maxAttempts = builder.maxAttempts;
+        this.initialRetryDelayMillis = builder.initialRetryDelayMillis;
+        this.messageIdGenerator = builder.messageIdGenerator;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(builder.maxConcurrentBatches, runnable -> {
+            Thread thread = new Thread(runnable, "rbm-batch-sender-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Creates a builder for a sender that batches requests made through the given client.
+     * @param rbmApi The RBM API client.
+     * @return The builder.
+     */
+    public static Builder newBuilder(RCSBusinessMessaging rbmApi) {
+        return new Builder(rbmApi);
+    }
+
+    /**
+     * Queues an agent message for the user with the phone number msisdn.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendAgentMessage(AgentMessage agentMessage,
+                                                            String msisdn) {
+        RCSBusinessMessaging.Phones.AgentMessages.Create request;
+        try {
+            request = rbmApi.phones().agentMessages()
+                    .create(RbmApiHelper.convertToApiFormat(msisdn), agentMessage);
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+
+        // the id stays the same across retries, so the platform can discard duplicates
+        request.setMessageId(messageIdGenerator.newMessageId(msisdn));
+
+        return queue(request);
+    }
+
+    /**
+     * Queues an agent event for the user with the phone number msisdn.
+     * @param agentEvent The event to send.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the event created by the platform.
+     */
+    public CompletableFuture<AgentEvent> sendAgentEvent(AgentEvent agentEvent, String msisdn) {
+        RCSBusinessMessaging.Phones.AgentEvents.Create request;
+        try {
+            request = rbmApi.phones().agentEvents()
+                    .create(RbmApiHelper.convertToApiFormat(msisdn), agentEvent);
+        } catch (IOException e) {
+            return failedFuture(e);
+        }
+
+        request.setEventId(RandomMessageIdGenerator.randomUuid());
+
+        return queue(request);
+    }
+
+    /**
+     * Queues any RBM API request for the next batch.
+     * @param request The request to send.
+     * @return A future completed with the parsed response for this request.
+     */
+    public <T> CompletableFuture<T> queue(RCSBusinessMessagingRequest<T> request) {
+        PendingRequest<T> pendingRequest = new PendingRequest<T>(request);
+        enqueue(pendingRequest);
+        return pendingRequest.future;
+    }
+
+    /**
+     * Sends all waiting requests now instead of waiting for the batch to fill up.
+     */
+    public void flush() {
+        List<PendingRequest<?>> batch;
+        synchronized (lock) {
+            batch = drainPending();
+        }
+
+        if (batch != null) {
+            submitBatch(batch);
+        }
+    }
+
+    /**
+     * Sends any waiting requests and stops the sender. Batches already in flight complete
+     * normally; requests waiting for a retry when the sender is closed are failed.
+     */
+    @Override
+    public void close() {
+        List<PendingRequest<?>> batch;
+        synchronized (lock) {
+            closed = true;
+            batch = drainPending();
+        }
+
+        if (batch != null) {
+            executeBatch(batch);
+        }
+
+        scheduler.shutdown();
+
+        IllegalStateException closedException =
+                new IllegalStateException("the batching sender was closed before the retry");
+        for (PendingRequest<?> pendingRequest : awaitingRetry) {
+            awaitingRetry.remove(pendingRequest);
+            pendingRequest.future.completeExceptionally(closedException);
+        }
+    }
+
+    private void enqueue(PendingRequest<?> pendingRequest) {
+        List<PendingRequest<?>> batch = null;
+
+        synchronized (lock) {
+            if (closed) {
+                pendingRequest.future.completeExceptionally(
+                        new IllegalStateException("the batching sender has been closed"));
+                return;
+            }
+
+            pending.add(pendingRequest);
+
+            if (pending.size() >= maxBatchSize) {
+                batch = drainPending();
+            } else if (pending.size() == 1) {
+                // the first request of a batch starts the linger timer
+                lingerFlush = scheduler.schedule(this::flush, lingerMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (batch != null) {
+            submitBatch(batch);
+        }
+    }
+
+    /**
+     * Takes the waiting requests out of the queue. Must be called while holding the lock.
+     * @return The waiting requests, or null if there are none.
+     */
+    private List<PendingRequest<?>> drainPending() {
+        if (lingerFlush != null) {
+            lingerFlush.cancel(false);
+            lingerFlush = null;
+        }
+
+        if (pending.isEmpty()) {
+            return null;
+        }
+
+        List<PendingRequest<?>> batch = pending;
+        pending = new ArrayList<PendingRequest<?>>();
+        return batch;
+    }
+
+    private void submitBatch(List<PendingRequest<?>> batch) {
+        try {
+            scheduler.execute(() -> executeBatch(batch));
+        } catch (RejectedExecutionException e) {
+            for (PendingRequest<?> pendingRequest : batch) {
+                pendingRequest.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void executeBatch(List<PendingRequest<?>> batch) {
+        BatchRequest batchRequest = rbmApi.batch();
+
+        for (PendingRequest<?> pendingRequest : batch) {
+            try {
+                pendingRequest.queueInto(batchRequest);
+            } catch (IOException e) {
+                pendingRequest.future.completeExceptionally(e);
+            }
+        }
+
+        if (batchRequest.size() == 0) {
+            return;
+        }
+
+        try {
+            batchRequest.execute();
+        } catch (IOException e) {
+            // the batch as a whole failed, so every part without an answer shares its fate
+            boolean retryable = isRetryable(e);
+            for (PendingRequest<?> pendingRequest : batch) {
+                if (pendingRequest.awaitingResponse) {
+                    retryOrFail(pendingRequest, retryable, e);
+                }
+            }
+        }
+    }
+
+    private void retryOrFail(PendingRequest<?> pendingRequest, boolean retryable, Exception error) {
+        pendingRequest.awaitingResponse = false;
+
+        if (!retryable || pendingRequest.attempts >= maxAttempts) {
+            pendingRequest.future.completeExceptionally(error);
+            return;
+        }
+
+        long delayMillis = initialRetryDelayMillis << Math.min(pendingRequest.attempts - 1, 16);
+
+        awaitingRetry.add(pendingRequest);
+
+        try {
+            scheduler.schedule(() -> {
+                if (awaitingRetry.remove(pendingRequest)) {
+                    enqueue(pendingRequest);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            awaitingRetry.remove(pendingRequest);
+            pendingRequest.future.completeExceptionally(error);
+        }
+    }
+
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof HttpResponseException) {
+            return isRetryable(((HttpResponseException) e).getStatusCode());
+        }
+
+        // a rate limiter rejection or an interrupt would only happen again; other I/O errors
+        // are transient
+        return !(e instanceof RateLimitExceededException) && !(e instanceof InterruptedIOException);
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode == 500 || statusCode == 502
+                || statusCode == 503 || statusCode == 504;
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    /**
+     * A request waiting to be sent, together with the future its caller holds.
+     */
+    private class PendingRequest<T> extends JsonBatchCallback<T> {
+        final RCSBusinessMessagingRequest<T> request;
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+
+        // only touched by the thread executing the batch this request is part of
+        int attempts;
+        boolean awaitingResponse;
+
+        PendingRequest(RCSBusinessMessagingRequest<T> request) {
+            this.request = request;
+        }
+
+        void queueInto(BatchRequest batchRequest) throws IOException {
+            attempts++;
+            HttpRequest httpRequest = request.buildHttpRequest();
+
+            // parts are retried by the sender, in a later batch, so the retry handlers installed by
+            // the request initializer must not retry and back off within this one
+            httpRequest.setUnsuccessfulResponseHandler(null);
+            httpRequest.setIOExceptionHandler(null);
+            batchRequest.queue(httpRequest, request.getResponseClass(),
+                    GoogleJsonErrorContainer.class, this);
+            awaitingResponse = true;
+        }
+
+        @Override
+        public void onSuccess(T response, HttpHeaders responseHeaders) {
+            awaitingResponse = false;
+            future.complete(response);
+        }
+
+        @Override
+        public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+            HttpResponseException.Builder exception = new HttpResponseException.Builder(
+                    error.getCode(), error.getMessage(), responseHeaders)
+                    .setMessage(error.getCode() + " " + error.getMessage());
+
+            retryOrFail(this, isRetryable(error.getCode()),
+                    new GoogleJsonResponseException(exception, error));
+        }
+    }
+
+    /**
+     * Builder for {@link BatchingSender}.
+     */
+    public static final class Builder {
+        private final RCSBusinessMessaging rbmApi;
+        private int maxBatchSize = 100;
+        private long lingerMillis = 50;
+        private int maxAttempts = 3;
+        private long initialRetryDelayMillis = 500;
+        private int maxConcurrentBatches = 4;
+        private MessageIdGenerator messageIdGenerator = MessageIdGenerator.random();
+
+        private Builder(RCSBusinessMessaging rbmApi) {
+            this.rbmApi = rbmApi;
+        }
+
+        /**
+         * Sets the number of requests that triggers sending a batch. At most
+         * {@link BatchingSender#MAX_BATCH_SIZE}.
+         */
+        public Builder setMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1 || maxBatchSize > MAX_BATCH_SIZE) {
+                throw new IllegalArgumentException(
+                        "maxBatchSize must be between 1 and " + MAX_BATCH_SIZE);
+            }
+
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Sets how long the first request of a batch may wait for the batch to fill up.
+         */
+        public Builder setLingerMillis(long lingerMillis) {
+            this.lingerMillis = lingerMillis;
+            return this;
+        }
+
+        /**
+         * Sets how many times a request is sent before its failure is reported, including
+         * the first attempt.
+         */
+        public Builder setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * Sets the delay before the first retry of a failed part. The delay doubles with
+         * each further attempt.
+         */
+        public Builder setInitialRetryDelayMillis(long initialRetryDelayMillis) {
+            this.initialRetryDelayMillis = initialRetryDelayMillis;
+            return this;
+        }
+
+        /**
+         * Sets how many batches may be in flight at the same time.
+         */
+        public Builder setMaxConcurrentBatches(int maxConcurrentBatches) {
+            this.maxConcurrentBatches = maxConcurrentBatches;
+            return this;
+        }
+
+        /**
+         * Sets the strategy for the ids of queued agent messages. Random ids are used by
+         * default.
+         */
+        public Builder setMessageIdGenerator(MessageIdGenerator messageIdGenerator) {
+            this.messageIdGenerator = messageIdGenerator;
+            return this;
+        }
+
+        /** Builds a new instance of {@link BatchingSender}. */
+        public BatchingSender build() {
+            return new BatchingSender(this);
+        }
+    }
+}
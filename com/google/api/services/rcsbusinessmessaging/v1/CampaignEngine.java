@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Sends a campaign to a list of recipients read from a stream, one phone number per line,
+ * through a bounded number of parallel requests, and records the outcome for every recipient
+ * in a {@link CampaignJournal}.
+ *
+ * <p>Running a campaign again with the same journal skips the recipients whose final outcome
+ * was recorded, so a campaign interrupted by a crash resumes where it stopped, and recipients
+ * whose send failed with a transient error are sent to again. Message ids are
+ * derived from the campaign id and the phone number with
+ * {@link MessageIdGenerator#nameBased(String)}, so a recipient whose outcome was lost in the
+ * crash, or who is listed twice, is answered with ALREADY_EXISTS by the platform rather than
+ * messaged twice.</p>
+ */
+public class CampaignEngine {
+    private static final Logger logger = Logger.getLogger(CampaignEngine.class.getName());
+
+    // conflict status the platform answers with for a message id that was already used
+    private static final int ALREADY_EXISTS = 409;
+
+    private static final int REQUEST_TIMEOUT = 408;
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final RCSBusinessMessaging rbmApi;
+    private final AsyncRequestExecutor asyncRequestExecutor;
+    private final int maxInFlight;
+    private final long flushIntervalMillis;
+    private final int flushEveryRecords;
+    private final MediaPreUploader mediaPreUploader;
+
+    private CampaignEngine(Builder builder) {
+        this.rbmApi = builder.rbmApi;
+        this.asyncRequestExecutor = builder.asyncRequestExecutor;
+        this.maxInFlight = builder.asyncRequestExecutor != null
+                ? builder.asyncRequestExecutor.getMaxInFlight()
+                : builder.maxInFlight;
+        this.flushIntervalMillis = builder.flushIntervalMillis;
+        this.flushEveryRecords = builder.flushEveryRecords;
+        this.mediaPreUploader = builder.mediaPreUploader;
+    }
+
+    /**
+     * Creates a builder for an engine that sends through the given client.
+     * @param rbmApi The RBM API client to send with.
+     * @return The builder.
+     */
+    public static Builder newBuilder(RCSBusinessMessaging rbmApi) {
+        return new Builder(rbmApi);
+    }
+
+    /**
+     * Sends the same message to every recipient in a file. The message is serialized once,
+     * as an {@link AgentMessageTemplate}, after its media is uploaded if the engine has a
+     * {@link MediaPreUploader}.
+     * @param campaignId Identifies the campaign; use the same id when resuming it.
+     * @param recipients A file with one phone number in E.164 format per line.
+     * @param journal The journal file to record outcomes in and resume from.
+     * @param agentMessage The message to send.
+     * @return What happened during this run.
+     */
+    public CampaignSummary run(String campaignId,
+                               Path recipients,
+                               Path journal,
+                               AgentMessage agentMessage)
+            throws IOException, InterruptedException {
+        if (mediaPreUploader != null) {
+            agentMessage = mediaPreUploader.preUpload(agentMessage);
+        }
+
+        AgentMessageTemplate template =
+                AgentMessageTemplate.compile(agentMessage, rbmApi.getJsonFactory());
+
+        try (InputStream recipientStream = Files.newInputStream(recipients)) {
+            return run(campaignId, recipientStream, journal, template,
+                    msisdn -> Collections.<String, String>emptyMap());
+        }
+    }
+
+    /**
+     * Sends a message template to each recipient read from a stream, with the placeholder
+     * values for each recipient. Blank lines are skipped and do not count as recipients.
+     * @param campaignId Identifies the campaign; use the same id when resuming it.
+     * @param recipients A stream with one phone number in E.164 format per line, in the same
+     * order on every run of the campaign.
+     * @param journal The journal file to record outcomes in and resume from.
+     * @param template The message to send.
+     * @param placeholderValues Returns the placeholder values for a phone number.
+     * @return What happened during this run.
+     * @throws IOException If the recipients cannot be read or the journal cannot be written.
+     * Send failures are recorded in the journal instead.
+     */
+    public CampaignSummary run(String campaignId,
+                               InputStream recipients,
+                               Path journal,
+                               AgentMessageTemplate template,
+                               Function<String, Map<String, String>> placeholderValues)
+            throws IOException, InterruptedException {
+        return run(campaignId, recipients, journal, (msisdn, messageId) -> {
+            Map<String, String> values = placeholderValues.apply(msisdn);
+            return () -> template.send(rbmApi, msisdn, messageId, values);
+        });
+    }
+
+    /**
+     * Sends a message built for each recipient read from a stream. Blank lines are skipped
+     * and do not count as recipients.
+     * @param campaignId Identifies the campaign; use the same id when resuming it.
+     * @param recipients A stream with one phone number in E.164 format per line, in the same
+     * order on every run of the campaign.
+     * @param journal The journal file to record outcomes in and resume from.
+     * @param messageFactory Builds the message for a phone number.
+     * @return What happened during this run.
+     * @throws IOException If the recipients cannot be read or the journal cannot be written.
+     * Send failures are recorded in the journal instead.
+     */
+    public CampaignSummary run(String campaignId,
+                               InputStream recipients,
+                               Path journal,
+                               Function<String, AgentMessage> messageFactory)
+            throws IOException, InterruptedException {
+        return run(campaignId, recipients, journal, (msisdn, messageId) -> rbmApi
+                .phones()
+                .agentMessages()
+                .create(RbmApiHelper.convertToApiFormat(msisdn), messageFactory.apply(msisdn))
+                .setMessageId(messageId)::execute);
+    }
+
+    private CampaignSummary run(String campaignId,
+                                InputStream recipients,
+                                Path journal,
+                                RecipientSender recipientSender)
+            throws IOException, InterruptedException {
+        ExecutorService ownedExecutorService = null;
+        AsyncRequestExecutor executor = asyncRequestExecutor;
+        if (executor == null) {
+            ownedExecutorService = Executors.newFixedThreadPool(maxInFlight, runnable -> {
+                Thread thread = new Thread(runnable, "rbm-campaign-sender");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor = new AsyncRequestExecutor(ownedExecutorService, maxInFlight);
+        }
+
+        MessageIdGenerator messageIdGenerator = MessageIdGenerator.nameBased(campaignId);
+        Semaphore slots = new Semaphore(maxInFlight);
+        AtomicReference<IOException> journalFailure = new AtomicReference<IOException>();
+        LongAdder sent = new LongAdder();
+        LongAdder alreadySent = new LongAdder();
+        LongAdder failed = new LongAdder();
+        LongAdder failedRetryable = new LongAdder();
+        long recipientCount = 0;
+        long skipped = 0;
+
+        try (CampaignJournal campaignJournal =
+                     CampaignJournal.open(journal, flushIntervalMillis, flushEveryRecords);
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(recipients, StandardCharsets.UTF_8))) {
+            logger.info("Starting campaign " + campaignId + ", "
+                    + campaignJournal.getCompletedCount() + " recipients already done");
+
+            try {
+                String line;
+                while ((line = reader.readLine()) != null && journalFailure.get() == null) {
+                    String msisdn = line.trim();
+                    if (msisdn.isEmpty()) {
+                        continue;
+                    }
+
+                    long recipientIndex = recipientCount++;
+                    if (campaignJournal.isCompleted(recipientIndex)) {
+                        skipped++;
+                        continue;
+                    }
+
+                    String messageId = messageIdGenerator.newMessageId(msisdn);
+                    Callable<AgentMessage> send = recipientSender.prepare(msisdn, messageId);
+
+                    // blocks the reader while the pipeline is full
+                    slots.acquire();
+
+                    executor.submit(send).whenComplete((response, failure) -> {
+                        try {
+                            CampaignRecord record = toRecord(
+                                    recipientIndex, msisdn, messageId, failure);
+                            campaignJournal.append(record);
+
+                            if (record.getOutcome() == CampaignOutcome.SENT) {
+                                sent.increment();
+                            } else if (record.getOutcome() == CampaignOutcome.ALREADY_SENT) {
+                                alreadySent.increment();
+                            } else if (record.getOutcome() == CampaignOutcome.FAILED_RETRYABLE) {
+                                failedRetryable.increment();
+                            } else {
+                                failed.increment();
+                            }
+                        } catch (IOException e) {
+                            journalFailure.compareAndSet(null, e);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                }
+            } finally {
+                // wait for every request in flight to be journaled before the journal closes
+                slots.acquireUninterruptibly(maxInFlight);
+            }
+        } finally {
+            if (ownedExecutorService != null) {
+                ownedExecutorService.shutdown();
+            }
+        }
+
+        if (journalFailure.get() != null) {
+            throw journalFailure.get();
+        }
+
+        CampaignSummary summary = new CampaignSummary(
+                recipientCount, skipped, sent.sum(), alreadySent.sum(), failed.sum(),
+                failedRetryable.sum());
+        logger.info("Finished campaign " + campaignId + ": " + summary);
+
+        return summary;
+    }
+
+    private static CampaignRecord toRecord(long recipientIndex,
+                                           String msisdn,
+                                           String messageId,
+                                           Throwable failure) {
+        if (failure == null) {
+            return new CampaignRecord(recipientIndex, msisdn, messageId, CampaignOutcome.SENT, 200);
+        }
+
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause()
+                : failure;
+
+        if (cause instanceof HttpResponseException) {
+            int statusCode = ((HttpResponseException) cause).getStatusCode();
+            CampaignOutcome outcome;
+            if (statusCode == ALREADY_EXISTS) {
+                outcome = CampaignOutcome.ALREADY_SENT;
+            } else if (statusCode == REQUEST_TIMEOUT || statusCode == TOO_MANY_REQUESTS
+                    || statusCode >= 500) {
+                outcome = CampaignOutcome.FAILED_RETRYABLE;
+            } else {
+                outcome = CampaignOutcome.FAILED;
+            }
+
+            return new CampaignRecord(recipientIndex, msisdn, messageId, outcome, statusCode);
+        }
+
+        // I/O errors without a response, rate limiter rejections and interrupts included, are
+        // transient; anything else came from building the message and would only fail again
+        CampaignOutcome outcome = cause instanceof IOException
+                ? CampaignOutcome.FAILED_RETRYABLE
+                : CampaignOutcome.FAILED;
+
+        return new CampaignRecord(recipientIndex, msisdn, messageId, outcome, 0);
+    }
+
+    /**
+     * Prepares the call that sends the campaign message to one recipient.
+     */
+    private interface RecipientSender {
+        Callable<AgentMessage> prepare(String msisdn, String messageId) throws IOException;
+    }
+
+    /**
+     * Builder for {@link CampaignEngine}.
+     */
+    public static final class Builder {
+        private final RCSBusinessMessaging rbmApi;
+        private AsyncRequestExecutor asyncRequestExecutor;
+        private int maxInFlight = 64;
+        private long flushIntervalMillis = CampaignJournal.DEFAULT_FLUSH_INTERVAL_MILLIS;
+        private int flushEveryRecords = CampaignJournal.DEFAULT_FLUSH_EVERY_RECORDS;
+        private MediaPreUploader mediaPreUploader;
+
+        private Builder(RCSBusinessMessaging rbmApi) {
+            this.rbmApi = rbmApi;
+        }
+
+        /**
+         * Sets the executor to send on, for example one backed by virtual threads. Its
+         * in-flight limit bounds the pipeline. By default each run uses its own thread pool.
+         */
+        public Builder setAsyncRequestExecutor(AsyncRequestExecutor asyncRequestExecutor) {
+            this.asyncRequestExecutor = asyncRequestExecutor;
+            return this;
+        }
+
+        /**
+         * Sets how many messages may be in flight at once when no executor is set.
+         */
+        public Builder setMaxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be at least 1");
+            }
+
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Sets how often journaled outcomes are forced to disk.
+         */
+        public Builder setFlushIntervalMillis(long flushIntervalMillis) {
+            this.flushIntervalMillis = flushIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Sets the number of journaled outcomes after which they are forced to disk without
+         * waiting for the interval.
+         */
+        public Builder setFlushEveryRecords(int flushEveryRecords) {
+            this.flushEveryRecords = flushEveryRecords;
+            return this;
+        }
+
+        /**
+         * Sets the uploader that the media of a campaign message is uploaded with before the
+         * first send, so that recipients are not sent media the platform still has to fetch.
+         */
+        public Builder setMediaPreUploader(MediaPreUploader mediaPreUploader) {
+            this.mediaPreUploader = mediaPreUploader;
+            return this;
+        }
+
+        /** Builds a new instance of {@link CampaignEngine}. */
+        public CampaignEngine build() {
+            return new CampaignEngine(this);
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of the per-recipient outcomes of a campaign, from
+ * which an interrupted campaign can be resumed.
+ *
+ * <p>Records are written into a mapped region of the file, so an append is a memory copy
+ * rather than a system call. The region is forced to disk by a background flusher at a fixed
+ * interval and after a number of records, never once per record. Each record is prefixed
+ * with its length and CRC32; when the journal is reopened, records are read back up to the
+ * first torn or missing one, and appending continues from there.</p>
+ *
+ * <p>A recipient counts as completed once a record with a {@linkplain CampaignOutcome#isFinal()
+ * final} outcome is appended for it; a {@link CampaignOutcome#FAILED_RETRYABLE} record leaves
+ * the recipient to be sent to again.</p>
+ *
+ * <p>Records a crash interrupted before they were flushed are lost, and their recipients are
+ * sent to again on resume; {@link CampaignEngine} derives message ids from the campaign id
+ * and the phone number with {@link MessageIdGenerator#nameBased(String)}, so that the platform
+ * recognizes such repeats.</p>
+ */
+public class CampaignJournal implements Closeable {
+    private static final Logger logger = Logger.getLogger(CampaignJournal.class.getName());
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 200;
+    public static final int DEFAULT_FLUSH_EVERY_RECORDS = 1000;
+
+    // "RBMJ" followed by the format version
+    private static final int MAGIC = 0x52424d4a;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    // length and CRC32 in front of every record
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_STRING_BYTES = 1024;
+    private static final int MAX_RECORD_SIZE = 8 + 4 + 1 + 2 * (2 + MAX_STRING_BYTES);
+
+    // size of each mapped region of the file
+    private static final int SEGMENT_SIZE = 16 << 20;
+
+    private static final CampaignOutcome[] OUTCOMES = CampaignOutcome.values();
+
+    private final FileChannel channel;
+    private final int flushEveryRecords;
+    private final ScheduledExecutorService flusher;
+
+    // guarded by this
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private final BitSet completed;
+    private final ByteBuffer recordBuffer = ByteBuffer.allocate(MAX_RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+    private int unflushedRecords;
+    private boolean closed;
+
+    // the segment the flusher forces, replaced when the journal moves to a new segment
+    private volatile MappedByteBuffer flushSegment;
+
+    private CampaignJournal(FileChannel channel,
+                            long position,
+                            BitSet completed,
+                            long flushIntervalMillis,
+                            int flushEveryRecords) throws IOException {
+        this.channel = channel;
+        this.completed = completed;
+        this.flushEveryRecords = flushEveryRecords;
+
+        long fileSize = channel.size();
+        mapSegment(position);
+
+        // clear whatever a torn write left behind, so it is not mistaken for records later
+        for (long offset = position; offset < fileSize && offset - position < SEGMENT_SIZE; offset++) {
+            segment.put((int) (offset - segmentStart), (byte) 0);
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rbm-campaign-journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        flusher.scheduleWithFixedDelay(this::forceQuietly,
+                flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the journal at the path with the default flush settings, creating it if it does
+     * not exist.
+     * @param path The journal file.
+     * @return The journal, positioned after its last intact record.
+     */
+    public static CampaignJournal open(Path path) throws IOException {
+        return open(path, DEFAULT_FLUSH_INTERVAL_MILLIS, DEFAULT_FLUSH_EVERY_RECORDS);
+    }
+
+    /**
+     * Opens the journal at the path, creating it if it does not exist.
+     * @param path The journal file.
+     * @param flushIntervalMillis How often appended records are forced to disk.
+     * @param flushEveryRecords The number of records after which they are forced to disk
+     * without waiting for the interval.
+     * @return The journal, positioned after its last intact record.
+     */
+    public static CampaignJournal open(Path path,
+                                       long flushIntervalMillis,
+                                       int flushEveryRecords) throws IOException {
+        if (flushIntervalMillis <= 0 || flushEveryRecords < 1) {
+            throw new IllegalArgumentException("flush settings must be positive");
+        }
+
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try {
+            BitSet completed = new BitSet();
+            long position;
+
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION);
+                // through Buffer, which has these methods on Java 8 as well
+                ((Buffer) header).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                position = FILE_HEADER_SIZE;
+            } else {
+                position = replay(channel, record -> {
+                    if (record.getOutcome().isFinal()) {
+                        completed.set(toBitIndex(record.getRecipientIndex()));
+                    }
+                });
+            }
+
+            return new CampaignJournal(
+                    channel, position, completed, flushIntervalMillis, flushEveryRecords);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads every intact record of a journal, for example to report on a campaign.
+     * @param path The journal file.
+     * @param consumer Receives the records in the order they were appended.
+     */
+    public static void read(Path path, Consumer<CampaignRecord> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            replay(channel, consumer);
+        }
+    }
+
+    /**
+     * @param recipientIndex The position of the recipient in the recipients file.
+     * @return Whether a final outcome has been recorded for the recipient.
+     */
+    public synchronized boolean isCompleted(long recipientIndex) {
+        return completed.get(toBitIndex(recipientIndex));
+    }
+
+    /**
+     * @return The number of recipients with a recorded final outcome.
+     */
+    public synchronized int getCompletedCount() {
+        return completed.cardinality();
+    }
+
+    /**
+     * Appends a record. It is durable once the journal has next been flushed.
+     * @param record The outcome to record.
+     */
+    public void append(CampaignRecord record) throws IOException {
+        boolean flushNow;
+
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("campaign journal is closed");
+            }
+
+            ByteBuffer payload = encode(record);
+            int recordSize = RECORD_HEADER_SIZE + payload.remaining();
+
+            if (segment.remaining() < recordSize) {
+                // the old segment is forced here, so the flusher only ever sees the newest
+                segment.force();
+                mapSegment(segmentStart + segment.position());
+            }
+
+            crc.reset();
+            crc.update(payload.array(), 0, payload.limit());
+
+            segment.putInt(payload.remaining());
+            segment.putInt((int) crc.getValue());
+            segment.put(payload);
+
+            if (record.getOutcome().isFinal()) {
+                completed.set(toBitIndex(record.getRecipientIndex()));
+            }
+
+            flushNow = ++unflushedRecords >= flushEveryRecords;
+            if (flushNow) {
+                unflushedRecords = 0;
+            }
+        }
+
+        if (flushNow) {
+            flushSegment.force();
+        }
+    }
+
+    /**
+     * Forces every appended record to disk.
+     */
+    public void flush() {
+        flushSegment.force();
+    }
+
+    /**
+     * Flushes the journal and closes its file. The file keeps the zeroed tail of its last
+     * mapped segment, which is ignored when it is read.
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdownNow();
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            segment.force();
+            channel.close();
+        }
+    }
+
+    private void mapSegment(long position) throws IOException {
+        segmentStart = position;
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, position, SEGMENT_SIZE);
+        flushSegment = segment;
+    }
+
+    private void forceQuietly() {
+        try {
+            flushSegment.force();
+        } catch (RuntimeException e) {
+            // keep the flusher scheduled, the next flush may well succeed
+            logger.log(Level.WARNING, "unable to flush the campaign journal", e);
+        }
+    }
+
+    private ByteBuffer encode(CampaignRecord record) {
+        ((Buffer) recordBuffer).clear();
+        recordBuffer.putLong(record.getRecipientIndex());
+        recordBuffer.putInt(record.getHttpStatusCode());
+        recordBuffer.put((byte) record.getOutcome().ordinal());
+        putString(recordBuffer, record.getMsisdn());
+        putString(recordBuffer, record.getMessageId());
+        ((Buffer) recordBuffer).flip();
+
+        return recordBuffer;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (bytes.length > MAX_STRING_BYTES) {
+            throw new IllegalArgumentException("journal values are limited to "
+                    + MAX_STRING_BYTES + " bytes");
+        }
+
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Reads records from the start of the journal until the first torn or missing one.
+     * @return The position after the last intact record.
+     */
+    private static long replay(FileChannel channel, Consumer<CampaignRecord> consumer)
+            throws IOException {
+        channel.position(0);
+
+        // the stream is not closed, that would close the channel
+        InputStream stream = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+        DataInputStream input = new DataInputStream(stream);
+
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("not a campaign journal");
+        }
+
+        long position = FILE_HEADER_SIZE;
+        byte[] payload = new byte[MAX_RECORD_SIZE];
+        CRC32 crc = new CRC32();
+
+        try {
+            while (true) {
+                int length = input.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+
+                int expectedCrc = input.readInt();
+                input.readFully(payload, 0, length);
+
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != expectedCrc) {
+                    break;
+                }
+
+                consumer.accept(decode(ByteBuffer.wrap(payload, 0, length)));
+                position += RECORD_HEADER_SIZE + length;
+            }
+        } catch (EOFException e) {
+            // a record cut short by the end of the file is a torn write
+        }
+
+        return position;
+    }
+
+    private static CampaignRecord decode(ByteBuffer payload) {
+        long recipientIndex = payload.getLong();
+        int httpStatusCode = payload.getInt();
+        CampaignOutcome outcome = OUTCOMES[payload.get()];
+        String msisdn = getString(payload);
+        String messageId = getString(payload);
+
+        return new CampaignRecord(recipientIndex, msisdn, messageId, outcome, httpStatusCode);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        String value = new String(
+                buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        ((Buffer) buffer).position(buffer.position() + length);
+
+        return value;
+    }
+
+    private static int toBitIndex(long recipientIndex) {
+        if (recipientIndex < 0 || recipientIndex > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("recipient index out of range: " + recipientIndex);
+        }
+
+        return (int) recipientIndex;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+/**
+ * The outcome of sending a campaign message to one recipient.
+ */
+public enum CampaignOutcome {
+    /**
+     * The platform accepted the message.
+     */
+    SENT,
+
+    /**
+     * The platform already had a message with the same id, sent before the campaign was
+     * resumed.
+     */
+    ALREADY_SENT,
+
+    /**
+     * The platform rejected the message for good, for example with a 400.
+     */
+    FAILED,
+
+    /**
+     * The message could not be sent because of a transient error, such as a 503, a 429 or the
+     * client-side rate limiter. It is sent again, with the same message id, when the campaign
+     * is resumed.
+     */
+    FAILED_RETRYABLE;
+
+    /**
+     * @return Whether the recipient is done with, so that a resumed campaign skips them.
+     */
+    public boolean isFinal() {
+        return this != FAILED_RETRYABLE;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+/**
+ * The journaled result of sending a campaign message to one recipient.
+ */
+public class CampaignRecord {
+    private final long recipientIndex;
+    private final String msisdn;
+    private final String messageId;
+    private final CampaignOutcome outcome;
+    private final int httpStatusCode;
+
+    /**
+     * @param recipientIndex The position of the recipient in the recipients file, from 0.
+     * @param msisdn The phone number of the recipient.
+     * @param messageId The id the message was sent with.
+     * @param outcome The outcome of the send.
+     * @param httpStatusCode The HTTP status of the last attempt, or 0 if no response arrived.
+     */
+    public CampaignRecord(long recipientIndex,
+                          String msisdn,
+                          String messageId,
+                          CampaignOutcome outcome,
+                          int httpStatusCode) {
+        this.recipientIndex = recipientIndex;
+        this.msisdn = msisdn;
+        this.messageId = messageId;
+        this.outcome = outcome;
+        this.httpStatusCode = httpStatusCode;
+    }
+
+    public long getRecipientIndex() {
+        return recipientIndex;
+    }
+
+    public String getMsisdn() {
+        return msisdn;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public CampaignOutcome getOutcome() {
+        return outcome;
+    }
+
+    public int getHttpStatusCode() {
+        return httpStatusCode;
+    }
+
+    @Override
+    public String toString() {
+        return "CampaignRecord{recipientIndex=" + recipientIndex
+                + ", messageId=" + messageId
+                + ", outcome=" + outcome
+                + ", httpStatusCode=" + httpStatusCode + "}";
+    }
+}
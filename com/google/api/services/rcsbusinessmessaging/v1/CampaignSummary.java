@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+/**
+ * Counts of what happened during a run of a campaign.
+ */
+public class CampaignSummary {
+    private final long recipients;
+    private final long skipped;
+    private final long sent;
+    private final long alreadySent;
+    private final long failed;
+    private final long failedRetryable;
+
+    CampaignSummary(long recipients,
+                    long skipped,
+                    long sent,
+                    long alreadySent,
+                    long failed,
+                    long failedRetryable) {
+        this.recipients = recipients;
+        this.skipped = skipped;
+        this.sent = sent;
+        this.alreadySent = alreadySent;
+        this.failed = failed;
+        this.failedRetryable = failedRetryable;
+    }
+
+    /**
+     * @return The number of recipients read from the recipients file.
+     */
+    public long getRecipients() {
+        return recipients;
+    }
+
+    /**
+     * @return The number of recipients skipped because a previous run recorded their outcome.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * @return The number of messages the platform already had, sent by an interrupted run.
+     */
+    public long getAlreadySent() {
+        return alreadySent;
+    }
+
+    /**
+     * @return The number of messages the platform rejected for good.
+     */
+    public long getFailed() {
+        return failed;
+    }
+
+    /**
+     * @return The number of messages that failed with a transient error, which a resumed run
+     * sends again.
+     */
+    public long getFailedRetryable() {
+        return failedRetryable;
+    }
+
+    @Override
+    public String toString() {
+        return "CampaignSummary{recipients=" + recipients
+                + ", skipped=" + skipped
+                + ", sent=" + sent
+                + ", alreadySent=" + alreadySent
+                + ", failed=" + failed
+                + ", failedRetryable=" + failedRetryable + "}";
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Capabilities;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Feature;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches the RBM features of phone numbers so that choosing what to send a user does not
+ * cost a {@code Phones.GetCapabilities} call per message.
+ *
+ * <p>Features are held as a bitset over {@link Feature}. Numbers that are not RCS reachable
+ * (the API answers 404) are cached as well, usually for a shorter time. Concurrent lookups of
+ * a number that is not cached share a single API call, and once the cache grows past its
+ * maximum size the entries closest to expiry are evicted.</p>
+ */
+public class CapabilityCache {
+    public static final long DEFAULT_POSITIVE_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    private static final Feature[] FEATURES = Feature.values();
+
+    private final RCSBusinessMessaging rbmApi;
+    private final long positiveTtlNanos;
+    private final long negativeTtlNanos;
+    private final int maxSize;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final Map<String, CompletableFuture<Entry>> pendingLoads =
+            new ConcurrentHashMap<String, CompletableFuture<Entry>>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    private CapabilityCache(Builder builder) {
+        this.rbmApi = builder.rbmApi;
+        this.positiveTtlNanos = TimeUnit.MILLISECONDS.toNanos(builder.positiveTtlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(builder.negativeTtlMillis);
+        this.maxSize = builder.maxSize;
+    }
+
+    /**
+     * Creates a builder for a cache that looks up capabilities through the given client.
+     * @param rbmApi The RBM API client to check capabilities with.
+     * @return The builder.
+     */
+    public static Builder newBuilder(RCSBusinessMessaging rbmApi) {
+        return new Builder(rbmApi);
+    }
+
+    /**
+     * Checks whether the device associated with the phone number is RCS enabled.
+     * @param msisdn The phone number in E.164 format.
+     * @return True if the number can receive RBM messages.
+     */
+    public boolean isReachable(String msisdn) throws IOException {
+        return getEntry(msisdn).reachable;
+    }
+
+    /**
+     * Checks whether the device associated with the phone number supports a feature.
+     * @param msisdn The phone number in E.164 format.
+     * @param feature The feature to check for.
+     * @return True if the number is RCS enabled and supports the feature.
+     */
+    public boolean hasFeature(String msisdn, Feature feature) throws IOException {
+        return (getEntry(msisdn).features & bit(feature)) != 0;
+    }
+
+    /**
+     * Returns the features supported by the device associated with the phone number.
+     * @param msisdn The phone number in E.164 format.
+     * @return The supported features, empty if the number is not RCS enabled.
+     */
+    public Set<Feature> getFeatures(String msisdn) throws IOException {
+        int features = getEntry(msisdn).features;
+
+        EnumSet<Feature> featureSet = EnumSet.noneOf(Feature.class);
+        for (Feature feature : FEATURES) {
+            if ((features & bit(feature)) != 0) {
+                featureSet.add(feature);
+            }
+        }
+
+        return featureSet;
+    }
+
+    /**
+     * Caches capabilities obtained elsewhere, for example from a capability callback.
+     * @param msisdn The phone number in E.164 format.
+     * @param capabilities The capabilities of the number.
+     */
+    public void put(String msisdn, Capabilities capabilities) {
+        store(msisdn, new Entry(true, toBits(capabilities.getFeatures()),
+                System.nanoTime() + positiveTtlNanos));
+    }
+
+    /**
+     * Removes the cached capabilities of a phone number, for example after a message to it
+     * failed because the number is no longer RCS enabled.
+     * @param msisdn The phone number in E.164 format.
+     */
+    public void invalidate(String msisdn) {
+        entries.remove(msisdn);
+    }
+
+    /**
+     * Removes every cached entry.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * @return The number of cached phone numbers, including expired entries not yet evicted.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of lookups answered from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return The number of lookups that needed a capability check, including those that
+     * shared a call already in flight.
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    private Entry getEntry(String msisdn) throws IOException {
+        Entry entry = entries.get(msisdn);
+        if (entry != null && !entry.isExpired(System.nanoTime())) {
+            hitCount.increment();
+            return entry;
+        }
+
+        missCount.increment();
+
+        // only one caller per number checks the API, the others wait for its answer
+        CompletableFuture<Entry> load = new CompletableFuture<Entry>();
+        CompletableFuture<Entry> pendingLoad = pendingLoads.putIfAbsent(msisdn, load);
+        if (pendingLoad != null) {
+            return await(pendingLoad);
+        }
+
+        try {
+            // another caller may have finished loading since the first lookup
+            entry = entries.get(msisdn);
+            if (entry == null || entry.isExpired(System.nanoTime())) {
+                entry = load(msisdn);
+                store(msisdn, entry);
+            }
+
+            load.complete(entry);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            pendingLoads.remove(msisdn, load);
+        }
+    }
+
+    private Entry load(String msisdn) throws IOException {
+        RCSBusinessMessaging.Phones.GetCapabilities capabilityCheck = rbmApi
+                .phones()
+                .getCapabilities(RbmApiHelper.convertToApiFormat(msisdn));
+
+        capabilityCheck.setRequestId(RandomMessageIdGenerator.randomUuid());
+
+        try {
+            Capabilities capabilities = capabilityCheck.execute();
+
+            return new Entry(true, toBits(capabilities.getFeatures()),
+                    System.nanoTime() + positiveTtlNanos);
+        } catch (GoogleJsonResponseException e) {
+            // the platform answers 404 for numbers that are not RCS enabled
+            if (e.getStatusCode() == 404) {
+                return new Entry(false, 0, System.nanoTime() + negativeTtlNanos);
+            }
+
+            throw e;
+        }
+    }
+
+    private static Entry await(CompletableFuture<Entry> pendingLoad) throws IOException {
+        try {
+            return pendingLoad.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a capability check");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    private void store(String msisdn, Entry entry) {
+        entries.put(msisdn, entry);
+
+        if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Drops expired entries, then the entries closest to expiry until the cache is back to
+     * 90% of its maximum size, or one below it for small caches, so that the sort is paid for
+     * once per many insertions.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long now = System.nanoTime();
+            entries.values().removeIf(entry -> entry.isExpired(now));
+
+            int excess = entries.size() - (maxSize - Math.max(1, maxSize / 10));
+            if (excess <= 0) {
+                return;
+            }
+
+            List<Map.Entry<String, Entry>> candidates =
+                    new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+            candidates.sort((a, b) -> Long.compare(
+                    a.getValue().expiresAtNanos - now, b.getValue().expiresAtNanos - now));
+
+            for (int i = 0; i < excess && i < candidates.size(); i++) {
+                entries.remove(candidates.get(i).getKey(), candidates.get(i).getValue());
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    private static int toBits(List<String> features) {
+        int bits = 0;
+
+        if (features != null) {
+            for (String feature : features) {
+                try {
+                    bits |= bit(Feature.valueOf(feature));
+                } catch (IllegalArgumentException e) {
+                    // features added to the API after this library are ignored
+                }
+            }
+        }
+
+        return bits;
+    }
+
+    private static int bit(Feature feature) {
+        return 1 << feature.ordinal();
+    }
+
+    /**
+     * The cached capabilities of one phone number.
+     */
+    private static class Entry {
+        final boolean reachable;
+        final int features;
+        final long expiresAtNanos;
+
+        Entry(boolean reachable, int features, long expiresAtNanos) {
+            this.reachable = reachable;
+            this.features = features;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+    }
+
+    /**
+     * Builder for {@link CapabilityCache}.
+     */
+    public static final class Builder {
+        private final RCSBusinessMessaging rbmApi;
+        private long positiveTtlMillis = DEFAULT_POSITIVE_TTL_MILLIS;
+        private long negativeTtlMillis = DEFAULT_NEGATIVE_TTL_MILLIS;
+        private int maxSize = DEFAULT_MAX_SIZE;
+
+        private Builder(RCSBusinessMessaging rbmApi) {
+            this.rbmApi = rbmApi;
+        }
+
+        /**
+         * Sets how long the features of an RCS enabled number are cached.
+         */
+        public Builder setPositiveTtlMillis(long positiveTtlMillis) {
+            this.positiveTtlMillis = positiveTtlMillis;
+            return this;
+        }
+
+        /**
+         * Sets how long a number that is not RCS enabled is remembered as such.
+         */
+        public Builder setNegativeTtlMillis(long negativeTtlMillis) {
+            this.negativeTtlMillis = negativeTtlMillis;
+            return this;
+        }
+
+        /**
+         * Sets the number of phone numbers above which entries are evicted.
+         */
+        public Builder setMaxSize(int maxSize) {
+            if (maxSize < 1) {
+                throw new IllegalArgumentException("maxSize must be positive");
+            }
+
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public CapabilityCache build() {
+            if (positiveTtlMillis < 0 || negativeTtlMillis < 0) {
+                throw new IllegalArgumentException("TTLs cannot be negative");
+            }
+
+            return new CapabilityCache(this);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Capabilities;
+import com.google.api.services.rcsbusinessmessaging.v1.model.RequestCapabilityCallbackRequest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Matches the results of asynchronous capability checks, which arrive on the agent's webhook,
+ * to the {@code Capability.RequestCapabilityCallback} calls that asked for them.
+ *
+ * <p>Every check is registered under its request id and handed back as a future. Feed the
+ * webhook payloads to {@link #handleCallback(String)} (or the parsed result to
+ * {@link #complete(String, Capabilities)}) to complete the futures; checks that get no answer
+ * within the timeout fail with a {@link TimeoutException}.</p>
+ *
+ * <p>All checks share one timeout, so they expire in the order they were registered. A
+ * registered check is a single object, indexed by a concurrent map and queued for expiry in
+ * a lock-free queue, and the sweeper only visits checks that have expired, which keeps
+ * millions of outstanding checks cheap to hold.</p>
+ */
+public class CapabilityCallbackCorrelator implements Closeable {
+    public static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final RCSBusinessMessaging rbmApi;
+    private final long timeoutNanos;
+    private final CapabilityCache capabilityCache;
+
+    private final Map<String, PendingCheck> pendingChecks;
+    private final Queue<PendingCheck> expiryQueue = new ConcurrentLinkedQueue<PendingCheck>();
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * Creates a correlator with the default timeout.
+     * @param rbmApi The RBM API client to request capability callbacks with.
+     */
+    public CapabilityCallbackCorrelator(RCSBusinessMessaging rbmApi) {
+        this(rbmApi, DEFAULT_TIMEOUT_MILLIS, null, 16);
+    }
+
+    /**
+     * Creates a correlator.
+     * @param rbmApi The RBM API client to request capability callbacks with.
+     * @param timeoutMillis How long to wait for the result of a check.
+     * @param capabilityCache A cache to store the results in, or null for none.
+     * @param expectedPendingChecks The number of checks expected to be outstanding at once,
+     * used to size the index up front.
+     */
+    public CapabilityCallbackCorrelator(RCSBusinessMessaging rbmApi,
+                                        long timeoutMillis,
+                                        CapabilityCache capabilityCache,
+                                        int expectedPendingChecks) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be positive");
+        }
+
+        this.rbmApi = rbmApi;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.capabilityCache = capabilityCache;
+        this.pendingChecks = new ConcurrentHashMap<String, PendingCheck>(expectedPendingChecks);
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rbm-capability-callback-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // sweep often enough that checks fail close to their deadline
+        long sweepIntervalMillis = Math.max(10, Math.min(1000, timeoutMillis / 10));
+        sweeper.scheduleWithFixedDelay(this::expireChecks,
+                sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Requests a capability callback for the phone number.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the capabilities once the callback arrives.
+     * @throws IOException If the callback could not be requested.
+     */
+    public CompletableFuture<Capabilities> requestCapabilities(String msisdn) throws IOException {
+        String requestId = RandomMessageIdGenerator.randomUuid();
+        CompletableFuture<Capabilities> result = register(requestId, msisdn);
+
+        RequestCapabilityCallbackRequest capabilityCallbackRequest =
+                new RequestCapabilityCallbackRequest().setRequestId(requestId);
+
+        try {
+            rbmApi.phones()
+                    .capability()
+                    .requestCapabilityCallback(
+                            RbmApiHelper.convertToApiFormat(msisdn), capabilityCallbackRequest)
+                    .execute();
+        } catch (IOException | RuntimeException e) {
+            PendingCheck pendingCheck = pendingChecks.remove(requestId);
+            if (pendingCheck != null) {
+                pendingCheck.completeExceptionally(e);
+            }
+
+            throw e;
+        }
+
+        return result;
+    }
+
+    /**
+     * Registers a capability check requested elsewhere, for example through a
+     * {@link BatchingSender}.
+     * @param requestId The request id the check was requested with.
+     * @param msisdn The phone number in E.164 format, or null if the result should not be
+     * cached.
+     * @return A future completed with the capabilities once the callback arrives.
+     */
+    public CompletableFuture<Capabilities> register(String requestId, String msisdn) {
+        PendingCheck pendingCheck =
+                new PendingCheck(requestId, msisdn, System.nanoTime() + timeoutNanos);
+
+        if (pendingChecks.putIfAbsent(requestId, pendingCheck) != null) {
+            throw new IllegalArgumentException("request id " + requestId + " is already registered");
+        }
+        expiryQueue.add(pendingCheck);
+
+        return pendingCheck;
+    }
+
+    /**
+     * Completes the check with the given request id.
+     * @param requestId The request id of the check.
+     * @param capabilities The capabilities reported for the device.
+     * @return True if a check was waiting for this result, false if it is unknown or expired.
+     */
+    public boolean complete(String requestId, Capabilities capabilities) {
+        PendingCheck pendingCheck = pendingChecks.remove(requestId);
+        if (pendingCheck == null) {
+            return false;
+        }
+
+        if (capabilityCache != null && pendingCheck.msisdn != null) {
+            capabilityCache.put(pendingCheck.msisdn, capabilities);
+        }
+
+        return pendingCheck.complete(capabilities);
+    }
+
+    /**
+     * Completes a check from a capability callback payload received on the webhook. The
+     * payload carries the request id of the check along with the features of the device,
+     * either at the top level or in a {@code capabilities} object.
+     * @param payload The JSON payload of the callback.
+     * @return True if a check was waiting for this result, false if it is unknown or expired.
+     * @throws IOException If the payload is not valid JSON.
+     */
+    public boolean handleCallback(String payload) throws IOException {
+        JsonFactory jsonFactory = rbmApi.getJsonFactory();
+        GenericJson callback = jsonFactory.fromString(payload, GenericJson.class);
+
+        Object requestId = callback.get("requestId");
+        if (!(requestId instanceof String)) {
+            return false;
+        }
+
+        Capabilities capabilities;
+        if (callback.get("capabilities") != null) {
+            capabilities = jsonFactory.fromString(
+                    jsonFactory.toString(callback.get("capabilities")), Capabilities.class);
+        } else {
+            capabilities = new Capabilities().setFeatures(toStringList(callback.get("features")));
+        }
+
+        return complete((String) requestId, capabilities);
+    }
+
+    /**
+     * @return The number of checks waiting for their callback.
+     */
+    public int getPendingCount() {
+        return pendingChecks.size();
+    }
+
+    /**
+     * Stops the timeout sweeper and fails every check still waiting for its callback.
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+
+        for (PendingCheck pendingCheck : pendingChecks.values()) {
+            if (pendingChecks.remove(pendingCheck.requestId, pendingCheck)) {
+                pendingCheck.completeExceptionally(
+                        new IOException("capability callback correlator was closed"));
+            }
+        }
+        expiryQueue.clear();
+    }
+
+    private void expireChecks() {
+        long now = System.nanoTime();
+
+        // one exception per sweep, a stack trace for each of a million expired checks is not
+        // worth its cost
+        TimeoutException timeout = null;
+
+        PendingCheck pendingCheck;
+        while ((pendingCheck = expiryQueue.peek()) != null
+                && now - pendingCheck.deadlineNanos >= 0) {
+            expiryQueue.poll();
+
+            // checks that were completed are already gone from the index
+            if (pendingChecks.remove(pendingCheck.requestId, pendingCheck)) {
+                if (timeout == null) {
+                    timeout = new TimeoutException("no capability callback within "
+                            + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms");
+                }
+                pendingCheck.completeExceptionally(timeout);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> toStringList(Object features) {
+        return features instanceof List ? (List<String>) features : null;
+    }
+
+    /**
+     * An outstanding check, which is also the future handed back to the caller so each check
+     * costs a single object.
+     */
+    private static class PendingCheck extends CompletableFuture<Capabilities> {
+        final String requestId;
+        final String msisdn;
+        final long deadlineNanos;
+
+        PendingCheck(String requestId, String msisdn, long deadlineNanos) {
+            this.requestId = requestId;
+            this.msisdn = msisdn;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
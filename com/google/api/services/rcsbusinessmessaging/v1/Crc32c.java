@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C (Castagnoli), the checksum the platform uses for uploaded media.
+ *
+ * <p>{@link #newChecksum()} returns {@code java.util.zip.CRC32C} on JDK 9 and later, where it
+ * is an intrinsic, and this table-driven implementation on JDK 8.</p>
+ */
+final class Crc32c implements Checksum {
+    // reversed Castagnoli polynomial
+    private static final int POLYNOMIAL = 0x82f63b78;
+
+    private static final int[] TABLE = new int[256];
+
+    private static final Constructor<? extends Checksum> JDK_CRC32C = findJdkCrc32c();
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            }
+            TABLE[i] = crc;
+        }
+    }
+
+    private int crc = 0xffffffff;
+
+    /**
+     * @return A new CRC32C checksum, the JDK's if it has one.
+     */
+    static Checksum newChecksum() {
+        if (JDK_CRC32C != null) {
+            try {
+                return JDK_CRC32C.newInstance();
+            } catch (ReflectiveOperationException e) {
+                // fall through to the portable implementation
+            }
+        }
+
+        return new Crc32c();
+    }
+
+    @Override
+    public void update(int b) {
+        crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xff];
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int value = crc;
+        for (int i = off; i < off + len; i++) {
+            value = (value >>> 8) ^ TABLE[(value ^ b[i]) & 0xff];
+        }
+        crc = value;
+    }
+
+    @Override
+    public long getValue() {
+        return ~crc & 0xffffffffL;
+    }
+
+    @Override
+    public void reset() {
+        crc = 0xffffffff;
+    }
+
+    private static Constructor<? extends Checksum> findJdkCrc32c() {
+        try {
+            return Class.forName("java.util.zip.CRC32C")
+                    .asSubclass(Checksum.class)
+                    .getConstructor();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.client.http.FileContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CreateFileRequest;
+import com.google.api.services.rcsbusinessmessaging.v1.model.File;
+import com.google.api.services.rcsbusinessmessaging.v1.model.GdataMedia;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Uploads local media to the RBM platform with {@code Files.Create}, for files that are not
+ * available at a public URL.
+ *
+ * <p>Files up to the direct upload threshold are sent in a single request. Larger files use
+ * the resumable upload protocol: the file is sent in chunks, and when a chunk fails with a
+ * retryable error the upload asks the platform how much it has received and continues from
+ * there rather than from the start. Retries follow the client's {@link RetryPolicy}, under
+ * {@link RbmEndpoint#FILE_UPLOAD_SESSION}.</p>
+ *
+ * <p>Media is streamed and never held on the heap as a whole. Files above the threshold are
+ * memory-mapped by default, which lets a chunk be re-read after a failure without keeping a
+ * copy of it; otherwise up to one chunk is buffered for that purpose.</p>
+ *
+ * <p>The CRC32C and SHA-256 of the media are computed as it is sent, without reading it a
+ * second time, and set as the {@code blob} of the upload's {@link CreateFileRequest} once it
+ * completes. With an {@link UploadCache}, a local file that has not changed since it was
+ * uploaded is not uploaded again. A file the cache does not know by its location is hashed
+ * before the upload, which reads it twice, so that content already uploaded from another path,
+ * or before the file was touched, is not uploaded again either.</p>
+ */
+public class FileUploader {
+    public static final int DEFAULT_CHUNK_SIZE = MediaHttpUploader.DEFAULT_CHUNK_SIZE;
+    public static final long DEFAULT_DIRECT_UPLOAD_THRESHOLD = MediaHttpUploader.DEFAULT_CHUNK_SIZE;
+
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    private final RCSBusinessMessaging rbmApi;
+    private final int chunkSize;
+    private final long directUploadThreshold;
+    private final boolean memoryMapped;
+    private final boolean computeHashes;
+    private final UploadCache uploadCache;
+
+    private FileUploader(Builder builder) {
+        this.rbmApi = builder.rbmApi;
+        this.chunkSize = builder.chunkSize;
+        this.directUploadThreshold = builder.directUploadThreshold;
+        this.memoryMapped = builder.memoryMapped;
+        this.computeHashes = builder.computeHashes;
+        this.uploadCache = builder.uploadCache;
+    }
+
+    /**
+     * Creates a builder for an uploader that uploads through the given client.
+     * @param rbmApi The RBM API client to upload files with.
+     * @return The builder.
+     */
+    public static Builder newBuilder(RCSBusinessMessaging rbmApi) {
+        return new Builder(rbmApi);
+    }
+
+    /**
+     * Uploads a local file. The hashes of the file are not returned; use
+     * {@link #upload(Path, String, CreateFileRequest, MediaHttpUploaderProgressListener)} to
+     * read them from the blob of the metadata.
+     * @param file The file to upload.
+     * @param contentType The MIME type of the file, or null to guess it from the file name.
+     * @param progressListener Notified as the upload progresses, or null.
+     * @return The file resource created by the platform, or one with only the cached name.
+     */
+    public File upload(Path file, String contentType,
+                       MediaHttpUploaderProgressListener progressListener) throws IOException {
+        return upload(file, contentType, new CreateFileRequest(), progressListener);
+    }
+
+    /**
+     * Uploads a local file, unless the upload cache has a name for it by its location or by
+     * the hash of its content.
+     * @param file The file to upload.
+     * @param contentType The MIME type of the file, or null to guess it from the file name.
+     * @param metadata The file metadata. Its blob is set to the hashes of the file once the
+     *                 upload completes, or once the file is found by its hash. It is left
+     *                 unset when the file is found by its location.
+     * @param progressListener Notified as the upload progresses, or null.
+     * @return The file resource created by the platform, or one with only the cached name.
+     */
+    public File upload(Path file, String contentType, CreateFileRequest metadata,
+                       MediaHttpUploaderProgressListener progressListener) throws IOException {
+        if (contentType == null) {
+            contentType = Files.probeContentType(file);
+        }
+        if (contentType == null) {
+            contentType = DEFAULT_CONTENT_TYPE;
+        }
+
+        String fileKey = null;
+        if (uploadCache != null) {
+            fileKey = UploadCache.localFileKey(file);
+
+            String name = uploadCache.getIfPresent(fileKey, null);
+            if (name == null && computeHashes) {
+                // the content may have been uploaded from another path, or before a touch
+                HashingContent hashedFile = hash(file, contentType);
+                name = uploadCache.copy(
+                        UploadCache.contentHashKey(hashedFile.getSha256()), fileKey);
+
+                if (name != null) {
+                    metadata.setBlob(hashedFile.toGdataMedia());
+                    setFilename(metadata.getBlob(), file);
+                }
+            }
+
+            uploadCache.countLookup(name != null);
+            if (name != null) {
+                return new File().setName(name);
+            }
+        }
+
+        long length = Files.size(file);
+
+        AbstractInputStreamContent media;
+        if (memoryMapped && length > directUploadThreshold && length <= Integer.MAX_VALUE) {
+            media = new MappedFileContent(contentType, file, length);
+        } else {
+            media = new FileContent(contentType, file.toFile());
+        }
+
+        long uploadedAtMillis = System.currentTimeMillis();
+        File uploaded = upload(metadata, media, progressListener);
+
+        GdataMedia blob = metadata.getBlob();
+        setFilename(blob, file);
+
+        if (uploadCache != null && uploaded.getName() != null) {
+            uploadCache.put(fileKey, uploaded.getName(), uploadedAtMillis);
+
+            if (blob != null && blob.getSha256Hash() != null) {
+                uploadCache.put(UploadCache.contentHashKey(blob.decodeSha256Hash()),
+                        uploaded.getName(), uploadedAtMillis);
+            }
+        }
+
+        return uploaded;
+    }
+
+    /**
+     * Uploads media from any source. The media is uploaded in chunks when its length is
+     * unknown or above the direct upload threshold.
+     * @param metadata The file metadata, for example its content description. Its blob is set
+     *                 to the hashes of the media once the upload completes.
+     * @param media The media to upload.
+     * @param progressListener Notified as the upload progresses, or null.
+     * @return The file resource created by the platform.
+     */
+    public File upload(CreateFileRequest metadata, AbstractInputStreamContent media,
+                       MediaHttpUploaderProgressListener progressListener) throws IOException {
+        HashingContent hashingMedia = computeHashes ? new HashingContent(media) : null;
+
+        RCSBusinessMessaging.Files.Create create = rbmApi.files()
+                .create(metadata, hashingMedia != null ? hashingMedia : media);
+
+        // media is mostly compressed images and video already
+        create.setDisableGZipContent(true);
+
+        long length = media.getLength();
+        create.getMediaHttpUploader()
+                .setDirectUploadEnabled(length >= 0 && length <= directUploadThreshold)
+                .setChunkSize(chunkSize)
+                .setProgressListener(progressListener);
+
+        File uploaded = create.execute();
+
+        // the metadata is sent ahead of the media, so the hashes can only be recorded after
+        if (hashingMedia != null && hashingMedia.isComplete()) {
+            metadata.setBlob(hashingMedia.toGdataMedia());
+        }
+
+        return uploaded;
+    }
+
+    /**
+     * Reads a file through to compute its hashes.
+     */
+    private static HashingContent hash(Path file, String contentType) throws IOException {
+        HashingContent hashedFile =
+                new HashingContent(new FileContent(contentType, file.toFile()));
+
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = hashedFile.getInputStream()) {
+            while (in.read(buffer) >= 0) {
+                // the stream hashes what is read
+            }
+        }
+
+        return hashedFile;
+    }
+
+    private static void setFilename(GdataMedia blob, Path file) {
+        if (blob != null && file.getFileName() != null) {
+            blob.setFilename(file.getFileName().toString());
+        }
+    }
+
+    /**
+     * Content backed by a memory-mapped file. Each stream is a view of the mapping, so marking
+     * and resetting it to resend a chunk is free.
+     */
+    static final class MappedFileContent extends AbstractInputStreamContent {
+        private final ByteBuffer mapping;
+
+        MappedFileContent(String type, Path file, long length) throws IOException {
+            super(type);
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // the mapping stays valid after the channel is closed
+                this.mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+        }
+
+        @Override
+        public long getLength() {
+            return mapping.capacity();
+        }
+
+        @Override
+        public boolean retrySupported() {
+            return true;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteBufferInputStream(mapping.duplicate());
+        }
+
+        @Override
+        public MappedFileContent setType(String type) {
+            return (MappedFileContent) super.setType(type);
+        }
+
+        @Override
+        public MappedFileContent setCloseInputStream(boolean closeInputStream) {
+            return (MappedFileContent) super.setCloseInputStream(closeInputStream);
+        }
+    }
+
+    /**
+     * An input stream over a byte buffer, with mark and reset. The buffer is moved through
+     * {@link Buffer}, whose methods also exist on Java 8 when built with a newer JDK.
+     */
+    static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            ((Buffer) buffer).position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            ((Buffer) buffer).mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            ((Buffer) buffer).reset();
+        }
+    }
+
+    /**
+     * Builder for {@link FileUploader}.
+     */
+    public static final class Builder {
+        private final RCSBusinessMessaging rbmApi;
+        private int chunkSize = DEFAULT_CHUNK_SIZE;
+        private long directUploadThreshold = DEFAULT_DIRECT_UPLOAD_THRESHOLD;
+        private boolean memoryMapped = true;
+        private boolean computeHashes = true;
+        private UploadCache uploadCache;
+
+        private Builder(RCSBusinessMessaging rbmApi) {
+            this.rbmApi = rbmApi;
+        }
+
+        /**
+         * Sets the size of the chunks of a resumable upload, a multiple of 256 KB. A failed
+         * chunk is sent again in full, so smaller chunks lose less to an error at the cost of
+         * more requests.
+         */
+        public Builder setChunkSize(int chunkSize) {
+            if (chunkSize < MediaHttpUploader.MINIMUM_CHUNK_SIZE
+                    || chunkSize % MediaHttpUploader.MINIMUM_CHUNK_SIZE != 0) {
+                throw new IllegalArgumentException("chunkSize must be a multiple of 256 KB");
+            }
+
+            this.chunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * Sets the size up to which media is uploaded in a single request rather than with
+         * the resumable protocol.
+         */
+        public Builder setDirectUploadThreshold(long directUploadThreshold) {
+            this.directUploadThreshold = directUploadThreshold;
+            return this;
+        }
+
+        /**
+         * Sets whether files uploaded in chunks are memory-mapped rather than read through a
+         * buffered stream.
+         */
+        public Builder setMemoryMapped(boolean memoryMapped) {
+            this.memoryMapped = memoryMapped;
+            return this;
+        }
+
+        /**
+         * Sets whether the CRC32C and SHA-256 of uploaded media are computed.
+         */
+        public Builder setComputeHashes(boolean computeHashes) {
+            this.computeHashes = computeHashes;
+            return this;
+        }
+
+        /**
+         * Sets the cache that local files are looked up in before they are uploaded, and
+         * recorded in after. The cache needs hashes to find files by their content.
+         */
+        public Builder setUploadCache(UploadCache uploadCache) {
+            this.uploadCache = uploadCache;
+            return this;
+        }
+
+        public FileUploader build() {
+            return new FileUploader(this);
+        }
+    }
+}
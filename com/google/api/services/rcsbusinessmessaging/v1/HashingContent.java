@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.http.AbstractInputStreamContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.GdataMedia;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Checksum;
+
+/**
+ * Media content that computes its CRC32C and SHA-256 while it is read for upload, so the
+ * hashes cost no second pass over the file.
+ *
+ * <p>Every byte is hashed once, in order, however often it is read: a chunk resent after a
+ * failure, through a reset stream or a new one, is not hashed again. The hashes are available
+ * once the content has been read to the end.</p>
+ */
+public final class HashingContent extends AbstractInputStreamContent {
+    private final AbstractInputStreamContent content;
+
+    private final Checksum crc32c = Crc32c.newChecksum();
+    private final MessageDigest sha256;
+
+    // the number of leading bytes hashed so far, and whether they are all of the content
+    private long hashedLength;
+    private boolean complete;
+
+    /**
+     * @param content The content to hash.
+     */
+    public HashingContent(AbstractInputStreamContent content) {
+        super(content.getType());
+        this.content = content;
+        setCloseInputStream(content.getCloseInputStream());
+
+        try {
+            this.sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new HashingInputStream(content.getInputStream(), content.getLength());
+    }
+
+    @Override
+    public long getLength() throws IOException {
+        return content.getLength();
+    }
+
+    @Override
+    public boolean retrySupported() {
+        return content.retrySupported();
+    }
+
+    /**
+     * @return True once every byte of the content has been read and hashed.
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return The number of bytes hashed so far.
+     */
+    public synchronized long getHashedLength() {
+        return hashedLength;
+    }
+
+    /**
+     * @return The CRC32C of the content.
+     * @throws IllegalStateException If the content has not been read to the end.
+     */
+    public synchronized long getCrc32c() {
+        checkComplete();
+        return crc32c.getValue();
+    }
+
+    /**
+     * @return The SHA-256 of the content.
+     * @throws IllegalStateException If the content has not been read to the end.
+     */
+    public synchronized byte[] getSha256() {
+        checkComplete();
+
+        try {
+            // clone so the digest can be read more than once
+            return ((MessageDigest) sha256.clone()).digest();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Describes the content as the {@code blob} of a {@code CreateFileRequest}.
+     * @return The content type, length, CRC32C and SHA-256 of the content.
+     * @throws IllegalStateException If the content has not been read to the end.
+     */
+    public synchronized GdataMedia toGdataMedia() {
+        return new GdataMedia()
+                .setContentType(getType())
+                .setLength(hashedLength)
+                .setCrc32cHash(getCrc32c())
+                .encodeSha256Hash(getSha256());
+    }
+
+    private void checkComplete() {
+        if (!complete) {
+            throw new IllegalStateException("the content has not been read to the end");
+        }
+    }
+
+    /**
+     * Hashes the bytes read at positions past those already hashed.
+     * @param length The length of the content, or -1 if it is unknown.
+     */
+    private synchronized void hash(long length, long position, byte[] b, int off, int len) {
+        long skip = hashedLength - position;
+        if (skip < len) {
+            // a stream never reads past the hashed bytes without hashing them, see skip
+            int start = off + (int) Math.max(0, skip);
+            int count = off + len - start;
+            crc32c.update(b, start, count);
+            sha256.update(b, start, count);
+            hashedLength += count;
+        }
+
+        // the uploader stops reading at the known length rather than at the end of the stream
+        if (hashedLength == length) {
+            complete = true;
+        }
+    }
+
+    private synchronized void reachedEnd(long length, long position) {
+        if (position == hashedLength && (length < 0 || length == hashedLength)) {
+            complete = true;
+        }
+    }
+
+    /**
+     * A stream over the content that tracks its position, including across mark and reset.
+     */
+    private final class HashingInputStream extends FilterInputStream {
+        private final long length;
+        private long position;
+        private long markedPosition = -1;
+
+        HashingInputStream(InputStream in, long length) {
+            super(in);
+            this.length = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                reachedEnd(length, position);
+                return b;
+            }
+
+            hash(length, position, new byte[] {(byte) b}, 0, 1);
+            position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            if (count < 0) {
+                reachedEnd(length, position);
+                return count;
+            }
+
+            hash(length, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        /**
+         * Reads rather than skips bytes that have not been hashed yet, so that no byte is
+         * left out of the hashes.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+
+            long hashedAhead = Math.min(n, Math.max(0, getHashedLength() - position));
+            while (skipped < hashedAhead) {
+                long count = in.skip(hashedAhead - skipped);
+                if (count <= 0) {
+                    break;
+                }
+                skipped += count;
+                position += count;
+            }
+
+            byte[] buffer = null;
+            while (skipped < n) {
+                if (buffer == null) {
+                    buffer = new byte[(int) Math.min(8192, n - skipped)];
+                }
+
+                int count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (count < 0) {
+                    break;
+                }
+                skipped += count;
+            }
+
+            return skipped;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            in.mark(readLimit);
+            markedPosition = position;
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            if (markedPosition < 0) {
+                throw new IOException("mark not set");
+            }
+
+            in.reset();
+            position = markedPosition;
+        }
+    }
+}
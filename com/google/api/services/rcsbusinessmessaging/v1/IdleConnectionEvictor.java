@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import org.apache.http.conn.ClientConnectionManager;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically closes expired and idle connections held by a pooled Apache transport, so
+ * connections the server has already dropped are not handed out to new requests.
+ */
+class IdleConnectionEvictor implements Closeable {
+    private final ScheduledExecutorService scheduler;
+
+    IdleConnectionEvictor(ApacheHttpTransport transport,
+                          long idleTimeoutMillis,
+                          long intervalMillis) {
+        ClientConnectionManager connectionManager =
+                transport.getHttpClient().getConnectionManager();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rbm-idle-connection-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
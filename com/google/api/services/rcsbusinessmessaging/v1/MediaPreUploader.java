@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CardContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.ContentInfo;
+import com.google.api.services.rcsbusinessmessaging.v1.model.File;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Media;
+import com.google.api.services.rcsbusinessmessaging.v1.model.RichCard;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Uploads the media an agent message refers to by URL before the message is sent, so that
+ * the platform does not fetch it at delivery time and each send is a small JSON post.
+ *
+ * <p>Every {@link ContentInfo} in the message, of a file message, a standalone card or the
+ * cards of a carousel, is uploaded with {@code Files.Create}, in parallel on an
+ * {@link AsyncRequestExecutor}. The same URLs are uploaded once per message. The media is then
+ * referred to by the name of the uploaded file instead of by its URLs.</p>
+ *
+ * <p>With an {@link UploadCache}, media already uploaded is not uploaded again, which is what
+ * makes pre-uploading pay off for a message sent to many recipients. Media with
+ * {@code forceRefresh} set is uploaded again, unless the uploader was created to ignore it:
+ * one that pre-uploads the same message for every recipient would otherwise upload the media
+ * once per send.</p>
+ */
+public class MediaPreUploader {
+    private final RCSBusinessMessaging rbmApi;
+    private final AsyncRequestExecutor executor;
+    private final UploadCache uploadCache;
+    private final boolean honorForceRefresh;
+
+    /**
+     * @param rbmApi The RBM API client.
+     * @param executor Runs the uploads and limits how many run at once.
+     */
+    public MediaPreUploader(RCSBusinessMessaging rbmApi, AsyncRequestExecutor executor) {
+        this(rbmApi, executor, null);
+    }
+
+    /**
+     * @param rbmApi The RBM API client.
+     * @param executor Runs the uploads and limits how many run at once.
+     * @param uploadCache The cache to reuse uploaded files from, or null.
+     */
+    public MediaPreUploader(RCSBusinessMessaging rbmApi,
+                            AsyncRequestExecutor executor,
+                            UploadCache uploadCache) {
+        this(rbmApi, executor, uploadCache, true);
+    }
+
+    /**
+     * @param rbmApi The RBM API client.
+     * @param executor Runs the uploads and limits how many run at once.
+     * @param uploadCache The cache to reuse uploaded files from, or null.
+     * @param honorForceRefresh False to reuse cached files even for media with
+     *                          {@code forceRefresh} set, when the media has been refreshed
+     *                          once already, for example before a campaign.
+     */
+    public MediaPreUploader(RCSBusinessMessaging rbmApi,
+                            AsyncRequestExecutor executor,
+                            UploadCache uploadCache,
+                            boolean honorForceRefresh) {
+        this.rbmApi = rbmApi;
+        this.executor = executor;
+        this.uploadCache = uploadCache;
+        this.honorForceRefresh = honorForceRefresh;
+    }
+
+    /**
+     * Uploads the media of a message and waits for the uploads to complete.
+     * @param agentMessage The message to send; it is not modified.
+     * @return A copy of the message referring to the uploaded files, or the message itself if
+     * it refers to no media by URL.
+     * @throws IOException If an upload failed.
+     */
+    public AgentMessage preUpload(AgentMessage agentMessage) throws IOException {
+        try {
+            return preUploadAsync(agentMessage).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while uploading media");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException("media upload failed", cause);
+        }
+    }
+
+    /**
+     * Uploads the media of a message. Submitting the uploads blocks while the executor is at
+     * its in-flight limit.
+     * @param agentMessage The message to send; it is not modified.
+     * @return A future completed with a copy of the message referring to the uploaded files,
+     * or with the message itself if it refers to no media by URL.
+     */
+    public CompletableFuture<AgentMessage> preUploadAsync(AgentMessage agentMessage) {
+        if (findMedia(agentMessage).isEmpty()) {
+            return CompletableFuture.completedFuture(agentMessage);
+        }
+
+        AgentMessage copy = agentMessage.clone();
+        List<MediaReference> references = findMedia(copy);
+
+        // one upload per distinct set of URLs, shared by the references to it
+        Map<List<Object>, CompletableFuture<File>> uploads =
+                new LinkedHashMap<List<Object>, CompletableFuture<File>>();
+        List<CompletableFuture<Void>> rewrites = new ArrayList<CompletableFuture<Void>>();
+
+        for (MediaReference reference : references) {
+            ContentInfo contentInfo = reference.getContentInfo();
+            String fileUrl = contentInfo.getFileUrl();
+            String thumbnailUrl = contentInfo.getThumbnailUrl();
+            boolean forceRefresh = honorForceRefresh
+                    && Boolean.TRUE.equals(contentInfo.getForceRefresh());
+
+            CompletableFuture<File> upload = uploads.get(
+                    Arrays.<Object>asList(fileUrl, thumbnailUrl, forceRefresh));
+            if (upload == null) {
+                upload = executor.submit(() -> upload(fileUrl, thumbnailUrl, forceRefresh));
+                uploads.put(Arrays.<Object>asList(fileUrl, thumbnailUrl, forceRefresh), upload);
+            }
+
+            rewrites.add(upload.thenAccept(file -> reference.setFileName(file.getName())));
+        }
+
+        return CompletableFuture.allOf(rewrites.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> copy);
+    }
+
+    private File upload(String fileUrl, String thumbnailUrl, boolean forceRefresh)
+            throws IOException {
+        if (uploadCache == null) {
+            return RbmApiHelper.createFileRequest(rbmApi, fileUrl, thumbnailUrl).execute();
+        }
+
+        if (forceRefresh) {
+            uploadCache.invalidate(fileUrl, thumbnailUrl);
+        }
+
+        return uploadCache.getOrUpload(fileUrl, thumbnailUrl);
+    }
+
+    /**
+     * Lists the places in a message that refer to media by URL.
+     */
+    private static List<MediaReference> findMedia(AgentMessage agentMessage) {
+        List<MediaReference> references = new ArrayList<MediaReference>();
+
+        AgentContentMessage contentMessage = agentMessage.getContentMessage();
+        if (contentMessage == null) {
+            return references;
+        }
+
+        if (hasFileUrl(contentMessage.getContentInfo())) {
+            references.add(new FileMessageReference(contentMessage));
+        }
+
+        RichCard richCard = contentMessage.getRichCard();
+        if (richCard == null) {
+            return references;
+        }
+
+        if (richCard.getStandaloneCard() != null) {
+            addCardMedia(references, richCard.getStandaloneCard().getCardContent());
+        }
+
+        if (richCard.getCarouselCard() != null
+                && richCard.getCarouselCard().getCardContents() != null) {
+            for (CardContent cardContent : richCard.getCarouselCard().getCardContents()) {
+                addCardMedia(references, cardContent);
+            }
+        }
+
+        return references;
+    }
+
+    private static void addCardMedia(List<MediaReference> references, CardContent cardContent) {
+        if (cardContent != null && cardContent.getMedia() != null
+                && hasFileUrl(cardContent.getMedia().getContentInfo())) {
+            references.add(new CardMediaReference(cardContent.getMedia()));
+        }
+    }
+
+    private static boolean hasFileUrl(ContentInfo contentInfo) {
+        return contentInfo != null && contentInfo.getFileUrl() != null;
+    }
+
+    /**
+     * A place in a message that refers to media by URL.
+     */
+    private interface MediaReference {
+        ContentInfo getContentInfo();
+
+        /**
+         * Refers to the uploaded file instead of the URLs.
+         */
+        void setFileName(String fileName);
+    }
+
+    private static final class FileMessageReference implements MediaReference {
+        private final AgentContentMessage contentMessage;
+
+        FileMessageReference(AgentContentMessage contentMessage) {
+            this.contentMessage = contentMessage;
+        }
+
+        @Override
+        public ContentInfo getContentInfo() {
+            return contentMessage.getContentInfo();
+        }
+
+        @Override
+        public void setFileName(String fileName) {
+            contentMessage.setContentInfo(null);
+            contentMessage.setFileName(fileName);
+        }
+    }
+
+    private static final class CardMediaReference implements MediaReference {
+        private final Media media;
+
+        CardMediaReference(Media media) {
+            this.media = media;
+        }
+
+        @Override
+        public ContentInfo getContentInfo() {
+            return media.getContentInfo();
+        }
+
+        @Override
+        public void setFileName(String fileName) {
+            media.setContentInfo(null);
+            media.setFileName(fileName);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CardContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Feature;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Media;
+import com.google.api.services.rcsbusinessmessaging.v1.model.OpenUrlAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.RichCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.StandaloneCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedReply;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion;
+import com.google.api.services.rcsbusinessmessaging.v1.model.cards.CardOrientation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rewrites agent messages into content a device can render, given the features it supports,
+ * so that unsupported messages are not sent only to be rejected.
+ *
+ * <ul>
+ *   <li>A carousel becomes one standalone card per card, or text if standalone cards are not
+ *   supported either.</li>
+ *   <li>A standalone card becomes its media, as a file message, followed by its title and
+ *   description as text.</li>
+ *   <li>A suggested action the device cannot perform becomes an open URL action for its
+ *   fallback URL if it has one, and a suggested reply with the same text and postback data
+ *   otherwise.</li>
+ * </ul>
+ *
+ * <p>Messages that need no changes are returned as they are; the passed in messages are never
+ * modified.</p>
+ */
+public final class MessageDowngrader {
+    // the most suggestions the platform accepts on a single message
+    private static final int MAX_SUGGESTIONS = 11;
+
+    private MessageDowngrader() { }
+
+    /**
+     * Rewrites an agent message for a device with the given features.
+     * @param agentMessage The message to send.
+     * @param features The features supported by the device.
+     * @return The messages to send instead, in order.
+     */
+    public static List<AgentMessage> downgrade(AgentMessage agentMessage, Set<Feature> features) {
+        AgentContentMessage contentMessage = agentMessage.getContentMessage();
+        if (contentMessage == null) {
+            return Collections.singletonList(agentMessage);
+        }
+
+        List<AgentContentMessage> contentMessages = downgrade(contentMessage, features);
+        if (contentMessages.size() == 1 && contentMessages.get(0) == contentMessage) {
+            return Collections.singletonList(agentMessage);
+        }
+
+        List<AgentMessage> agentMessages = new ArrayList<AgentMessage>(contentMessages.size());
+        for (AgentContentMessage downgraded : contentMessages) {
+            agentMessages.add(new AgentMessage().setContentMessage(downgraded));
+        }
+
+        return agentMessages;
+    }
+
+    /**
+     * Rewrites message content for a device with the given features.
+     * @param contentMessage The content to send.
+     * @param features The features supported by the device.
+     * @return The content to send instead, in order.
+     */
+    public static List<AgentContentMessage> downgrade(AgentContentMessage contentMessage,
+                                                      Set<Feature> features) {
+        RichCard richCard = contentMessage.getRichCard();
+
+        List<AgentContentMessage> contentMessages = new ArrayList<AgentContentMessage>();
+        if (richCard != null && richCard.getCarouselCard() != null
+                && !features.contains(Feature.RICHCARD_CAROUSEL)) {
+            List<CardContent> cardContents = richCard.getCarouselCard().getCardContents();
+            if (cardContents != null) {
+                for (CardContent cardContent : cardContents) {
+                    addCard(contentMessages, cardContent, features);
+                }
+            }
+        } else if (richCard != null && richCard.getStandaloneCard() != null
+                && !features.contains(Feature.RICHCARD_STANDALONE)) {
+            CardContent cardContent = richCard.getStandaloneCard().getCardContent();
+            if (cardContent != null) {
+                addCardAsText(contentMessages, cardContent, features);
+            }
+        } else {
+            // the content itself can be rendered, only its suggestions may need rewriting
+            return Collections.singletonList(withSupportedSuggestions(contentMessage, features));
+        }
+
+        // a card without any content cannot be rewritten, leave it to the platform to reject
+        if (contentMessages.isEmpty()) {
+            return Collections.singletonList(contentMessage);
+        }
+
+        // the chip list of the original message goes on the last message sent
+        attachSuggestions(contentMessages.get(contentMessages.size() - 1),
+                supportedSuggestions(contentMessage.getSuggestions(), features));
+
+        return contentMessages;
+    }
+
+    private static void addCard(List<AgentContentMessage> contentMessages,
+                                CardContent cardContent,
+                                Set<Feature> features) {
+        if (!features.contains(Feature.RICHCARD_STANDALONE)) {
+            addCardAsText(contentMessages, cardContent, features);
+            return;
+        }
+
+        StandaloneCard standaloneCard = new StandaloneCard()
+                .setCardOrientation(CardOrientation.VERTICAL.toString())
+                .setCardContent(withSupportedSuggestions(cardContent, features));
+
+        contentMessages.add(new AgentContentMessage()
+                .setRichCard(new RichCard().setStandaloneCard(standaloneCard)));
+    }
+
+    private static void addCardAsText(List<AgentContentMessage> contentMessages,
+                                      CardContent cardContent,
+                                      Set<Feature> features) {
+        AgentContentMessage last = null;
+
+        Media media = cardContent.getMedia();
+        if (media != null && (media.getContentInfo() != null || media.getFileName() != null)) {
+            last = new AgentContentMessage()
+                    .setContentInfo(media.getContentInfo())
+                    .setFileName(media.getFileName());
+            contentMessages.add(last);
+        }
+
+        String text = joinText(cardContent.getTitle(), cardContent.getDescription());
+        if (text != null) {
+            last = new AgentContentMessage().setText(text);
+            contentMessages.add(last);
+        }
+
+        // suggestions cannot be sent on their own, so they are dropped with an empty card
+        if (last != null) {
+            attachSuggestions(last, supportedSuggestions(cardContent.getSuggestions(), features));
+        }
+    }
+
+    private static AgentContentMessage withSupportedSuggestions(AgentContentMessage contentMessage,
+                                                                Set<Feature> features) {
+        List<Suggestion> suggestions = contentMessage.getSuggestions();
+        List<Suggestion> supported = supportedSuggestions(suggestions, features);
+
+        RichCard richCard = contentMessage.getRichCard();
+        CardContent cardContent = null;
+        CardContent supportedCardContent = null;
+        if (richCard != null && richCard.getStandaloneCard() != null) {
+            cardContent = richCard.getStandaloneCard().getCardContent();
+        }
+        if (cardContent != null) {
+            supportedCardContent = withSupportedSuggestions(cardContent, features);
+        }
+
+        List<CardContent> cardContents = null;
+        List<CardContent> supportedCardContents = null;
+        if (richCard != null && richCard.getCarouselCard() != null) {
+            cardContents = richCard.getCarouselCard().getCardContents();
+        }
+        if (cardContents != null) {
+            for (int i = 0; i < cardContents.size(); i++) {
+                CardContent card = cardContents.get(i);
+                CardContent supportedCard = withSupportedSuggestions(card, features);
+                if (supportedCard != card && supportedCardContents == null) {
+                    supportedCardContents = new ArrayList<CardContent>(cardContents.subList(0, i));
+                }
+                if (supportedCardContents != null) {
+                    supportedCardContents.add(supportedCard);
+                }
+            }
+        }
+
+        if (supported == suggestions
+                && supportedCardContent == cardContent
+                && supportedCardContents == null) {
+            return contentMessage;
+        }
+
+        AgentContentMessage copy = contentMessage.clone();
+        copy.setSuggestions(supported);
+        if (supportedCardContent != cardContent) {
+            copy.getRichCard().getStandaloneCard().setCardContent(supportedCardContent);
+        }
+        if (supportedCardContents != null) {
+            copy.getRichCard().getCarouselCard().setCardContents(supportedCardContents);
+        }
+
+        return copy;
+    }
+
+    private static CardContent withSupportedSuggestions(CardContent cardContent,
+                                                        Set<Feature> features) {
+        List<Suggestion> suggestions = cardContent.getSuggestions();
+        List<Suggestion> supported = supportedSuggestions(suggestions, features);
+        if (supported == suggestions) {
+            return cardContent;
+        }
+
+        return cardContent.clone().setSuggestions(supported);
+    }
+
+    /**
+     * @return The suggestions with unsupported actions rewritten, or the same list if every
+     * suggestion is supported.
+     */
+    private static List<Suggestion> supportedSuggestions(List<Suggestion> suggestions,
+                                                         Set<Feature> features) {
+        if (suggestions == null) {
+            return null;
+        }
+
+        List<Suggestion> supported = null;
+        for (int i = 0; i < suggestions.size(); i++) {
+            Suggestion suggestion = suggestions.get(i);
+            Suggestion supportedSuggestion = supportedSuggestion(suggestion, features);
+            if (supportedSuggestion != suggestion && supported == null) {
+                supported = new ArrayList<Suggestion>(suggestions.subList(0, i));
+            }
+            if (supported != null) {
+                supported.add(supportedSuggestion);
+            }
+        }
+
+        return supported != null ? supported : suggestions;
+    }
+
+    private static Suggestion supportedSuggestion(Suggestion suggestion, Set<Feature> features) {
+        SuggestedAction action = suggestion.getAction();
+        if (action == null) {
+            return suggestion;
+        }
+
+        Feature requiredFeature = requiredFeature(action);
+        if (requiredFeature == null || features.contains(requiredFeature)) {
+            return suggestion;
+        }
+
+        if (action.getFallbackUrl() != null && features.contains(Feature.ACTION_OPEN_URL)) {
+            return new Suggestion().setAction(new SuggestedAction()
+                    .setText(action.getText())
+                    .setPostbackData(action.getPostbackData())
+                    .setOpenUrlAction(new OpenUrlAction().setUrl(action.getFallbackUrl())));
+        }
+
+        return new Suggestion().setReply(new SuggestedReply()
+                .setText(action.getText())
+                .setPostbackData(action.getPostbackData()));
+    }
+
+    /**
+     * @return The feature a device needs to perform the action, or null if there is none.
+     */
+    private static Feature requiredFeature(SuggestedAction action) {
+        if (action.getDialAction() != null) {
+            return Feature.ACTION_DIAL;
+        }
+        if (action.getOpenUrlAction() != null) {
+            return Feature.ACTION_OPEN_URL;
+        }
+        if (action.getShareLocationAction() != null) {
+            return Feature.ACTION_SHARE_LOCATION;
+        }
+        if (action.getViewLocationAction() != null) {
+            return Feature.ACTION_VIEW_LOCATION;
+        }
+        if (action.getCreateCalendarEventAction() != null) {
+            return Feature.ACTION_CREATE_CALENDAR_EVENT;
+        }
+
+        return null;
+    }
+
+    private static void attachSuggestions(AgentContentMessage contentMessage,
+                                          List<Suggestion> suggestions) {
+        if (suggestions == null || suggestions.isEmpty()) {
+            return;
+        }
+
+        List<Suggestion> merged = new ArrayList<Suggestion>();
+        if (contentMessage.getSuggestions() != null) {
+            merged.addAll(contentMessage.getSuggestions());
+        }
+        merged.addAll(suggestions);
+
+        while (merged.size() > MAX_SUGGESTIONS) {
+            merged.remove(merged.size() - 1);
+        }
+
+        contentMessage.setSuggestions(merged);
+    }
+
+    private static String joinText(String title, String description) {
+        if (title == null || title.isEmpty()) {
+            return description == null || description.isEmpty() ? null : description;
+        }
+        if (description == null || description.isEmpty()) {
+            return title;
+        }
+
+        return title + "\n" + description;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+/**
+ * Strategy for the ids agent messages are created with. The platform discards a message whose
+ * id it has already seen, so an id that is the same every time the same message is sent makes
+ * resending it safe.
+ */
+public interface MessageIdGenerator {
+    /**
+     * Returns the id for a new message.
+     * @param msisdn The phone number in E.164 format the message is sent to.
+     * @return A UUID in its standard string form.
+     */
+    String newMessageId(String msisdn);
+
+    /**
+     * Random version 4 UUIDs drawn from {@link java.util.concurrent.ThreadLocalRandom}, so
+     * threads do not contend on the shared {@code SecureRandom} behind
+     * {@link java.util.UUID#randomUUID()}. Every call returns a new id. This is the default.
+     */
+    static MessageIdGenerator random() {
+        return RandomMessageIdGenerator.INSTANCE;
+    }
+
+    /**
+     * Version 7 UUIDs: a millisecond timestamp followed by thread-local randomness, so ids sort
+     * by creation time. Every call returns a new id.
+     */
+    static MessageIdGenerator timeOrdered() {
+        return TimeOrderedMessageIdGenerator.INSTANCE;
+    }
+
+    /**
+     * Version 5 UUIDs derived from a namespace and the phone number, so every message sent to a
+     * number within the namespace gets the same id. Use a namespace per logical message, for
+     * example a campaign id, to make sending it to each user at most once.
+     * @param namespace Identifies the message the ids are for.
+     */
+    static MessageIdGenerator nameBased(String namespace) {
+        return new NameBasedMessageIdGenerator(namespace);
+    }
+}
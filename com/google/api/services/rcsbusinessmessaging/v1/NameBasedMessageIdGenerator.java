@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+/**
+ * Generates version 5 (SHA-1, name-based) UUIDs from a namespace and the phone number.
+ */
+final class NameBasedMessageIdGenerator implements MessageIdGenerator {
+    // the digest is not thread safe, so each thread keeps its own
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required of every JVM", e);
+        }
+    });
+
+    private final byte[] namespace;
+
+    NameBasedMessageIdGenerator(String namespace) {
+        // the namespace is itself a name-based UUID, as RFC 4122 expects
+        this.namespace = toBytes(UUID.nameUUIDFromBytes(namespace.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Override
+    public String newMessageId(String msisdn) {
+        return nameUuid(namespace, msisdn);
+    }
+
+    /**
+     * Derives the id of the message at the given position of a message sent in several parts,
+     * for example a carousel downgraded to standalone cards.
+     * @param messageId The id of the first part.
+     * @param part The position of the part, from 1.
+     * @return The id of the part.
+     */
+    static String partMessageId(String messageId, int part) {
+        return nameUuid(toBytes(UUID.fromString(messageId)), Integer.toString(part));
+    }
+
+    private static String nameUuid(byte[] namespace, String name) {
+        MessageDigest sha1 = SHA1.get();
+        sha1.update(namespace);
+        byte[] hash = sha1.digest(name.getBytes(StandardCharsets.UTF_8));
+
+        ByteBuffer bits = ByteBuffer.wrap(hash, 0, 16);
+        long mostSigBits = (bits.getLong() & ~0xf000L) | 0x5000L;
+        long leastSigBits = (bits.getLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
+    private static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates random version 4 UUIDs without synchronizing between threads.
+ */
+final class RandomMessageIdGenerator implements MessageIdGenerator {
+    static final RandomMessageIdGenerator INSTANCE = new RandomMessageIdGenerator();
+
+    private RandomMessageIdGenerator() { }
+
+    @Override
+    public String newMessageId(String msisdn) {
+        return randomUuid();
+    }
+
+    /**
+     * @return A random version 4 UUID, also used for event and request ids.
+     */
+    static String randomUuid() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long mostSigBits = (random.nextLong() & ~0xf000L) | 0x4000L;
+        long leastSigBits = (random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+}
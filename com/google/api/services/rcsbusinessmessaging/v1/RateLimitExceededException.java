@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request would have to wait longer than allowed for the client-side rate limiter.
+ * The request was not sent.
+ */
+public class RateLimitExceededException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public RateLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -18,46 +18,97 @@ package com.google.api.services.rcsbusinessmessaging.v1;
 // [START import_libraries]
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
-import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
-import com.google.api.client.http.HttpBackOffUnsuccessfulResponseHandler;
-import com.google.api.client.http.HttpRequest;
+import com.google.api.client.googleapis.media.MediaHttpUploaderProgressListener;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
 import com.google.api.client.json.jackson2.JacksonFactory;
-import com.google.api.client.util.ExponentialBackOff;
 import com.google.api.services.rcsbusinessmessaging.v1.model.*;
 import com.google.api.services.rcsbusinessmessaging.v1.model.cards.CardOrientation;
 import com.google.api.services.rcsbusinessmessaging.v1.model.cards.CardWidth;
 import com.google.api.services.rcsbusinessmessaging.v1.model.cards.MediaHeight;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 // [END import_libraries]
 
 /**
  * Helper class for using the RBM API.
+ *
+ * <p>A helper owns a single {@link RCSBusinessMessaging} client and the {@link HttpTransport}
+ * underneath it. The client is built once and is safe to share across threads; call
+ * {@link #close()} when the helper is no longer needed to release the transport.</p>
  */
-public class RbmApiHelper {
+public class RbmApiHelper implements Closeable {
     private static final Logger logger = Logger.getLogger(RbmApiHelper.class.getName());
 
     private static final String EXCEPTION_WAS_THROWN = "an exception was thrown";
 
+    // Default cap on concurrent asynchronous requests
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    // Conflict status the platform answers with for a message id that was already used
+    private static final int ALREADY_EXISTS = 409;
+
     // Credentials used for RBM agent API
     private GoogleCredential credential;
 
-    // Reference to the RBM api builder
-    private RCSBusinessMessaging.Builder builder;
+    // Refreshes the credential's access token in the background
+    private AccessTokenManager accessTokenManager;
+
+    // Transport shared by every request made through this helper
+    private HttpTransport httpTransport;
+
+    // Closes idle pooled connections, only set for the pooled transport
+    private IdleConnectionEvictor connectionEvictor;
+
+    // Reference to the RBM api client, built once and shared across threads
+    private RCSBusinessMessaging rbmApi;
+
+    // Runs the asynchronous variants of the send methods
+    private AsyncRequestExecutor asyncRequestExecutor;
+
+    // Thread pool behind the default async executor, owned and shut down by this helper
+    private ExecutorService defaultAsyncExecutorService;
+
+    // Cached features of phone numbers, created on first use
+    private CapabilityCache capabilityCache;
+
+    // Correlates asynchronous capability checks with their callbacks, created on first use
+    private CapabilityCallbackCorrelator capabilityCallbackCorrelator;
+
+    // Whether agent messages are rewritten for the features of the receiving device
+    private volatile boolean downgradeUnsupportedContent;
+
+    // Assigns the ids of agent messages sent without an explicit id
+    private volatile MessageIdGenerator messageIdGenerator = MessageIdGenerator.random();
+
+    // Uploads local files, created on first use
+    private FileUploader fileUploader;
+
+    // Names of uploaded files, only set when the caller opts in
+    private volatile UploadCache uploadCache;
+
+    // Whether media referred to by URL is uploaded before agent messages are sent
+    private volatile boolean preUploadMedia;
+
+    // Per-request events, level-guarded, sampled and with phone numbers redacted
+    private final RbmLogger rbmLogger = new RbmLogger(logger);
 
     public RbmApiHelper() { }
 
@@ -66,8 +117,17 @@ public class RbmApiHelper {
      * @param serviceAccountKeyFile A file with the service account key information.
      */
     public RbmApiHelper(File serviceAccountKeyFile) {
+        this(serviceAccountKeyFile, new RbmTransportOptions());
+    }
+
+    /**
+     * Initializes credentials and the RBM API object using the given transport settings.
+     * @param serviceAccountKeyFile A file with the service account key information.
+     * @param transportOptions Settings for the HTTP transport.
+     */
+    public RbmApiHelper(File serviceAccountKeyFile, RbmTransportOptions transportOptions) {
         initCredentials(serviceAccountKeyFile);
-        initRbmApi();
+        initRbmApi(transportOptions);
     }
 
     /**
@@ -92,33 +152,96 @@ public class RbmApiHelper {
 
     /**
      * Initializes the RBM api object.
+     * @param transportOptions Settings for the HTTP transport.
      */
-    private void initRbmApi() {
+    private void initRbmApi(RbmTransportOptions transportOptions) {
         try {
-            HttpTransport httpTransport = GoogleNetHttpTransport.newTrustedTransport();
+            httpTransport = transportOptions.newTransport();
+
+            // pooled connections need to be swept so stale sockets are not reused
+            if (httpTransport instanceof ApacheHttpTransport) {
+                connectionEvictor = new IdleConnectionEvictor(
+                        (ApacheHttpTransport) httpTransport,
+                        transportOptions.getIdleConnectionTimeoutMillis(),
+                        transportOptions.getEvictionIntervalMillis());
+            }
+
             JacksonFactory jsonFactory = JacksonFactory.getDefaultInstance();
 
             // create instance of the RBM API
-            builder = new RCSBusinessMessaging
+            RCSBusinessMessaging.Builder builder = new RCSBusinessMessaging
                     .Builder(httpTransport, jsonFactory, null)
                     .setApplicationName(credential.getServiceAccountProjectId());
 
-            // set the API credentials and endpoint
-            builder.setHttpRequestInitializer(credential);
+            // refresh the token ahead of expiry instead of inside the request that finds it
+            // expiring, which would stall every request in flight until the refresh returns
+            accessTokenManager = AccessTokenManager.newBuilder(credential).build().start();
+
+            // set the API credentials and the retry and rate limits applied to every request
+            builder.setHttpRequestInitializer(new RbmHttpRequestInitializer(
+                    accessTokenManager,
+                    transportOptions.getRetryPolicy(),
+                    transportOptions.getRateLimiter(),
+                    transportOptions.isStreamingJson()));
+
+            if (transportOptions.getRootUrl() != null) {
+                builder.setRootUrl(transportOptions.getRootUrl());
+            }
+
+            // the client is immutable once built, so one instance serves every request
+            rbmApi = builder.build();
         } catch(Exception e) {
             logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
         }
     }
 
+    /**
+     * Shuts down the HTTP transport used by this helper, along with the default async executor
+     * if one was created. The helper cannot be used to make API calls after it has been closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (defaultAsyncExecutorService != null) {
+                defaultAsyncExecutorService.shutdown();
+            }
+
+            if (capabilityCallbackCorrelator != null) {
+                capabilityCallbackCorrelator.close();
+            }
+        }
+
+        if (connectionEvictor != null) {
+            connectionEvictor.close();
+        }
+
+        if (accessTokenManager != null) {
+            accessTokenManager.close();
+        }
+
+        if (httpTransport != null) {
+            httpTransport.shutdown();
+        }
+    }
+
     /**
      * Takes the msisdn and converts it into the format we need to make API calls.
      * @param msisdn The phone number in E.164 format.
      * @return The phone number reformatted for the API.
      */
-    private String convertToApiFormat(String msisdn) {
+    static String convertToApiFormat(String msisdn) {
         return "phones/" + msisdn;
     }
 
+    /**
+     * Returns the RBM API client owned by this helper, for example to build a
+     * {@link BatchingSender} that shares its transport and credentials.
+     * @return The RBM API client.
+     */
+    public RCSBusinessMessaging getRbmApi() {
+        return rbmApi;
+    }
+
     /**
      * Registers the device as a tester for this agent.
      * @param msisdn The phone number in E.164 format.
@@ -131,9 +254,11 @@ public class RbmApiHelper {
 
         // create the test request
         RCSBusinessMessaging.Phones.Testers.Create createTester
-                = builder.build().phones().testers().create(clientDevice, tester);
+                = rbmApi.phones().testers().create(clientDevice, tester);
 
-        logger.info(createTester.execute().toString());
+        Tester created = createTester.execute();
+        rbmLogger.log(Level.INFO, "Registered tester", msisdn,
+                () -> "inviteStatus=" + created.getInviteStatus());
     }
 
     /**
@@ -145,16 +270,33 @@ public class RbmApiHelper {
      * @throws Exception
      */
     public BatchGetUsersResponse getUsers(List<String> phoneNumbers) throws Exception {
-        RCSBusinessMessaging.Users.BatchGet batchGetRequest = builder.build().users()
+        // retries with backoff are applied by the client's request initializer
+        RCSBusinessMessaging.Users.BatchGet batchGetRequest = rbmApi.users()
             .batchGet(new BatchGetUsersRequest().setUsers(phoneNumbers));
 
-        HttpRequest request = ((AbstractGoogleClientRequest) batchGetRequest).buildHttpRequest();
-        request.setUnsuccessfulResponseHandler(
-            new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff()));
-
         return batchGetRequest.execute();
     }
 
+    /**
+     * Performs a capability check for any number of users. The phone numbers are split into
+     * requests of at most 10,000 users, which are sent in parallel on the helper's async
+     * executor.
+     *
+     * @param phoneNumbers The user phone numbers to check.
+     * @param reachableUsers Receives the reachable phone numbers as each request completes.
+     * @param maxConcurrentRequests The maximum number of requests in flight at once.
+     * @return The reach figures aggregated over all requests.
+     * @throws Exception
+     */
+    public ReachEstimate getUsers(Iterator<String> phoneNumbers,
+                                  Consumer<List<String>> reachableUsers,
+                                  int maxConcurrentRequests) throws Exception {
+        AsyncRequestExecutor executor = new AsyncRequestExecutor(
+                getAsyncRequestExecutor().getExecutor(), maxConcurrentRequests);
+
+        return new UserReachabilityChecker(rbmApi, executor).check(phoneNumbers, reachableUsers);
+    }
+
     /**
      * Checks whether the device associated with the phone number is RCS enabled.
      * This uses the asynchronous capability check API.
@@ -165,7 +307,7 @@ public class RbmApiHelper {
         String parent = convertToApiFormat(msisdn);
 
         // create a random UUID for the request
-        String requestId = UUID.randomUUID().toString();
+        String requestId = RandomMessageIdGenerator.randomUuid();
 
         // initialize the capability request payload
         RequestCapabilityCallbackRequest capabilityCallbackRequest
@@ -176,14 +318,15 @@ public class RbmApiHelper {
 
         // build the request
         RCSBusinessMessaging.Phones.Capability.RequestCapabilityCallback request
-                = builder
-                .build()
+                = rbmApi
                 .phones()
                 .capability()
                 .requestCapabilityCallback(parent, capabilityCallbackRequest);
 
         // execute the capability request
-        logger.info(request.execute().toString());
+        request.execute();
+        rbmLogger.logSampled(Level.FINE, "Requested capability callback", msisdn,
+                () -> "requestId=" + requestId);
     }
 
     /**
@@ -191,23 +334,13 @@ public class RbmApiHelper {
      * This uses the alpha synchronous capability check API.
      * @param msisdn The phone number in E.164 format.
      * @return The raw response from the capability check.
+     * @deprecated Use {@link #getCapabilities(String)}, which returns the features without
+     * serializing them to JSON.
      */
+    @Deprecated
     public String getCapability(String msisdn) throws Exception {
-        // convert the msisdn into the API format
-        String parent = convertToApiFormat(msisdn);
-
-        // build the request
-        RCSBusinessMessaging.Phones.GetCapabilities capabilityCheck
-                = builder
-                .build()
-                .phones()
-                .getCapabilities(parent);
-
-        capabilityCheck.setRequestId(UUID.randomUUID().toString());
-
         try {
-            // execute synchronous capability check and log the result
-            return capabilityCheck.execute().toString();
+            return getCapabilities(msisdn).toString();
         } catch(GoogleJsonResponseException e) {
             logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
 
@@ -215,6 +348,29 @@ public class RbmApiHelper {
         }
     }
 
+    /**
+     * Checks whether the device associated with the phone number is RCS enabled.
+     * This uses the alpha synchronous capability check API.
+     * @param msisdn The phone number in E.164 format.
+     * @return The features the device supports.
+     * @throws IOException If the check failed, with a {@link GoogleJsonResponseException} when
+     * the platform rejected it, for example because the number is not RCS enabled.
+     */
+    public Capabilities getCapabilities(String msisdn) throws IOException {
+        return createGetCapabilitiesRequest(msisdn).execute();
+    }
+
+    /**
+     * Asynchronously checks whether the device associated with the phone number is RCS
+     * enabled. See {@link #getCapabilities(String)}.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the features the device supports.
+     */
+    public CompletableFuture<Capabilities> getCapabilitiesAsync(String msisdn) {
+        return getAsyncRequestExecutor().submit(
+                () -> createGetCapabilitiesRequest(msisdn).execute());
+    }
+
     /**
      * Uploads the file located at the publicly available URL to the RBM platform.
      * @param fileUrl A publicly available URL.
@@ -233,30 +389,153 @@ public class RbmApiHelper {
     public String uploadFile(String fileUrl, String thumbnailFileUrl) {
         String resourceId = null;
 
-        CreateFileRequest fileRequest = new CreateFileRequest();
-        fileRequest.setFileUrl(fileUrl);
+        try {
+            resourceId = createFile(fileUrl, thumbnailFileUrl).getName();
+        } catch(IOException e) {
+            logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
+        }
 
-        // add the thumbnail if there is one
-        if (thumbnailFileUrl != null && thumbnailFileUrl.length() > 0) {
-            fileRequest.setThumbnailUrl(thumbnailFileUrl);
+        return resourceId;
+    }
+
+    /**
+     * Uploads the file located at the publicly available URL to the RBM platform. With an
+     * {@link #setUploadCache upload cache}, a file already uploaded from the same URLs is not
+     * uploaded again.
+     * @param fileUrl A publicly available URL.
+     * @param thumbnailFileUrl Includes the thumbnail if there is one, or null.
+     * @return The file resource created by the platform.
+     * @throws IOException If the upload failed.
+     */
+    public com.google.api.services.rcsbusinessmessaging.v1.model.File createFile(
+            String fileUrl, String thumbnailFileUrl) throws IOException {
+        UploadCache cache = uploadCache;
+        if (cache != null) {
+            return cache.getOrUpload(fileUrl, thumbnailFileUrl);
         }
 
-        try {
-            RCSBusinessMessaging.Files.Create file =
-                    builder.build().files().create(fileRequest);
+        return createFileRequest(rbmApi, fileUrl, thumbnailFileUrl).execute();
+    }
 
-            String jsonResponse = file.execute().toString();
+    /**
+     * Asynchronously uploads the file located at the publicly available URL to the RBM
+     * platform.
+     * @param fileUrl A publicly available URL.
+     * @param thumbnailFileUrl Includes the thumbnail if there is one, or null.
+     * @return A future completed with the file resource created by the platform.
+     */
+    public CompletableFuture<com.google.api.services.rcsbusinessmessaging.v1.model.File>
+            createFileAsync(String fileUrl, String thumbnailFileUrl) {
+        return getAsyncRequestExecutor().submit(() -> createFile(fileUrl, thumbnailFileUrl));
+    }
 
-            Gson gson = new Gson();
-            Type type = new TypeToken<Map<String, String>>(){}.getType();
-            Map<String, String> jsonMap = gson.fromJson(jsonResponse, type);
+    /**
+     * Uploads a local file to the RBM platform, streaming it from disk. Large files are
+     * uploaded in chunks that are resumed after a failure; see {@link FileUploader}.
+     * @param file The file to upload.
+     * @param contentType The MIME type of the file, or null to guess it from the file name.
+     * @param progressListener Notified as the upload progresses, or null.
+     * @return The file resource created by the platform.
+     * @throws IOException If the upload failed.
+     */
+    public com.google.api.services.rcsbusinessmessaging.v1.model.File createFile(
+            Path file, String contentType, MediaHttpUploaderProgressListener progressListener)
+            throws IOException {
+        return getFileUploader().upload(file, contentType, progressListener);
+    }
 
-            resourceId = jsonMap.get("name");
-        } catch(IOException e) {
-            logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
+    /**
+     * Asynchronously uploads a local file to the RBM platform. See
+     * {@link #createFile(Path, String, MediaHttpUploaderProgressListener)}.
+     * @param file The file to upload.
+     * @param contentType The MIME type of the file, or null to guess it from the file name.
+     * @param progressListener Notified as the upload progresses, or null.
+     * @return A future completed with the file resource created by the platform.
+     */
+    public CompletableFuture<com.google.api.services.rcsbusinessmessaging.v1.model.File>
+            createFileAsync(Path file, String contentType,
+                            MediaHttpUploaderProgressListener progressListener) {
+        return getAsyncRequestExecutor().submit(
+                () -> createFile(file, contentType, progressListener));
+    }
+
+    /**
+     * Uploads the media an agent message refers to by URL, in parallel on the helper's
+     * {@link AsyncRequestExecutor}, and returns a copy of the message that refers to the
+     * uploaded files instead. Send the copy to every recipient so that the platform does not
+     * fetch the media at delivery time. See {@link MediaPreUploader}.
+     * @param agentMessage The message to send; it is not modified.
+     * @return The message referring to uploaded files.
+     * @throws IOException If an upload failed.
+     */
+    public AgentMessage preUploadMedia(AgentMessage agentMessage) throws IOException {
+        return createMediaPreUploader().preUpload(agentMessage);
+    }
+
+    /**
+     * Asynchronously uploads the media an agent message refers to by URL. See
+     * {@link #preUploadMedia(AgentMessage)}.
+     * @param agentMessage The message to send; it is not modified.
+     * @return A future completed with the message referring to uploaded files.
+     */
+    public CompletableFuture<AgentMessage> preUploadMediaAsync(AgentMessage agentMessage) {
+        return createMediaPreUploader().preUploadAsync(agentMessage);
+    }
+
+    private MediaPreUploader createMediaPreUploader() {
+        return new MediaPreUploader(rbmApi, getAsyncRequestExecutor(), uploadCache);
+    }
+
+    /**
+     * Creates the uploader used before every send. It leaves {@code forceRefresh} to
+     * {@link #preUploadMedia(AgentMessage)}, so that a message sent to many recipients does
+     * not upload its media again for each of them.
+     */
+    private MediaPreUploader createPerSendMediaPreUploader() {
+        return new MediaPreUploader(rbmApi, getAsyncRequestExecutor(), uploadCache, false);
+    }
+
+    /**
+     * Builds a synchronous capability check request.
+     * @param msisdn The phone number in E.164 format.
+     * @return The request, ready to execute.
+     */
+    private RCSBusinessMessaging.Phones.GetCapabilities createGetCapabilitiesRequest(
+            String msisdn) throws IOException {
+        // convert the msisdn into the API format
+        String parent = convertToApiFormat(msisdn);
+
+        // build the request
+        RCSBusinessMessaging.Phones.GetCapabilities capabilityCheck
+                = rbmApi
+                .phones()
+                .getCapabilities(parent);
+
+        capabilityCheck.setRequestId(RandomMessageIdGenerator.randomUuid());
+
+        return capabilityCheck;
+    }
+
+    /**
+     * Builds a request uploading the file at the URL.
+     * @param rbmApi The RBM API client to build the request with.
+     * @param fileUrl A publicly available URL.
+     * @param thumbnailFileUrl Includes the thumbnail if there is one, or null.
+     * @return The request, ready to execute.
+     */
+    static RCSBusinessMessaging.Files.Create createFileRequest(RCSBusinessMessaging rbmApi,
+                                                               String fileUrl,
+                                                               String thumbnailFileUrl)
+            throws IOException {
+        CreateFileRequest fileRequest = new CreateFileRequest();
+        fileRequest.setFileUrl(fileUrl);
+
+        // add the thumbnail if there is one
+        if (thumbnailFileUrl != null && thumbnailFileUrl.length() > 0) {
+            fileRequest.setThumbnailUrl(thumbnailFileUrl);
         }
 
-        return resourceId;
+        return rbmApi.files().create(fileRequest);
     }
 
     /**
@@ -356,6 +635,420 @@ public class RbmApiHelper {
      */
     public void sendTextMessage(String messageText, String msisdn, List<Suggestion> suggestions)
             throws IOException {
+        sendAgentMessage(createTextMessage(messageText, suggestions), msisdn);
+    }
+
+    /**
+     * Asynchronously sends a text message to the user with the phone number msisdn.
+     * @param messageText The text to send the user.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendTextMessageAsync(String messageText, String msisdn) {
+        return sendTextMessageAsync(messageText, msisdn, null);
+    }
+
+    /**
+     * Asynchronously sends a text message to the user with the phone number msisdn.
+     * @param messageText The text to send the user.
+     * @param msisdn The phone number in E.164 format.
+     * @param suggestions The chip list suggestions.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendTextMessageAsync(String messageText,
+                                                                String msisdn,
+                                                                List<Suggestion> suggestions) {
+        return sendAgentMessageAsync(createTextMessage(messageText, suggestions), msisdn);
+    }
+
+    /**
+     * Generic method to execute the sending a standalone card to a client.
+     * @param standaloneCard The card object to send.
+     * @param msisdn The phone number in E.164 format.
+     * @throws IOException
+     */
+    public void sendStandaloneCard(StandaloneCard standaloneCard, String msisdn) throws IOException {
+        sendAgentMessage(createStandaloneCardMessage(standaloneCard), msisdn);
+    }
+
+    /**
+     * Asynchronously sends a standalone card to a client.
+     * @param standaloneCard The card object to send.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendStandaloneCardAsync(StandaloneCard standaloneCard,
+                                                                   String msisdn) {
+        return sendAgentMessageAsync(createStandaloneCardMessage(standaloneCard), msisdn);
+    }
+
+    /**
+     * Generic method to execute the sending of a carousel rich card to a client.
+     * @param cardContents List of CardContent items to be attached to the CarourselCard.
+     * @param cardWidth Width of the cards for the carousel.
+     * @param msisdn The phone number in E.164 format.
+     * @throws IOException
+     */
+    public void sendCarouselCards(List<CardContent> cardContents, CardWidth cardWidth, String msisdn)
+            throws IOException {
+        sendAgentMessage(createCarouselMessage(cardContents, cardWidth), msisdn);
+    }
+
+    /**
+     * Asynchronously sends a carousel rich card to a client.
+     * @param cardContents List of CardContent items to be attached to the CarouselCard.
+     * @param cardWidth Width of the cards for the carousel.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendCarouselCardsAsync(List<CardContent> cardContents,
+                                                                  CardWidth cardWidth,
+                                                                  String msisdn) {
+        return sendAgentMessageAsync(createCarouselMessage(cardContents, cardWidth), msisdn);
+    }
+
+    /**
+     * Generic method to execute the sending of an agent message to a client.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     */
+    public void sendAgentMessage(AgentMessage agentMessage, String msisdn) throws IOException {
+        sendAgentMessage(agentMessage, msisdn, messageIdGenerator.newMessageId(msisdn));
+    }
+
+    /**
+     * Sends an agent message with the given id. The platform discards a message whose id it
+     * has already seen, so sending again with the same id after a timeout or crash cannot
+     * deliver the message twice. A message downgraded into several parts is resent from the
+     * first part the platform does not have yet.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     * @param messageId The id of the message, a UUID.
+     */
+    public void sendAgentMessage(AgentMessage agentMessage, String msisdn, String messageId)
+            throws IOException {
+        if (preUploadMedia) {
+            agentMessage = createPerSendMediaPreUploader().preUpload(agentMessage);
+        }
+
+        sendParts(adaptToDevice(agentMessage, msisdn), msisdn, messageId);
+    }
+
+    /**
+     * Asynchronously sends an agent message to a client. The request runs on the helper's
+     * {@link AsyncRequestExecutor}.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the message created by the platform, or with the last
+     * one if the message was downgraded into several.
+     */
+    public CompletableFuture<AgentMessage> sendAgentMessageAsync(AgentMessage agentMessage,
+                                                                 String msisdn) {
+        return sendAgentMessageAsync(
+                agentMessage, msisdn, messageIdGenerator.newMessageId(msisdn));
+    }
+
+    /**
+     * Asynchronously sends an agent message with the given id. See
+     * {@link #sendAgentMessage(AgentMessage, String, String)}.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     * @param messageId The id of the message, a UUID.
+     * @return A future completed with the message created by the platform, or with the last
+     * one if the message was downgraded into several.
+     */
+    public CompletableFuture<AgentMessage> sendAgentMessageAsync(AgentMessage agentMessage,
+                                                                 String msisdn,
+                                                                 String messageId) {
+        AsyncRequestExecutor executor = getAsyncRequestExecutor();
+
+        if (preUploadMedia) {
+            // the uploads complete on the executor's threads, still holding their slots, so
+            // the send is queued rather than waiting there for a slot
+            return createPerSendMediaPreUploader().preUploadAsync(agentMessage).thenCompose(
+                    uploaded -> executor.submitOrQueue(
+                            agentMessageSender(uploaded, msisdn, messageId)));
+        }
+
+        return executor.submit(agentMessageSender(agentMessage, msisdn, messageId));
+    }
+
+    /**
+     * Creates the blocking call that sends an agent message, in parts if it is downgraded.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     * @param messageId The id of the message, a UUID.
+     * @return The call, returning the last message created by the platform.
+     */
+    private Callable<AgentMessage> agentMessageSender(AgentMessage agentMessage,
+                                                      String msisdn,
+                                                      String messageId) {
+        return () -> sendParts(adaptToDevice(agentMessage, msisdn), msisdn, messageId);
+    }
+
+    /**
+     * Sends the parts of an agent message in order, each under its own part id. A part the
+     * platform already has from an earlier attempt is skipped, except for the last one, whose
+     * outcome is the outcome of the whole message.
+     * @param deviceMessages The parts to send.
+     * @param msisdn The phone number in E.164 format.
+     * @param messageId The id of the message, a UUID.
+     * @return The last message created by the platform.
+     */
+    private AgentMessage sendParts(List<AgentMessage> deviceMessages,
+                                   String msisdn,
+                                   String messageId) throws IOException {
+        AgentMessage created = null;
+
+        for (int i = 0; i < deviceMessages.size(); i++) {
+            String partId = partMessageId(messageId, i);
+
+            try {
+                // execute the request, sending the part to the user's phone
+                created = createAgentMessageRequest(
+                        deviceMessages.get(i), msisdn, partId).execute();
+            } catch (HttpResponseException e) {
+                if (e.getStatusCode() != ALREADY_EXISTS || i == deviceMessages.size() - 1) {
+                    throw e;
+                }
+
+                rbmLogger.logSampled(Level.FINE, "Agent message part already sent", msisdn,
+                        () -> "messageId=" + partId);
+                continue;
+            }
+
+            rbmLogger.logSampled(Level.FINE, "Sent agent message", msisdn,
+                    () -> "messageId=" + partId);
+        }
+
+        return created;
+    }
+
+    /**
+     * Sends a READ request to a user's phone.
+     * @param messageId The message id for the message that was read.
+     * @param msisdn The phone number in E.164 format to send the event to.
+     */
+    public void sendReadMessage(String messageId, String msisdn) {
+        try {
+            // execute the request, sending the READ event to the user's phone
+            createAgentEventRequest(EventType.READ, messageId, msisdn).execute();
+        } catch(Exception e) {
+            logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
+        }
+    }
+
+    /**
+     * Asynchronously sends a READ event to a user's phone.
+     * @param messageId The message id for the message that was read.
+     * @param msisdn The phone number in E.164 format to send the event to.
+     * @return A future completed with the event created by the platform.
+     */
+    public CompletableFuture<AgentEvent> sendReadMessageAsync(String messageId, String msisdn) {
+        return getAsyncRequestExecutor().submit(
+                () -> createAgentEventRequest(EventType.READ, messageId, msisdn).execute());
+    }
+
+    /**
+     * Sends the IS_TYPING event to the user.
+     * @param msisdn The phone number in E.164 format to send the event to.
+     */
+    public void sendIsTypingMessage(String msisdn) {
+        try {
+            // execute the request, sending the IS_TYPING event to the user's phone
+            createAgentEventRequest(EventType.IS_TYPING, null, msisdn).execute();
+        } catch(Exception e) {
+            logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
+        }
+    }
+
+    /**
+     * Asynchronously sends the IS_TYPING event to the user.
+     * @param msisdn The phone number in E.164 format to send the event to.
+     * @return A future completed with the event created by the platform.
+     */
+    public CompletableFuture<AgentEvent> sendIsTypingMessageAsync(String msisdn) {
+        return getAsyncRequestExecutor().submit(
+                () -> createAgentEventRequest(EventType.IS_TYPING, null, msisdn).execute());
+    }
+
+    /**
+     * Sets the executor used by the asynchronous send methods. On JDK 21 and later, pass
+     * {@link AsyncRequestExecutor#newVirtualThreadExecutor(int)} to run every request on its
+     * own virtual thread.
+     * @param asyncRequestExecutor The executor and in-flight limit to use.
+     */
+    public synchronized void setAsyncRequestExecutor(AsyncRequestExecutor asyncRequestExecutor) {
+        this.asyncRequestExecutor = asyncRequestExecutor;
+    }
+
+    /**
+     * Returns the executor used by the asynchronous send methods, creating a default one
+     * backed by daemon threads on first use.
+     * @return The executor for asynchronous requests.
+     */
+    public synchronized AsyncRequestExecutor getAsyncRequestExecutor() {
+        if (asyncRequestExecutor == null) {
+            defaultAsyncExecutorService = Executors.newFixedThreadPool(
+                    DEFAULT_MAX_IN_FLIGHT, runnable -> {
+                        Thread thread = new Thread(runnable, "rbm-async-request");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+            asyncRequestExecutor =
+                    new AsyncRequestExecutor(defaultAsyncExecutorService, DEFAULT_MAX_IN_FLIGHT);
+        }
+
+        return asyncRequestExecutor;
+    }
+
+    /**
+     * Sets the cache used to look up the features of phone numbers.
+     * @param capabilityCache The capability cache to use.
+     */
+    public synchronized void setCapabilityCache(CapabilityCache capabilityCache) {
+        this.capabilityCache = capabilityCache;
+    }
+
+    /**
+     * Returns the cache used to look up the features of phone numbers, for example to decide
+     * between a rich card and a text fallback, creating one with the default TTLs and size
+     * on first use.
+     * @return The capability cache.
+     */
+    public synchronized CapabilityCache getCapabilityCache() {
+        if (capabilityCache == null) {
+            capabilityCache = CapabilityCache.newBuilder(rbmApi).build();
+        }
+
+        return capabilityCache;
+    }
+
+    /**
+     * Sets the uploader used for local files.
+     * @param fileUploader The file uploader to use.
+     */
+    public synchronized void setFileUploader(FileUploader fileUploader) {
+        this.fileUploader = fileUploader;
+    }
+
+    /**
+     * Returns the uploader used for local files, creating one with the default chunk size on
+     * first use.
+     * @return The file uploader.
+     */
+    public synchronized FileUploader getFileUploader() {
+        if (fileUploader == null) {
+            fileUploader = FileUploader.newBuilder(rbmApi).build();
+        }
+
+        return fileUploader;
+    }
+
+    /**
+     * Sets the cache that {@link #uploadFile} and {@link #createFile(String, String)} reuse
+     * the names of uploaded files from. There is none by default, since the cache assumes the
+     * content at a URL does not change.
+     * @param uploadCache The upload cache to use, or null to upload every time.
+     */
+    public void setUploadCache(UploadCache uploadCache) {
+        this.uploadCache = uploadCache;
+    }
+
+    /**
+     * @return The cache of uploaded files, or null if there is none.
+     */
+    public UploadCache getUploadCache() {
+        return uploadCache;
+    }
+
+    /**
+     * Returns the correlator that matches asynchronous capability checks with the callbacks
+     * received on the webhook, creating one on first use. Results are also stored in the
+     * {@link #getCapabilityCache() capability cache}.
+     * @return The capability callback correlator.
+     */
+    public synchronized CapabilityCallbackCorrelator getCapabilityCallbackCorrelator() {
+        if (capabilityCallbackCorrelator == null) {
+            capabilityCallbackCorrelator = new CapabilityCallbackCorrelator(
+                    rbmApi,
+                    CapabilityCallbackCorrelator.DEFAULT_TIMEOUT_MILLIS,
+                    getCapabilityCache(),
+                    16);
+        }
+
+        return capabilityCallbackCorrelator;
+    }
+
+    /**
+     * Sets the strategy for the ids of agent messages sent without an explicit id. Random
+     * ids are used by default.
+     * @param messageIdGenerator The message id strategy.
+     */
+    public void setMessageIdGenerator(MessageIdGenerator messageIdGenerator) {
+        this.messageIdGenerator = messageIdGenerator;
+    }
+
+    /**
+     * Enables rewriting agent messages for the features of the receiving device before they
+     * are sent, looked up through the {@link CapabilityCache}. Rich cards and suggested
+     * actions a device cannot render are downgraded as described in {@link MessageDowngrader}
+     * instead of being rejected by the platform.
+     * @param downgradeUnsupportedContent True to downgrade messages, false to send them as is.
+     */
+    public void setDowngradeUnsupportedContent(boolean downgradeUnsupportedContent) {
+        this.downgradeUnsupportedContent = downgradeUnsupportedContent;
+    }
+
+    /**
+     * Enables uploading the media of every agent message before it is sent, as
+     * {@link #preUploadMedia(AgentMessage)} does. Enabling it sets an in-memory
+     * {@link UploadCache} if there is none, so that each file is uploaded once rather than
+     * once per recipient. For the same reason, media with {@code forceRefresh} set is not
+     * uploaded again on every send; call {@link #preUploadMedia(AgentMessage)} once, for
+     * example before a campaign, to refresh it.
+     * @param preUploadMedia True to upload media before sending, false to let the platform
+     *                       fetch it from its URL.
+     */
+    public void setPreUploadMedia(boolean preUploadMedia) {
+        if (preUploadMedia) {
+            synchronized (this) {
+                if (uploadCache == null) {
+                    uploadCache = UploadCache.newBuilder(rbmApi).build();
+                }
+            }
+        }
+
+        this.preUploadMedia = preUploadMedia;
+    }
+
+    /**
+     * Returns the manager that refreshes the access token in the background, for example to
+     * read its refresh latency and failure counts.
+     * @return The access token manager, or null if the helper has no credentials.
+     */
+    public AccessTokenManager getAccessTokenManager() {
+        return accessTokenManager;
+    }
+
+    /**
+     * Returns the logger for the per-request events of this helper: sent messages, capability
+     * checks and tester registrations. Sends are logged at {@code FINE}; use the returned
+     * logger to set the sample rate or to turn off phone number redaction.
+     * @return The request event logger.
+     */
+    public RbmLogger getRbmLogger() {
+        return rbmLogger;
+    }
+
+    /**
+     * Wraps text and optional suggestions in an agent message.
+     * @param messageText The text to send the user.
+     * @param suggestions The chip list suggestions.
+     * @return The agent message.
+     */
+    private AgentMessage createTextMessage(String messageText, List<Suggestion> suggestions) {
         // create content to send to the user
         AgentContentMessage agentContentMessage = new AgentContentMessage();
         agentContentMessage.setText(messageText);
@@ -369,42 +1062,30 @@ public class RbmApiHelper {
         AgentMessage agentMessage = new AgentMessage();
         agentMessage.setContentMessage(agentContentMessage);
 
-        sendAgentMessage(agentMessage, msisdn);
+        return agentMessage;
     }
 
     /**
-     * Generic method to execute the sending a standalone card to a client.
+     * Wraps a standalone card in an agent message.
      * @param standaloneCard The card object to send.
-     * @param msisdn The phone number in E.164 format.
-     * @throws IOException
+     * @return The agent message.
      */
-    public void sendStandaloneCard(StandaloneCard standaloneCard, String msisdn) throws IOException {
+    private AgentMessage createStandaloneCardMessage(StandaloneCard standaloneCard) {
         // attach the standalone card to a rich card
         RichCard richCard = new RichCard();
         richCard.setStandaloneCard(standaloneCard);
 
-        // attach the rich card to the content for the message
-        AgentContentMessage agentContentMessage = new AgentContentMessage();
-        agentContentMessage.setRichCard(richCard);
-
-        // attach content to message
-        AgentMessage agentMessage = new AgentMessage();
-        agentMessage.setContentMessage(agentContentMessage);
-
-        // send the message to the user
-        sendAgentMessage(agentMessage, msisdn);
+        return createRichCardMessage(richCard);
     }
 
     /**
-     * Generic method to execute the sending of a carousel rich card to a client.
-     * @param cardContents List of CardContent items to be attached to the CarourselCard.
+     * Wraps a list of card contents in a carousel agent message.
+     * @param cardContents List of CardContent items to be attached to the CarouselCard.
      * @param cardWidth Width of the cards for the carousel.
-     * @param msisdn The phone number in E.164 format.
-     * @throws IOException
+     * @return The agent message.
      */
-    public void sendCarouselCards(List<CardContent> cardContents, CardWidth cardWidth, String msisdn)
-            throws IOException {
-        // create a carousel card and attach the falist of card contents
+    private AgentMessage createCarouselMessage(List<CardContent> cardContents, CardWidth cardWidth) {
+        // create a carousel card and attach the list of card contents
         CarouselCard carouselCard = new CarouselCard();
         carouselCard.setCardContents(cardContents);
         carouselCard.setCardWidth(cardWidth.toString());
@@ -413,6 +1094,15 @@ public class RbmApiHelper {
         RichCard richCard = new RichCard();
         richCard.setCarouselCard(carouselCard);
 
+        return createRichCardMessage(richCard);
+    }
+
+    /**
+     * Wraps a rich card in an agent message.
+     * @param richCard The rich card to send.
+     * @return The agent message.
+     */
+    private AgentMessage createRichCardMessage(RichCard richCard) {
         // attach the rich card to the content for the message
         AgentContentMessage agentContentMessage = new AgentContentMessage();
         agentContentMessage.setRichCard(richCard);
@@ -421,81 +1111,83 @@ public class RbmApiHelper {
         AgentMessage agentMessage = new AgentMessage();
         agentMessage.setContentMessage(agentContentMessage);
 
-        // send the message to the user
-        sendAgentMessage(agentMessage, msisdn);
+        return agentMessage;
     }
 
     /**
-     * Generic method to execute the sending of an agent message to a client.
+     * Rewrites an agent message for the device it is sent to, if downgrading is enabled.
      * @param agentMessage The message payload to send.
      * @param msisdn The phone number in E.164 format.
+     * @return The messages to send, in order.
      */
-    public void sendAgentMessage(AgentMessage agentMessage, String msisdn) throws IOException {
-        // create a message request to send to the msisdn
-        RCSBusinessMessaging.Phones.AgentMessages.Create message =
-                builder.build().phones().agentMessages().create(convertToApiFormat(msisdn), agentMessage);
+    private List<AgentMessage> adaptToDevice(AgentMessage agentMessage, String msisdn)
+            throws IOException {
+        if (!downgradeUnsupportedContent) {
+            return Collections.singletonList(agentMessage);
+        }
 
-        // generate a unique message id
-        message.setMessageId(UUID.randomUUID().toString());
+        CapabilityCache capabilityCache = getCapabilityCache();
 
-        logger.info("Sending message to client " + msisdn);
+        // let the platform report numbers that cannot receive RBM messages at all
+        if (!capabilityCache.isReachable(msisdn)) {
+            return Collections.singletonList(agentMessage);
+        }
 
-        // execute the request, sending the text to the user's phone
-        logger.info(message.execute().toString());
+        return MessageDowngrader.downgrade(agentMessage, capabilityCache.getFeatures(msisdn));
     }
 
     /**
-     * Sends a READ request to a user's phone.
-     * @param messageId The message id for the message that was read.
-     * @param msisdn The phone number in E.164 format to send the event to.
+     * Returns the id of a part of a message that was downgraded into several, so that every
+     * part keeps a stable id of its own.
+     * @param messageId The id of the message.
+     * @param part The position of the part, from 0.
+     * @return The id of the part.
      */
-    public void sendReadMessage(String messageId, String msisdn) {
-        try {
-            String deviceNumber = convertToApiFormat(msisdn);
-
-            // create READ event to send user
-            AgentEvent agentEvent = new AgentEvent();
-            agentEvent.setEventType(EventType.READ.toString());
-            agentEvent.setMessageId(messageId);
+    private static String partMessageId(String messageId, int part) {
+        return part == 0 ? messageId : NameBasedMessageIdGenerator.partMessageId(messageId, part);
+    }
 
-            // create an agent event request to send to the msisdn
-            RCSBusinessMessaging.Phones.AgentEvents.Create agentEventMessage =
-                    builder.build().phones().agentEvents().create(deviceNumber, agentEvent);
+    /**
+     * Creates the request that sends an agent message to the msisdn.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     * @param messageId The id of the message; retries of the request reuse it.
+     * @return The request, ready to execute.
+     */
+    private RCSBusinessMessaging.Phones.AgentMessages.Create createAgentMessageRequest(
+            AgentMessage agentMessage, String msisdn, String messageId) throws IOException {
+        RCSBusinessMessaging.Phones.AgentMessages.Create message =
+                rbmApi.phones().agentMessages().create(convertToApiFormat(msisdn), agentMessage);
 
-            // set a unique event id
-            agentEventMessage.setEventId(UUID.randomUUID().toString());
+        message.setMessageId(messageId);
 
-            // execute the request, sending the READ event to the user's phone
-            agentEventMessage.execute();
-        } catch(Exception e) {
-            logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
-        }
+        return message;
     }
 
     /**
-     * Sends the IS_TYPING event to the user.
+     * Creates the request that sends an agent event to the msisdn.
+     * @param eventType The type of event to send.
+     * @param messageId The message the event refers to, or null if there is none.
      * @param msisdn The phone number in E.164 format to send the event to.
+     * @return The request, ready to execute.
      */
-    public void sendIsTypingMessage(String msisdn) {
-        try {
-            String deviceNumber = convertToApiFormat(msisdn);
+    private RCSBusinessMessaging.Phones.AgentEvents.Create createAgentEventRequest(
+            EventType eventType, String messageId, String msisdn) throws IOException {
+        AgentEvent agentEvent = new AgentEvent();
+        agentEvent.setEventType(eventType.toString());
 
-            // create READ event to send user
-            AgentEvent agentEvent = new AgentEvent();
-            agentEvent.setEventType(EventType.IS_TYPING.toString());
+        if (messageId != null) {
+            agentEvent.setMessageId(messageId);
+        }
 
-            // create an agent event request to send to the msisdn
-            RCSBusinessMessaging.Phones.AgentEvents.Create agentEventMessage =
-                    builder.build().phones().agentEvents().create(deviceNumber, agentEvent);
+        // create an agent event request to send to the msisdn
+        RCSBusinessMessaging.Phones.AgentEvents.Create agentEventMessage =
+                rbmApi.phones().agentEvents().create(convertToApiFormat(msisdn), agentEvent);
 
-            // set a unique event id
-            agentEventMessage.setEventId(UUID.randomUUID().toString());
+        // set a unique event id
+        agentEventMessage.setEventId(RandomMessageIdGenerator.randomUuid());
 
-            // execute the request, sending the READ event to the user's phone
-            agentEventMessage.execute();
-        } catch(Exception e) {
-            logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
-        }
+        return agentEventMessage;
     }
 }
 // [END of the RBM API Helper]
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.http.GenericUrl;
+
+import java.util.List;
+
+/**
+ * The REST endpoints of the RBM API, used to apply per-endpoint request policies.
+ */
+public enum RbmEndpoint {
+    /** {@code v1/phones/{phone}/agentMessages} */
+    AGENT_MESSAGES("agentMessages"),
+
+    /** {@code v1/phones/{phone}/agentEvents} */
+    AGENT_EVENTS("agentEvents"),
+
+    /** {@code v1/phones/{phone}/dialogflowMessages} */
+    DIALOGFLOW_MESSAGES("dialogflowMessages"),
+
+    /** {@code v1/phones/{phone}/testers} */
+    TESTERS("testers"),
+
+    /** {@code v1/phones/{phone}/capabilities} */
+    CAPABILITIES("capabilities"),
+
+    /** {@code v1/phones/{phone}/capability:requestCapabilityCallback} */
+    CAPABILITY_CALLBACK("capability:requestCapabilityCallback"),
+
+    /** {@code v1/files} and {@code upload/v1/files} */
+    FILES("files"),
+
+    /**
+     * {@code upload/v1/files?upload_id=...}, the chunks of a resumable upload. A chunk only
+     * extends the upload session it belongs to, so unlike creating a file it is safe to retry.
+     */
+    FILE_UPLOAD_SESSION("files"),
+
+    /** {@code v1/users:batchGet} */
+    USERS_BATCH_GET("users:batchGet"),
+
+    /** The HTTP batch endpoint. */
+    BATCH("batch"),
+
+    /** Any path not listed above. */
+    OTHER("");
+
+    private final String pathSegment;
+
+    RbmEndpoint(String pathSegment) {
+        this.pathSegment = pathSegment;
+    }
+
+    /**
+     * @return The path segment that identifies this endpoint.
+     */
+    public String getPathSegment() {
+        return pathSegment;
+    }
+
+    /**
+     * Determines the endpoint a request URL refers to.
+     * @param url The request URL.
+     * @return The endpoint, or {@link #OTHER} if the path is not recognized.
+     */
+    public static RbmEndpoint fromUrl(GenericUrl url) {
+        List<String> path = url.getPathParts();
+        if (path == null) {
+            return OTHER;
+        }
+
+        for (int i = path.size() - 1; i >= 0; i--) {
+            String segment = path.get(i);
+
+            // phone scoped collections follow the phone number, v1/phones/{phone}/{collection}
+            if (i >= 2 && "phones".equals(path.get(i - 2))) {
+                return fromPathSegment(segment);
+            }
+
+            if (FILES.pathSegment.equals(segment)) {
+                return url.getFirst("upload_id") != null ? FILE_UPLOAD_SESSION : FILES;
+            }
+
+            if (USERS_BATCH_GET.pathSegment.equals(segment)
+                    || BATCH.pathSegment.equals(segment)) {
+                return fromPathSegment(segment);
+            }
+        }
+
+        return OTHER;
+    }
+
+    /**
+     * Returns the phone number a phone scoped request URL refers to.
+     * @param url The request URL.
+     * @return The phone number in E.164 format, or null if the URL is not phone scoped.
+     */
+    public static String phoneNumberFromUrl(GenericUrl url) {
+        List<String> path = url.getPathParts();
+        if (path == null) {
+            return null;
+        }
+
+        for (int i = 0; i < path.size() - 1; i++) {
+            if ("phones".equals(path.get(i))) {
+                return path.get(i + 1);
+            }
+        }
+
+        return null;
+    }
+
+    private static RbmEndpoint fromPathSegment(String segment) {
+        for (RbmEndpoint endpoint : values()) {
+            if (endpoint != OTHER && endpoint.pathSegment.equals(segment)) {
+                return endpoint;
+            }
+        }
+
+        return OTHER;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpIOExceptionHandler;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpRequestInitializer;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseInterceptor;
+import com.google.api.client.http.HttpUnsuccessfulResponseHandler;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.json.JsonObjectParser;
+import com.google.api.client.util.BackOff;
+
+import java.io.IOException;
+
+/**
+ * Initializes every HTTP request made by the RBM client: applies the wrapped initializer,
+ * normally an {@link AccessTokenManager} or a credential, and then installs the
+ * {@link RetryPolicy} and, if one is set, the {@link RbmRateLimiter}. Message and event bodies,
+ * and the matching responses, are read and written with {@link RbmJsonCodec} unless streaming
+ * JSON is turned off.
+ *
+ * <p>Install it with {@link RCSBusinessMessaging.Builder#setHttpRequestInitializer} so the
+ * policy covers every call made through the client, including batch requests.</p>
+ */
+public class RbmHttpRequestInitializer implements HttpRequestInitializer {
+    private final HttpRequestInitializer delegate;
+    private final RetryPolicy retryPolicy;
+    private final RbmRateLimiter rateLimiter;
+    private final boolean streamingJson;
+
+    /**
+     * @param delegate The initializer to apply first, or null for none.
+     * @param retryPolicy The retry policy for every request.
+     */
+    public RbmHttpRequestInitializer(HttpRequestInitializer delegate, RetryPolicy retryPolicy) {
+        this(delegate, retryPolicy, null);
+    }
+
+    /**
+     * @param delegate The initializer to apply first, or null for none.
+     * @param retryPolicy The retry policy for every request.
+     * @param rateLimiter The rate limiter every attempt must pass, or null for none.
+     */
+    public RbmHttpRequestInitializer(HttpRequestInitializer delegate,
+                                     RetryPolicy retryPolicy,
+                                     RbmRateLimiter rateLimiter) {
+        this(delegate, retryPolicy, rateLimiter, true);
+    }
+
+    /**
+     * @param delegate The initializer to apply first, or null for none.
+     * @param retryPolicy The retry policy for every request.
+     * @param rateLimiter The rate limiter every attempt must pass, or null for none.
+     * @param streamingJson Whether to use {@link RbmJsonCodec} instead of the reflective
+     *                      JSON code for the types it supports.
+     */
+    public RbmHttpRequestInitializer(HttpRequestInitializer delegate,
+                                     RetryPolicy retryPolicy,
+                                     RbmRateLimiter rateLimiter,
+                                     boolean streamingJson) {
+        this.delegate = delegate;
+        this.retryPolicy = retryPolicy;
+        this.rateLimiter = rateLimiter;
+        this.streamingJson = streamingJson;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    @Override
+    public void initialize(HttpRequest request) throws IOException {
+        if (delegate != null) {
+            delegate.initialize(request);
+        }
+
+        RetryHandler retryHandler = new RetryHandler(
+                request.getUnsuccessfulResponseHandler(), request.getResponseInterceptor());
+
+        request.setNumberOfRetries(Math.max(0, retryPolicy.getMaxAttempts() - 1));
+        request.setUnsuccessfulResponseHandler(retryHandler);
+        request.setIOExceptionHandler(retryHandler);
+        request.setResponseInterceptor(retryHandler);
+
+        if (rateLimiter != null) {
+            request.setInterceptor(new RateLimitingInterceptor(request.getInterceptor()));
+        }
+
+        if (streamingJson) {
+            request.setInterceptor(new StreamingJsonInterceptor(request.getInterceptor()));
+        }
+    }
+
+    /**
+     * Swaps in the streaming JSON content and parser. The client sets the body and parser
+     * after the initializer runs, so this happens at execute time; retries find them already
+     * swapped.
+     */
+    private static class StreamingJsonInterceptor implements HttpExecuteInterceptor {
+        private final HttpExecuteInterceptor wrappedInterceptor;
+
+        StreamingJsonInterceptor(HttpExecuteInterceptor wrappedInterceptor) {
+            this.wrappedInterceptor = wrappedInterceptor;
+        }
+
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+            if (request.getContent() instanceof JsonHttpContent
+                    && !(request.getContent() instanceof RbmJsonCodec.StreamingContent)) {
+                JsonHttpContent content = (JsonHttpContent) request.getContent();
+
+                if (content.getWrapperKey() == null && RbmJsonCodec.canWrite(content.getData())) {
+                    request.setContent(new RbmJsonCodec.StreamingContent(content));
+                }
+            }
+
+            if (request.getParser() instanceof JsonObjectParser) {
+                JsonObjectParser parser = (JsonObjectParser) request.getParser();
+
+                if (parser.getWrapperKeys().isEmpty()) {
+                    request.setParser(
+                            new RbmJsonCodec.StreamingParser(parser.getJsonFactory(), parser));
+                }
+            }
+
+            if (wrappedInterceptor != null) {
+                wrappedInterceptor.intercept(request);
+            }
+        }
+    }
+
+    /**
+     * Waits for the rate limiter before each attempt, retries included, and then runs the
+     * wrapped interceptor so credentials are applied after any wait.
+     */
+    private class RateLimitingInterceptor implements HttpExecuteInterceptor {
+        private final HttpExecuteInterceptor wrappedInterceptor;
+
+        RateLimitingInterceptor(HttpExecuteInterceptor wrappedInterceptor) {
+            this.wrappedInterceptor = wrappedInterceptor;
+        }
+
+        @Override
+        public void intercept(HttpRequest request) throws IOException {
+            Object agentId = request.getUrl().getFirst("agentId");
+
+            rateLimiter.acquire(agentId != null ? agentId.toString() : null,
+                    RbmEndpoint.fromUrl(request.getUrl()),
+                    RbmEndpoint.phoneNumberFromUrl(request.getUrl()));
+
+            if (wrappedInterceptor != null) {
+                wrappedInterceptor.intercept(request);
+            }
+        }
+    }
+
+    /**
+     * Retry state for a single request. The credential's handler keeps running first so an
+     * expired token is still refreshed and retried on a 401.
+     */
+    private class RetryHandler implements HttpUnsuccessfulResponseHandler,
+            HttpIOExceptionHandler, HttpResponseInterceptor {
+        private final HttpUnsuccessfulResponseHandler wrappedHandler;
+        private final HttpResponseInterceptor wrappedInterceptor;
+        private final BackOff backOff = retryPolicy.newBackOff();
+
+        RetryHandler(HttpUnsuccessfulResponseHandler wrappedHandler,
+                     HttpResponseInterceptor wrappedInterceptor) {
+            this.wrappedHandler = wrappedHandler;
+            this.wrappedInterceptor = wrappedInterceptor;
+        }
+
+        // runs once, on the response of the last attempt; failed attempts are recorded as they
+        // are handled
+        @Override
+        public void interceptResponse(HttpResponse response) throws IOException {
+            if (response.isSuccessStatusCode()) {
+                retryPolicy.getRetryBudget().onSuccess();
+            }
+
+            if (wrappedInterceptor != null) {
+                wrappedInterceptor.interceptResponse(response);
+            }
+        }
+
+        @Override
+        public boolean handleResponse(HttpRequest request,
+                                      HttpResponse response,
+                                      boolean supportsRetry) throws IOException {
+            boolean retryable = retryPolicy.isRetryable(
+                    RbmEndpoint.fromUrl(request.getUrl()), response.getStatusCode());
+            if (retryable) {
+                retryPolicy.getRetryBudget().onFailure();
+            }
+
+            if (wrappedHandler != null
+                    && wrappedHandler.handleResponse(request, response, supportsRetry)) {
+                return true;
+            }
+
+            if (!supportsRetry || !retryable || !retryPolicy.getRetryBudget().canRetry()) {
+                return false;
+            }
+
+            long retryAfterMillis = retryPolicy.getRetryAfterMillis(response.getHeaders());
+            if (retryAfterMillis < 0) {
+                return false;
+            }
+
+            return backOffAndRetry(request, retryAfterMillis);
+        }
+
+        @Override
+        public boolean handleIOException(HttpRequest request, boolean supportsRetry)
+                throws IOException {
+            retryPolicy.getRetryBudget().onFailure();
+
+            if (!supportsRetry
+                    || !retryPolicy.isRetryableOnIOException(RbmEndpoint.fromUrl(request.getUrl()))
+                    || !retryPolicy.getRetryBudget().canRetry()) {
+                return false;
+            }
+
+            return backOffAndRetry(request, 0);
+        }
+
+        private boolean backOffAndRetry(HttpRequest request, long minimumDelayMillis)
+                throws IOException {
+            long backOffMillis = backOff.nextBackOffMillis();
+            if (backOffMillis == BackOff.STOP) {
+                return false;
+            }
+
+            try {
+                request.getSleeper().sleep(Math.max(backOffMillis, minimumDelayMillis));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            return true;
+        }
+    }
+}
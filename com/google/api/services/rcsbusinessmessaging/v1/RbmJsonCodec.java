@@ -0,0 +1,998 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.JsonGenerator;
+import com.google.api.client.json.JsonParser;
+import com.google.api.client.json.JsonToken;
+import com.google.api.client.util.Charsets;
+import com.google.api.client.util.Data;
+import com.google.api.client.util.FieldInfo;
+import com.google.api.client.util.ObjectParser;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentEvent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Capabilities;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CardContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CarouselCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.ContentInfo;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CreateCalendarEventAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.DialAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.LatLng;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Media;
+import com.google.api.services.rcsbusinessmessaging.v1.model.OpenUrlAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.RichCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.ShareLocationAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.StandaloneCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedReply;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion;
+import com.google.api.services.rcsbusinessmessaging.v1.model.ViewLocationAction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming JSON reader and writer for the models on the send path, written directly against
+ * {@link JsonGenerator} and {@link JsonParser} instead of walking the {@code @Key} fields by
+ * reflection.
+ *
+ * <p>The output is byte for byte what {@link JsonFactory#toByteArray} produces: fields are
+ * written in the same sorted order, unset fields are skipped and {@link Data#isNull} values
+ * are written as JSON null. Unknown keys, explicit nulls and types this class does not cover
+ * fall back to the reflective code, so any model can be passed in.</p>
+ *
+ * <p>{@link RbmHttpRequestInitializer} installs it on every request, so callers normally do
+ * not use it directly.</p>
+ */
+public final class RbmJsonCodec {
+    private RbmJsonCodec() {
+    }
+
+    /**
+     * Returns whether requests with the given body are written by this class.
+     * @param data The request body.
+     */
+    public static boolean canWrite(Object data) {
+        return data != null
+                && (data.getClass() == AgentMessage.class || data.getClass() == AgentEvent.class);
+    }
+
+    /**
+     * Returns whether responses of the given type are read by this class.
+     * @param type The response type.
+     */
+    public static boolean canRead(Type type) {
+        return type == AgentMessage.class
+                || type == AgentEvent.class
+                || type == Capabilities.class;
+    }
+
+    /**
+     * Serializes the value to UTF-8 JSON.
+     * @param jsonFactory The JSON factory to create the generator with.
+     * @param value The value to serialize.
+     * @return The JSON bytes.
+     */
+    public static byte[] toByteArray(JsonFactory jsonFactory, Object value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        JsonGenerator generator = 
+                jsonFactory.createJsonGenerator(out, Charsets.UTF_8);
+        write(generator, value);
+        generator.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the value with the generator, streaming the supported models and falling back to
+     * {@link JsonGenerator#serialize} for anything else.
+     * @param generator The generator to write to.
+     * @param value The value to write.
+     */
+    public static void write(JsonGenerator generator, Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+
+        Class<?> valueClass = value.getClass();
+        if (valueClass == AgentMessage.class) {
+            writeAgentMessage(generator, (AgentMessage) value);
+        } else if (valueClass == AgentEvent.class) {
+            writeAgentEvent(generator, (AgentEvent) value);
+        } else {
+            generator.serialize(value);
+        }
+    }
+
+    /**
+     * Parses a value from the stream and closes it.
+     * @param jsonFactory The JSON factory to create the parser with.
+     * @param in The JSON input.
+     * @param dataClass The type to parse.
+     * @return The parsed value.
+     */
+    public static <T> T parseAndClose(JsonFactory jsonFactory, InputStream in, Class<T> dataClass)
+            throws IOException {
+        return dataClass.cast(read(jsonFactory.createJsonParser(in), dataClass));
+    }
+
+    /**
+     * Reads a value of the given type and closes the parser.
+     */
+    static Object read(JsonParser parser, Type dataType) throws IOException {
+        try {
+            JsonToken token = parser.getCurrentToken() != null
+                    ? parser.getCurrentToken()
+                    : parser.nextToken();
+
+            if (token != JsonToken.START_OBJECT) {
+                return parser.parse(dataType, false);
+            }
+
+            if (dataType == AgentMessage.class) {
+                return readAgentMessage(parser);
+            } else if (dataType == AgentEvent.class) {
+                return readAgentEvent(parser);
+            } else if (dataType == Capabilities.class) {
+                return readCapabilities(parser);
+            }
+
+            return parser.parse(dataType, false);
+        } finally {
+            parser.close();
+        }
+    }
+
+    // writers, one per model, fields in the same sorted order as the reflective output
+
+    private static void writeAgentMessage(JsonGenerator g, AgentMessage value) throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        if (value.getContentMessage() != null) {
+            g.writeFieldName("contentMessage");
+            writeAgentContentMessage(g, value.getContentMessage());
+        }
+        writeString(g, "name", value.getName());
+        writeString(g, "sendTime", value.getSendTime());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeAgentContentMessage(JsonGenerator g, AgentContentMessage value)
+            throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        if (value.getContentInfo() != null) {
+            g.writeFieldName("contentInfo");
+            writeContentInfo(g, value.getContentInfo());
+        }
+        writeString(g, "fileName", value.getFileName());
+        if (value.getRichCard() != null) {
+            g.writeFieldName("richCard");
+            writeRichCard(g, value.getRichCard());
+        }
+        if (value.getSuggestions() != null) {
+            g.writeFieldName("suggestions");
+            writeSuggestions(g, value.getSuggestions());
+        }
+        writeString(g, "text", value.getText());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeContentInfo(JsonGenerator g, ContentInfo value) throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        writeString(g, "fileUrl", value.getFileUrl());
+        if (value.getForceRefresh() != null) {
+            g.writeFieldName("forceRefresh");
+            g.serialize(value.getForceRefresh());
+        }
+        writeString(g, "thumbnailUrl", value.getThumbnailUrl());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeRichCard(JsonGenerator g, RichCard value) throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        if (value.getCarouselCard() != null) {
+            g.writeFieldName("carouselCard");
+            writeCarouselCard(g, value.getCarouselCard());
+        }
+        if (value.getStandaloneCard() != null) {
+            g.writeFieldName("standaloneCard");
+            writeStandaloneCard(g, value.getStandaloneCard());
+        }
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeCarouselCard(JsonGenerator g, CarouselCard value) throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        if (value.getCardContents() != null) {
+            g.writeFieldName("cardContents");
+            writeCardContents(g, value.getCardContents());
+        }
+        writeString(g, "cardWidth", value.getCardWidth());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeCardContents(JsonGenerator g, List<CardContent> cardContents)
+            throws IOException {
+        if (isNull(g, cardContents)) {
+            return;
+        }
+
+        g.writeStartArray();
+        for (int i = 0; i < cardContents.size(); i++) {
+            Object cardContent = cardContents.get(i);
+            if (cardContent != null && cardContent.getClass() == CardContent.class) {
+                writeCardContent(g, (CardContent) cardContent);
+            } else {
+                g.serialize(cardContent);
+            }
+        }
+        g.writeEndArray();
+    }
+
+    private static void writeStandaloneCard(JsonGenerator g, StandaloneCard value)
+            throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        if (value.getCardContent() != null) {
+            g.writeFieldName("cardContent");
+            writeCardContent(g, value.getCardContent());
+        }
+        writeString(g, "cardOrientation", value.getCardOrientation());
+        writeString(g, "thumbnailImageAlignment", value.getThumbnailImageAlignment());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeCardContent(JsonGenerator g, CardContent value) throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        writeString(g, "description", value.getDescription());
+        if (value.getMedia() != null) {
+            g.writeFieldName("media");
+            writeMedia(g, value.getMedia());
+        }
+        if (value.getSuggestions() != null) {
+            g.writeFieldName("suggestions");
+            writeSuggestions(g, value.getSuggestions());
+        }
+        writeString(g, "title", value.getTitle());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeMedia(JsonGenerator g, Media value) throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        if (value.getContentInfo() != null) {
+            g.writeFieldName("contentInfo");
+            writeContentInfo(g, value.getContentInfo());
+        }
+        writeString(g, "fileName", value.getFileName());
+        writeString(g, "height", value.getHeight());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeSuggestions(JsonGenerator g, List<Suggestion> suggestions)
+            throws IOException {
+        if (isNull(g, suggestions)) {
+            return;
+        }
+
+        g.writeStartArray();
+        for (int i = 0; i < suggestions.size(); i++) {
+            Object suggestion = suggestions.get(i);
+            if (suggestion != null && suggestion.getClass() == Suggestion.class) {
+                writeSuggestion(g, (Suggestion) suggestion);
+            } else {
+                g.serialize(suggestion);
+            }
+        }
+        g.writeEndArray();
+    }
+
+    private static void writeSuggestion(JsonGenerator g, Suggestion value) throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        if (value.getAction() != null) {
+            g.writeFieldName("action");
+            writeSuggestedAction(g, value.getAction());
+        }
+        if (value.getReply() != null) {
+            g.writeFieldName("reply");
+            writeSuggestedReply(g, value.getReply());
+        }
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeSuggestedReply(JsonGenerator g, SuggestedReply value)
+            throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        writeString(g, "postbackData", value.getPostbackData());
+        writeString(g, "text", value.getText());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeSuggestedAction(JsonGenerator g, SuggestedAction value)
+            throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        if (value.getCreateCalendarEventAction() != null) {
+            g.writeFieldName("createCalendarEventAction");
+            writeCreateCalendarEventAction(g, value.getCreateCalendarEventAction());
+        }
+        if (value.getDialAction() != null) {
+            g.writeFieldName("dialAction");
+            writeDialAction(g, value.getDialAction());
+        }
+        writeString(g, "fallbackUrl", value.getFallbackUrl());
+        if (value.getOpenUrlAction() != null) {
+            g.writeFieldName("openUrlAction");
+            writeOpenUrlAction(g, value.getOpenUrlAction());
+        }
+        if (value.getPaymentRequestAction() != null) {
+            // rarely used and deeply nested, left to the reflective writer
+            g.writeFieldName("paymentRequestAction");
+            g.serialize(value.getPaymentRequestAction());
+        }
+        writeString(g, "postbackData", value.getPostbackData());
+        if (value.getShareLocationAction() != null) {
+            g.writeFieldName("shareLocationAction");
+            writeShareLocationAction(g, value.getShareLocationAction());
+        }
+        writeString(g, "text", value.getText());
+        if (value.getViewLocationAction() != null) {
+            g.writeFieldName("viewLocationAction");
+            writeViewLocationAction(g, value.getViewLocationAction());
+        }
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeCreateCalendarEventAction(JsonGenerator g,
+                                                       CreateCalendarEventAction value)
+            throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        writeString(g, "description", value.getDescription());
+        writeString(g, "endTime", value.getEndTime());
+        writeString(g, "startTime", value.getStartTime());
+        writeString(g, "title", value.getTitle());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeDialAction(JsonGenerator g, DialAction value) throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        writeString(g, "phoneNumber", value.getPhoneNumber());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeOpenUrlAction(JsonGenerator g, OpenUrlAction value)
+            throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        writeString(g, "url", value.getUrl());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeShareLocationAction(JsonGenerator g, ShareLocationAction value)
+            throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeViewLocationAction(JsonGenerator g, ViewLocationAction value)
+            throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        writeString(g, "label", value.getLabel());
+        if (value.getLatLong() != null) {
+            g.writeFieldName("latLong");
+            writeLatLng(g, value.getLatLong());
+        }
+        writeString(g, "query", value.getQuery());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeLatLng(JsonGenerator g, LatLng value) throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        if (value.getLatitude() != null) {
+            g.writeFieldName("latitude");
+            g.serialize(value.getLatitude());
+        }
+        if (value.getLongitude() != null) {
+            g.writeFieldName("longitude");
+            g.serialize(value.getLongitude());
+        }
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeAgentEvent(JsonGenerator g, AgentEvent value) throws IOException {
+        if (isNull(g, value)) {
+            return;
+        }
+
+        g.writeStartObject();
+        writeString(g, "eventType", value.getEventType());
+        writeString(g, "messageId", value.getMessageId());
+        writeString(g, "name", value.getName());
+        writeString(g, "sendTime", value.getSendTime());
+        writeUnknownKeys(g, value);
+        g.writeEndObject();
+    }
+
+    private static void writeString(JsonGenerator g, String name, String value)
+            throws IOException {
+        if (value == null) {
+            return;
+        }
+
+        g.writeFieldName(name);
+        if (value == Data.NULL_STRING) {
+            g.writeNull();
+        } else {
+            g.writeString(value);
+        }
+    }
+
+    /**
+     * Writes JSON null for the {@link Data#nullOf} placeholders and returns whether it did.
+     */
+    private static boolean isNull(JsonGenerator g, Object value) throws IOException {
+        if (Data.isNull(value)) {
+            g.writeNull();
+            return true;
+        }
+
+        return false;
+    }
+
+    private static void writeUnknownKeys(JsonGenerator g, GenericJson value) throws IOException {
+        Map<String, Object> unknownKeys = value.getUnknownKeys();
+        if (unknownKeys.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<String, Object> entry : unknownKeys.entrySet()) {
+            if (entry.getValue() != null) {
+                g.writeFieldName(entry.getKey());
+                g.serialize(entry.getValue());
+            }
+        }
+    }
+
+    // readers, positioned on the START_OBJECT of the value and leaving the parser on its
+    // END_OBJECT, the same as the reflective parser
+
+    private static AgentMessage readAgentMessage(JsonParser p) throws IOException {
+        AgentMessage value = new AgentMessage();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("contentMessage".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setContentMessage(readAgentContentMessage(p));
+            } else if ("name".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setName(p.getText());
+            } else if ("sendTime".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setSendTime(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static AgentContentMessage readAgentContentMessage(JsonParser p) throws IOException {
+        AgentContentMessage value = new AgentContentMessage();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("contentInfo".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setContentInfo(readContentInfo(p));
+            } else if ("fileName".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setFileName(p.getText());
+            } else if ("richCard".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setRichCard(readRichCard(p));
+            } else if ("suggestions".equals(name) && token == JsonToken.START_ARRAY) {
+                value.setSuggestions(readSuggestions(p));
+            } else if ("text".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setText(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static ContentInfo readContentInfo(JsonParser p) throws IOException {
+        ContentInfo value = new ContentInfo();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("fileUrl".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setFileUrl(p.getText());
+            } else if ("forceRefresh".equals(name) && token == JsonToken.VALUE_TRUE) {
+                value.setForceRefresh(Boolean.TRUE);
+            } else if ("forceRefresh".equals(name) && token == JsonToken.VALUE_FALSE) {
+                value.setForceRefresh(Boolean.FALSE);
+            } else if ("thumbnailUrl".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setThumbnailUrl(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static RichCard readRichCard(JsonParser p) throws IOException {
+        RichCard value = new RichCard();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("carouselCard".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setCarouselCard(readCarouselCard(p));
+            } else if ("standaloneCard".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setStandaloneCard(readStandaloneCard(p));
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static CarouselCard readCarouselCard(JsonParser p) throws IOException {
+        CarouselCard value = new CarouselCard();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("cardContents".equals(name) && token == JsonToken.START_ARRAY) {
+                List<CardContent> cardContents = new ArrayList<CardContent>();
+                while (p.nextToken() == JsonToken.START_OBJECT) {
+                    cardContents.add(readCardContent(p));
+                }
+                if (p.getCurrentToken() != JsonToken.END_ARRAY) {
+                    throw new IllegalArgumentException("expected an object in cardContents");
+                }
+                value.setCardContents(cardContents);
+            } else if ("cardWidth".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setCardWidth(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static StandaloneCard readStandaloneCard(JsonParser p) throws IOException {
+        StandaloneCard value = new StandaloneCard();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("cardContent".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setCardContent(readCardContent(p));
+            } else if ("cardOrientation".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setCardOrientation(p.getText());
+            } else if ("thumbnailImageAlignment".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setThumbnailImageAlignment(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static CardContent readCardContent(JsonParser p) throws IOException {
+        CardContent value = new CardContent();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("description".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setDescription(p.getText());
+            } else if ("media".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setMedia(readMedia(p));
+            } else if ("suggestions".equals(name) && token == JsonToken.START_ARRAY) {
+                value.setSuggestions(readSuggestions(p));
+            } else if ("title".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setTitle(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static Media readMedia(JsonParser p) throws IOException {
+        Media value = new Media();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("contentInfo".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setContentInfo(readContentInfo(p));
+            } else if ("fileName".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setFileName(p.getText());
+            } else if ("height".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setHeight(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static List<Suggestion> readSuggestions(JsonParser p) throws IOException {
+        List<Suggestion> suggestions = new ArrayList<Suggestion>();
+        while (p.nextToken() == JsonToken.START_OBJECT) {
+            suggestions.add(readSuggestion(p));
+        }
+
+        if (p.getCurrentToken() != JsonToken.END_ARRAY) {
+            throw new IllegalArgumentException("expected an object in suggestions");
+        }
+
+        return suggestions;
+    }
+
+    private static Suggestion readSuggestion(JsonParser p) throws IOException {
+        Suggestion value = new Suggestion();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("action".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setAction(readSuggestedAction(p));
+            } else if ("reply".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setReply(readSuggestedReply(p));
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static SuggestedReply readSuggestedReply(JsonParser p) throws IOException {
+        SuggestedReply value = new SuggestedReply();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("postbackData".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setPostbackData(p.getText());
+            } else if ("text".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setText(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static SuggestedAction readSuggestedAction(JsonParser p) throws IOException {
+        SuggestedAction value = new SuggestedAction();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("dialAction".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setDialAction(readDialAction(p));
+            } else if ("fallbackUrl".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setFallbackUrl(p.getText());
+            } else if ("openUrlAction".equals(name) && token == JsonToken.START_OBJECT) {
+                value.setOpenUrlAction(readOpenUrlAction(p));
+            } else if ("postbackData".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setPostbackData(p.getText());
+            } else if ("text".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setText(p.getText());
+            } else {
+                // the location, calendar and payment actions are rare enough to parse reflectively
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static DialAction readDialAction(JsonParser p) throws IOException {
+        DialAction value = new DialAction();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("phoneNumber".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setPhoneNumber(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static OpenUrlAction readOpenUrlAction(JsonParser p) throws IOException {
+        OpenUrlAction value = new OpenUrlAction();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("url".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setUrl(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static AgentEvent readAgentEvent(JsonParser p) throws IOException {
+        AgentEvent value = new AgentEvent();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("eventType".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setEventType(p.getText());
+            } else if ("messageId".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setMessageId(p.getText());
+            } else if ("name".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setName(p.getText());
+            } else if ("sendTime".equals(name) && token == JsonToken.VALUE_STRING) {
+                value.setSendTime(p.getText());
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    private static Capabilities readCapabilities(JsonParser p) throws IOException {
+        Capabilities value = new Capabilities();
+        value.setFactory(p.getFactory());
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken token = p.nextToken();
+
+            if ("features".equals(name) && token == JsonToken.START_ARRAY) {
+                List<String> features = new ArrayList<String>();
+                while (p.nextToken() == JsonToken.VALUE_STRING) {
+                    features.add(p.getText());
+                }
+                if (p.getCurrentToken() != JsonToken.END_ARRAY) {
+                    throw new IllegalArgumentException("expected a string in features");
+                }
+                value.setFeatures(features);
+            } else {
+                readReflective(p, value, name);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Parses the current value with the reflective parser, for unknown keys, explicit nulls
+     * and the less common fields.
+     */
+    private static void readReflective(JsonParser p, GenericJson destination, String name)
+            throws IOException {
+        FieldInfo fieldInfo = destination.getClassInfo().getFieldInfo(name);
+        destination.set(name, p.parse(fieldInfo != null ? fieldInfo.getGenericType() : null, false));
+    }
+
+    /**
+     * Request content that streams the supported models and serializes them only once, so the
+     * length calculation, the send and any retries reuse the same bytes.
+     */
+    static class StreamingContent extends JsonHttpContent {
+        private byte[] bytes;
+
+        StreamingContent(JsonHttpContent content) {
+            super(content.getJsonFactory(), content.getData());
+            setMediaType(content.getMediaType());
+        }
+
+        private synchronized byte[] getBytes() throws IOException {
+            if (bytes == null) {
+                bytes = toByteArray(getJsonFactory(), getData());
+            }
+
+            return bytes;
+        }
+
+        @Override
+        public long getLength() throws IOException {
+            return getBytes().length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(getBytes());
+            out.flush();
+        }
+    }
+
+    /**
+     * Response parser that streams the supported types and hands everything else to the
+     * client's own parser.
+     */
+    static class StreamingParser implements ObjectParser {
+        private final JsonFactory jsonFactory;
+        private final ObjectParser delegate;
+
+        StreamingParser(JsonFactory jsonFactory, ObjectParser delegate) {
+            this.jsonFactory = jsonFactory;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public <T> T parseAndClose(InputStream in, Charset charset, Class<T> dataClass)
+                throws IOException {
+            return dataClass.cast(parseAndClose(in, charset, (Type) dataClass));
+        }
+
+        @Override
+        public Object parseAndClose(InputStream in, Charset charset, Type dataType)
+                throws IOException {
+            if (!canRead(dataType)) {
+                return delegate.parseAndClose(in, charset, dataType);
+            }
+
+            return read(jsonFactory.createJsonParser(in, charset), dataType);
+        }
+
+        @Override
+        public <T> T parseAndClose(Reader reader, Class<T> dataClass) throws IOException {
+            return dataClass.cast(parseAndClose(reader, (Type) dataClass));
+        }
+
+        @Override
+        public Object parseAndClose(Reader reader, Type dataType) throws IOException {
+            if (!canRead(dataType)) {
+                return delegate.parseAndClose(reader, dataType);
+            }
+
+            return read(jsonFactory.createJsonParser(reader), dataType);
+        }
+    }
+}
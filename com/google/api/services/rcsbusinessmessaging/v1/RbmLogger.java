@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Structured logging for the per-request events of {@link RbmApiHelper}.
+ *
+ * <p>Each record is an event name followed by the phone number it concerns and optional
+ * details, for example {@code Sent agent message msisdn=+1********34 messageId=...}. The details
+ * are only built when the record is actually written, and the level check comes first, so a
+ * disabled event costs a volatile read and nothing else. Events logged with
+ * {@link #logSampled} are further thinned out by the sample rate.</p>
+ *
+ * <p>Phone numbers are redacted to their first and last two characters unless redaction is
+ * turned off.</p>
+ */
+public final class RbmLogger {
+    // Number of characters kept at each end of a redacted phone number
+    private static final int VISIBLE_CHARS = 2;
+
+    private final Logger logger;
+
+    // Fraction of sampled events that are written, between 0 and 1
+    private volatile double sampleRate = 1.0;
+
+    // Whether phone numbers are redacted in the records
+    private volatile boolean redactPhoneNumbers = true;
+
+    /**
+     * @param logger The logger the records are written to.
+     */
+    public RbmLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Sets the fraction of sampled events that are written. The default of 1 writes every
+     * event whose level is enabled.
+     * @param sampleRate A rate between 0 and 1.
+     * @return This logger.
+     */
+    public RbmLogger setSampleRate(double sampleRate) {
+        if (!(sampleRate >= 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+        }
+
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Sets whether phone numbers are redacted in the records, on by default.
+     * @param redactPhoneNumbers False to log phone numbers in full.
+     * @return This logger.
+     */
+    public RbmLogger setRedactPhoneNumbers(boolean redactPhoneNumbers) {
+        this.redactPhoneNumbers = redactPhoneNumbers;
+        return this;
+    }
+
+    public boolean isRedactPhoneNumbers() {
+        return redactPhoneNumbers;
+    }
+
+    public Logger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Returns whether records at the level are written.
+     * @param level The level to check.
+     * @return True if the level is enabled.
+     */
+    public boolean isLoggable(Level level) {
+        return logger.isLoggable(level);
+    }
+
+    /**
+     * Writes an event if its level is enabled.
+     * @param level The level of the event.
+     * @param event The name of the event.
+     * @param msisdn The phone number the event concerns, or null.
+     * @param details Supplies the details of the event, or null if there are none.
+     */
+    public void log(Level level, String event, String msisdn, Supplier<String> details) {
+        if (logger.isLoggable(level)) {
+            write(level, event, msisdn, details);
+        }
+    }
+
+    /**
+     * Writes an event if its level is enabled and it is picked by the sample rate. Use for
+     * events logged on every request.
+     * @param level The level of the event.
+     * @param event The name of the event.
+     * @param msisdn The phone number the event concerns, or null.
+     * @param details Supplies the details of the event, or null if there are none.
+     */
+    public void logSampled(Level level, String event, String msisdn, Supplier<String> details) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+
+        double rate = sampleRate;
+        if (rate < 1 && (rate == 0 || ThreadLocalRandom.current().nextDouble() >= rate)) {
+            return;
+        }
+
+        write(level, event, msisdn, details);
+    }
+
+    /**
+     * Returns the phone number as it appears in the records.
+     * @param msisdn The phone number in E.164 format.
+     * @return The redacted phone number, or the number itself if redaction is off.
+     */
+    public String formatPhoneNumber(String msisdn) {
+        return redactPhoneNumbers ? redact(msisdn) : msisdn;
+    }
+
+    /**
+     * Masks all but the first and last two characters of a phone number, so
+     * {@code +15551234567} becomes {@code +1********67}. Numbers too short to keep anything
+     * are masked entirely.
+     * @param msisdn The phone number in E.164 format.
+     * @return The redacted phone number.
+     */
+    public static String redact(String msisdn) {
+        if (msisdn == null) {
+            return null;
+        }
+
+        int length = msisdn.length();
+        char[] redacted = new char[length];
+        for (int i = 0; i < length; i++) {
+            boolean visible = length > 3 * VISIBLE_CHARS
+                    && (i < VISIBLE_CHARS || i >= length - VISIBLE_CHARS);
+            redacted[i] = visible ? msisdn.charAt(i) : '*';
+        }
+
+        return new String(redacted);
+    }
+
+    private void write(Level level, String event, String msisdn, Supplier<String> details) {
+        StringBuilder record = new StringBuilder(event);
+        if (msisdn != null) {
+            record.append(" msisdn=").append(formatPhoneNumber(msisdn));
+        }
+
+        if (details != null) {
+            record.append(' ').append(details.get());
+        }
+
+        // logp, since the caller inferred by Logger.log would be this class
+        logger.logp(level, logger.getName(), null, record.toString());
+    }
+}
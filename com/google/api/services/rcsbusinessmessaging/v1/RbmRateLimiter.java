@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Client-side rate limiter that shapes outbound RBM traffic before the platform rejects it
+ * with a 429.
+ *
+ * <p>Two kinds of limits can be configured:</p>
+ * <ul>
+ *   <li>Per agent and endpoint: for example the agentMessages QPS of an agent. A limit set
+ *   without an agent id applies to every agent, each agent getting its own bucket.</li>
+ *   <li>Per phone number: the rate at which a single user may receive agent messages.</li>
+ * </ul>
+ *
+ * <p>Each limit is a lock-free {@link TokenBucket}, and buckets are held in concurrent maps,
+ * so threads sending to different agents, endpoints or users never contend. Requests wait for
+ * their permits, up to {@code maxWaitMillis}; a request that would wait longer fails with a
+ * {@link RateLimitExceededException} without being sent.</p>
+ *
+ * <p>Configure the limits before the limiter is first used; buckets that already exist keep
+ * the rate they were created with.</p>
+ */
+public class RbmRateLimiter {
+    // agent id used for requests that do not name an agent
+    static final String DEFAULT_AGENT = "";
+
+    // per phone buckets are swept for idle entries once the map grows past this size
+    private static final int PHONE_BUCKET_SWEEP_THRESHOLD = 100000;
+
+    private final Map<RbmEndpoint, Limit> endpointLimits =
+            new ConcurrentHashMap<RbmEndpoint, Limit>();
+    private final Map<String, Limit> agentEndpointLimits = new ConcurrentHashMap<String, Limit>();
+    private final Map<String, TokenBucket> endpointBuckets =
+            new ConcurrentHashMap<String, TokenBucket>();
+
+    private volatile Limit phoneNumberLimit;
+    private final Map<String, TokenBucket> phoneNumberBuckets =
+            new ConcurrentHashMap<String, TokenBucket>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    private volatile long maxWaitNanos = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Limits calls to an endpoint for every agent.
+     * @param endpoint The endpoint to limit.
+     * @param permitsPerSecond The sustained calls per second for each agent.
+     * @param burst The number of calls that may be made at once after a quiet period.
+     */
+    public RbmRateLimiter setEndpointLimit(RbmEndpoint endpoint, double permitsPerSecond, int burst) {
+        endpointLimits.put(endpoint, new Limit(permitsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Limits calls to an endpoint for a single agent, overriding the limit for all agents.
+     * @param agentId The agent id passed with the requests.
+     * @param endpoint The endpoint to limit.
+     * @param permitsPerSecond The sustained calls per second.
+     * @param burst The number of calls that may be made at once after a quiet period.
+     */
+    public RbmRateLimiter setEndpointLimit(String agentId,
+                                           RbmEndpoint endpoint,
+                                           double permitsPerSecond,
+                                           int burst) {
+        agentEndpointLimits.put(bucketKey(agentId, endpoint), new Limit(permitsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Limits the agent messages sent to a single phone number.
+     * @param permitsPerSecond The sustained messages per second for each user.
+     * @param burst The number of messages a user may receive at once after a quiet period.
+     */
+    public RbmRateLimiter setPhoneNumberLimit(double permitsPerSecond, int burst) {
+        this.phoneNumberLimit = new Limit(permitsPerSecond, burst);
+        return this;
+    }
+
+    /**
+     * Sets the longest a request may wait for its permits before it fails.
+     */
+    public RbmRateLimiter setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        return this;
+    }
+
+    /**
+     * Waits until a request may be sent.
+     * @param agentId The agent id of the request, or null if it has none.
+     * @param endpoint The endpoint the request is sent to.
+     * @param phoneNumber The phone number the request is for, or null if it has none.
+     * @throws RateLimitExceededException If the request would have to wait too long.
+     * @throws InterruptedIOException If the thread is interrupted while waiting.
+     */
+    public void acquire(String agentId, RbmEndpoint endpoint, String phoneNumber)
+            throws RateLimitExceededException, InterruptedIOException {
+        long waitNanos = 0;
+
+        TokenBucket endpointBucket = endpointBucket(agentId, endpoint);
+        if (endpointBucket != null) {
+            waitNanos = endpointBucket.tryReserve(maxWaitNanos);
+            if (waitNanos < 0) {
+                throw new RateLimitExceededException(
+                        "rate limit for " + endpoint + " would be exceeded");
+            }
+        }
+
+        TokenBucket phoneNumberBucket = phoneNumberBucket(endpoint, phoneNumber);
+        if (phoneNumberBucket != null) {
+            long phoneWaitNanos = phoneNumberBucket.tryReserve(maxWaitNanos);
+            if (phoneWaitNanos < 0) {
+                // the request is not sent, so it must not use up the endpoint's rate either
+                if (endpointBucket != null) {
+                    endpointBucket.release();
+                }
+
+                throw new RateLimitExceededException("rate limit for the phone number would be exceeded");
+            }
+            waitNanos = Math.max(waitNanos, phoneWaitNanos);
+        }
+
+        sleep(waitNanos);
+    }
+
+    private TokenBucket endpointBucket(String agentId, RbmEndpoint endpoint) {
+        String key = bucketKey(agentId, endpoint);
+
+        TokenBucket bucket = endpointBuckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+
+        Limit limit = agentEndpointLimits.get(key);
+        if (limit == null) {
+            limit = endpointLimits.get(endpoint);
+        }
+
+        if (limit == null) {
+            return null;
+        }
+
+        Limit bucketLimit = limit;
+        return endpointBuckets.computeIfAbsent(key, k -> bucketLimit.newBucket());
+    }
+
+    private TokenBucket phoneNumberBucket(RbmEndpoint endpoint, String phoneNumber) {
+        Limit limit = phoneNumberLimit;
+        if (limit == null || phoneNumber == null || endpoint != RbmEndpoint.AGENT_MESSAGES) {
+            return null;
+        }
+
+        TokenBucket bucket = phoneNumberBuckets.get(phoneNumber);
+        if (bucket == null) {
+            if (phoneNumberBuckets.size() > PHONE_BUCKET_SWEEP_THRESHOLD) {
+                sweepIdlePhoneNumberBuckets();
+            }
+            bucket = phoneNumberBuckets.computeIfAbsent(phoneNumber, k -> limit.newBucket());
+        }
+
+        return bucket;
+    }
+
+    /**
+     * Drops buckets that are full again; a new bucket for the same user behaves identically.
+     */
+    private void sweepIdlePhoneNumberBuckets() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            phoneNumberBuckets.values().removeIf(TokenBucket::isIdle);
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private static String bucketKey(String agentId, RbmEndpoint endpoint) {
+        return (agentId != null ? agentId : DEFAULT_AGENT) + '/' + endpoint.name();
+    }
+
+    private static void sleep(long waitNanos) throws InterruptedIOException {
+        long deadline = System.nanoTime() + waitNanos;
+
+        while (waitNanos > 0) {
+            LockSupport.parkNanos(waitNanos);
+
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for the rate limiter");
+            }
+
+            waitNanos = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * A configured rate, from which a bucket is created for each key it applies to.
+     */
+    private static class Limit {
+        final double permitsPerSecond;
+        final int burst;
+
+        Limit(double permitsPerSecond, int burst) {
+            if (permitsPerSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+            }
+
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+
+        TokenBucket newBucket() {
+            return new TokenBucket(permitsPerSecond, burst);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.params.HttpParams;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+/**
+ * Settings for the HTTP transport created by {@link RbmApiHelper} and for the policies applied
+ * to every request sent over it.
+ *
+ * <p>The defaults select {@link TransportType#NET_HTTP}, which matches the transport the helper
+ * has always used. Select {@link TransportType#APACHE_POOLED} to send through a shared pool of
+ * keep-alive connections; the pool limits and idle eviction settings only apply to that type.</p>
+ */
+public class RbmTransportOptions {
+    private TransportType transportType = TransportType.NET_HTTP;
+    private int maxConnections = 200;
+    private int maxConnectionsPerRoute = 100;
+    private long idleConnectionTimeoutMillis = 30000;
+    private long evictionIntervalMillis = 5000;
+    private RetryPolicy retryPolicy = new RetryPolicy();
+    private RbmRateLimiter rateLimiter;
+    private String rootUrl;
+    private boolean streamingJson = true;
+
+    public TransportType getTransportType() {
+        return transportType;
+    }
+
+    public RbmTransportOptions setTransportType(TransportType transportType) {
+        this.transportType = transportType;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Sets the maximum number of open connections across all routes.
+     * @param maxConnections The pool size.
+     */
+    public RbmTransportOptions setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Sets the maximum number of open connections to a single host. All RBM calls go to
+     * the same host, so this is normally the effective concurrency limit.
+     * @param maxConnectionsPerRoute The per host pool size.
+     */
+    public RbmTransportOptions setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        return this;
+    }
+
+    public long getIdleConnectionTimeoutMillis() {
+        return idleConnectionTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a pooled connection may stay unused before it is closed.
+     * @param idleConnectionTimeoutMillis The idle time in milliseconds.
+     */
+    public RbmTransportOptions setIdleConnectionTimeoutMillis(long idleConnectionTimeoutMillis) {
+        this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+        return this;
+    }
+
+    public long getEvictionIntervalMillis() {
+        return evictionIntervalMillis;
+    }
+
+    /**
+     * Sets how often the pool is swept for idle and expired connections.
+     * @param evictionIntervalMillis The sweep interval in milliseconds.
+     */
+    public RbmTransportOptions setEvictionIntervalMillis(long evictionIntervalMillis) {
+        this.evictionIntervalMillis = evictionIntervalMillis;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the retry policy applied to every request. Use {@link RetryPolicy#noRetries()} to
+     * turn retries off.
+     * @param retryPolicy The retry policy.
+     */
+    public RbmTransportOptions setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public RbmRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Sets the client-side rate limiter every request must pass before it is sent.
+     * @param rateLimiter The rate limiter, or null to send without local limits.
+     */
+    public RbmTransportOptions setRateLimiter(RbmRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    public String getRootUrl() {
+        return rootUrl;
+    }
+
+    /**
+     * Sets the root URL requests are sent to, for example the URL of the
+     * {@code FakeRbmServer} in the test sources.
+     * @param rootUrl The root URL, or null for {@link RCSBusinessMessaging#DEFAULT_ROOT_URL}.
+     */
+    public RbmTransportOptions setRootUrl(String rootUrl) {
+        this.rootUrl = rootUrl;
+        return this;
+    }
+
+    public boolean isStreamingJson() {
+        return streamingJson;
+    }
+
+    /**
+     * Sets whether messages, events and their responses are read and written with
+     * {@link RbmJsonCodec} instead of the reflective JSON code. On by default.
+     * @param streamingJson False to use the reflective code for every request.
+     */
+    public RbmTransportOptions setStreamingJson(boolean streamingJson) {
+        this.streamingJson = streamingJson;
+        return this;
+    }
+
+    /**
+     * Creates a new transport based on these options.
+     * @return The HTTP transport.
+     */
+    public HttpTransport newTransport() throws GeneralSecurityException, IOException {
+        if (transportType == TransportType.APACHE_POOLED) {
+            // a single SSL socket factory is shared by every pooled connection, so TLS
+            // sessions are cached and resumed when a new connection has to be opened
+            ApacheHttpTransport.Builder transportBuilder = new ApacheHttpTransport.Builder()
+                    .trustCertificates(GoogleUtils.getCertificateTrustStore());
+
+            HttpParams params = transportBuilder.getHttpParams();
+            ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+            ConnManagerParams.setMaxConnectionsPerRoute(params,
+                    new ConnPerRouteBean(maxConnectionsPerRoute));
+
+            return transportBuilder.build();
+        }
+
+        return GoogleNetHttpTransport.newTrustedTransport();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+/**
+ * Reach figures aggregated over every {@code users.batchGet} call of a bulk reachability check.
+ */
+public class ReachEstimate {
+    private final long checkedUserCount;
+    private final long reachableUserCount;
+    private final long totalRandomSampleUserCount;
+    private final long reachableRandomSampleUserCount;
+
+    public ReachEstimate(long checkedUserCount,
+                         long reachableUserCount,
+                         long totalRandomSampleUserCount,
+                         long reachableRandomSampleUserCount) {
+        this.checkedUserCount = checkedUserCount;
+        this.reachableUserCount = reachableUserCount;
+        this.totalRandomSampleUserCount = totalRandomSampleUserCount;
+        this.reachableRandomSampleUserCount = reachableRandomSampleUserCount;
+    }
+
+    /**
+     * @return The number of phone numbers that were checked.
+     */
+    public long getCheckedUserCount() {
+        return checkedUserCount;
+    }
+
+    /**
+     * @return The number of phone numbers reachable by the agent in its launched carriers.
+     */
+    public long getReachableUserCount() {
+        return reachableUserCount;
+    }
+
+    /**
+     * @return The size of the random samples the platform drew across all chunks.
+     */
+    public long getTotalRandomSampleUserCount() {
+        return totalRandomSampleUserCount;
+    }
+
+    /**
+     * @return The number of RCS-enabled users in the random samples, regardless of launch status.
+     */
+    public long getReachableRandomSampleUserCount() {
+        return reachableRandomSampleUserCount;
+    }
+
+    /**
+     * Estimates the share of the checked users that are RCS-enabled, regardless of the
+     * agent's launch status.
+     * @return The reachable fraction of the random samples, or 0 if nothing was sampled.
+     */
+    public double getEstimatedReachRatio() {
+        if (totalRandomSampleUserCount == 0) {
+            return 0;
+        }
+
+        return (double) reachableRandomSampleUserCount / totalRandomSampleUserCount;
+    }
+
+    /**
+     * @return The estimated number of RCS-enabled users among the checked users.
+     */
+    public long getEstimatedReachableUserCount() {
+        return Math.round(getEstimatedReachRatio() * checkedUserCount);
+    }
+
+    @Override
+    public String toString() {
+        return "ReachEstimate{checkedUserCount=" + checkedUserCount
+                + ", reachableUserCount=" + reachableUserCount
+                + ", totalRandomSampleUserCount=" + totalRandomSampleUserCount
+                + ", reachableRandomSampleUserCount=" + reachableRandomSampleUserCount + "}";
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries to a share of overall traffic so that retries cannot amplify an overload.
+ *
+ * <p>The budget holds up to {@code maxTokens} tokens. Every failed attempt removes one token
+ * and every successful response adds back {@code tokenRatio} tokens. Retries are only allowed
+ * while more than half of the tokens are left, so once failures outweigh successes the client
+ * stops retrying until enough requests succeed again. Updates are lock-free.</p>
+ */
+public class RetryBudget {
+    // tokens are kept in thousandths so the ratio can be applied with integer arithmetic
+    private static final long SCALE = 1000;
+
+    private final long maxTokens;
+    private final long threshold;
+    private final long tokenRatio;
+    private final AtomicLong tokens;
+
+    /**
+     * @param maxTokens The size of the budget.
+     * @param tokenRatio The tokens credited for each successful response, for example
+     *        {@code 0.1} to allow roughly one retry per ten successful requests under sustained
+     *        failure.
+     */
+    public RetryBudget(int maxTokens, double tokenRatio) {
+        if (maxTokens < 1 || tokenRatio <= 0) {
+            throw new IllegalArgumentException("maxTokens and tokenRatio must be positive");
+        }
+
+        this.maxTokens = maxTokens * SCALE;
+        this.threshold = this.maxTokens / 2;
+        this.tokenRatio = Math.max(1, Math.round(tokenRatio * SCALE));
+        this.tokens = new AtomicLong(this.maxTokens);
+    }
+
+    /**
+     * Records a successful response.
+     */
+    public void onSuccess() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current == maxTokens) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.min(maxTokens, current + tokenRatio)));
+    }
+
+    /**
+     * Records a failed attempt.
+     */
+    public void onFailure() {
+        long current;
+        do {
+            current = tokens.get();
+            if (current == 0) {
+                return;
+            }
+        } while (!tokens.compareAndSet(current, Math.max(0, current - SCALE)));
+    }
+
+    /**
+     * @return Whether a failed attempt may be retried.
+     */
+    public boolean canRetry() {
+        return tokens.get() > threshold;
+    }
+
+    /**
+     * @return The tokens currently in the budget.
+     */
+    public double getTokens() {
+        return (double) tokens.get() / SCALE;
+    }
+}
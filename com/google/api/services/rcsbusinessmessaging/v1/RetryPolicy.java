@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes how failed RBM API calls are retried.
+ *
+ * <p>Retries wait for a jittered exponential backoff, or for the server's {@code Retry-After}
+ * hint when it is longer. Which status codes are retried is decided per {@link RbmEndpoint}:
+ * by default 429, 500, 502, 503 and 504 are retried everywhere except file uploads, which only
+ * retry 429 and 503 because other failures may have created the file. All retries draw from a
+ * shared {@link RetryBudget}.</p>
+ */
+public class RetryPolicy {
+    private static final Set<Integer> DEFAULT_RETRYABLE_STATUS_CODES =
+            Collections.unmodifiableSet(new HashSet<Integer>(Arrays.asList(429, 500, 502, 503, 504)));
+
+    private static final Set<Integer> FILES_RETRYABLE_STATUS_CODES =
+            Collections.unmodifiableSet(new HashSet<Integer>(Arrays.asList(429, 503)));
+
+    private int maxAttempts = 4;
+    private int initialIntervalMillis = 500;
+    private double multiplier = 2.0;
+    private int maxIntervalMillis = 30000;
+    private double randomizationFactor = 0.5;
+    private boolean honorRetryAfter = true;
+    private long maxRetryAfterMillis = 60000;
+    private RetryBudget retryBudget = new RetryBudget(100, 0.1);
+
+    private final Map<RbmEndpoint, Set<Integer>> retryableStatusCodes =
+            new EnumMap<RbmEndpoint, Set<Integer>>(RbmEndpoint.class);
+
+    private final Set<RbmEndpoint> retryOnIOException = EnumSet.allOf(RbmEndpoint.class);
+
+    public RetryPolicy() {
+        for (RbmEndpoint endpoint : RbmEndpoint.values()) {
+            retryableStatusCodes.put(endpoint, DEFAULT_RETRYABLE_STATUS_CODES);
+        }
+
+        // a failed upload may still have created the file, so only retry clear rejections
+        retryableStatusCodes.put(RbmEndpoint.FILES, FILES_RETRYABLE_STATUS_CODES);
+        retryOnIOException.remove(RbmEndpoint.FILES);
+    }
+
+    /**
+     * @return A policy that never retries.
+     */
+    public static RetryPolicy noRetries() {
+        return new RetryPolicy().setMaxAttempts(1);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets how many times a call is attempted in total, including the first attempt.
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public RetryPolicy setInitialIntervalMillis(int initialIntervalMillis) {
+        this.initialIntervalMillis = initialIntervalMillis;
+        return this;
+    }
+
+    public RetryPolicy setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    public RetryPolicy setMaxIntervalMillis(int maxIntervalMillis) {
+        this.maxIntervalMillis = maxIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Sets the jitter applied to each backoff interval, for example {@code 0.5} to pick a
+     * random delay between 50% and 150% of the interval.
+     */
+    public RetryPolicy setRandomizationFactor(double randomizationFactor) {
+        this.randomizationFactor = randomizationFactor;
+        return this;
+    }
+
+    /**
+     * Sets whether a {@code Retry-After} response header may lengthen the backoff.
+     */
+    public RetryPolicy setHonorRetryAfter(boolean honorRetryAfter) {
+        this.honorRetryAfter = honorRetryAfter;
+        return this;
+    }
+
+    /**
+     * Sets the longest {@code Retry-After} delay the client will wait. Calls asking for a
+     * longer delay are not retried.
+     */
+    public RetryPolicy setMaxRetryAfterMillis(long maxRetryAfterMillis) {
+        this.maxRetryAfterMillis = maxRetryAfterMillis;
+        return this;
+    }
+
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Sets the budget all retries made under this policy draw from.
+     */
+    public RetryPolicy setRetryBudget(RetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+        return this;
+    }
+
+    /**
+     * Sets the status codes that are retried for an endpoint.
+     * @param endpoint The endpoint to configure.
+     * @param statusCodes The HTTP status codes to retry.
+     */
+    public RetryPolicy setRetryableStatusCodes(RbmEndpoint endpoint, Integer... statusCodes) {
+        retryableStatusCodes.put(endpoint,
+                Collections.unmodifiableSet(new HashSet<Integer>(Arrays.asList(statusCodes))));
+        return this;
+    }
+
+    /**
+     * Sets whether calls to an endpoint are retried after an I/O error such as a reset
+     * connection, when it is unknown whether the server processed the call.
+     */
+    public RetryPolicy setRetryOnIOException(RbmEndpoint endpoint, boolean retry) {
+        if (retry) {
+            retryOnIOException.add(endpoint);
+        } else {
+            retryOnIOException.remove(endpoint);
+        }
+        return this;
+    }
+
+    /**
+     * @return Whether the status code is retried for the endpoint.
+     */
+    public boolean isRetryable(RbmEndpoint endpoint, int statusCode) {
+        return retryableStatusCodes.get(endpoint).contains(statusCode);
+    }
+
+    /**
+     * @return Whether I/O errors are retried for the endpoint.
+     */
+    public boolean isRetryableOnIOException(RbmEndpoint endpoint) {
+        return retryOnIOException.contains(endpoint);
+    }
+
+    /**
+     * @return A new backoff sequence for a single call.
+     */
+    BackOff newBackOff() {
+        return new ExponentialBackOff.Builder()
+                .setInitialIntervalMillis(initialIntervalMillis)
+                .setMultiplier(multiplier)
+                .setMaxIntervalMillis(maxIntervalMillis)
+                .setRandomizationFactor(randomizationFactor)
+                .build();
+    }
+
+    /**
+     * Reads the delay requested by a {@code Retry-After} header, in either of its two forms.
+     * @param headers The response headers.
+     * @return The requested delay in milliseconds, 0 if there is none, or -1 if the delay is
+     *         longer than the maximum this policy accepts.
+     */
+    long getRetryAfterMillis(HttpHeaders headers) {
+        if (!honorRetryAfter || headers == null) {
+            return 0;
+        }
+
+        String retryAfter = headers.getFirstHeaderStringValue("Retry-After");
+        if (retryAfter == null) {
+            return 0;
+        }
+
+        long delayMillis;
+        try {
+            delayMillis = Long.parseLong(retryAfter.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                delayMillis = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli() - System.currentTimeMillis();
+            } catch (DateTimeParseException unparseable) {
+                return 0;
+            }
+        }
+
+        if (delayMillis > maxRetryAfterMillis) {
+            return -1;
+        }
+
+        return Math.max(0, delayMillis);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates version 7 UUIDs: 48 bits of Unix time in milliseconds, then 74 random bits.
+ */
+final class TimeOrderedMessageIdGenerator implements MessageIdGenerator {
+    static final TimeOrderedMessageIdGenerator INSTANCE = new TimeOrderedMessageIdGenerator();
+
+    private TimeOrderedMessageIdGenerator() { }
+
+    @Override
+    public String newMessageId(String msisdn) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long mostSigBits = (System.currentTimeMillis() << 16) | 0x7000L | (random.nextInt() & 0xfffL);
+        long leastSigBits = (random.nextLong() & 0x3fffffffffffffffL) | 0x8000000000000000L;
+
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+}
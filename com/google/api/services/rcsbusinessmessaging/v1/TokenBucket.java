@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free token bucket.
+ *
+ * <p>The bucket is implemented as a generic cell rate algorithm: the only state is the time
+ * at which the next permit becomes free, updated with a single compare-and-set. Callers
+ * reserve a permit and are told how long to wait for it, so waiting happens outside of any
+ * shared state and contended buckets never block each other.</p>
+ */
+public class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+
+    // the earliest time at which the next permit can be handed out without waiting
+    private final AtomicLong nextFreeNanos;
+
+    /**
+     * @param permitsPerSecond The sustained rate.
+     * @param burst The number of permits that may be taken at once after a quiet period.
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+        }
+
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = intervalNanos * (burst - 1);
+        this.nextFreeNanos = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * Takes one permit if it is available within the given wait.
+     * @param maxWaitNanos The longest the caller is prepared to wait.
+     * @return The wait in nanoseconds before the permit may be used, or -1 if no permit is
+     *         free in time, in which case nothing was reserved.
+     */
+    public long tryReserve(long maxWaitNanos) {
+        long now = System.nanoTime();
+
+        while (true) {
+            long next = nextFreeNanos.get();
+            long slot = Math.max(next, now - burstNanos);
+            long waitNanos = Math.max(0, slot - now);
+
+            if (waitNanos > maxWaitNanos) {
+                return -1;
+            }
+
+            if (nextFreeNanos.compareAndSet(next, slot + intervalNanos)) {
+                return waitNanos;
+            }
+        }
+    }
+
+    /**
+     * Gives back a permit taken with {@link #tryReserve} that will not be used.
+     */
+    public void release() {
+        nextFreeNanos.addAndGet(-intervalNanos);
+    }
+
+    /**
+     * @return Whether the bucket is full, meaning it carries no state beyond a new bucket.
+     */
+    public boolean isIdle() {
+        return nextFreeNanos.get() <= System.nanoTime() - burstNanos;
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+/**
+ * The HTTP transport implementations {@link RbmApiHelper} can be built with.
+ */
+public enum TransportType {
+    /**
+     * {@code HttpURLConnection} based transport. Connection reuse is left to the JDK.
+     */
+    NET_HTTP,
+
+    /**
+     * Apache HttpClient based transport with a bounded, keep-alive connection pool.
+     */
+    APACHE_POOLED
+}
@@ -0,0 +1,606 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.services.rcsbusinessmessaging.v1.model.File;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the names of files uploaded with {@code Files.Create}, so that sending the same
+ * media again does not upload it again and make the platform fetch it from its URL once more.
+ *
+ * <p>Entries are keyed by the file URL and the thumbnail URL, and expire a day before the
+ * platform deletes the file, 60 days after the upload. The cache assumes the content behind a
+ * URL does not change; {@link #invalidate} an entry when it does. Concurrent uploads of the
+ * same file share a single API call. Local files uploaded by a {@link FileUploader} are
+ * cached too, by their location and by the hash of their content.</p>
+ *
+ * <p>With an index file, every upload is also appended to the file and the entries still valid
+ * are read back when the cache is built, so the names survive a restart. Lines of entries that
+ * were evicted, invalidated or replaced since are dropped when the file is rewritten, once there
+ * are as many of them as the cache holds at most.</p>
+ */
+public class UploadCache {
+    private static final Logger logger = Logger.getLogger(UploadCache.class.getName());
+
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(59);
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    // separates the fields of a line of the index file
+    private static final char SEPARATOR = '\t';
+
+    private final RCSBusinessMessaging rbmApi;
+    private final long ttlMillis;
+    private final int maxSize;
+    private final Path indexFile;
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+    private final Map<Key, CompletableFuture<Entry>> pendingUploads =
+            new ConcurrentHashMap<Key, CompletableFuture<Entry>>();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    // lines in the index file, guarded by this
+    private int indexLineCount;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    private UploadCache(Builder builder) {
+        this.rbmApi = builder.rbmApi;
+        this.ttlMillis = builder.ttlMillis;
+        this.maxSize = builder.maxSize;
+        this.indexFile = builder.indexFile;
+    }
+
+    /**
+     * Creates a builder for a cache that uploads files through the given client.
+     * @param rbmApi The RBM API client to upload files with.
+     * @return The builder.
+     */
+    public static Builder newBuilder(RCSBusinessMessaging rbmApi) {
+        return new Builder(rbmApi);
+    }
+
+    /**
+     * Returns the file uploaded from the URLs, uploading it if it is not cached or its entry
+     * has expired.
+     * @param fileUrl A publicly available URL.
+     * @param thumbnailFileUrl Includes the thumbnail if there is one, or null.
+     * @return The file resource, with its name set.
+     */
+    public File getOrUpload(String fileUrl, String thumbnailFileUrl) throws IOException {
+        return new File().setName(getEntry(new Key(fileUrl, thumbnailFileUrl)).name);
+    }
+
+    /**
+     * Returns the name of the file uploaded from the URLs if it is cached and still valid.
+     * @param fileUrl A publicly available URL.
+     * @param thumbnailFileUrl The thumbnail URL the file was uploaded with, or null.
+     * @return The file resource name, or null if there is no valid entry.
+     */
+    public String getIfPresent(String fileUrl, String thumbnailFileUrl) {
+        Entry entry = entries.get(new Key(fileUrl, thumbnailFileUrl));
+        return entry != null && !entry.isExpired(System.currentTimeMillis()) ? entry.name : null;
+    }
+
+    /**
+     * Returns the name of a file uploaded with the given content if it is cached and still
+     * valid. Files uploaded by a {@link FileUploader} with this cache are found by their hash.
+     * @param sha256 The SHA-256 of the content, as computed by {@link HashingContent}.
+     * @return The file resource name, or null if there is no valid entry.
+     */
+    public String getByContentHash(byte[] sha256) {
+        return getIfPresent(contentHashKey(sha256), null);
+    }
+
+    /**
+     * Caches the name of a file uploaded without going through the cache.
+     * @param key The key of the file, see {@link #localFileKey} and {@link #contentHashKey}.
+     * @param name The name of the uploaded file.
+     * @param uploadedAtMillis When the upload started.
+     */
+    void put(String key, String name, long uploadedAtMillis) {
+        Key cacheKey = new Key(key, null);
+        Entry entry = new Entry(name, uploadedAtMillis + ttlMillis);
+        store(cacheKey, entry);
+        appendToIndex(cacheKey, entry);
+    }
+
+    /**
+     * Caches the name of a file under another key as well, until the same expiry.
+     * @param existingKey The key the file is cached under.
+     * @param key The other key, see {@link #localFileKey}.
+     * @return The file resource name, or null if there is no valid entry to copy.
+     */
+    String copy(String existingKey, String key) {
+        Entry entry = entries.get(new Key(existingKey, null));
+        if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+            return null;
+        }
+
+        Key cacheKey = new Key(key, null);
+        store(cacheKey, entry);
+        appendToIndex(cacheKey, entry);
+        return entry.name;
+    }
+
+    /**
+     * Counts a lookup of a file uploaded without going through the cache.
+     * @param hit Whether a name was found, under any key.
+     */
+    void countLookup(boolean hit) {
+        if (hit) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+        }
+    }
+
+    /**
+     * Keys a local file by its location, size and modification time, so that a file that is
+     * changed in place is uploaded again.
+     */
+    static String localFileKey(Path file) throws IOException {
+        return file.toAbsolutePath().toUri()
+                + "?size=" + Files.size(file)
+                + "&mtime=" + Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Keys uploaded content by its SHA-256.
+     */
+    static String contentHashKey(byte[] sha256) {
+        StringBuilder key = new StringBuilder("sha256:");
+        for (byte b : sha256) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16))
+                    .append(Character.forDigit(b & 0xf, 16));
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Removes the entry of a file, for example after the platform rejected a message
+     * referring to it, or the content at its URL changed. The next lookup uploads it again.
+     * @param fileUrl A publicly available URL.
+     * @param thumbnailFileUrl The thumbnail URL the file was uploaded with, or null.
+     */
+    public void invalidate(String fileUrl, String thumbnailFileUrl) {
+        Key key = new Key(fileUrl, thumbnailFileUrl);
+        if (entries.remove(key) != null) {
+            // an entry that is already expired is dropped when the index is read back
+            appendToIndex(key, new Entry(null, 0));
+        }
+    }
+
+    /**
+     * Removes every cached entry, and empties the index file if there is one.
+     */
+    public void invalidateAll() {
+        entries.clear();
+
+        if (indexFile != null) {
+            synchronized (this) {
+                try {
+                    Files.deleteIfExists(indexFile);
+                    indexLineCount = 0;
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "unable to delete the upload index", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of cached files, including expired entries not yet evicted.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of lookups answered from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * @return The number of lookups that needed an upload, including those that shared an
+     * upload already in flight.
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    private Entry getEntry(Key key) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.isExpired(System.currentTimeMillis())) {
+            hitCount.increment();
+            return entry;
+        }
+
+        missCount.increment();
+
+        // only one caller per file uploads it, the others wait for its name
+        CompletableFuture<Entry> upload = new CompletableFuture<Entry>();
+        CompletableFuture<Entry> pendingUpload = pendingUploads.putIfAbsent(key, upload);
+        if (pendingUpload != null) {
+            return await(pendingUpload);
+        }
+
+        try {
+            // another caller may have finished uploading since the first lookup
+            entry = entries.get(key);
+            if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+                entry = upload(key);
+                store(key, entry);
+                appendToIndex(key, entry);
+            }
+
+            upload.complete(entry);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            upload.completeExceptionally(e);
+            throw e;
+        } finally {
+            pendingUploads.remove(key, upload);
+        }
+    }
+
+    private Entry upload(Key key) throws IOException {
+        // the expiry counts from before the request, the platform's retention from after it
+        long uploadedAtMillis = System.currentTimeMillis();
+
+        File file = RbmApiHelper.createFileRequest(rbmApi, key.fileUrl, key.thumbnailFileUrl)
+                .execute();
+
+        return new Entry(file.getName(), uploadedAtMillis + ttlMillis);
+    }
+
+    private static Entry await(CompletableFuture<Entry> pendingUpload) throws IOException {
+        try {
+            return pendingUpload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a file upload");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    private void store(Key key, Entry entry) {
+        entries.put(key, entry);
+
+        if (entries.size() > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Drops expired entries, then the entries closest to expiry until the cache is back to
+     * 90% of its maximum size. The latter are also removed from the index.
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.isExpired(now));
+
+            int excess = entries.size() - maxSize / 10 * 9;
+            if (excess <= 0) {
+                return;
+            }
+
+            List<Map.Entry<Key, Entry>> candidates =
+                    new ArrayList<Map.Entry<Key, Entry>>(entries.entrySet());
+            candidates.sort((a, b) -> Long.compare(
+                    a.getValue().expiresAtMillis, b.getValue().expiresAtMillis));
+
+            StringBuilder tombstones = new StringBuilder();
+            int tombstoneCount = 0;
+            for (int i = 0; i < excess && i < candidates.size(); i++) {
+                Key key = candidates.get(i).getKey();
+                if (entries.remove(key, candidates.get(i).getValue()) && key.isIndexable()) {
+                    tombstones.append(toLine(key, new Entry(null, 0)));
+                    tombstoneCount++;
+                }
+            }
+
+            // so that a restart does not bring the evicted entries back
+            if (indexFile != null && tombstoneCount > 0) {
+                appendToIndex(tombstones.toString(), tombstoneCount);
+            }
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Reads the index file back, keeping the last line of every file that has not expired and
+     * evicting down to the maximum size, then rewrites the file with just those entries.
+     */
+    private void loadIndex() {
+        long now = System.currentTimeMillis();
+        int lines = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+
+                String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+                if (fields.length != 4) {
+                    // a line torn by a crash, the file is uploaded again when next used
+                    continue;
+                }
+
+                Key key = new Key(fields[2], fields[3].isEmpty() ? null : fields[3]);
+                Entry entry;
+                try {
+                    entry = new Entry(fields[1], Long.parseLong(fields[0]));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+
+                if (entry.isExpired(now)) {
+                    entries.remove(key);
+                } else {
+                    entries.put(key, entry);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "unable to read the upload index", e);
+            return;
+        }
+
+        synchronized (this) {
+            indexLineCount = lines;
+        }
+
+        // the index may hold more than this cache keeps, if the maximum was lowered
+        if (entries.size() > maxSize) {
+            evict();
+        }
+
+        synchronized (this) {
+            if (indexLineCount > entries.size()) {
+                compactIndex();
+            }
+        }
+    }
+
+    private synchronized void compactIndex() {
+        Path compacted = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+
+        try {
+            int lines = 0;
+            try (BufferedWriter writer =
+                         Files.newBufferedWriter(compacted, StandardCharsets.UTF_8)) {
+                for (Map.Entry<Key, Entry> entry : entries.entrySet()) {
+                    if (entry.getKey().isIndexable()) {
+                        writer.write(toLine(entry.getKey(), entry.getValue()));
+                        lines++;
+                    }
+                }
+            }
+
+            Files.move(compacted, indexFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            indexLineCount = lines;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "unable to compact the upload index", e);
+        }
+    }
+
+    private void appendToIndex(Key key, Entry entry) {
+        if (indexFile == null || !key.isIndexable()) {
+            return;
+        }
+
+        appendToIndex(toLine(key, entry), 1);
+    }
+
+    private void appendToIndex(String lines, int count) {
+        byte[] bytes = lines.getBytes(StandardCharsets.UTF_8);
+
+        // one write per call, so concurrent appends cannot interleave
+        synchronized (this) {
+            try {
+                Files.write(indexFile, bytes, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                // the entry is still cached in memory, only a restart forgets it
+                logger.log(Level.WARNING, "unable to write the upload index", e);
+                return;
+            }
+
+            // evicted, invalidated and replaced entries leave their lines behind
+            indexLineCount += count;
+            if (indexLineCount > entries.size() + maxSize) {
+                compactIndex();
+            }
+        }
+    }
+
+    private static String toLine(Key key, Entry entry) {
+        return new StringBuilder()
+                .append(entry.expiresAtMillis).append(SEPARATOR)
+                .append(entry.name != null ? entry.name : "").append(SEPARATOR)
+                .append(key.fileUrl).append(SEPARATOR)
+                .append(key.thumbnailFileUrl != null ? key.thumbnailFileUrl : "")
+                .append('\n')
+                .toString();
+    }
+
+    /**
+     * The URLs a file was uploaded from.
+     */
+    private static final class Key {
+        final String fileUrl;
+        final String thumbnailFileUrl;
+
+        Key(String fileUrl, String thumbnailFileUrl) {
+            if (fileUrl == null) {
+                throw new NullPointerException("fileUrl");
+            }
+
+            this.fileUrl = fileUrl;
+
+            // the helper uploads without a thumbnail when the thumbnail URL is empty
+            this.thumbnailFileUrl = thumbnailFileUrl != null && thumbnailFileUrl.length() > 0
+                    ? thumbnailFileUrl : null;
+        }
+
+        /**
+         * URLs are written to the index as they are, so one with a separator or line break
+         * in it is only cached in memory.
+         */
+        boolean isIndexable() {
+            return isIndexable(fileUrl)
+                    && (thumbnailFileUrl == null || isIndexable(thumbnailFileUrl));
+        }
+
+        private static boolean isIndexable(String url) {
+            return url.indexOf(SEPARATOR) < 0 && url.indexOf('\n') < 0 && url.indexOf('\r') < 0;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) o;
+            return fileUrl.equals(other.fileUrl)
+                    && (thumbnailFileUrl == null
+                            ? other.thumbnailFileUrl == null
+                            : thumbnailFileUrl.equals(other.thumbnailFileUrl));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * fileUrl.hashCode()
+                    + (thumbnailFileUrl != null ? thumbnailFileUrl.hashCode() : 0);
+        }
+    }
+
+    /**
+     * The name of one uploaded file.
+     */
+    private static class Entry {
+        final String name;
+        final long expiresAtMillis;
+
+        Entry(String name, long expiresAtMillis) {
+            this.name = name;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAtMillis;
+        }
+    }
+
+    /**
+     * Builder for {@link UploadCache}.
+     */
+    public static final class Builder {
+        private final RCSBusinessMessaging rbmApi;
+        private long ttlMillis = DEFAULT_TTL_MILLIS;
+        private int maxSize = DEFAULT_MAX_SIZE;
+        private Path indexFile;
+
+        private Builder(RCSBusinessMessaging rbmApi) {
+            this.rbmApi = rbmApi;
+        }
+
+        /**
+         * Sets how long the name of an uploaded file is reused. It must stay below the
+         * platform's retention of uploaded files.
+         */
+        public Builder setTtlMillis(long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+            return this;
+        }
+
+        /**
+         * Sets the number of files above which entries are evicted.
+         */
+        public Builder setMaxSize(int maxSize) {
+            if (maxSize < 1) {
+                throw new IllegalArgumentException("maxSize must be positive");
+            }
+
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Sets the file the names of uploaded files are kept in across restarts. The file is
+         * created on the first upload.
+         */
+        public Builder setIndexFile(Path indexFile) {
+            this.indexFile = indexFile;
+            return this;
+        }
+
+        public UploadCache build() {
+            if (ttlMillis < 0) {
+                throw new IllegalArgumentException("ttlMillis cannot be negative");
+            }
+
+            UploadCache uploadCache = new UploadCache(this);
+            if (indexFile != null) {
+                uploadCache.loadIndex();
+            }
+
+            return uploadCache;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import com.google.api.services.rcsbusinessmessaging.v1.model.BatchGetUsersRequest;
+import com.google.api.services.rcsbusinessmessaging.v1.model.BatchGetUsersResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Checks the reachability of audiences larger than a single {@code users.batchGet} call allows.
+ *
+ * <p>Phone numbers are read from an iterator in chunks of at most
+ * {@link #MAX_USERS_PER_REQUEST}, and the chunks are checked in parallel on an
+ * {@link AsyncRequestExecutor}. The executor's in-flight limit caps both the number of
+ * concurrent API calls and the number of chunks held in memory, so arbitrarily large audience
+ * files can be streamed through. Reachable users are handed to a consumer as each chunk
+ * completes.</p>
+ */
+public class UserReachabilityChecker {
+    // The users.batchGet method accepts at most this many users per request
+    public static final int MAX_USERS_PER_REQUEST = 10000;
+
+    private final RCSBusinessMessaging rbmApi;
+    private final AsyncRequestExecutor executor;
+    private final int chunkSize;
+
+    /**
+     * @param rbmApi The RBM API client.
+     * @param executor Runs the batchGet calls and limits how many run at once.
+     */
+    public UserReachabilityChecker(RCSBusinessMessaging rbmApi, AsyncRequestExecutor executor) {
+        this(rbmApi, executor, MAX_USERS_PER_REQUEST);
+    }
+
+    /**
+     * @param rbmApi The RBM API client.
+     * @param executor Runs the batchGet calls and limits how many run at once.
+     * @param chunkSize The number of users per batchGet call, at most 10,000.
+     */
+    public UserReachabilityChecker(RCSBusinessMessaging rbmApi,
+                                   AsyncRequestExecutor executor,
+                                   int chunkSize) {
+        if (chunkSize < 1 || chunkSize > MAX_USERS_PER_REQUEST) {
+            throw new IllegalArgumentException(
+                    "chunkSize must be between 1 and " + MAX_USERS_PER_REQUEST);
+        }
+
+        this.rbmApi = rbmApi;
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Checks every phone number produced by the iterator. The consumer is called from the
+     * executor's threads, but never from two threads at the same time. Checking stops at the
+     * first failed chunk.
+     * @param phoneNumbers The phone numbers to check, in E.164 format.
+     * @param reachableUsers Receives the reachable phone numbers of each completed chunk.
+     * @return The reach figures aggregated over all chunks.
+     * @throws IOException If a batchGet call failed.
+     */
+    public ReachEstimate check(Iterator<String> phoneNumbers,
+                               Consumer<List<String>> reachableUsers)
+            throws IOException, InterruptedException {
+        AtomicLong checkedUserCount = new AtomicLong();
+        AtomicLong reachableUserCount = new AtomicLong();
+        AtomicLong totalSampleCount = new AtomicLong();
+        AtomicLong reachableSampleCount = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Object consumerLock = new Object();
+
+        // one party for this thread and one for each chunk in flight, so nothing is held for
+        // chunks that have completed
+        Phaser inFlight = new Phaser(1);
+
+        while (phoneNumbers.hasNext() && failure.get() == null) {
+            List<String> chunk = new ArrayList<String>(chunkSize);
+            while (chunk.size() < chunkSize && phoneNumbers.hasNext()) {
+                chunk.add(phoneNumbers.next());
+            }
+
+            inFlight.register();
+
+            // blocks while the executor is at its in-flight limit
+            CompletableFuture<BatchGetUsersResponse> future = executor.submit(() -> rbmApi.users()
+                    .batchGet(new BatchGetUsersRequest().setUsers(chunk))
+                    .execute());
+
+            future.thenAccept(response -> {
+                List<String> reachable = response.getReachableUsers() != null
+                        ? response.getReachableUsers()
+                        : Collections.<String>emptyList();
+
+                checkedUserCount.addAndGet(chunk.size());
+                reachableUserCount.addAndGet(reachable.size());
+                totalSampleCount.addAndGet(valueOf(response.getTotalRandomSampleUserCount()));
+                reachableSampleCount.addAndGet(
+                        valueOf(response.getReachableRandomSampleUserCount()));
+
+                synchronized (consumerLock) {
+                    reachableUsers.accept(reachable);
+                }
+            }).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    failure.compareAndSet(null, error instanceof CompletionException
+                            && error.getCause() != null ? error.getCause() : error);
+                }
+
+                inFlight.arriveAndDeregister();
+            });
+        }
+
+        inFlight.awaitAdvanceInterruptibly(inFlight.arrive());
+
+        Throwable cause = failure.get();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause != null) {
+            throw new IOException("reachability check failed", cause);
+        }
+
+        return new ReachEstimate(checkedUserCount.get(),
+                reachableUserCount.get(),
+                totalSampleCount.get(),
+                reachableSampleCount.get());
+    }
+
+    private static long valueOf(Integer count) {
+        return count != null ? count : 0;
+    }
+}
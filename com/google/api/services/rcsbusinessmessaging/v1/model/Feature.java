@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.model;
+
+/**
+ * Enum values for the RBM features a device can support, as listed in a capability check
+ * response.
+ * https://developers.google.com/rcs-business-messaging/rbm/rest/v1/Capabilities#Feature
+ */
+public enum Feature {
+    REVOCATION,
+    RICHCARD_STANDALONE,
+    RICHCARD_CAROUSEL,
+    ACTION_CREATE_CALENDAR_EVENT,
+    ACTION_DIAL,
+    ACTION_OPEN_URL,
+    ACTION_SHARE_LOCATION,
+    ACTION_VIEW_LOCATION
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.grpc;
+
+import com.google.api.services.rcsbusinessmessaging.v1.AccessTokenManager;
+import io.grpc.CallCredentials;
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Adds the access token of an {@link AccessTokenManager} to every call. The manager refreshes
+ * the token in the background; when it has no valid token, the call waits for a refresh on its
+ * application executor so it never blocks a transport thread.
+ */
+class AccessTokenCallCredentials extends CallCredentials {
+    private static final Metadata.Key<String> AUTHORIZATION =
+            Metadata.Key.of("authorization", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final AccessTokenManager accessTokenManager;
+
+    AccessTokenCallCredentials(AccessTokenManager accessTokenManager) {
+        this.accessTokenManager = accessTokenManager;
+    }
+
+    @Override
+    public void applyRequestMetadata(RequestInfo requestInfo,
+                                     Executor appExecutor,
+                                     MetadataApplier applier) {
+        String accessToken = accessTokenManager.getCachedAccessToken();
+        if (accessToken != null) {
+            applier.apply(authorizationHeaders(accessToken));
+            return;
+        }
+
+        appExecutor.execute(() -> {
+            try {
+                applier.apply(authorizationHeaders(accessTokenManager.getAccessToken()));
+            } catch (Exception e) {
+                applier.fail(Status.UNAUTHENTICATED
+                        .withDescription("could not refresh the access token")
+                        .withCause(e));
+            }
+        });
+    }
+
+    private static Metadata authorizationHeaders(String accessToken) {
+        Metadata headers = new Metadata();
+        headers.put(AUTHORIZATION, "Bearer " + accessToken);
+        return headers;
+    }
+
+    @Override
+    public void thisUsesUnstableApi() {
+    }
+}
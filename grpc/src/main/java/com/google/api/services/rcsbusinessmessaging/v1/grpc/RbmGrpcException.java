@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.grpc;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link RbmGrpcHelper} when a call fails, carrying the gRPC status in place of the
+ * HTTP status code a {@code GoogleJsonResponseException} would carry.
+ */
+public class RbmGrpcException extends IOException {
+    private final Status status;
+
+    public RbmGrpcException(StatusRuntimeException cause) {
+        super(cause.getStatus().toString(), cause);
+        this.status = cause.getStatus();
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,709 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.grpc;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.rcsbusinessmessaging.v1.AccessTokenManager;
+import com.google.api.services.rcsbusinessmessaging.v1.MessageIdGenerator;
+import com.google.api.services.rcsbusinessmessaging.v1.RbmLogger;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentEvent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.BatchGetUsersResponse;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Capabilities;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CardContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CarouselCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.EventType;
+import com.google.api.services.rcsbusinessmessaging.v1.model.RichCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.StandaloneCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion;
+import com.google.api.services.rcsbusinessmessaging.v1.model.cards.CardWidth;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.communications.rcsbusinessmessaging.v1.BatchGetUsersRequest;
+import com.google.communications.rcsbusinessmessaging.v1.CreateAgentEventRequest;
+import com.google.communications.rcsbusinessmessaging.v1.CreateAgentMessageRequest;
+import com.google.communications.rcsbusinessmessaging.v1.CreateFileRequest;
+import com.google.communications.rcsbusinessmessaging.v1.CreateTesterRequest;
+import com.google.communications.rcsbusinessmessaging.v1.GetCapabilitiesRequest;
+import com.google.communications.rcsbusinessmessaging.v1.RcsBusinessMessagingServiceGrpc;
+import com.google.communications.rcsbusinessmessaging.v1.RequestCapabilityCallbackRequest;
+import com.google.communications.rcsbusinessmessaging.v1.Tester;
+import io.grpc.CallCredentials;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.StatusRuntimeException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Helper class for using the RBM API over gRPC, with the same methods as
+ * {@link com.google.api.services.rcsbusinessmessaging.v1.RbmApiHelper}.
+ *
+ * <p>Messages are built with the same REST models and converted to protobuf with
+ * {@link RbmProtoConverter}, so code written against the REST helper only needs to swap the
+ * helper. Requests are encoded as binary protobuf and multiplexed over one HTTP/2 connection;
+ * the asynchronous methods do not hold a thread while a request is in flight.</p>
+ *
+ * <p>Device downgrading, the capability cache and batching are only available on the REST
+ * helper. Failed calls throw {@link RbmGrpcException}.</p>
+ */
+public class RbmGrpcHelper implements Closeable {
+    private static final Logger logger = Logger.getLogger(RbmGrpcHelper.class.getName());
+
+    private static final String EXCEPTION_WAS_THROWN = "an exception was thrown";
+
+    /**
+     * The gRPC endpoint of the RBM API.
+     */
+    public static final String DEFAULT_TARGET = "rcsbusinessmessaging.googleapis.com:443";
+
+    // Random ids for capability requests and agent events
+    private static final MessageIdGenerator REQUEST_IDS = MessageIdGenerator.random();
+
+    // Default deadline of every call
+    private static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+
+    // Channel every call is made on
+    private final ManagedChannel channel;
+
+    // Whether the channel was created, and is shut down, by this helper
+    private final boolean ownsChannel;
+
+    // Refreshes the access token of the service account, or null for caller-supplied credentials
+    private final AccessTokenManager accessTokenManager;
+
+    private final RcsBusinessMessagingServiceGrpc.RcsBusinessMessagingServiceBlockingStub blockingStub;
+
+    private final RcsBusinessMessagingServiceGrpc.RcsBusinessMessagingServiceFutureStub futureStub;
+
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    // Assigns the ids of agent messages sent without an explicit id
+    private volatile MessageIdGenerator messageIdGenerator = MessageIdGenerator.random();
+
+    // Per-request events, level-guarded, sampled and with phone numbers redacted
+    private final RbmLogger rbmLogger = new RbmLogger(logger);
+
+    /**
+     * Initializes credentials and a channel to {@link #DEFAULT_TARGET}.
+     * @param serviceAccountKeyFile A file with the service account key information.
+     */
+    public RbmGrpcHelper(File serviceAccountKeyFile) throws IOException {
+        this(serviceAccountKeyFile, DEFAULT_TARGET);
+    }
+
+    /**
+     * Initializes credentials and a TLS channel to the given target.
+     * @param serviceAccountKeyFile A file with the service account key information.
+     * @param target The host and port of the API.
+     */
+    public RbmGrpcHelper(File serviceAccountKeyFile, String target) throws IOException {
+        this(ManagedChannelBuilder.forTarget(target).build(),
+                AccessTokenManager.newBuilder(loadCredential(serviceAccountKeyFile))
+                        .build()
+                        .start());
+    }
+
+    /**
+     * Uses a channel owned by the caller, for example an in-process channel to the
+     * {@code FakeRbmGrpcServer} in the module's test sources.
+     * The channel is not shut down by {@link #close()}.
+     * @param channel The channel to make calls on.
+     * @param callCredentials The credentials added to every call, or null for none.
+     */
+    public RbmGrpcHelper(ManagedChannel channel, CallCredentials callCredentials) {
+        this(channel, callCredentials, null, false);
+    }
+
+    private RbmGrpcHelper(ManagedChannel channel, AccessTokenManager accessTokenManager) {
+        this(channel, new AccessTokenCallCredentials(accessTokenManager), accessTokenManager, true);
+    }
+
+    private RbmGrpcHelper(ManagedChannel channel,
+                          CallCredentials callCredentials,
+                          AccessTokenManager accessTokenManager,
+                          boolean ownsChannel) {
+        this.channel = channel;
+        this.ownsChannel = ownsChannel;
+        this.accessTokenManager = accessTokenManager;
+
+        RcsBusinessMessagingServiceGrpc.RcsBusinessMessagingServiceBlockingStub blockingStub =
+                RcsBusinessMessagingServiceGrpc.newBlockingStub(channel);
+        RcsBusinessMessagingServiceGrpc.RcsBusinessMessagingServiceFutureStub futureStub =
+                RcsBusinessMessagingServiceGrpc.newFutureStub(channel);
+
+        if (callCredentials != null) {
+            blockingStub = blockingStub.withCallCredentials(callCredentials);
+            futureStub = futureStub.withCallCredentials(callCredentials);
+        }
+
+        this.blockingStub = blockingStub;
+        this.futureStub = futureStub;
+    }
+
+    private static GoogleCredential loadCredential(File serviceAccountKeyFile) throws IOException {
+        try (InputStream in = new FileInputStream(serviceAccountKeyFile)) {
+            return GoogleCredential.fromStream(in).createScoped(Collections.singletonList(
+                    "https://www.googleapis.com/auth/rcsbusinessmessaging"));
+        }
+    }
+
+    /**
+     * Shuts down the channel if this helper created it, and stops refreshing the access token.
+     * The helper cannot be used to make API calls after it has been closed.
+     */
+    @Override
+    public void close() {
+        if (accessTokenManager != null) {
+            accessTokenManager.close();
+        }
+
+        if (ownsChannel) {
+            channel.shutdown();
+        }
+    }
+
+    /**
+     * Returns the manager that refreshes the access token in the background, for its refresh
+     * metrics.
+     * @return The access token manager, or null if the helper was given its call credentials.
+     */
+    public AccessTokenManager getAccessTokenManager() {
+        return accessTokenManager;
+    }
+
+    /**
+     * @return The channel calls are made on.
+     */
+    public ManagedChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Sets the deadline of every call, 30 seconds by default.
+     * @param timeoutMillis The deadline in milliseconds.
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Sets the strategy for the ids of agent messages sent without an explicit id. The default
+     * is {@link MessageIdGenerator#random()}.
+     * @param messageIdGenerator The id generator.
+     */
+    public void setMessageIdGenerator(MessageIdGenerator messageIdGenerator) {
+        this.messageIdGenerator = messageIdGenerator;
+    }
+
+    /**
+     * Returns the logger for the per-request events of this helper.
+     * See {@link com.google.api.services.rcsbusinessmessaging.v1.RbmApiHelper#getRbmLogger()}.
+     * @return The request event logger.
+     */
+    public RbmLogger getRbmLogger() {
+        return rbmLogger;
+    }
+
+    /**
+     * Registers the device as a tester for this agent.
+     * @param msisdn The phone number in E.164 format.
+     */
+    public void registerTester(String msisdn) throws IOException {
+        try {
+            Tester tester = blockingStub().createTester(CreateTesterRequest.newBuilder()
+                    .setParent(convertToApiFormat(msisdn))
+                    .setTester(Tester.getDefaultInstance())
+                    .build());
+
+            rbmLogger.log(Level.INFO, "Registered tester", msisdn,
+                    () -> "inviteStatus=" + tester.getInviteStatus());
+        } catch (StatusRuntimeException e) {
+            throw new RbmGrpcException(e);
+        }
+    }
+
+    /**
+     * Performs a batch user capability check. The API supports a maximum of 10,000
+     * users per request.
+     * @param phoneNumbers List of user phone numbers to check.
+     * @return A BatchGetUsersResponse object.
+     */
+    public BatchGetUsersResponse getUsers(List<String> phoneNumbers) throws IOException {
+        try {
+            return RbmProtoConverter.fromProto(blockingStub().batchGetUsers(
+                    BatchGetUsersRequest.newBuilder().addAllUsers(phoneNumbers).build()));
+        } catch (StatusRuntimeException e) {
+            throw new RbmGrpcException(e);
+        }
+    }
+
+    /**
+     * Checks whether the device associated with the phone number is RCS enabled.
+     * This uses the asynchronous capability check API.
+     * @param msisdn The phone number in E.164 format.
+     */
+    public void performCapabilityCheck(String msisdn) throws IOException {
+        try {
+            blockingStub().requestCapabilityCallback(RequestCapabilityCallbackRequest.newBuilder()
+                    .setName(convertToApiFormat(msisdn))
+                    .setRequestId(REQUEST_IDS.newMessageId(msisdn))
+                    .build());
+        } catch (StatusRuntimeException e) {
+            throw new RbmGrpcException(e);
+        }
+    }
+
+    /**
+     * Checks whether the device associated with the phone number is RCS enabled.
+     * This uses the alpha synchronous capability check API.
+     * @param msisdn The phone number in E.164 format.
+     * @return The capabilities as JSON, or the error message if the check failed.
+     * @deprecated Use {@link #getCapabilities(String)}.
+     */
+    @Deprecated
+    public String getCapability(String msisdn) {
+        try {
+            Capabilities capabilities = getCapabilities(msisdn);
+
+            // the factory makes toString() return JSON, as the REST response does
+            capabilities.setFactory(JacksonFactory.getDefaultInstance());
+
+            return capabilities.toString();
+        } catch (RbmGrpcException e) {
+            logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
+
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * Checks whether the device associated with the phone number is RCS enabled.
+     * This uses the alpha synchronous capability check API.
+     * @param msisdn The phone number in E.164 format.
+     * @return The features the device supports.
+     * @throws RbmGrpcException If the check failed, with {@code NOT_FOUND} when the number is
+     * not RCS enabled.
+     */
+    public Capabilities getCapabilities(String msisdn) throws RbmGrpcException {
+        try {
+            return RbmProtoConverter.fromProto(
+                    blockingStub().getCapabilities(createGetCapabilitiesRequest(msisdn)));
+        } catch (StatusRuntimeException e) {
+            throw new RbmGrpcException(e);
+        }
+    }
+
+    /**
+     * Asynchronously checks whether the device associated with the phone number is RCS
+     * enabled. See {@link #getCapabilities(String)}.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the features the device supports.
+     */
+    public CompletableFuture<Capabilities> getCapabilitiesAsync(String msisdn) {
+        return toCompletableFuture(
+                futureStub().getCapabilities(createGetCapabilitiesRequest(msisdn)),
+                RbmProtoConverter::fromProto);
+    }
+
+    /**
+     * Uploads the file located at the publicly available URL to the RBM platform.
+     * @param fileUrl A publicly available URL.
+     * @return A unique file resource id, or null if the upload failed.
+     */
+    public String uploadFile(String fileUrl) {
+        return uploadFile(fileUrl, null);
+    }
+
+    /**
+     * Uploads the file located at the publicly available URL to the RBM platform.
+     * @param fileUrl A publicly available URL.
+     * @param thumbnailFileUrl Includes the thumbnail if there is one.
+     * @return A unique file resource id, or null if the upload failed.
+     */
+    public String uploadFile(String fileUrl, String thumbnailFileUrl) {
+        try {
+            return createFile(fileUrl, thumbnailFileUrl).getName();
+        } catch (RbmGrpcException e) {
+            logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Uploads the file located at the publicly available URL to the RBM platform.
+     * @param fileUrl A publicly available URL.
+     * @param thumbnailFileUrl Includes the thumbnail if there is one, or null.
+     * @return The file resource created by the platform.
+     * @throws RbmGrpcException If the upload failed.
+     */
+    public com.google.api.services.rcsbusinessmessaging.v1.model.File createFile(
+            String fileUrl, String thumbnailFileUrl) throws RbmGrpcException {
+        try {
+            return RbmProtoConverter.fromProto(
+                    blockingStub().createFile(createFileRequest(fileUrl, thumbnailFileUrl)));
+        } catch (StatusRuntimeException e) {
+            throw new RbmGrpcException(e);
+        }
+    }
+
+    /**
+     * Asynchronously uploads the file located at the publicly available URL to the RBM
+     * platform.
+     * @param fileUrl A publicly available URL.
+     * @param thumbnailFileUrl Includes the thumbnail if there is one, or null.
+     * @return A future completed with the file resource created by the platform.
+     */
+    public CompletableFuture<com.google.api.services.rcsbusinessmessaging.v1.model.File>
+            createFileAsync(String fileUrl, String thumbnailFileUrl) {
+        return toCompletableFuture(
+                futureStub().createFile(createFileRequest(fileUrl, thumbnailFileUrl)),
+                RbmProtoConverter::fromProto);
+    }
+
+    /**
+     * Sends a text message to the user with the phone number msisdn.
+     * @param messageText The text to send the user.
+     * @param msisdn The phone number in E.164 format.
+     */
+    public void sendTextMessage(String messageText, String msisdn) throws IOException {
+        sendTextMessage(messageText, msisdn, null);
+    }
+
+    /**
+     * Sends a text message to the user with the phone number msisdn.
+     * @param messageText The text to send the user.
+     * @param msisdn The phone number in E.164 format.
+     * @param suggestions The chip list suggestions.
+     */
+    public void sendTextMessage(String messageText, String msisdn, List<Suggestion> suggestions)
+            throws IOException {
+        sendAgentMessage(createTextMessage(messageText, suggestions), msisdn);
+    }
+
+    /**
+     * Asynchronously sends a text message to the user with the phone number msisdn.
+     * @param messageText The text to send the user.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendTextMessageAsync(String messageText, String msisdn) {
+        return sendTextMessageAsync(messageText, msisdn, null);
+    }
+
+    /**
+     * Asynchronously sends a text message to the user with the phone number msisdn.
+     * @param messageText The text to send the user.
+     * @param msisdn The phone number in E.164 format.
+     * @param suggestions The chip list suggestions.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendTextMessageAsync(String messageText,
+                                                                String msisdn,
+                                                                List<Suggestion> suggestions) {
+        return sendAgentMessageAsync(createTextMessage(messageText, suggestions), msisdn);
+    }
+
+    /**
+     * Sends a standalone card to a client.
+     * @param standaloneCard The card object to send.
+     * @param msisdn The phone number in E.164 format.
+     */
+    public void sendStandaloneCard(StandaloneCard standaloneCard, String msisdn) throws IOException {
+        sendAgentMessage(createRichCardMessage(new RichCard().setStandaloneCard(standaloneCard)),
+                msisdn);
+    }
+
+    /**
+     * Asynchronously sends a standalone card to a client.
+     * @param standaloneCard The card object to send.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendStandaloneCardAsync(StandaloneCard standaloneCard,
+                                                                   String msisdn) {
+        return sendAgentMessageAsync(
+                createRichCardMessage(new RichCard().setStandaloneCard(standaloneCard)), msisdn);
+    }
+
+    /**
+     * Sends a carousel rich card to a client.
+     * @param cardContents List of CardContent items to be attached to the CarouselCard.
+     * @param cardWidth Width of the cards for the carousel.
+     * @param msisdn The phone number in E.164 format.
+     */
+    public void sendCarouselCards(List<CardContent> cardContents, CardWidth cardWidth, String msisdn)
+            throws IOException {
+        sendAgentMessage(createCarouselMessage(cardContents, cardWidth), msisdn);
+    }
+
+    /**
+     * Asynchronously sends a carousel rich card to a client.
+     * @param cardContents List of CardContent items to be attached to the CarouselCard.
+     * @param cardWidth Width of the cards for the carousel.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendCarouselCardsAsync(List<CardContent> cardContents,
+                                                                  CardWidth cardWidth,
+                                                                  String msisdn) {
+        return sendAgentMessageAsync(createCarouselMessage(cardContents, cardWidth), msisdn);
+    }
+
+    /**
+     * Sends an agent message to a client.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     */
+    public void sendAgentMessage(AgentMessage agentMessage, String msisdn) throws IOException {
+        sendAgentMessage(agentMessage, msisdn, messageIdGenerator.newMessageId(msisdn));
+    }
+
+    /**
+     * Sends an agent message with the given id. The platform discards a message whose id it
+     * has already seen, so sending again with the same id cannot deliver the message twice.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     * @param messageId The id of the message, a UUID.
+     */
+    public void sendAgentMessage(AgentMessage agentMessage, String msisdn, String messageId)
+            throws IOException {
+        try {
+            blockingStub().createAgentMessage(
+                    createAgentMessageRequest(agentMessage, msisdn, messageId));
+        } catch (StatusRuntimeException e) {
+            throw new RbmGrpcException(e);
+        }
+    }
+
+    /**
+     * Asynchronously sends an agent message to a client.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendAgentMessageAsync(AgentMessage agentMessage,
+                                                                 String msisdn) {
+        return sendAgentMessageAsync(
+                agentMessage, msisdn, messageIdGenerator.newMessageId(msisdn));
+    }
+
+    /**
+     * Asynchronously sends an agent message with the given id. See
+     * {@link #sendAgentMessage(AgentMessage, String, String)}.
+     * @param agentMessage The message payload to send.
+     * @param msisdn The phone number in E.164 format.
+     * @param messageId The id of the message, a UUID.
+     * @return A future completed with the message created by the platform.
+     */
+    public CompletableFuture<AgentMessage> sendAgentMessageAsync(AgentMessage agentMessage,
+                                                                 String msisdn,
+                                                                 String messageId) {
+        CreateAgentMessageRequest request;
+        try {
+            request = createAgentMessageRequest(agentMessage, msisdn, messageId);
+        } catch (RuntimeException e) {
+            CompletableFuture<AgentMessage> failed = new CompletableFuture<AgentMessage>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        return toCompletableFuture(
+                futureStub().createAgentMessage(request), RbmProtoConverter::fromProto);
+    }
+
+    /**
+     * Sends a READ event to a user's phone.
+     * @param messageId The message id for the message that was read.
+     * @param msisdn The phone number in E.164 format to send the event to.
+     */
+    public void sendReadMessage(String messageId, String msisdn) {
+        try {
+            blockingStub().createAgentEvent(
+                    createAgentEventRequest(EventType.READ, messageId, msisdn));
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
+        }
+    }
+
+    /**
+     * Asynchronously sends a READ event to a user's phone.
+     * @param messageId The message id for the message that was read.
+     * @param msisdn The phone number in E.164 format to send the event to.
+     * @return A future completed with the event created by the platform.
+     */
+    public CompletableFuture<AgentEvent> sendReadMessageAsync(String messageId, String msisdn) {
+        return toCompletableFuture(futureStub().createAgentEvent(
+                createAgentEventRequest(EventType.READ, messageId, msisdn)),
+                RbmProtoConverter::fromProto);
+    }
+
+    /**
+     * Sends the IS_TYPING event to the user.
+     * @param msisdn The phone number in E.164 format to send the event to.
+     */
+    public void sendIsTypingMessage(String msisdn) {
+        try {
+            blockingStub().createAgentEvent(
+                    createAgentEventRequest(EventType.IS_TYPING, null, msisdn));
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.SEVERE, EXCEPTION_WAS_THROWN, e);
+        }
+    }
+
+    /**
+     * Asynchronously sends the IS_TYPING event to the user.
+     * @param msisdn The phone number in E.164 format to send the event to.
+     * @return A future completed with the event created by the platform.
+     */
+    public CompletableFuture<AgentEvent> sendIsTypingMessageAsync(String msisdn) {
+        return toCompletableFuture(futureStub().createAgentEvent(
+                createAgentEventRequest(EventType.IS_TYPING, null, msisdn)),
+                RbmProtoConverter::fromProto);
+    }
+
+    /**
+     * Takes the msisdn and converts it into the format we need to make API calls.
+     * @param msisdn The phone number in E.164 format.
+     * @return The phone number reformatted for the API.
+     */
+    static String convertToApiFormat(String msisdn) {
+        return "phones/" + msisdn;
+    }
+
+    private RcsBusinessMessagingServiceGrpc.RcsBusinessMessagingServiceBlockingStub blockingStub() {
+        return blockingStub.withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private RcsBusinessMessagingServiceGrpc.RcsBusinessMessagingServiceFutureStub futureStub() {
+        return futureStub.withDeadlineAfter(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static CreateAgentMessageRequest createAgentMessageRequest(
+            AgentMessage agentMessage, String msisdn, String messageId) {
+        return CreateAgentMessageRequest.newBuilder()
+                .setParent(convertToApiFormat(msisdn))
+                .setMessageId(messageId)
+                .setAgentMessage(RbmProtoConverter.toProto(agentMessage))
+                .build();
+    }
+
+    private CreateAgentEventRequest createAgentEventRequest(
+            EventType eventType, String messageId, String msisdn) {
+        com.google.communications.rcsbusinessmessaging.v1.AgentEvent.Builder agentEvent =
+                com.google.communications.rcsbusinessmessaging.v1.AgentEvent.newBuilder()
+                        .setEventType(RbmProtoConverter.toProtoEventType(eventType.toString()));
+
+        if (messageId != null) {
+            agentEvent.setMessageId(messageId);
+        }
+
+        return CreateAgentEventRequest.newBuilder()
+                .setParent(convertToApiFormat(msisdn))
+                .setEventId(REQUEST_IDS.newMessageId(msisdn))
+                .setAgentEvent(agentEvent)
+                .build();
+    }
+
+    private static GetCapabilitiesRequest createGetCapabilitiesRequest(String msisdn) {
+        return GetCapabilitiesRequest.newBuilder()
+                .setName(convertToApiFormat(msisdn))
+                .setRequestId(REQUEST_IDS.newMessageId(msisdn))
+                .build();
+    }
+
+    private static CreateFileRequest createFileRequest(String fileUrl, String thumbnailFileUrl) {
+        CreateFileRequest.Builder fileRequest = CreateFileRequest.newBuilder().setFileUrl(fileUrl);
+
+        // add the thumbnail if there is one
+        if (thumbnailFileUrl != null && thumbnailFileUrl.length() > 0) {
+            fileRequest.setThumbnailUrl(thumbnailFileUrl);
+        }
+
+        return fileRequest.build();
+    }
+
+    private static AgentMessage createTextMessage(String messageText, List<Suggestion> suggestions) {
+        AgentContentMessage agentContentMessage = new AgentContentMessage().setText(messageText);
+
+        // attach suggestions if there are some
+        if (suggestions != null && suggestions.size() > 0) {
+            agentContentMessage.setSuggestions(suggestions);
+        }
+
+        return new AgentMessage().setContentMessage(agentContentMessage);
+    }
+
+    private static AgentMessage createCarouselMessage(List<CardContent> cardContents,
+                                                      CardWidth cardWidth) {
+        return createRichCardMessage(new RichCard().setCarouselCard(new CarouselCard()
+                .setCardContents(cardContents)
+                .setCardWidth(cardWidth.toString())));
+    }
+
+    private static AgentMessage createRichCardMessage(RichCard richCard) {
+        return new AgentMessage().setContentMessage(new AgentContentMessage().setRichCard(richCard));
+    }
+
+    /**
+     * Adapts a gRPC future to a {@link CompletableFuture} of the REST model. Failed calls
+     * complete it with an {@link RbmGrpcException}, and cancelling it cancels the call.
+     */
+    private static <T, R> CompletableFuture<R> toCompletableFuture(ListenableFuture<T> future,
+                                                                  Function<T, R> converter) {
+        CompletableFuture<R> result = new CompletableFuture<R>();
+
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+                try {
+                    result.complete(converter.apply(value));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                result.completeExceptionally(t instanceof StatusRuntimeException
+                        ? new RbmGrpcException((StatusRuntimeException) t)
+                        : t);
+            }
+        }, MoreExecutors.directExecutor());
+
+        result.whenComplete((value, t) -> {
+            if (result.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+
+        return result;
+    }
+}
@@ -0,0 +1,644 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.grpc;
+
+import com.google.communications.rcsbusinessmessaging.v1.AgentContentMessage;
+import com.google.communications.rcsbusinessmessaging.v1.AgentEvent;
+import com.google.communications.rcsbusinessmessaging.v1.AgentMessage;
+import com.google.communications.rcsbusinessmessaging.v1.BatchGetUsersResponse;
+import com.google.communications.rcsbusinessmessaging.v1.Capabilities;
+import com.google.communications.rcsbusinessmessaging.v1.ContentInfo;
+import com.google.communications.rcsbusinessmessaging.v1.CreateCalendarEventAction;
+import com.google.communications.rcsbusinessmessaging.v1.DialAction;
+import com.google.communications.rcsbusinessmessaging.v1.Feature;
+import com.google.communications.rcsbusinessmessaging.v1.File;
+import com.google.communications.rcsbusinessmessaging.v1.OpenUrlAction;
+import com.google.communications.rcsbusinessmessaging.v1.ShareLocationAction;
+import com.google.communications.rcsbusinessmessaging.v1.SuggestedAction;
+import com.google.communications.rcsbusinessmessaging.v1.SuggestedReply;
+import com.google.communications.rcsbusinessmessaging.v1.Suggestion;
+import com.google.communications.rcsbusinessmessaging.v1.ViewLocationAction;
+import com.google.communications.rcsbusinessmessaging.v1.richcards.CardContent;
+import com.google.communications.rcsbusinessmessaging.v1.richcards.CarouselCard;
+import com.google.communications.rcsbusinessmessaging.v1.richcards.Media;
+import com.google.communications.rcsbusinessmessaging.v1.richcards.RichCard;
+import com.google.communications.rcsbusinessmessaging.v1.richcards.StandaloneCard;
+import com.google.protobuf.Timestamp;
+import com.google.protobuf.util.Timestamps;
+import com.google.type.LatLng;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts between the REST models in {@code com.google.api.services.rcsbusinessmessaging.v1.model}
+ * and the protobuf messages generated from {@code rbm.proto}.
+ *
+ * <p>The REST models carry enums as strings and timestamps in RFC 3339; both are mapped to the
+ * proto types by name. Proto fields at their default value, and enums set to their
+ * {@code _UNSPECIFIED} value, come back as unset REST fields. Unknown keys of the REST models
+ * have no proto equivalent and are dropped, as is {@code paymentRequestAction}, which the
+ * proto does not define.</p>
+ */
+public final class RbmProtoConverter {
+    private RbmProtoConverter() {
+    }
+
+    // REST to proto
+
+    public static AgentMessage toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage value) {
+        AgentMessage.Builder builder = AgentMessage.newBuilder();
+
+        if (value.getName() != null) {
+            builder.setName(value.getName());
+        }
+        if (value.getSendTime() != null) {
+            builder.setSendTime(toTimestamp(value.getSendTime()));
+        }
+        if (value.getContentMessage() != null) {
+            builder.setContentMessage(toProto(value.getContentMessage()));
+        }
+
+        return builder.build();
+    }
+
+    public static AgentContentMessage toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage value) {
+        AgentContentMessage.Builder builder = AgentContentMessage.newBuilder();
+
+        // content is a oneof in the proto, so at most one of these is set
+        if (value.getText() != null) {
+            builder.setText(value.getText());
+        } else if (value.getFileName() != null) {
+            builder.setFileName(value.getFileName());
+        } else if (value.getRichCard() != null) {
+            builder.setRichCard(toProto(value.getRichCard()));
+        } else if (value.getContentInfo() != null) {
+            builder.setContentInfo(toProto(value.getContentInfo()));
+        }
+
+        if (value.getSuggestions() != null) {
+            builder.addAllSuggestions(toProtoSuggestions(value.getSuggestions()));
+        }
+
+        return builder.build();
+    }
+
+    public static RichCard toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.RichCard value) {
+        RichCard.Builder builder = RichCard.newBuilder();
+
+        if (value.getCarouselCard() != null) {
+            builder.setCarouselCard(toProto(value.getCarouselCard()));
+        } else if (value.getStandaloneCard() != null) {
+            builder.setStandaloneCard(toProto(value.getStandaloneCard()));
+        }
+
+        return builder.build();
+    }
+
+    public static CarouselCard toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.CarouselCard value) {
+        CarouselCard.Builder builder = CarouselCard.newBuilder();
+
+        if (value.getCardWidth() != null) {
+            builder.setCardWidth(CarouselCard.CardWidth.valueOf(value.getCardWidth()));
+        }
+        if (value.getCardContents() != null) {
+            for (com.google.api.services.rcsbusinessmessaging.v1.model.CardContent cardContent
+                    : value.getCardContents()) {
+                builder.addCardContents(toProto(cardContent));
+            }
+        }
+
+        return builder.build();
+    }
+
+    public static StandaloneCard toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.StandaloneCard value) {
+        StandaloneCard.Builder builder = StandaloneCard.newBuilder();
+
+        if (value.getCardOrientation() != null) {
+            builder.setCardOrientation(
+                    StandaloneCard.CardOrientation.valueOf(value.getCardOrientation()));
+        }
+        if (value.getThumbnailImageAlignment() != null) {
+            builder.setThumbnailImageAlignment(StandaloneCard.ThumbnailImageAlignment.valueOf(
+                    value.getThumbnailImageAlignment()));
+        }
+        if (value.getCardContent() != null) {
+            builder.setCardContent(toProto(value.getCardContent()));
+        }
+
+        return builder.build();
+    }
+
+    public static CardContent toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.CardContent value) {
+        CardContent.Builder builder = CardContent.newBuilder();
+
+        if (value.getTitle() != null) {
+            builder.setTitle(value.getTitle());
+        }
+        if (value.getDescription() != null) {
+            builder.setDescription(value.getDescription());
+        }
+        if (value.getMedia() != null) {
+            builder.setMedia(toProto(value.getMedia()));
+        }
+        if (value.getSuggestions() != null) {
+            builder.addAllSuggestions(toProtoSuggestions(value.getSuggestions()));
+        }
+
+        return builder.build();
+    }
+
+    public static Media toProto(com.google.api.services.rcsbusinessmessaging.v1.model.Media value) {
+        Media.Builder builder = Media.newBuilder();
+
+        if (value.getFileName() != null) {
+            builder.setFileName(value.getFileName());
+        } else if (value.getContentInfo() != null) {
+            builder.setContentInfo(toProto(value.getContentInfo()));
+        }
+        if (value.getHeight() != null) {
+            builder.setHeight(Media.Height.valueOf(value.getHeight()));
+        }
+
+        return builder.build();
+    }
+
+    public static ContentInfo toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.ContentInfo value) {
+        ContentInfo.Builder builder = ContentInfo.newBuilder();
+
+        if (value.getFileUrl() != null) {
+            builder.setFileUrl(value.getFileUrl());
+        }
+        if (value.getThumbnailUrl() != null) {
+            builder.setThumbnailUrl(value.getThumbnailUrl());
+        }
+        if (value.getForceRefresh() != null) {
+            builder.setForceRefresh(value.getForceRefresh());
+        }
+
+        return builder.build();
+    }
+
+    public static Suggestion toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion value) {
+        Suggestion.Builder builder = Suggestion.newBuilder();
+
+        if (value.getReply() != null) {
+            builder.setReply(toProto(value.getReply()));
+        } else if (value.getAction() != null) {
+            builder.setAction(toProto(value.getAction()));
+        }
+
+        return builder.build();
+    }
+
+    public static SuggestedReply toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedReply value) {
+        SuggestedReply.Builder builder = SuggestedReply.newBuilder();
+
+        if (value.getText() != null) {
+            builder.setText(value.getText());
+        }
+        if (value.getPostbackData() != null) {
+            builder.setPostbackData(value.getPostbackData());
+        }
+
+        return builder.build();
+    }
+
+    public static SuggestedAction toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedAction value) {
+        SuggestedAction.Builder builder = SuggestedAction.newBuilder();
+
+        if (value.getText() != null) {
+            builder.setText(value.getText());
+        }
+        if (value.getPostbackData() != null) {
+            builder.setPostbackData(value.getPostbackData());
+        }
+        if (value.getFallbackUrl() != null) {
+            builder.setFallbackUrl(value.getFallbackUrl());
+        }
+
+        // the action is a oneof in the proto, so at most one of these is set
+        if (value.getDialAction() != null) {
+            builder.setDialAction(toProto(value.getDialAction()));
+        } else if (value.getViewLocationAction() != null) {
+            builder.setViewLocationAction(toProto(value.getViewLocationAction()));
+        } else if (value.getCreateCalendarEventAction() != null) {
+            builder.setCreateCalendarEventAction(toProto(value.getCreateCalendarEventAction()));
+        } else if (value.getOpenUrlAction() != null) {
+            builder.setOpenUrlAction(toProto(value.getOpenUrlAction()));
+        } else if (value.getShareLocationAction() != null) {
+            builder.setShareLocationAction(ShareLocationAction.getDefaultInstance());
+        }
+
+        return builder.build();
+    }
+
+    public static DialAction toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.DialAction value) {
+        DialAction.Builder builder = DialAction.newBuilder();
+
+        if (value.getPhoneNumber() != null) {
+            builder.setPhoneNumber(value.getPhoneNumber());
+        }
+
+        return builder.build();
+    }
+
+    public static ViewLocationAction toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.ViewLocationAction value) {
+        ViewLocationAction.Builder builder = ViewLocationAction.newBuilder();
+
+        if (value.getLatLong() != null) {
+            LatLng.Builder latLong = LatLng.newBuilder();
+            if (value.getLatLong().getLatitude() != null) {
+                latLong.setLatitude(value.getLatLong().getLatitude());
+            }
+            if (value.getLatLong().getLongitude() != null) {
+                latLong.setLongitude(value.getLatLong().getLongitude());
+            }
+            builder.setLatLong(latLong);
+        }
+        if (value.getLabel() != null) {
+            builder.setLabel(value.getLabel());
+        }
+        if (value.getQuery() != null) {
+            builder.setQuery(value.getQuery());
+        }
+
+        return builder.build();
+    }
+
+    public static CreateCalendarEventAction toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.CreateCalendarEventAction value) {
+        CreateCalendarEventAction.Builder builder = CreateCalendarEventAction.newBuilder();
+
+        if (value.getStartTime() != null) {
+            builder.setStartTime(toTimestamp(value.getStartTime()));
+        }
+        if (value.getEndTime() != null) {
+            builder.setEndTime(toTimestamp(value.getEndTime()));
+        }
+        if (value.getTitle() != null) {
+            builder.setTitle(value.getTitle());
+        }
+        if (value.getDescription() != null) {
+            builder.setDescription(value.getDescription());
+        }
+
+        return builder.build();
+    }
+
+    public static OpenUrlAction toProto(
+            com.google.api.services.rcsbusinessmessaging.v1.model.OpenUrlAction value) {
+        OpenUrlAction.Builder builder = OpenUrlAction.newBuilder();
+
+        if (value.getUrl() != null) {
+            builder.setUrl(value.getUrl());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * @param eventType The event type name, see
+     * {@link com.google.api.services.rcsbusinessmessaging.v1.model.EventType}.
+     */
+    public static AgentEvent.EventType toProtoEventType(String eventType) {
+        return eventType != null
+                ? AgentEvent.EventType.valueOf(eventType)
+                : AgentEvent.EventType.TYPE_UNSPECIFIED;
+    }
+
+    private static List<Suggestion> toProtoSuggestions(
+            List<com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion> suggestions) {
+        List<Suggestion> protoSuggestions = new ArrayList<Suggestion>(suggestions.size());
+        for (com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion suggestion
+                : suggestions) {
+            protoSuggestions.add(toProto(suggestion));
+        }
+        return protoSuggestions;
+    }
+
+    private static Timestamp toTimestamp(String value) {
+        try {
+            return Timestamps.parse(value);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("not an RFC 3339 timestamp: " + value, e);
+        }
+    }
+
+    // proto to REST
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage fromProto(
+            AgentMessage value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage agentMessage =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage();
+
+        agentMessage.setName(emptyToNull(value.getName()));
+        if (value.hasSendTime()) {
+            agentMessage.setSendTime(Timestamps.toString(value.getSendTime()));
+        }
+        if (value.hasContentMessage()) {
+            agentMessage.setContentMessage(fromProto(value.getContentMessage()));
+        }
+
+        return agentMessage;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage
+            fromProto(AgentContentMessage value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage contentMessage =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage();
+
+        switch (value.getContentCase()) {
+            case TEXT:
+                contentMessage.setText(value.getText());
+                break;
+            case FILE_NAME:
+                contentMessage.setFileName(value.getFileName());
+                break;
+            case RICH_CARD:
+                contentMessage.setRichCard(fromProto(value.getRichCard()));
+                break;
+            case CONTENT_INFO:
+                contentMessage.setContentInfo(fromProto(value.getContentInfo()));
+                break;
+            default:
+                break;
+        }
+
+        if (value.getSuggestionsCount() > 0) {
+            contentMessage.setSuggestions(fromProtoSuggestions(value.getSuggestionsList()));
+        }
+
+        return contentMessage;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.RichCard fromProto(
+            RichCard value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.RichCard richCard =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.RichCard();
+
+        if (value.hasCarouselCard()) {
+            richCard.setCarouselCard(fromProto(value.getCarouselCard()));
+        } else if (value.hasStandaloneCard()) {
+            richCard.setStandaloneCard(fromProto(value.getStandaloneCard()));
+        }
+
+        return richCard;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.CarouselCard fromProto(
+            CarouselCard value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.CarouselCard carouselCard =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.CarouselCard();
+
+        if (value.getCardWidth() != CarouselCard.CardWidth.CARD_WIDTH_UNSPECIFIED) {
+            carouselCard.setCardWidth(value.getCardWidth().name());
+        }
+        if (value.getCardContentsCount() > 0) {
+            List<com.google.api.services.rcsbusinessmessaging.v1.model.CardContent> cardContents =
+                    new ArrayList<com.google.api.services.rcsbusinessmessaging.v1.model.CardContent>();
+            for (CardContent cardContent : value.getCardContentsList()) {
+                cardContents.add(fromProto(cardContent));
+            }
+            carouselCard.setCardContents(cardContents);
+        }
+
+        return carouselCard;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.StandaloneCard fromProto(
+            StandaloneCard value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.StandaloneCard standaloneCard =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.StandaloneCard();
+
+        if (value.getCardOrientation()
+                != StandaloneCard.CardOrientation.CARD_ORIENTATION_UNSPECIFIED) {
+            standaloneCard.setCardOrientation(value.getCardOrientation().name());
+        }
+        if (value.getThumbnailImageAlignment()
+                != StandaloneCard.ThumbnailImageAlignment.THUMBNAIL_IMAGE_ALIGNMENT_UNSPECIFIED) {
+            standaloneCard.setThumbnailImageAlignment(value.getThumbnailImageAlignment().name());
+        }
+        if (value.hasCardContent()) {
+            standaloneCard.setCardContent(fromProto(value.getCardContent()));
+        }
+
+        return standaloneCard;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.CardContent fromProto(
+            CardContent value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.CardContent cardContent =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.CardContent();
+
+        cardContent.setTitle(emptyToNull(value.getTitle()));
+        cardContent.setDescription(emptyToNull(value.getDescription()));
+        if (value.hasMedia()) {
+            cardContent.setMedia(fromProto(value.getMedia()));
+        }
+        if (value.getSuggestionsCount() > 0) {
+            cardContent.setSuggestions(fromProtoSuggestions(value.getSuggestionsList()));
+        }
+
+        return cardContent;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.Media fromProto(
+            Media value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.Media media =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.Media();
+
+        if (value.getContentCase() == Media.ContentCase.FILE_NAME) {
+            media.setFileName(value.getFileName());
+        } else if (value.getContentCase() == Media.ContentCase.CONTENT_INFO) {
+            media.setContentInfo(fromProto(value.getContentInfo()));
+        }
+        if (value.getHeight() != Media.Height.HEIGHT_UNSPECIFIED) {
+            media.setHeight(value.getHeight().name());
+        }
+
+        return media;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.ContentInfo fromProto(
+            ContentInfo value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.ContentInfo contentInfo =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.ContentInfo();
+
+        contentInfo.setFileUrl(emptyToNull(value.getFileUrl()));
+        contentInfo.setThumbnailUrl(emptyToNull(value.getThumbnailUrl()));
+        if (value.getForceRefresh()) {
+            contentInfo.setForceRefresh(Boolean.TRUE);
+        }
+
+        return contentInfo;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion fromProto(
+            Suggestion value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion suggestion =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion();
+
+        if (value.hasReply()) {
+            suggestion.setReply(new com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedReply()
+                    .setText(emptyToNull(value.getReply().getText()))
+                    .setPostbackData(emptyToNull(value.getReply().getPostbackData())));
+        } else if (value.hasAction()) {
+            suggestion.setAction(fromProto(value.getAction()));
+        }
+
+        return suggestion;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedAction fromProto(
+            SuggestedAction value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedAction action =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedAction();
+
+        action.setText(emptyToNull(value.getText()));
+        action.setPostbackData(emptyToNull(value.getPostbackData()));
+        action.setFallbackUrl(emptyToNull(value.getFallbackUrl()));
+
+        switch (value.getActionCase()) {
+            case DIAL_ACTION:
+                action.setDialAction(new com.google.api.services.rcsbusinessmessaging.v1.model.DialAction()
+                        .setPhoneNumber(emptyToNull(value.getDialAction().getPhoneNumber())));
+                break;
+            case VIEW_LOCATION_ACTION:
+                action.setViewLocationAction(fromProto(value.getViewLocationAction()));
+                break;
+            case CREATE_CALENDAR_EVENT_ACTION:
+                action.setCreateCalendarEventAction(
+                        fromProto(value.getCreateCalendarEventAction()));
+                break;
+            case OPEN_URL_ACTION:
+                action.setOpenUrlAction(new com.google.api.services.rcsbusinessmessaging.v1.model.OpenUrlAction()
+                        .setUrl(emptyToNull(value.getOpenUrlAction().getUrl())));
+                break;
+            case SHARE_LOCATION_ACTION:
+                action.setShareLocationAction(
+                        new com.google.api.services.rcsbusinessmessaging.v1.model.ShareLocationAction());
+                break;
+            default:
+                break;
+        }
+
+        return action;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.ViewLocationAction
+            fromProto(ViewLocationAction value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.ViewLocationAction action =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.ViewLocationAction();
+
+        if (value.hasLatLong()) {
+            action.setLatLong(new com.google.api.services.rcsbusinessmessaging.v1.model.LatLng()
+                    .setLatitude(value.getLatLong().getLatitude())
+                    .setLongitude(value.getLatLong().getLongitude()));
+        }
+        action.setLabel(emptyToNull(value.getLabel()));
+        action.setQuery(emptyToNull(value.getQuery()));
+
+        return action;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.CreateCalendarEventAction
+            fromProto(CreateCalendarEventAction value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.CreateCalendarEventAction action =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.CreateCalendarEventAction();
+
+        if (value.hasStartTime()) {
+            action.setStartTime(Timestamps.toString(value.getStartTime()));
+        }
+        if (value.hasEndTime()) {
+            action.setEndTime(Timestamps.toString(value.getEndTime()));
+        }
+        action.setTitle(emptyToNull(value.getTitle()));
+        action.setDescription(emptyToNull(value.getDescription()));
+
+        return action;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.AgentEvent fromProto(
+            AgentEvent value) {
+        com.google.api.services.rcsbusinessmessaging.v1.model.AgentEvent agentEvent =
+                new com.google.api.services.rcsbusinessmessaging.v1.model.AgentEvent();
+
+        agentEvent.setName(emptyToNull(value.getName()));
+        if (value.getEventType() != AgentEvent.EventType.TYPE_UNSPECIFIED) {
+            agentEvent.setEventType(value.getEventType().name());
+        }
+        agentEvent.setMessageId(emptyToNull(value.getMessageId()));
+        if (value.hasSendTime()) {
+            agentEvent.setSendTime(Timestamps.toString(value.getSendTime()));
+        }
+
+        return agentEvent;
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.Capabilities fromProto(
+            Capabilities value) {
+        List<String> features = new ArrayList<String>(value.getFeaturesCount());
+        for (Feature feature : value.getFeaturesList()) {
+            if (feature != Feature.FEATURE_UNSPECIFIED && feature != Feature.UNRECOGNIZED) {
+                features.add(feature.name());
+            }
+        }
+
+        return new com.google.api.services.rcsbusinessmessaging.v1.model.Capabilities()
+                .setFeatures(features);
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.File fromProto(
+            File value) {
+        return new com.google.api.services.rcsbusinessmessaging.v1.model.File()
+                .setName(emptyToNull(value.getName()));
+    }
+
+    public static com.google.api.services.rcsbusinessmessaging.v1.model.BatchGetUsersResponse
+            fromProto(BatchGetUsersResponse value) {
+        return new com.google.api.services.rcsbusinessmessaging.v1.model.BatchGetUsersResponse()
+                .setReachableUsers(new ArrayList<String>(value.getReachableUsersList()))
+                .setTotalRandomSampleUserCount(value.getTotalRandomSampleUserCount())
+                .setReachableRandomSampleUserCount(value.getReachableRandomSampleUserCount());
+    }
+
+    private static List<com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion>
+            fromProtoSuggestions(List<Suggestion> suggestions) {
+        List<com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion> restSuggestions =
+                new ArrayList<com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion>(
+                        suggestions.size());
+        for (Suggestion suggestion : suggestions) {
+            restSuggestions.add(fromProto(suggestion));
+        }
+        return restSuggestions;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
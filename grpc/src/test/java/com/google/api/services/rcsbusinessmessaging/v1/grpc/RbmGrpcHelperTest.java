@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.services.rcsbusinessmessaging.v1.grpc.testing.FakeRbmGrpcServer;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Capabilities;
+import com.google.api.services.rcsbusinessmessaging.v1.model.PaymentRequestAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedReply;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RbmGrpcHelperTest {
+    private static final String MSISDN = "+12223334444";
+    private static final String MESSAGE_ID = "00000000-0000-0000-0000-000000000001";
+
+    private FakeRbmGrpcServer server;
+    private ManagedChannel channel;
+    private RbmGrpcHelper rbmGrpcHelper;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmGrpcServer().start();
+        channel = server.newChannel();
+        rbmGrpcHelper = new RbmGrpcHelper(channel, null);
+    }
+
+    @After
+    public void tearDown() {
+        rbmGrpcHelper.close();
+        channel.shutdownNow();
+        server.close();
+    }
+
+    @Test
+    public void sendAgentMessageAsyncReturnsTheCreatedMessage() throws Exception {
+        AgentMessage sent = rbmGrpcHelper.sendAgentMessageAsync(textMessage("Hello"), MSISDN,
+                MESSAGE_ID).get(5, TimeUnit.SECONDS);
+
+        assertEquals("phones/" + MSISDN + "/agentMessages/" + MESSAGE_ID, sent.getName());
+        assertEquals("Hello", sent.getContentMessage().getText());
+
+        Suggestion suggestion = sent.getContentMessage().getSuggestions().get(0);
+        assertEquals("Yes", suggestion.getReply().getText());
+        assertEquals("reply_yes", suggestion.getReply().getPostbackData());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void sendTextMessageAsyncAssignsAMessageId() throws Exception {
+        AgentMessage sent = rbmGrpcHelper.sendTextMessageAsync("Hello", MSISDN)
+                .get(5, TimeUnit.SECONDS);
+
+        assertTrue(sent.getName().startsWith("phones/" + MSISDN + "/agentMessages/"));
+        assertEquals("Hello", sent.getContentMessage().getText());
+    }
+
+    @Test
+    public void repeatedMessageIdFailsWithAlreadyExists() throws IOException {
+        rbmGrpcHelper.sendAgentMessage(textMessage("Hello"), MSISDN, MESSAGE_ID);
+
+        try {
+            rbmGrpcHelper.sendAgentMessage(textMessage("Hello"), MSISDN, MESSAGE_ID);
+            fail("expected the repeated message id to be rejected");
+        } catch (RbmGrpcException e) {
+            assertEquals(Status.Code.ALREADY_EXISTS, e.getStatus().getCode());
+        }
+    }
+
+    @Test
+    public void paymentRequestActionIsDroppedOnTheWay() throws Exception {
+        AgentMessage message = new AgentMessage().setContentMessage(new AgentContentMessage()
+                .setText("Pay now")
+                .setSuggestions(Arrays.asList(new Suggestion().setAction(new SuggestedAction()
+                        .setText("Pay")
+                        .setPostbackData("pay")
+                        .setPaymentRequestAction(new PaymentRequestAction()
+                                .setCompletedMessage("Thanks"))))));
+
+        AgentMessage sent = rbmGrpcHelper.sendAgentMessageAsync(message, MSISDN, MESSAGE_ID)
+                .get(5, TimeUnit.SECONDS);
+
+        SuggestedAction action = sent.getContentMessage().getSuggestions().get(0).getAction();
+        assertEquals("Pay", action.getText());
+        assertEquals("pay", action.getPostbackData());
+        assertNull(action.getPaymentRequestAction());
+    }
+
+    @Test
+    public void getCapabilitiesConvertsTheFeatures() throws IOException {
+        server.setCapabilities(MSISDN, Arrays.asList(
+                com.google.communications.rcsbusinessmessaging.v1.Feature.RICHCARD_STANDALONE,
+                com.google.communications.rcsbusinessmessaging.v1.Feature.ACTION_DIAL));
+
+        Capabilities capabilities = rbmGrpcHelper.getCapabilities(MSISDN);
+
+        // the platform reports features in the order of the enum
+        assertEquals(Arrays.asList("RICHCARD_STANDALONE", "ACTION_DIAL"),
+                capabilities.getFeatures());
+    }
+
+    @Test
+    public void numberWithoutCapabilitiesFailsWithNotFound() throws Exception {
+        server.setCapabilities(MSISDN, null);
+
+        try {
+            rbmGrpcHelper.getCapabilities(MSISDN);
+            fail("expected NOT_FOUND");
+        } catch (RbmGrpcException e) {
+            assertEquals(Status.Code.NOT_FOUND, e.getStatus().getCode());
+        }
+
+        assertAsyncFailure(Status.Code.NOT_FOUND,
+                () -> rbmGrpcHelper.getCapabilitiesAsync(MSISDN).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void injectedErrorCompletesTheFutureWithTheStatus() throws Exception {
+        server.failNextRequests(1, Status.UNAVAILABLE);
+
+        assertAsyncFailure(Status.Code.UNAVAILABLE, () -> rbmGrpcHelper
+                .sendAgentMessageAsync(textMessage("Hello"), MSISDN, MESSAGE_ID)
+                .get(5, TimeUnit.SECONDS));
+
+        // the failed call did not create the message, so the same id can be sent again
+        rbmGrpcHelper.sendAgentMessage(textMessage("Hello"), MSISDN, MESSAGE_ID);
+        assertEquals(1, server.getInjectedErrorCount());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    private static AgentMessage textMessage(String text) {
+        return new AgentMessage().setContentMessage(new AgentContentMessage()
+                .setText(text)
+                .setSuggestions(Arrays.asList(new Suggestion().setReply(new SuggestedReply()
+                        .setText("Yes")
+                        .setPostbackData("reply_yes")))));
+    }
+
+    private static void assertAsyncFailure(Status.Code code, AsyncCall call) throws Exception {
+        try {
+            call.run();
+            fail("expected " + code);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RbmGrpcException);
+            assertEquals(code, ((RbmGrpcException) e.getCause()).getStatus().getCode());
+        }
+    }
+
+    private interface AsyncCall {
+        void run() throws Exception;
+    }
+}
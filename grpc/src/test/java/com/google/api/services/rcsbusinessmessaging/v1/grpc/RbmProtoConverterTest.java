@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.grpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CreateCalendarEventAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.DialAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.PaymentRequestAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class RbmProtoConverterTest {
+    @Test
+    public void suggestedActionsSurviveARoundTrip() {
+        AgentMessage message = messageWith(
+                new SuggestedAction()
+                        .setText("Call")
+                        .setPostbackData("call")
+                        .setDialAction(new DialAction().setPhoneNumber("+12223334444")),
+                new SuggestedAction()
+                        .setText("Remind me")
+                        .setPostbackData("remind")
+                        .setCreateCalendarEventAction(new CreateCalendarEventAction()
+                                .setTitle("Appointment")
+                                .setStartTime("2026-01-01T10:00:00Z")
+                                .setEndTime("2026-01-01T11:00:00Z")));
+
+        AgentMessage roundTripped = RbmProtoConverter.fromProto(RbmProtoConverter.toProto(message));
+
+        assertEquals(message.getContentMessage().getSuggestions(),
+                roundTripped.getContentMessage().getSuggestions());
+        assertEquals("Hello", roundTripped.getContentMessage().getText());
+    }
+
+    @Test
+    public void paymentRequestActionHasNoProtoEquivalent() {
+        AgentMessage message = messageWith(new SuggestedAction()
+                .setText("Pay")
+                .setPostbackData("pay")
+                .setPaymentRequestAction(new PaymentRequestAction().setCompletedMessage("Thanks")));
+
+        com.google.communications.rcsbusinessmessaging.v1.SuggestedAction proto = RbmProtoConverter
+                .toProto(message).getContentMessage().getSuggestions(0).getAction();
+
+        // only the common fields are carried over, and no action is set in their place
+        assertEquals("Pay", proto.getText());
+        assertEquals(com.google.communications.rcsbusinessmessaging.v1.SuggestedAction
+                .ActionCase.ACTION_NOT_SET, proto.getActionCase());
+
+        SuggestedAction roundTripped = RbmProtoConverter.fromProto(proto);
+        assertNull(roundTripped.getPaymentRequestAction());
+        assertEquals("pay", roundTripped.getPostbackData());
+    }
+
+    @Test
+    public void defaultsComeBackUnset() {
+        com.google.communications.rcsbusinessmessaging.v1.AgentEvent event =
+                com.google.communications.rcsbusinessmessaging.v1.AgentEvent.newBuilder()
+                        .setName("phones/+12223334444/agentEvents/1")
+                        .build();
+
+        com.google.api.services.rcsbusinessmessaging.v1.model.AgentEvent converted =
+                RbmProtoConverter.fromProto(event);
+
+        assertEquals("phones/+12223334444/agentEvents/1", converted.getName());
+        assertNull(converted.getEventType());
+        assertNull(converted.getMessageId());
+        assertNull(converted.getSendTime());
+    }
+
+    private static AgentMessage messageWith(SuggestedAction... actions) {
+        Suggestion[] suggestions = new Suggestion[actions.length];
+        for (int i = 0; i < actions.length; i++) {
+            suggestions[i] = new Suggestion().setAction(actions[i]);
+        }
+
+        return new AgentMessage().setContentMessage(new AgentContentMessage()
+                .setText("Hello")
+                .setSuggestions(Arrays.asList(suggestions)));
+    }
+}
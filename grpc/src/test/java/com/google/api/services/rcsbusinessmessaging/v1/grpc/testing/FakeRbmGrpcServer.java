@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.grpc.testing;
+
+import com.google.communications.rcsbusinessmessaging.v1.AgentEvent;
+import com.google.communications.rcsbusinessmessaging.v1.AgentMessage;
+import com.google.communications.rcsbusinessmessaging.v1.BatchGetUsersRequest;
+import com.google.communications.rcsbusinessmessaging.v1.BatchGetUsersResponse;
+import com.google.communications.rcsbusinessmessaging.v1.Capabilities;
+import com.google.communications.rcsbusinessmessaging.v1.CreateAgentEventRequest;
+import com.google.communications.rcsbusinessmessaging.v1.CreateAgentMessageRequest;
+import com.google.communications.rcsbusinessmessaging.v1.CreateDialogflowEventRequest;
+import com.google.communications.rcsbusinessmessaging.v1.CreateFileRequest;
+import com.google.communications.rcsbusinessmessaging.v1.CreateTesterRequest;
+import com.google.communications.rcsbusinessmessaging.v1.DeleteAgentMessageRequest;
+import com.google.communications.rcsbusinessmessaging.v1.DialogflowEvent;
+import com.google.communications.rcsbusinessmessaging.v1.Feature;
+import com.google.communications.rcsbusinessmessaging.v1.File;
+import com.google.communications.rcsbusinessmessaging.v1.GetCapabilitiesRequest;
+import com.google.communications.rcsbusinessmessaging.v1.RcsBusinessMessagingServiceGrpc;
+import com.google.communications.rcsbusinessmessaging.v1.RequestCapabilityCallbackRequest;
+import com.google.communications.rcsbusinessmessaging.v1.Tester;
+import com.google.protobuf.Empty;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for the gRPC RBM API, the counterpart of {@code FakeRbmServer} for
+ * {@link com.google.api.services.rcsbusinessmessaging.v1.grpc.RbmGrpcHelper}.
+ *
+ * <p>Every method of {@code RcsBusinessMessagingService} is implemented. Agent messages and
+ * events are echoed back with a name, a repeated message id fails with
+ * {@code ALREADY_EXISTS} and numbers without capabilities fail with {@code NOT_FOUND}, like
+ * the platform. Errors can be injected for the next N calls.</p>
+ *
+ * <p>Connect with {@link #newChannel()}; calls run on the calling thread, so no network or
+ * thread pool is involved.</p>
+ */
+public class FakeRbmGrpcServer implements Closeable {
+    private static final Set<Feature> ALL_FEATURES = Collections.unmodifiableSet(EnumSet.range(
+            Feature.REVOCATION, Feature.ACTION_VIEW_LOCATION));
+
+    private final String serverName = "fake-rbm-" + UUID.randomUUID();
+    private final Server server;
+
+    // behaviour, configured by tests
+    private final AtomicInteger failNextCount = new AtomicInteger();
+    private volatile Status failNextStatus = Status.UNAVAILABLE;
+    private volatile Set<Feature> defaultFeatures = ALL_FEATURES;
+    private final Map<String, Set<Feature>> capabilities = new ConcurrentHashMap<String, Set<Feature>>();
+
+    // names of the agent messages created so far
+    private final Set<String> agentMessageNames =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    // counters
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong injectedErrorCount = new AtomicLong();
+
+    /**
+     * Creates the server. Call {@link #start()} to accept calls.
+     */
+    public FakeRbmGrpcServer() {
+        server = InProcessServerBuilder.forName(serverName)
+                .directExecutor()
+                .addService(new Service())
+                .build();
+    }
+
+    /**
+     * Starts accepting calls.
+     * @return This server.
+     */
+    public FakeRbmGrpcServer start() throws IOException {
+        server.start();
+        return this;
+    }
+
+    /**
+     * Stops the server immediately.
+     */
+    @Override
+    public void close() {
+        server.shutdownNow();
+    }
+
+    /**
+     * @return A new channel to this server. The caller shuts it down.
+     */
+    public ManagedChannel newChannel() {
+        return InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    }
+
+    /**
+     * Fails the next calls with the given status.
+     * @param count The number of calls to fail.
+     * @param status The status to fail them with, for example {@link Status#UNAVAILABLE}.
+     */
+    public FakeRbmGrpcServer failNextRequests(int count, Status status) {
+        this.failNextStatus = status;
+        this.failNextCount.set(count);
+        return this;
+    }
+
+    /**
+     * Sets the features reported for phone numbers without explicit capabilities. By default
+     * every number is RCS-enabled and supports all features.
+     * @param features The features, or null to treat unknown numbers as not RCS-enabled.
+     */
+    public FakeRbmGrpcServer setDefaultFeatures(List<Feature> features) {
+        this.defaultFeatures = features != null ? copyOf(features) : null;
+        return this;
+    }
+
+    /**
+     * Sets the features reported for a phone number.
+     * @param phoneNumber The phone number in E.164 format.
+     * @param features The features, or null to report the number as not RCS-enabled.
+     */
+    public FakeRbmGrpcServer setCapabilities(String phoneNumber, List<Feature> features) {
+        capabilities.put(phoneNumber, features != null
+                ? copyOf(features)
+                : EnumSet.noneOf(Feature.class));
+        return this;
+    }
+
+    /**
+     * @return The number of calls handled.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return The number of errors injected.
+     */
+    public long getInjectedErrorCount() {
+        return injectedErrorCount.get();
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void resetCounters() {
+        requestCount.set(0);
+        injectedErrorCount.set(0);
+    }
+
+    private static Set<Feature> copyOf(List<Feature> features) {
+        return features.isEmpty() ? EnumSet.noneOf(Feature.class) : EnumSet.copyOf(features);
+    }
+
+    private Set<Feature> capabilitiesFor(String phoneNumber) {
+        Set<Feature> features = capabilities.get(phoneNumber);
+        if (features == null) {
+            features = defaultFeatures;
+        }
+        return features != null ? features : Collections.<Feature>emptySet();
+    }
+
+    private static String phoneNumberOf(String name) {
+        return name.startsWith("phones/") ? name.substring("phones/".length()) : name;
+    }
+
+    private static String idOrRandom(String id) {
+        return id == null || id.isEmpty() ? UUID.randomUUID().toString() : id;
+    }
+
+    /**
+     * Counts the call and completes it with an injected error if one is due.
+     * @return Whether the call was failed.
+     */
+    private boolean injectError(StreamObserver<?> responseObserver) {
+        requestCount.incrementAndGet();
+
+        if (failNextCount.get() > 0 && failNextCount.getAndDecrement() > 0) {
+            injectedErrorCount.incrementAndGet();
+            responseObserver.onError(failNextStatus
+                    .withDescription("injected error")
+                    .asRuntimeException());
+            return true;
+        }
+
+        return false;
+    }
+
+    private static <T> void reply(StreamObserver<T> responseObserver, T response) {
+        responseObserver.onNext(response);
+        responseObserver.onCompleted();
+    }
+
+    private static void notFound(StreamObserver<?> responseObserver) {
+        responseObserver.onError(Status.NOT_FOUND
+                .withDescription("Requested entity was not found.")
+                .asRuntimeException());
+    }
+
+    private class Service extends RcsBusinessMessagingServiceGrpc.RcsBusinessMessagingServiceImplBase {
+        @Override
+        public void createAgentMessage(CreateAgentMessageRequest request,
+                                       StreamObserver<AgentMessage> responseObserver) {
+            if (injectError(responseObserver)) {
+                return;
+            }
+
+            if (capabilitiesFor(phoneNumberOf(request.getParent())).isEmpty()) {
+                notFound(responseObserver);
+                return;
+            }
+
+            String name = request.getParent() + "/agentMessages/" + idOrRandom(request.getMessageId());
+            if (!agentMessageNames.add(name)) {
+                responseObserver.onError(Status.ALREADY_EXISTS
+                        .withDescription("Requested entity already exists")
+                        .asRuntimeException());
+                return;
+            }
+
+            reply(responseObserver, request.getAgentMessage().toBuilder().setName(name).build());
+        }
+
+        @Override
+        public void createAgentEvent(CreateAgentEventRequest request,
+                                     StreamObserver<AgentEvent> responseObserver) {
+            if (injectError(responseObserver)) {
+                return;
+            }
+
+            reply(responseObserver, request.getAgentEvent().toBuilder()
+                    .setName(request.getParent() + "/agentEvents/" + idOrRandom(request.getEventId()))
+                    .build());
+        }
+
+        @Override
+        public void createDialogflowEvent(CreateDialogflowEventRequest request,
+                                          StreamObserver<DialogflowEvent> responseObserver) {
+            if (injectError(responseObserver)) {
+                return;
+            }
+
+            reply(responseObserver, request.getDialogflowMessage().toBuilder()
+                    .setName(request.getParent() + "/dialogflowMessages/" + UUID.randomUUID())
+                    .build());
+        }
+
+        @Override
+        public void deleteAgentMessage(DeleteAgentMessageRequest request,
+                                       StreamObserver<Empty> responseObserver) {
+            if (injectError(responseObserver)) {
+                return;
+            }
+
+            reply(responseObserver, Empty.getDefaultInstance());
+        }
+
+        @Override
+        public void requestCapabilityCallback(RequestCapabilityCallbackRequest request,
+                                              StreamObserver<Empty> responseObserver) {
+            if (injectError(responseObserver)) {
+                return;
+            }
+
+            reply(responseObserver, Empty.getDefaultInstance());
+        }
+
+        @Override
+        public void createFile(CreateFileRequest request, StreamObserver<File> responseObserver) {
+            if (injectError(responseObserver)) {
+                return;
+            }
+
+            reply(responseObserver, File.newBuilder().setName("files/" + UUID.randomUUID()).build());
+        }
+
+        @Override
+        public void createTester(CreateTesterRequest request,
+                                 StreamObserver<Tester> responseObserver) {
+            if (injectError(responseObserver)) {
+                return;
+            }
+
+            reply(responseObserver, request.getTester().toBuilder()
+                    .setName(request.getParent() + "/testers/" + UUID.randomUUID())
+                    .setInviteStatus(Tester.InviteStatus.PENDING)
+                    .build());
+        }
+
+        @Override
+        public void getCapabilities(GetCapabilitiesRequest request,
+                                    StreamObserver<Capabilities> responseObserver) {
+            if (injectError(responseObserver)) {
+                return;
+            }
+
+            Set<Feature> features = capabilitiesFor(phoneNumberOf(request.getName()));
+            if (features.isEmpty()) {
+                notFound(responseObserver);
+                return;
+            }
+
+            reply(responseObserver, Capabilities.newBuilder().addAllFeatures(features).build());
+        }
+
+        @Override
+        public void batchGetUsers(BatchGetUsersRequest request,
+                                  StreamObserver<BatchGetUsersResponse> responseObserver) {
+            if (injectError(responseObserver)) {
+                return;
+            }
+
+            List<String> reachable = new ArrayList<String>();
+            for (String user : request.getUsersList()) {
+                if (!capabilitiesFor(user).isEmpty()) {
+                    reachable.add(user);
+                }
+            }
+
+            reply(responseObserver, BatchGetUsersResponse.newBuilder()
+                    .addAllReachableUsers(reachable)
+                    .setTotalRandomSampleUserCount(request.getUsersCount())
+                    .setReachableRandomSampleUserCount(reachable.size())
+                    .build());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.function.BooleanSupplier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AccessTokenManagerTest {
+    private FakeRbmServer server;
+    private AccessTokenManager accessTokenManager;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+    }
+
+    @After
+    public void tearDown() {
+        if (accessTokenManager != null) {
+            accessTokenManager.close();
+        }
+        server.close();
+    }
+
+    @Test
+    public void tokenIsRefreshedInTheBackgroundBeforeItExpires() throws Exception {
+        // a 4 s token with a 3 s margin is refreshed halfway, and sent until 1 s before expiry
+        server.setTokenLifetimeSeconds(4);
+        accessTokenManager = AccessTokenManager.newBuilder(newCredential())
+                .setRefreshMarginMillis(3000)
+                .build()
+                .start();
+
+        await(() -> accessTokenManager.getRefreshCount() == 1, 2000);
+        String firstToken = accessTokenManager.getCachedAccessToken();
+        long firstRefreshMillis = accessTokenManager.getLastRefreshTimeMillis();
+        assertNotNull(firstToken);
+
+        await(() -> accessTokenManager.getRefreshCount() == 2, 4000);
+        long elapsedMillis = accessTokenManager.getLastRefreshTimeMillis() - firstRefreshMillis;
+
+        assertTrue("refreshed after " + elapsedMillis + " ms", elapsedMillis >= 1500);
+        assertTrue("refreshed after " + elapsedMillis + " ms", elapsedMillis < 3000);
+        assertNotEquals(firstToken, accessTokenManager.getAccessToken());
+        assertEquals(0, accessTokenManager.getBlockingRefreshCount());
+        assertEquals(2, server.getTokenRequestCount());
+    }
+
+    @Test
+    public void failedRefreshesAreRetriedWithBackoff() throws Exception {
+        server.failNextRequests(3, 503);
+        long startMillis = System.currentTimeMillis();
+        accessTokenManager = AccessTokenManager.newBuilder(newCredential())
+                .setRetryIntervalMillis(100, 200)
+                .build()
+                .start();
+
+        await(() -> accessTokenManager.getRefreshCount() == 1, 5000);
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+
+        // retried after 100, 200 and, capped, 200 ms
+        assertTrue("refreshed after " + elapsedMillis + " ms", elapsedMillis >= 500);
+        assertEquals(3, accessTokenManager.getRefreshFailureCount());
+        assertEquals(4, server.getTokenRequestCount());
+        assertEquals(0, accessTokenManager.getBlockingRefreshCount());
+    }
+
+    @Test
+    public void requestRejectedWith401IsRetriedWithANewToken() throws Exception {
+        accessTokenManager = AccessTokenManager.newBuilder(newCredential()).build().start();
+        RCSBusinessMessaging rbmApi = TestClients.newClient(
+                server.getRootUrl(), accessTokenManager, TestClients.fastRetries(3));
+
+        send(rbmApi);
+        String rejectedToken = accessTokenManager.getCachedAccessToken();
+        server.resetCounters();
+        server.failNextRequests(1, 401);
+
+        send(rbmApi);
+
+        assertEquals(1, server.getInjectedErrorCount());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, server.getTokenRequestCount());
+        assertNotEquals(rejectedToken, accessTokenManager.getCachedAccessToken());
+    }
+
+    @Test
+    public void readsDoNotWaitForARefreshInFlight() throws Exception {
+        accessTokenManager = AccessTokenManager.newBuilder(newCredential()).build();
+        assertNull(accessTokenManager.getCachedAccessToken());
+        assertEquals(0, server.getTokenRequestCount());
+
+        // with no token at all, the first request has to wait
+        String token = accessTokenManager.getAccessToken();
+        assertEquals(1, accessTokenManager.getBlockingRefreshCount());
+
+        // starting refreshes the token at once; slowed down, that refresh holds the lock while
+        // the current token is still served without it
+        server.setLatencyMillis(1000);
+        accessTokenManager.start();
+        Thread.sleep(100);
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(token, accessTokenManager.getAccessToken());
+            assertEquals(token, accessTokenManager.getCachedAccessToken());
+        }
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+
+        assertTrue("reads took " + elapsedMillis + " ms", elapsedMillis < 500);
+        assertEquals(1, accessTokenManager.getRefreshCount());
+
+        await(() -> accessTokenManager.getRefreshCount() == 2, 3000);
+        assertNotEquals(token, accessTokenManager.getAccessToken());
+        assertEquals(1, accessTokenManager.getBlockingRefreshCount());
+    }
+
+    private GoogleCredential newCredential() throws Exception {
+        String key = TestClients.serviceAccountKey(server.getTokenUri());
+
+        return GoogleCredential
+                .fromStream(new ByteArrayInputStream(key.getBytes(StandardCharsets.UTF_8)))
+                .createScoped(Collections.singletonList(
+                        "https://www.googleapis.com/auth/rcsbusinessmessaging"));
+    }
+
+    private static void send(RCSBusinessMessaging rbmApi) throws IOException {
+        rbmApi.phones().agentMessages()
+                .create("phones/" + TestClients.MSISDN, TestClients.textMessage("Hello"))
+                .execute();
+    }
+
+    private static void await(BooleanSupplier condition, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
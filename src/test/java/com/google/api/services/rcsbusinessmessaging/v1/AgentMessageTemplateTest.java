@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedReply;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class AgentMessageTemplateTest {
+    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+    @Test
+    public void renderedBodyMatchesSerializedMessage() throws Exception {
+        AgentMessageTemplate template = AgentMessageTemplate.compile(
+                message("Hi {{name}}, your code is {{code}}", "Track {{name}}"), JSON_FACTORY);
+        // in the order of the serialized fields, where suggestions come before the text
+        assertEquals(Arrays.asList("name", "name", "code"), template.getPlaceholders());
+
+        List<String> values = Arrays.asList(
+                "plain",
+                "say \"hi\"",
+                "C:\\path\\",
+                "line\nbreak\ttab\rreturn\bback\ffeed",
+                "\u0000\u0001\u001f\u007f",
+                "caf\u00e9 \u65e5\u672c",
+                "emoji \ud83d\ude00 \ud83c\uddf3\ud83c\uddf1",
+                "{{code}}",
+                "");
+        for (int i = 0; i < values.size(); i++) {
+            String name = values.get(i);
+            Map<String, String> placeholderValues = new HashMap<String, String>();
+            placeholderValues.put("name", name);
+            placeholderValues.put("code", "1234");
+
+            byte[] expected = JSON_FACTORY.toByteArray(message(
+                    "Hi " + name + ", your code is 1234", "Track " + name));
+            assertArrayEquals("value " + i, expected, template.render(placeholderValues));
+        }
+    }
+
+    @Test
+    public void messageWithoutPlaceholdersIsSerializedOnce() throws Exception {
+        AgentMessage message = message("Hello", "Track");
+        AgentMessageTemplate template = AgentMessageTemplate.compile(message, JSON_FACTORY);
+
+        Map<String, String> noValues = Collections.emptyMap();
+        assertArrayEquals(JSON_FACTORY.toByteArray(message), template.render(noValues));
+        assertEquals(template.render(noValues), template.render(noValues));
+    }
+
+    @Test
+    public void missingValueIsRejected() throws Exception {
+        AgentMessageTemplate template = AgentMessageTemplate.compile(
+                message("Hi {{name}}", "Track"), JSON_FACTORY);
+
+        try {
+            template.render(Collections.singletonMap("other", "value"));
+            fail("expected the missing value to be rejected");
+        } catch (IllegalArgumentException e) {
+            assertEquals("no value for placeholder name", e.getMessage());
+        }
+    }
+
+    private static AgentMessage message(String text, String replyText) {
+        List<Suggestion> suggestions = new ArrayList<Suggestion>();
+        suggestions.add(new Suggestion().setReply(
+                new SuggestedReply().setText(replyText).setPostbackData("track")));
+
+        return new AgentMessage().setContentMessage(
+                new AgentContentMessage().setText(text).setSuggestions(suggestions));
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class AsyncRequestExecutorTest {
+    private final ExecutorService executorService = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void callChainedFromACallbackIsQueuedAtTheCap() throws Exception {
+        AsyncRequestExecutor executor = new AsyncRequestExecutor(executorService, 1);
+
+        // the callback runs on the executor's thread while the first call holds the only slot
+        CompletableFuture<String> chained = executor.submit(() -> "first")
+                .thenCompose(first -> executor.submitOrQueue(() -> first + ", second"));
+
+        assertEquals("first, second", chained.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void queuedCallStartsWhenASlotFrees() throws Exception {
+        AsyncRequestExecutor executor = new AsyncRequestExecutor(executorService, 1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Boolean> running = executor.submit(
+                () -> release.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> queued = executor.submitOrQueue(() -> "queued");
+
+        Thread.sleep(100);
+        assertFalse(queued.isDone());
+        assertEquals(1, executor.getInFlightCount());
+
+        release.countDown();
+
+        assertEquals("queued", queued.get(5, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, running.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatchingSenderTest {
+    private FakeRbmServer server;
+    private BatchingSender sender;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+    }
+
+    @After
+    public void tearDown() {
+        if (sender != null) {
+            sender.close();
+        }
+
+        server.close();
+    }
+
+    @Test
+    public void onlyFailedPartsAreRetried() throws Exception {
+        sender = newSender(TestClients.newClient(server.getRootUrl(), RetryPolicy.noRetries()));
+        server.failNextRequests(1, 503);
+
+        List<CompletableFuture<AgentMessage>> futures = sendBatch(3);
+        for (CompletableFuture<AgentMessage> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        // a resent part that had succeeded would have been rejected as a duplicate
+        assertEquals(4, server.getRequestCount());
+        assertEquals(2, server.getRequestCount(RbmEndpoint.BATCH));
+    }
+
+    @Test
+    public void partsAreRetriedBySenderWithDefaultPolicy() throws Exception {
+        // the default policy's retry handler would otherwise retry and back off inside each batch
+        sender = BatchingSender.newBuilder(
+                TestClients.newClient(server.getRootUrl(), new RetryPolicy()))
+                .setMaxBatchSize(10)
+                .setLingerMillis(10000)
+                .setMaxAttempts(3)
+                .setInitialRetryDelayMillis(10)
+                .build();
+        server.failNextRequests(10, 503);
+
+        long start = System.nanoTime();
+        for (CompletableFuture<AgentMessage> future : sendBatch(10)) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+        assertEquals(20, server.getRequestCount());
+        assertEquals(2, server.getRequestCount(RbmEndpoint.BATCH));
+    }
+
+    @Test
+    public void permanentPartFailuresAreNotRetried() throws Exception {
+        sender = newSender(TestClients.newClient(server.getRootUrl(), RetryPolicy.noRetries()));
+        server.failNextRequests(1, 400);
+
+        List<CompletableFuture<AgentMessage>> futures = sendBatch(3);
+
+        assertEquals(400, statusCode(futures.get(0)));
+        futures.get(1).get(10, TimeUnit.SECONDS);
+        futures.get(2).get(10, TimeUnit.SECONDS);
+        assertEquals(1, server.getRequestCount(RbmEndpoint.BATCH));
+    }
+
+    @Test
+    public void permanentBatchFailuresAreNotRetried() throws Exception {
+        // the fake answers unknown paths with a 404, for the batch request as a whole
+        sender = newSender(TestClients.newClient(
+                server.getRootUrl() + "unknown/", RetryPolicy.noRetries()));
+
+        for (CompletableFuture<AgentMessage> future : sendBatch(3)) {
+            assertEquals(404, statusCode(future));
+        }
+
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void rateLimitedBatchesAreNotRetried() throws Exception {
+        // parts are rate limited as the batch is sent, so one rejected part fails the batch
+        RbmRateLimiter rateLimiter = new RbmRateLimiter()
+                .setPhoneNumberLimit(0.001, 1)
+                .setMaxWaitMillis(0);
+        RCSBusinessMessaging rbmApi = new RCSBusinessMessaging.Builder(
+                new NetHttpTransport(), JacksonFactory.getDefaultInstance(), null)
+                .setApplicationName("rbm-tests")
+                .setHttpRequestInitializer(new RbmHttpRequestInitializer(
+                        null, RetryPolicy.noRetries(), rateLimiter))
+                .setRootUrl(server.getRootUrl())
+                .build();
+        sender = BatchingSender.newBuilder(rbmApi)
+                .setMaxBatchSize(3)
+                .setLingerMillis(10000)
+                .setMaxAttempts(3)
+                .setInitialRetryDelayMillis(10000)
+                .build();
+
+        for (CompletableFuture<AgentMessage> future : sendBatch(3)) {
+            try {
+                // well within the retry delay
+                future.get(5, TimeUnit.SECONDS);
+                fail("expected the rate limiter to reject the batch");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RateLimitExceededException);
+            }
+        }
+
+        assertEquals(0, server.getRequestCount(RbmEndpoint.BATCH));
+    }
+
+    private BatchingSender newSender(RCSBusinessMessaging rbmApi) {
+        // long enough for sendBatch to fill a batch, short enough not to hold up a lone retry
+        return BatchingSender.newBuilder(rbmApi)
+                .setMaxBatchSize(3)
+                .setLingerMillis(500)
+                .setMaxAttempts(3)
+                .setInitialRetryDelayMillis(10)
+                .build();
+    }
+
+    private List<CompletableFuture<AgentMessage>> sendBatch(int size) {
+        List<CompletableFuture<AgentMessage>> futures =
+                new ArrayList<CompletableFuture<AgentMessage>>();
+        for (int i = 0; i < size; i++) {
+            futures.add(sender.sendAgentMessage(
+                    TestClients.textMessage("Hello " + i), TestClients.MSISDN));
+        }
+
+        return futures;
+    }
+
+    private static int statusCode(CompletableFuture<?> future)
+            throws InterruptedException, TimeoutException {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("expected the request to fail");
+            return 0;
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof HttpResponseException);
+            return ((HttpResponseException) e.getCause()).getStatusCode();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CampaignEngineTest {
+    private static final int RECIPIENTS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeRbmServer server;
+    private CampaignEngine engine;
+    private Path journal;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+        engine = CampaignEngine.newBuilder(
+                TestClients.newClient(server.getRootUrl(), RetryPolicy.noRetries()))
+                .setMaxInFlight(4)
+                .build();
+        journal = folder.getRoot().toPath().resolve("campaign.journal");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void transientFailuresAreSentAgainOnResume() throws Exception {
+        server.failNextRequests(3, 503);
+
+        CampaignSummary first = run();
+        assertEquals(RECIPIENTS - 3, first.getSent());
+        assertEquals(3, first.getFailedRetryable());
+        assertEquals(0, first.getFailed());
+
+        CampaignSummary resumed = run();
+        assertEquals(RECIPIENTS - 3, resumed.getSkipped());
+        assertEquals(3, resumed.getSent());
+
+        CampaignSummary done = run();
+        assertEquals(RECIPIENTS, done.getSkipped());
+        assertEquals(RECIPIENTS, server.getRequestCount(RbmEndpoint.AGENT_MESSAGES));
+    }
+
+    @Test
+    public void rateLimitedSendsAreSentAgainOnResume() throws Exception {
+        RbmRateLimiter rateLimiter = new RbmRateLimiter()
+                .setEndpointLimit(RbmEndpoint.AGENT_MESSAGES, 0.001, 5)
+                .setMaxWaitMillis(0);
+        CampaignEngine limitedEngine = CampaignEngine.newBuilder(
+                new RCSBusinessMessaging.Builder(
+                        new NetHttpTransport(), JacksonFactory.getDefaultInstance(), null)
+                        .setApplicationName("rbm-tests")
+                        .setHttpRequestInitializer(new RbmHttpRequestInitializer(
+                                null, RetryPolicy.noRetries(), rateLimiter))
+                        .setRootUrl(server.getRootUrl())
+                        .build())
+                .setMaxInFlight(4)
+                .build();
+
+        CampaignSummary first = limitedEngine.run("campaign-1", recipients(), journal,
+                msisdn -> TestClients.textMessage("Hello"));
+        assertEquals(5, first.getSent());
+        assertEquals(RECIPIENTS - 5, first.getFailedRetryable());
+
+        CampaignSummary resumed = run();
+        assertEquals(5, resumed.getSkipped());
+        assertEquals(RECIPIENTS - 5, resumed.getSent());
+    }
+
+    @Test
+    public void permanentFailuresAreNotSentAgain() throws Exception {
+        server.failNextRequests(2, 400);
+
+        CampaignSummary first = run();
+        assertEquals(2, first.getFailed());
+        assertEquals(0, first.getFailedRetryable());
+
+        CampaignSummary resumed = run();
+        assertEquals(RECIPIENTS, resumed.getSkipped());
+    }
+
+    @Test
+    public void lostOutcomesAreAnsweredAsAlreadySent() throws Exception {
+        run();
+
+        // as if the journal had been lost in a crash before it was flushed
+        journal = folder.getRoot().toPath().resolve("replacement.journal");
+
+        CampaignSummary resumed = run();
+        assertEquals(0, resumed.getSent());
+        assertEquals(RECIPIENTS, resumed.getAlreadySent());
+    }
+
+    private CampaignSummary run() throws IOException, InterruptedException {
+        return engine.run("campaign-1", recipients(), journal,
+                msisdn -> TestClients.textMessage("Hello"));
+    }
+
+    private static InputStream recipients() {
+        StringBuilder recipients = new StringBuilder();
+        for (int i = 0; i < RECIPIENTS; i++) {
+            recipients.append("+1555").append(1000000 + i).append('\n');
+        }
+
+        return new ByteArrayInputStream(recipients.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CampaignJournalTest {
+    // file header, then length and CRC32 in front of each record
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reopenedJournalReplaysItsRecords() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("campaign.journal");
+
+        try (CampaignJournal journal = CampaignJournal.open(path)) {
+            journal.append(record(0, CampaignOutcome.SENT, 200));
+            journal.append(record(1, CampaignOutcome.ALREADY_SENT, 409));
+            journal.append(record(2, CampaignOutcome.FAILED, 400));
+            journal.append(record(3, CampaignOutcome.FAILED_RETRYABLE, 503));
+        }
+
+        try (CampaignJournal journal = CampaignJournal.open(path)) {
+            assertTrue(journal.isCompleted(0));
+            assertTrue(journal.isCompleted(1));
+            assertTrue(journal.isCompleted(2));
+            assertFalse(journal.isCompleted(3));
+            assertEquals(3, journal.getCompletedCount());
+
+            // the retried send completes the recipient
+            journal.append(record(3, CampaignOutcome.SENT, 200));
+            assertTrue(journal.isCompleted(3));
+        }
+
+        List<CampaignRecord> records = readAll(path);
+        assertEquals(5, records.size());
+        assertEquals(CampaignOutcome.FAILED_RETRYABLE, records.get(3).getOutcome());
+        assertEquals(503, records.get(3).getHttpStatusCode());
+        assertEquals(CampaignOutcome.SENT, records.get(4).getOutcome());
+        assertEquals("+15550000003", records.get(4).getMsisdn());
+        assertEquals("id-3", records.get(4).getMessageId());
+    }
+
+    @Test
+    public void tornRecordEndsTheReplay() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("campaign.journal");
+
+        try (CampaignJournal journal = CampaignJournal.open(path)) {
+            for (int i = 0; i < 3; i++) {
+                journal.append(record(i, CampaignOutcome.SENT, 200));
+            }
+        }
+
+        // a crash in the middle of the third record leaves a payload its CRC does not match
+        int recordSize = RECORD_HEADER_SIZE + payloadSize(record(0, CampaignOutcome.SENT, 200));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xff}),
+                    FILE_HEADER_SIZE + 2 * recordSize + RECORD_HEADER_SIZE + 1);
+        }
+
+        try (CampaignJournal journal = CampaignJournal.open(path)) {
+            assertEquals(2, journal.getCompletedCount());
+            assertFalse(journal.isCompleted(2));
+
+            // appending continues in place of the torn record
+            journal.append(record(2, CampaignOutcome.SENT, 200));
+        }
+
+        List<CampaignRecord> records = readAll(path);
+        assertEquals(3, records.size());
+        assertEquals(2, records.get(2).getRecipientIndex());
+    }
+
+    @Test
+    public void unflushedRecordsAreReadFromTheMappedFile() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("campaign.journal");
+
+        // flushes are never due, as if the process died before the flusher ran; the mapped
+        // pages still reach the file through the page cache
+        CampaignJournal journal = CampaignJournal.open(path, 60000, 1000);
+        try {
+            journal.append(record(0, CampaignOutcome.SENT, 200));
+            journal.append(record(1, CampaignOutcome.SENT, 200));
+
+            assertEquals(2, readAll(path).size());
+        } finally {
+            journal.close();
+        }
+    }
+
+    private static CampaignRecord record(long recipientIndex, CampaignOutcome outcome, int status) {
+        return new CampaignRecord(recipientIndex, "+1555000000" + recipientIndex,
+                "id-" + recipientIndex, outcome, status);
+    }
+
+    // recipient index, status code, outcome and the two length-prefixed strings
+    private static int payloadSize(CampaignRecord record) {
+        return 8 + 4 + 1 + 2 + record.getMsisdn().length() + 2 + record.getMessageId().length();
+    }
+
+    private static List<CampaignRecord> readAll(Path path) throws IOException {
+        List<CampaignRecord> records = new ArrayList<CampaignRecord>();
+        CampaignJournal.read(path, records::add);
+        return records;
+    }
+}
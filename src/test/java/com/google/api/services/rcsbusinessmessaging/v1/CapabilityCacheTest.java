@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.services.rcsbusinessmessaging.v1.model.Capabilities;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Feature;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CapabilityCacheTest {
+    private static final String UNREACHABLE_MSISDN = "+12223330000";
+
+    private FakeRbmServer server;
+    private RCSBusinessMessaging rbmApi;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+        server.setCapabilities(
+                TestClients.MSISDN, Arrays.asList("RICHCARD_STANDALONE", "ACTION_DIAL"));
+        server.setCapabilities(UNREACHABLE_MSISDN, null);
+
+        rbmApi = TestClients.newClient(server.getRootUrl(), RetryPolicy.noRetries());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void concurrentLookupsShareOneCall() throws Exception {
+        CapabilityCache cache = CapabilityCache.newBuilder(rbmApi).build();
+        server.setLatencyMillis(300);
+
+        int threads = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Set<Feature>>> lookups = new ArrayList<Future<Set<Feature>>>();
+            for (int i = 0; i < threads; i++) {
+                lookups.add(executorService.submit(() -> {
+                    start.await();
+                    return cache.getFeatures(TestClients.MSISDN);
+                }));
+            }
+            start.countDown();
+
+            for (Future<Set<Feature>> lookup : lookups) {
+                assertEquals(EnumSet.of(Feature.RICHCARD_STANDALONE, Feature.ACTION_DIAL),
+                        lookup.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertEquals(1, server.getRequestCount(RbmEndpoint.CAPABILITIES));
+        assertEquals(threads, cache.getHitCount() + cache.getMissCount());
+    }
+
+    @Test
+    public void unreachableNumbersAreCachedForTheNegativeTtl() throws Exception {
+        CapabilityCache cache = CapabilityCache.newBuilder(rbmApi)
+                .setNegativeTtlMillis(TimeUnit.HOURS.toMillis(1))
+                .build();
+
+        assertFalse(cache.isReachable(UNREACHABLE_MSISDN));
+        assertFalse(cache.hasFeature(UNREACHABLE_MSISDN, Feature.ACTION_DIAL));
+        assertTrue(cache.getFeatures(UNREACHABLE_MSISDN).isEmpty());
+
+        assertEquals(1, server.getRequestCount(RbmEndpoint.CAPABILITIES));
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void expiredEntriesAreLoadedAgain() throws Exception {
+        // reachable numbers are kept, unreachable ones expire right away
+        CapabilityCache cache = CapabilityCache.newBuilder(rbmApi)
+                .setPositiveTtlMillis(TimeUnit.HOURS.toMillis(1))
+                .setNegativeTtlMillis(0)
+                .build();
+
+        assertTrue(cache.isReachable(TestClients.MSISDN));
+        assertTrue(cache.hasFeature(TestClients.MSISDN, Feature.ACTION_DIAL));
+        assertFalse(cache.isReachable(UNREACHABLE_MSISDN));
+        assertFalse(cache.isReachable(UNREACHABLE_MSISDN));
+
+        assertEquals(3, server.getRequestCount(RbmEndpoint.CAPABILITIES));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void smallCachesEvictTheEntriesClosestToExpiry() throws Exception {
+        CapabilityCache cache = CapabilityCache.newBuilder(rbmApi)
+                .setMaxSize(5)
+                .build();
+
+        for (int i = 0; i < 6; i++) {
+            cache.put("+1555000000" + i, new Capabilities().setFeatures(
+                    Arrays.asList("RICHCARD_STANDALONE")));
+
+            // later entries expire strictly later
+            Thread.sleep(2);
+        }
+
+        // back to one below the maximum size, dropping the two oldest entries
+        assertEquals(4, cache.size());
+        for (int i = 2; i < 6; i++) {
+            assertTrue(cache.hasFeature("+1555000000" + i, Feature.RICHCARD_STANDALONE));
+        }
+        assertEquals(0, server.getRequestCount(RbmEndpoint.CAPABILITIES));
+
+        assertTrue(cache.isReachable("+15550000000"));
+        assertEquals(1, server.getRequestCount(RbmEndpoint.CAPABILITIES));
+    }
+}
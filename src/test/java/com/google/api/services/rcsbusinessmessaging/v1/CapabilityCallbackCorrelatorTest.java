@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.services.rcsbusinessmessaging.v1.model.Capabilities;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CapabilityCallbackCorrelatorTest {
+    private FakeRbmServer server;
+    private CapabilityCallbackCorrelator correlator;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+        correlator = new CapabilityCallbackCorrelator(
+                TestClients.newClient(server.getRootUrl(), RetryPolicy.noRetries()), 500, null, 16);
+    }
+
+    @After
+    public void tearDown() {
+        correlator.close();
+        server.close();
+    }
+
+    @Test
+    public void callbackCompletesTheMatchingCheck() throws Exception {
+        CompletableFuture<Capabilities> first = correlator.register("request-1", null);
+        CompletableFuture<Capabilities> second = correlator.register("request-2", null);
+
+        assertTrue(correlator.handleCallback(
+                "{\"requestId\":\"request-2\",\"features\":[\"RICHCARD_STANDALONE\"]}"));
+
+        assertEquals(Arrays.asList("RICHCARD_STANDALONE"),
+                second.get(1, TimeUnit.SECONDS).getFeatures());
+        assertFalse(first.isDone());
+        assertEquals(1, correlator.getPendingCount());
+    }
+
+    @Test
+    public void checksWithoutCallbackExpire() throws Exception {
+        CompletableFuture<Capabilities> check = correlator.register("request-1", null);
+
+        try {
+            check.get(5, TimeUnit.SECONDS);
+            fail("expected the check to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+
+        // a late callback finds nothing to complete
+        assertFalse(correlator.handleCallback(
+                "{\"requestId\":\"request-1\",\"features\":[\"RICHCARD_STANDALONE\"]}"));
+        assertEquals(0, correlator.getPendingCount());
+    }
+
+    @Test
+    public void completedChecksDoNotExpire() throws Exception {
+        CompletableFuture<Capabilities> check = correlator.register("request-1", null);
+        assertTrue(correlator.complete("request-1", new Capabilities()));
+
+        // the expiry queue still holds the check until its deadline passes
+        Thread.sleep(1000);
+
+        assertFalse(check.isCompletedExceptionally());
+        assertEquals(0, correlator.getPendingCount());
+    }
+
+    @Test
+    public void requestedChecksAreRegisteredUnderTheirRequestId() throws Exception {
+        CompletableFuture<Capabilities> check =
+                correlator.requestCapabilities(TestClients.MSISDN);
+
+        assertEquals(1, server.getRequestCount(RbmEndpoint.CAPABILITY_CALLBACK));
+        assertEquals(1, correlator.getPendingCount());
+
+        try {
+            check.get(5, TimeUnit.SECONDS);
+            fail("expected the check to time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void closeFailsPendingChecks() throws Exception {
+        CompletableFuture<Capabilities> check = correlator.register("request-1", null);
+        correlator.close();
+
+        try {
+            check.get(1, TimeUnit.SECONDS);
+            fail("expected the check to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.google.api.services.rcsbusinessmessaging.v1.model.CreateFileRequest;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileUploaderTest {
+    private static final byte[] CONTENT = "not really a jpeg".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeRbmServer server;
+    private UploadCache uploadCache;
+    private FileUploader fileUploader;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+        RCSBusinessMessaging rbmApi =
+                TestClients.newClient(server.getRootUrl(), TestClients.fastRetries(1));
+        uploadCache = UploadCache.newBuilder(rbmApi).build();
+        fileUploader = FileUploader.newBuilder(rbmApi).setUploadCache(uploadCache).build();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void copyOfAnUploadedFileIsFoundByItsHash() throws Exception {
+        String name = fileUploader.upload(write("a.jpg", CONTENT), null, null).getName();
+
+        CreateFileRequest metadata = new CreateFileRequest();
+        assertEquals(name, fileUploader.upload(write("b.jpg", CONTENT), null, metadata, null)
+                .getName());
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, uploadCache.getHitCount());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(CONTENT),
+                metadata.getBlob().decodeSha256Hash());
+        assertEquals("b.jpg", metadata.getBlob().getFilename());
+    }
+
+    @Test
+    public void touchedFileIsNotUploadedAgain() throws IOException {
+        Path file = write("a.jpg", CONTENT);
+        String name = fileUploader.upload(file, null, null).getName();
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(
+                Files.getLastModifiedTime(file).toMillis() + 60_000));
+
+        assertEquals(name, fileUploader.upload(file, null, null).getName());
+        // found by its location now, without hashing it again
+        assertEquals(name, fileUploader.upload(file, null, null).getName());
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(2, uploadCache.getHitCount());
+        assertEquals(1, uploadCache.getMissCount());
+    }
+
+    @Test
+    public void differentContentIsUploaded() throws IOException {
+        String first = fileUploader.upload(write("a.jpg", CONTENT), null, null).getName();
+        String second = fileUploader.upload(
+                write("b.jpg", "another image".getBytes(StandardCharsets.UTF_8)), null, null)
+                .getName();
+
+        assertNotEquals(first, second);
+        assertEquals(2, server.getRequestCount());
+        assertEquals(2, uploadCache.getMissCount());
+    }
+
+    @Test
+    public void largeFileIsUploadedInChunksFromAMapping() throws Exception {
+        byte[] content = new byte[600 * 1024];
+        new Random(1).nextBytes(content);
+        RCSBusinessMessaging rbmApi =
+                TestClients.newClient(server.getRootUrl(), TestClients.fastRetries(1));
+        FileUploader chunkedUploader = FileUploader.newBuilder(rbmApi)
+                .setChunkSize(256 * 1024)
+                .setDirectUploadThreshold(256 * 1024)
+                .build();
+
+        CreateFileRequest metadata = new CreateFileRequest();
+        chunkedUploader.upload(write("video.mp4", content), null, metadata, null);
+
+        // three chunks, read from the mapping
+        assertEquals(3, server.getRequestCount(RbmEndpoint.FILE_UPLOAD_SESSION));
+        assertEquals(content.length, server.getUploadedByteCount());
+        assertEquals(Long.valueOf(content.length), metadata.getBlob().getLength());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(content),
+                metadata.getBlob().decodeSha256Hash());
+    }
+
+    private Path write(String fileName, byte[] content) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve(fileName), content);
+    }
+}
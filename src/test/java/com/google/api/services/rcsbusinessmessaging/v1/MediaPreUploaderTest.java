@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.ContentInfo;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MediaPreUploaderTest {
+    private static final String IMAGE_URL = "https://example.com/media/banner.jpg";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeRbmServer server;
+    private ExecutorService executorService;
+    private RbmApiHelper rbmApiHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeRbmServer().start();
+
+        Path key = folder.getRoot().toPath().resolve("key.json");
+        Files.write(key, TestClients.serviceAccountKey(server.getTokenUri())
+                .getBytes(StandardCharsets.UTF_8));
+
+        rbmApiHelper = new RbmApiHelper(key.toFile(),
+                new RbmTransportOptions().setRootUrl(server.getRootUrl()));
+
+        // a single slot, which the uploads still hold when the send is submitted
+        executorService = Executors.newFixedThreadPool(2);
+        rbmApiHelper.setAsyncRequestExecutor(new AsyncRequestExecutor(executorService, 1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        rbmApiHelper.close();
+        executorService.shutdownNow();
+        server.close();
+    }
+
+    @Test
+    public void forceRefreshIsHonouredOncePerMessage() throws Exception {
+        AgentMessage message = imageMessage();
+        rbmApiHelper.setPreUploadMedia(true);
+
+        AgentMessage uploaded = rbmApiHelper.preUploadMedia(message);
+        for (int i = 0; i < 3; i++) {
+            rbmApiHelper.sendAgentMessageAsync(message, "+1555000000" + i)
+                    .get(5, TimeUnit.SECONDS);
+        }
+        rbmApiHelper.sendAgentMessage(message, "+15550000009");
+
+        assertEquals(1, server.getRequestCount(RbmEndpoint.FILES));
+        assertEquals(4, server.getRequestCount(RbmEndpoint.AGENT_MESSAGES));
+        assertNull(uploaded.getContentMessage().getContentInfo());
+
+        // refreshing again is up to the caller
+        rbmApiHelper.preUploadMedia(message);
+        assertEquals(2, server.getRequestCount(RbmEndpoint.FILES));
+    }
+
+    @Test
+    public void sendsWithoutAPriorPreUploadUploadOnce() throws Exception {
+        rbmApiHelper.setPreUploadMedia(true);
+
+        for (int i = 0; i < 3; i++) {
+            rbmApiHelper.sendAgentMessageAsync(imageMessage(), "+1555000000" + i)
+                    .get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, server.getRequestCount(RbmEndpoint.FILES));
+        assertEquals(3, server.getRequestCount(RbmEndpoint.AGENT_MESSAGES));
+    }
+
+    private static AgentMessage imageMessage() {
+        return new AgentMessage().setContentMessage(new AgentContentMessage()
+                .setContentInfo(new ContentInfo()
+                        .setFileUrl(IMAGE_URL)
+                        .setForceRefresh(true)));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CardContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CarouselCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.ContentInfo;
+import com.google.api.services.rcsbusinessmessaging.v1.model.DialAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Feature;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Media;
+import com.google.api.services.rcsbusinessmessaging.v1.model.RichCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.StandaloneCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedReply;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+public class MessageDowngraderTest {
+    private static final String IMAGE_URL = "https://example.com/media/banner.jpg";
+
+    @Test
+    public void carouselBecomesStandaloneCards() {
+        AgentMessage message = carouselMessage();
+        message.getContentMessage().setSuggestions(
+                suggestions(reply("More", "more")));
+
+        List<AgentMessage> messages = MessageDowngrader.downgrade(
+                message, EnumSet.of(Feature.RICHCARD_STANDALONE));
+
+        assertEquals(2, messages.size());
+        assertEquals("First", standaloneCard(messages.get(0)).getCardContent().getTitle());
+        assertEquals("Second", standaloneCard(messages.get(1)).getCardContent().getTitle());
+
+        // the message's own suggestions go on the last card sent
+        assertNull(messages.get(0).getContentMessage().getSuggestions());
+        assertEquals("more", messages.get(1).getContentMessage().getSuggestions().get(0)
+                .getReply().getPostbackData());
+
+        // the passed in message is left as it was
+        assertNotNull(message.getContentMessage().getRichCard().getCarouselCard());
+    }
+
+    @Test
+    public void carouselBecomesTextWithoutRichCards() {
+        List<AgentMessage> messages = MessageDowngrader.downgrade(
+                carouselMessage(), EnumSet.noneOf(Feature.class));
+
+        assertEquals(2, messages.size());
+        assertEquals("First\nThe first card", messages.get(0).getContentMessage().getText());
+        assertEquals("Second\nThe second card", messages.get(1).getContentMessage().getText());
+        assertNull(messages.get(0).getContentMessage().getRichCard());
+    }
+
+    @Test
+    public void standaloneCardBecomesMediaAndText() {
+        CardContent cardContent = card("Banner", "A banner")
+                .setMedia(new Media().setContentInfo(new ContentInfo().setFileUrl(IMAGE_URL)))
+                .setSuggestions(suggestions(reply("Yes", "yes")));
+        AgentMessage message = new AgentMessage().setContentMessage(new AgentContentMessage()
+                .setRichCard(new RichCard().setStandaloneCard(
+                        new StandaloneCard().setCardContent(cardContent))));
+
+        List<AgentMessage> messages = MessageDowngrader.downgrade(
+                message, EnumSet.noneOf(Feature.class));
+
+        assertEquals(2, messages.size());
+        assertEquals(IMAGE_URL, messages.get(0).getContentMessage().getContentInfo().getFileUrl());
+        assertNull(messages.get(0).getContentMessage().getText());
+
+        // the card's suggestions stay with its text
+        AgentContentMessage text = messages.get(1).getContentMessage();
+        assertEquals("Banner\nA banner", text.getText());
+        assertEquals("yes", text.getSuggestions().get(0).getReply().getPostbackData());
+    }
+
+    @Test
+    public void unsupportedActionFallsBackToItsUrl() {
+        SuggestedAction action = dialAction().setFallbackUrl("https://example.com/call");
+
+        Suggestion suggestion = downgradedSuggestion(action, EnumSet.of(Feature.ACTION_OPEN_URL));
+
+        assertNull(suggestion.getAction().getDialAction());
+        assertEquals("https://example.com/call",
+                suggestion.getAction().getOpenUrlAction().getUrl());
+        assertEquals("Call us", suggestion.getAction().getText());
+        assertEquals("call", suggestion.getAction().getPostbackData());
+    }
+
+    @Test
+    public void unsupportedActionWithoutUsableFallbackBecomesReply() {
+        // a fallback URL the device cannot open is of no use either
+        SuggestedAction action = dialAction().setFallbackUrl("https://example.com/call");
+
+        Suggestion suggestion = downgradedSuggestion(action, EnumSet.noneOf(Feature.class));
+
+        assertNull(suggestion.getAction());
+        assertEquals("Call us", suggestion.getReply().getText());
+        assertEquals("call", suggestion.getReply().getPostbackData());
+    }
+
+    @Test
+    public void supportedMessageIsReturnedAsIs() {
+        AgentMessage message = carouselMessage();
+        message.getContentMessage().setSuggestions(suggestions(
+                reply("More", "more"), new Suggestion().setAction(dialAction())));
+
+        List<AgentMessage> messages = MessageDowngrader.downgrade(
+                message, EnumSet.of(Feature.RICHCARD_CAROUSEL, Feature.ACTION_DIAL));
+
+        assertEquals(1, messages.size());
+        assertSame(message, messages.get(0));
+    }
+
+    private static Suggestion downgradedSuggestion(SuggestedAction action, Set<Feature> features) {
+        AgentMessage message = TestClients.textMessage("Get in touch");
+        message.getContentMessage().setSuggestions(
+                suggestions(new Suggestion().setAction(action)));
+
+        List<AgentMessage> messages = MessageDowngrader.downgrade(message, features);
+
+        assertEquals(1, messages.size());
+        assertEquals("Get in touch", messages.get(0).getContentMessage().getText());
+        return messages.get(0).getContentMessage().getSuggestions().get(0);
+    }
+
+    private static AgentMessage carouselMessage() {
+        CarouselCard carouselCard = new CarouselCard()
+                .setCardWidth("MEDIUM")
+                .setCardContents(Arrays.asList(
+                        card("First", "The first card"), card("Second", "The second card")));
+
+        return new AgentMessage().setContentMessage(new AgentContentMessage()
+                .setRichCard(new RichCard().setCarouselCard(carouselCard)));
+    }
+
+    private static StandaloneCard standaloneCard(AgentMessage message) {
+        return message.getContentMessage().getRichCard().getStandaloneCard();
+    }
+
+    private static CardContent card(String title, String description) {
+        return new CardContent().setTitle(title).setDescription(description);
+    }
+
+    /**
+     * @return The suggestions in a list that the model's clone() can copy, which it cannot do
+     * for the lists returned by Arrays.asList or Collections.singletonList.
+     */
+    private static List<Suggestion> suggestions(Suggestion... suggestions) {
+        return new ArrayList<Suggestion>(Arrays.asList(suggestions));
+    }
+
+    private static Suggestion reply(String text, String postbackData) {
+        return new Suggestion().setReply(
+                new SuggestedReply().setText(text).setPostbackData(postbackData));
+    }
+
+    private static SuggestedAction dialAction() {
+        return new SuggestedAction()
+                .setText("Call us")
+                .setPostbackData("call")
+                .setDialAction(new DialAction().setPhoneNumber("+12223334444"));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.Test;
+
+public class MessageIdGeneratorTest {
+    private static final String OTHER_MSISDN = "+12223335555";
+
+    @Test
+    public void randomIdsAreVersion4AndUnique() {
+        MessageIdGenerator generator = MessageIdGenerator.random();
+
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            String id = generator.newMessageId(TestClients.MSISDN);
+            assertVersion(4, id);
+            ids.add(id);
+        }
+
+        assertEquals(1000, ids.size());
+    }
+
+    @Test
+    public void nameBasedIdsAreVersion5AndDeterministic() {
+        String id = MessageIdGenerator.nameBased("campaign-1").newMessageId(TestClients.MSISDN);
+        assertVersion(5, id);
+
+        // a new generator for the same campaign, as after a restart, gives the same id
+        assertEquals(id,
+                MessageIdGenerator.nameBased("campaign-1").newMessageId(TestClients.MSISDN));
+
+        assertNotEquals(id,
+                MessageIdGenerator.nameBased("campaign-1").newMessageId(OTHER_MSISDN));
+        assertNotEquals(id,
+                MessageIdGenerator.nameBased("campaign-2").newMessageId(TestClients.MSISDN));
+    }
+
+    @Test
+    public void partIdsAreVersion5AndDeterministic() {
+        String messageId = MessageIdGenerator.random().newMessageId(TestClients.MSISDN);
+
+        String partId = NameBasedMessageIdGenerator.partMessageId(messageId, 1);
+        assertVersion(5, partId);
+        assertEquals(partId, NameBasedMessageIdGenerator.partMessageId(messageId, 1));
+        assertNotEquals(partId, NameBasedMessageIdGenerator.partMessageId(messageId, 2));
+        assertNotEquals(messageId, partId);
+    }
+
+    @Test
+    public void timeOrderedIdsAreVersion7AndSortByCreationTime() throws Exception {
+        MessageIdGenerator generator = MessageIdGenerator.timeOrdered();
+
+        long before = System.currentTimeMillis();
+        String previous = generator.newMessageId(TestClients.MSISDN);
+        long after = System.currentTimeMillis();
+
+        assertVersion(7, previous);
+        long timestamp = UUID.fromString(previous).getMostSignificantBits() >>> 16;
+        assertTrue(timestamp >= before && timestamp <= after);
+
+        for (int i = 0; i < 5; i++) {
+            // ids created within the same millisecond are in random order
+            Thread.sleep(2);
+
+            String id = generator.newMessageId(TestClients.MSISDN);
+            assertVersion(7, id);
+            assertTrue(previous + " sorts after " + id, previous.compareTo(id) < 0);
+            previous = id;
+        }
+    }
+
+    private static void assertVersion(int version, String id) {
+        UUID uuid = UUID.fromString(id);
+        assertEquals(id, uuid.toString());
+        assertEquals(version, uuid.version());
+
+        // the RFC 4122 variant
+        assertEquals(2, uuid.variant());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CardContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CarouselCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.RichCard;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RbmApiHelperTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeRbmServer server;
+    private RbmApiHelper rbmApiHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeRbmServer().start();
+
+        // carousels are downgraded into one standalone card per card
+        server.setCapabilities(
+                TestClients.MSISDN, Collections.singletonList("RICHCARD_STANDALONE"));
+
+        Path key = folder.getRoot().toPath().resolve("key.json");
+        Files.write(key, TestClients.serviceAccountKey(server.getTokenUri())
+                .getBytes(StandardCharsets.UTF_8));
+
+        rbmApiHelper = new RbmApiHelper(key.toFile(),
+                new RbmTransportOptions().setRootUrl(server.getRootUrl()));
+        rbmApiHelper.setDowngradeUnsupportedContent(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        rbmApiHelper.close();
+        server.close();
+    }
+
+    @Test
+    public void resendSkipsPartsAlreadySent() throws Exception {
+        String messageId = UUID.randomUUID().toString();
+        sendFirstPart(messageId);
+
+        rbmApiHelper.sendAgentMessage(carouselMessage(), TestClients.MSISDN, messageId);
+
+        // the first part was answered with ALREADY_EXISTS, the second one was sent
+        assertEquals(3, server.getRequestCount(RbmEndpoint.AGENT_MESSAGES));
+    }
+
+    @Test
+    public void asyncResendSkipsPartsAlreadySent() throws Exception {
+        String messageId = UUID.randomUUID().toString();
+        sendFirstPart(messageId);
+
+        AgentMessage created = rbmApiHelper.sendAgentMessageAsync(
+                carouselMessage(), TestClients.MSISDN, messageId).get(5, TimeUnit.SECONDS);
+
+        assertNotNull(created);
+        assertEquals(3, server.getRequestCount(RbmEndpoint.AGENT_MESSAGES));
+    }
+
+    @Test
+    public void resendOfEveryPartIsReportedAsAlreadySent() throws Exception {
+        String messageId = UUID.randomUUID().toString();
+        rbmApiHelper.sendAgentMessage(carouselMessage(), TestClients.MSISDN, messageId);
+
+        try {
+            rbmApiHelper.sendAgentMessage(carouselMessage(), TestClients.MSISDN, messageId);
+            fail("expected the last part to be reported as already sent");
+        } catch (HttpResponseException e) {
+            assertEquals(409, e.getStatusCode());
+        }
+
+        assertEquals(4, server.getRequestCount(RbmEndpoint.AGENT_MESSAGES));
+    }
+
+    /**
+     * Sends a message under the id of the first part only, as an attempt that failed after
+     * it would have.
+     */
+    private void sendFirstPart(String messageId) throws Exception {
+        rbmApiHelper.setDowngradeUnsupportedContent(false);
+        rbmApiHelper.sendAgentMessage(
+                TestClients.textMessage("Hello"), TestClients.MSISDN, messageId);
+        rbmApiHelper.setDowngradeUnsupportedContent(true);
+    }
+
+    private static AgentMessage carouselMessage() {
+        CarouselCard carouselCard = new CarouselCard()
+                .setCardWidth("MEDIUM")
+                .setCardContents(Arrays.asList(
+                        new CardContent().setTitle("First"),
+                        new CardContent().setTitle("Second")));
+
+        return new AgentMessage().setContentMessage(new AgentContentMessage()
+                .setRichCard(new RichCard().setCarouselCard(carouselCard)));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RbmHttpRequestInitializerTest {
+    private FakeRbmServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void everyFailedAttemptIsDebitedFromTheBudget() throws IOException {
+        RetryPolicy retryPolicy = TestClients.fastRetries(4);
+        server.failNextRequests(2, 503);
+
+        send(TestClients.newClient(server.getRootUrl(), retryPolicy));
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals(100 - 2 + 0.1, retryPolicy.getRetryBudget().getTokens(), 1e-9);
+    }
+
+    @Test
+    public void exhaustedRetriesAreNotCredited() throws IOException {
+        RetryPolicy retryPolicy = TestClients.fastRetries(3);
+        server.failNextRequests(5, 503);
+
+        try {
+            send(TestClients.newClient(server.getRootUrl(), retryPolicy));
+            fail("expected 503");
+        } catch (HttpResponseException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals(100 - 3, retryPolicy.getRetryBudget().getTokens(), 1e-9);
+    }
+
+    @Test
+    public void retriesStopOnceTheBudgetIsHalfSpent() throws IOException {
+        RetryPolicy retryPolicy = TestClients.fastRetries(4)
+                .setRetryBudget(new RetryBudget(4, 0.1));
+        server.failNextRequests(3, 503);
+
+        try {
+            send(TestClients.newClient(server.getRootUrl(), retryPolicy));
+            fail("expected 503");
+        } catch (HttpResponseException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+
+        // 4 -> 3 allows a retry, 3 -> 2 leaves exactly half and stops
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void nonRetryableErrorsLeaveTheBudgetAlone() throws IOException {
+        RetryPolicy retryPolicy = TestClients.fastRetries(4);
+        server.failNextRequests(1, 400);
+
+        try {
+            send(TestClients.newClient(server.getRootUrl(), retryPolicy));
+            fail("expected 400");
+        } catch (HttpResponseException e) {
+            assertEquals(400, e.getStatusCode());
+        }
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(100, retryPolicy.getRetryBudget().getTokens(), 1e-9);
+    }
+
+    private static void send(RCSBusinessMessaging rbmApi) throws IOException {
+        rbmApi.phones().agentMessages()
+                .create("phones/" + TestClients.MSISDN, TestClients.textMessage("Hello"))
+                .execute();
+    }
+}
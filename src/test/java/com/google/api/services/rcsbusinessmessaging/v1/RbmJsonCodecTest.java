@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.ClassInfo;
+import com.google.api.client.util.Data;
+import com.google.api.client.util.FieldInfo;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentEvent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Capabilities;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CardContent;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CarouselCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.ContentInfo;
+import com.google.api.services.rcsbusinessmessaging.v1.model.CreateCalendarEventAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.DialAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.LatLng;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Media;
+import com.google.api.services.rcsbusinessmessaging.v1.model.OpenUrlAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.RichCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.ShareLocationAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.StandaloneCard;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedAction;
+import com.google.api.services.rcsbusinessmessaging.v1.model.SuggestedReply;
+import com.google.api.services.rcsbusinessmessaging.v1.model.Suggestion;
+import com.google.api.services.rcsbusinessmessaging.v1.model.ViewLocationAction;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+
+public class RbmJsonCodecTest {
+    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+    // every model RbmJsonCodec writes field by field; update together with the codec
+    private static final List<Class<? extends GenericJson>> COVERED_MODELS = Arrays.asList(
+            AgentMessage.class,
+            AgentContentMessage.class,
+            ContentInfo.class,
+            RichCard.class,
+            CarouselCard.class,
+            StandaloneCard.class,
+            CardContent.class,
+            Media.class,
+            Suggestion.class,
+            SuggestedReply.class,
+            SuggestedAction.class,
+            CreateCalendarEventAction.class,
+            DialAction.class,
+            OpenUrlAction.class,
+            ShareLocationAction.class,
+            ViewLocationAction.class,
+            LatLng.class,
+            AgentEvent.class);
+
+    @Test
+    public void everyFieldOfTheCoveredModelsIsWritten() throws IOException {
+        // a field added to a model shows up in the reflective output only, until the codec
+        // writes it too
+        Set<Class<?>> populated = new HashSet<Class<?>>();
+        AgentMessage agentMessage = populate(AgentMessage.class, populated);
+        AgentEvent agentEvent = populate(AgentEvent.class, populated);
+
+        assertTrue("not reached from AgentMessage or AgentEvent: " + missing(populated),
+                populated.containsAll(COVERED_MODELS));
+
+        assertWrittenAsReflectively(agentMessage);
+        assertWrittenAsReflectively(agentEvent);
+    }
+
+    @Test
+    public void everyCoveredModelIsWrittenAsReflectively() throws IOException {
+        // each model on its own, fully populated, so a mismatch names the model
+        for (Class<? extends GenericJson> model : COVERED_MODELS) {
+            assertWrittenAsReflectively(model.getSimpleName(),
+                    wrap(populate(model, new HashSet<Class<?>>())));
+        }
+    }
+
+    @Test
+    public void nullsAreWrittenAsReflectively() throws IOException {
+        assertWrittenAsReflectively(new AgentMessage()
+                .setName(Data.NULL_STRING)
+                .setContentMessage(new AgentContentMessage()
+                        .setText(Data.NULL_STRING)
+                        .setContentInfo(new ContentInfo()
+                                .setFileUrl("https://example.com/a.png")
+                                .setForceRefresh(Data.NULL_BOOLEAN))
+                        .setRichCard(Data.nullOf(RichCard.class))
+                        .setSuggestions(Arrays.asList(
+                                new Suggestion().setReply(Data.nullOf(SuggestedReply.class)),
+                                new Suggestion().setAction(new SuggestedAction()
+                                        .setText("Call")
+                                        .setDialAction(Data.nullOf(DialAction.class)))))));
+
+        assertWrittenAsReflectively(new AgentMessage().setContentMessage(new AgentContentMessage()
+                .setSuggestions(Data.nullOf(ArrayList.class))));
+
+        assertWrittenAsReflectively(new AgentEvent()
+                .setEventType("READ")
+                .setMessageId(Data.NULL_STRING));
+    }
+
+    @Test
+    public void unknownKeysAreWrittenAsReflectively() throws IOException {
+        Map<String, Object> nested = new LinkedHashMap<String, Object>();
+        nested.put("count", 3);
+        nested.put("labels", Arrays.asList("a", "b"));
+
+        AgentMessage agentMessage = new AgentMessage()
+                .setContentMessage(new AgentContentMessage()
+                        .setText("Hello")
+                        .setRichCard(new RichCard().setStandaloneCard(new StandaloneCard()
+                                .setCardOrientation("VERTICAL")
+                                .setCardContent(new CardContent()
+                                        .setTitle("Title")
+                                        .set("futureField", nested))))
+                        .set("zeta", true)
+                        .set("alpha", "first")
+                        .set("skipped", null));
+        agentMessage.set("trafficType", "TRANSACTION");
+
+        assertWrittenAsReflectively(agentMessage);
+    }
+
+    @Test
+    public void paymentActionsAreWrittenAsReflectively() throws IOException {
+        SuggestedAction action = populate(SuggestedAction.class, new HashSet<Class<?>>());
+        action.setDialAction(null);
+
+        assertWrittenAsReflectively(wrap(action));
+    }
+
+    @Test
+    public void readsTheSameAsReflectively() throws IOException {
+        AgentMessage agentMessage = populate(AgentMessage.class, new HashSet<Class<?>>());
+        agentMessage.set("trafficType", "TRANSACTION");
+        assertReadAsReflectively(JSON_FACTORY.toString(agentMessage), AgentMessage.class);
+
+        assertReadAsReflectively(JSON_FACTORY.toString(
+                populate(AgentEvent.class, new HashSet<Class<?>>())), AgentEvent.class);
+
+        assertReadAsReflectively("{\"contentMessage\":{\"text\":null,\"richCard\":null,"
+                + "\"unknown\":{\"a\":[1,2]}},\"name\":\"phones/+1/agentMessages/1\"}",
+                AgentMessage.class);
+        assertReadAsReflectively("{\"features\":[\"RICHCARD_STANDALONE\"],\"extra\":1}",
+                Capabilities.class);
+    }
+
+    private static void assertWrittenAsReflectively(Object value) throws IOException {
+        assertWrittenAsReflectively(null, value);
+    }
+
+    private static void assertWrittenAsReflectively(String message, Object value)
+            throws IOException {
+        assertTrue(RbmJsonCodec.canWrite(value));
+        assertEquals(message, new String(JSON_FACTORY.toByteArray(value), StandardCharsets.UTF_8),
+                new String(RbmJsonCodec.toByteArray(JSON_FACTORY, value), StandardCharsets.UTF_8));
+    }
+
+    private static <T> void assertReadAsReflectively(String json, Class<T> dataClass)
+            throws IOException {
+        assertTrue(RbmJsonCodec.canRead(dataClass));
+
+        T reflective = JSON_FACTORY.fromString(json, dataClass);
+        T streamed = RbmJsonCodec.parseAndClose(JSON_FACTORY,
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), dataClass);
+
+        assertEquals(JSON_FACTORY.toString(reflective), JSON_FACTORY.toString(streamed));
+    }
+
+    /**
+     * Places a covered model inside an agent message, where the codec writes it.
+     */
+    private static Object wrap(GenericJson model) {
+        if (model instanceof AgentMessage || model instanceof AgentEvent) {
+            return model;
+        }
+
+        AgentContentMessage content = new AgentContentMessage();
+        if (model instanceof AgentContentMessage) {
+            content = (AgentContentMessage) model;
+        } else if (model instanceof ContentInfo) {
+            content.setContentInfo((ContentInfo) model);
+        } else if (model instanceof RichCard) {
+            content.setRichCard((RichCard) model);
+        } else if (model instanceof CarouselCard) {
+            content.setRichCard(new RichCard().setCarouselCard((CarouselCard) model));
+        } else if (model instanceof StandaloneCard) {
+            content.setRichCard(new RichCard().setStandaloneCard((StandaloneCard) model));
+        } else if (model instanceof CardContent) {
+            content.setRichCard(new RichCard().setStandaloneCard(
+                    new StandaloneCard().setCardContent((CardContent) model)));
+        } else if (model instanceof Media) {
+            content.setRichCard(new RichCard().setStandaloneCard(new StandaloneCard()
+                    .setCardContent(new CardContent().setMedia((Media) model))));
+        } else if (model instanceof Suggestion) {
+            content.setSuggestions(Collections.singletonList((Suggestion) model));
+        } else if (model instanceof SuggestedReply) {
+            content.setSuggestions(Collections.singletonList(
+                    new Suggestion().setReply((SuggestedReply) model)));
+        } else {
+            content.setSuggestions(Collections.singletonList(
+                    new Suggestion().setAction(wrapAction(model))));
+        }
+
+        return new AgentMessage().setContentMessage(content);
+    }
+
+    private static SuggestedAction wrapAction(GenericJson model) {
+        if (model instanceof SuggestedAction) {
+            return (SuggestedAction) model;
+        } else if (model instanceof CreateCalendarEventAction) {
+            return new SuggestedAction()
+                    .setCreateCalendarEventAction((CreateCalendarEventAction) model);
+        } else if (model instanceof DialAction) {
+            return new SuggestedAction().setDialAction((DialAction) model);
+        } else if (model instanceof OpenUrlAction) {
+            return new SuggestedAction().setOpenUrlAction((OpenUrlAction) model);
+        } else if (model instanceof ShareLocationAction) {
+            return new SuggestedAction().setShareLocationAction((ShareLocationAction) model);
+        } else if (model instanceof ViewLocationAction) {
+            return new SuggestedAction().setViewLocationAction((ViewLocationAction) model);
+        } else if (model instanceof LatLng) {
+            return new SuggestedAction().setViewLocationAction(
+                    new ViewLocationAction().setLatLong((LatLng) model));
+        }
+
+        throw new AssertionError("no place for " + model.getClass().getSimpleName());
+    }
+
+    /**
+     * Creates an instance with every {@code @Key} field set, recursively.
+     */
+    private static <T extends GenericJson> T populate(Class<T> model, Set<Class<?>> populated) {
+        populated.add(model);
+
+        T instance;
+        try {
+            instance = model.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+
+        ClassInfo classInfo = ClassInfo.of(model);
+        for (String name : classInfo.getNames()) {
+            FieldInfo fieldInfo = classInfo.getFieldInfo(name);
+            fieldInfo.setValue(instance, sampleValue(fieldInfo.getGenericType(), name, populated));
+        }
+
+        return instance;
+    }
+
+    private static Object sampleValue(Type type, String name, Set<Class<?>> populated) {
+        if (type == String.class) {
+            return "value of " + name;
+        } else if (type == Boolean.class) {
+            return Boolean.TRUE;
+        } else if (type == Integer.class) {
+            return 7;
+        } else if (type == Long.class) {
+            return 7L;
+        } else if (type == Double.class) {
+            return 1.25;
+        } else if (type == Float.class) {
+            return 1.5f;
+        } else if (type == BigInteger.class) {
+            return BigInteger.TEN;
+        } else if (type instanceof Class && GenericJson.class.isAssignableFrom((Class<?>) type)) {
+            return populate(((Class<?>) type).asSubclass(GenericJson.class), populated);
+        } else if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            Type[] arguments = parameterizedType.getActualTypeArguments();
+
+            if (parameterizedType.getRawType() == List.class) {
+                List<Object> list = new ArrayList<Object>();
+                list.add(sampleValue(arguments[0], name, populated));
+                return list;
+            } else if (parameterizedType.getRawType() == Map.class) {
+                Map<String, Object> map = new LinkedHashMap<String, Object>();
+                map.put("key", "value of " + name);
+                return map;
+            }
+        }
+
+        fail("no sample value for " + name + " of type " + type);
+        return null;
+    }
+
+    private static List<String> missing(Set<Class<?>> populated) {
+        List<String> missing = new ArrayList<String>();
+        for (Class<?> model : COVERED_MODELS) {
+            if (!populated.contains(model)) {
+                missing.add(model.getSimpleName());
+            }
+        }
+
+        return missing;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RbmLoggerTest {
+    // fails the test if the details of a record that is not written are built
+    private static final Supplier<String> UNUSED_DETAILS = () -> {
+        fail("details built for a record that was not written");
+        return null;
+    };
+
+    private final CapturingHandler handler = new CapturingHandler();
+
+    // held, since the log manager only keeps loggers weakly
+    private Logger logger;
+    private RbmLogger rbmLogger;
+
+    @Before
+    public void setUp() {
+        logger = Logger.getLogger(RbmLoggerTest.class.getName());
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.INFO);
+        logger.addHandler(handler);
+
+        rbmLogger = new RbmLogger(logger);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeHandler(handler);
+        logger.setUseParentHandlers(true);
+        logger.setLevel(null);
+    }
+
+    @Test
+    public void recordsCarryTheRedactedNumberAndDetails() {
+        rbmLogger.log(Level.INFO, "Sent agent message", TestClients.MSISDN,
+                () -> "messageId=1234");
+        rbmLogger.setRedactPhoneNumbers(false);
+        rbmLogger.log(Level.WARNING, "Upload failed", TestClients.MSISDN, null);
+        rbmLogger.log(Level.INFO, "Token refreshed", null, null);
+
+        assertEquals(3, handler.records.size());
+        assertEquals("Sent agent message msisdn=+1********44 messageId=1234",
+                handler.records.get(0).getMessage());
+        assertEquals(Level.INFO, handler.records.get(0).getLevel());
+        assertEquals(logger.getName(), handler.records.get(0).getSourceClassName());
+        assertEquals("Upload failed msisdn=+12223334444", handler.records.get(1).getMessage());
+        assertEquals("Token refreshed", handler.records.get(2).getMessage());
+    }
+
+    @Test
+    public void redactKeepsOnlyTheEndsOfLongEnoughNumbers() {
+        assertEquals("+1********44", RbmLogger.redact("+12223334444"));
+        assertEquals("+1***67", RbmLogger.redact("+123467"));
+
+        // too short to show anything
+        assertEquals("******", RbmLogger.redact("+12345"));
+        assertEquals("", RbmLogger.redact(""));
+        assertNull(RbmLogger.redact(null));
+    }
+
+    @Test
+    public void detailsAreNotBuiltForDisabledLevels() {
+        rbmLogger.log(Level.FINE, "Sent agent message", TestClients.MSISDN, UNUSED_DETAILS);
+        rbmLogger.logSampled(Level.FINE, "Sent agent message", TestClients.MSISDN,
+                UNUSED_DETAILS);
+
+        assertTrue(handler.records.isEmpty());
+    }
+
+    @Test
+    public void sampleRateBoundsAreHonoured() {
+        rbmLogger.setSampleRate(0);
+        for (int i = 0; i < 100; i++) {
+            rbmLogger.logSampled(Level.INFO, "Sent agent message", TestClients.MSISDN,
+                    UNUSED_DETAILS);
+        }
+        assertTrue(handler.records.isEmpty());
+
+        // unsampled events are not affected
+        rbmLogger.log(Level.INFO, "Upload failed", TestClients.MSISDN, null);
+        assertEquals(1, handler.records.size());
+
+        rbmLogger.setSampleRate(1);
+        for (int i = 0; i < 100; i++) {
+            rbmLogger.logSampled(Level.INFO, "Sent agent message", TestClients.MSISDN, null);
+        }
+        assertEquals(101, handler.records.size());
+    }
+
+    @Test
+    public void sampleRatesOutsideTheUnitIntervalAreRejected() {
+        for (double sampleRate : new double[] {-0.01, 1.01, Double.NaN}) {
+            try {
+                rbmLogger.setSampleRate(sampleRate);
+                fail("expected " + sampleRate + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+
+        assertEquals(1.0, rbmLogger.getSampleRate(), 0);
+    }
+
+    /**
+     * Keeps the records written to it.
+     */
+    private static class CapturingHandler extends Handler {
+        final List<LogRecord> records = new ArrayList<LogRecord>();
+
+        @Override
+        public void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() { }
+
+        @Override
+        public void close() { }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import org.junit.Test;
+
+public class RbmRateLimiterTest {
+    private static final String AGENT_ID = "agent";
+
+    @Test
+    public void endpointPermitIsReturnedWhenThePhoneNumberIsLimited() throws IOException {
+        RbmRateLimiter rateLimiter = new RbmRateLimiter()
+                .setEndpointLimit(RbmEndpoint.AGENT_MESSAGES, 0.001, 2)
+                .setPhoneNumberLimit(0.001, 1)
+                .setMaxWaitMillis(0);
+
+        rateLimiter.acquire(AGENT_ID, RbmEndpoint.AGENT_MESSAGES, "+15550000001");
+        assertRejected(rateLimiter, "+15550000001");
+
+        // the rejected request left the second endpoint permit for another user
+        rateLimiter.acquire(AGENT_ID, RbmEndpoint.AGENT_MESSAGES, "+15550000002");
+        assertRejected(rateLimiter, "+15550000003");
+    }
+
+    @Test
+    public void limitsApplyPerAgent() throws IOException {
+        RbmRateLimiter rateLimiter = new RbmRateLimiter()
+                .setEndpointLimit(RbmEndpoint.CAPABILITIES, 0.001, 1)
+                .setMaxWaitMillis(0);
+
+        rateLimiter.acquire("agent-1", RbmEndpoint.CAPABILITIES, null);
+        rateLimiter.acquire("agent-2", RbmEndpoint.CAPABILITIES, null);
+
+        try {
+            rateLimiter.acquire("agent-1", RbmEndpoint.CAPABILITIES, null);
+            fail("expected the second call for agent-1 to be limited");
+        } catch (RateLimitExceededException expected) {
+        }
+    }
+
+    private static void assertRejected(RbmRateLimiter rateLimiter, String phoneNumber)
+            throws IOException {
+        try {
+            rateLimiter.acquire(AGENT_ID, RbmEndpoint.AGENT_MESSAGES, phoneNumber);
+            fail("expected " + phoneNumber + " to be limited");
+        } catch (RateLimitExceededException expected) {
+        }
+    }
+}
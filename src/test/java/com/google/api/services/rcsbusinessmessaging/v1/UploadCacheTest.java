@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UploadCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeRbmServer server;
+    private RCSBusinessMessaging rbmApi;
+    private Path indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+        rbmApi = TestClients.newClient(server.getRootUrl(), TestClients.fastRetries(1));
+        indexFile = folder.getRoot().toPath().resolve("uploads.idx");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void namesSurviveAReload() throws IOException {
+        UploadCache uploadCache = newCache(100);
+        String name = uploadCache.getOrUpload(url(1), null).getName();
+        uploadCache.getOrUpload(url(2), url(3));
+        uploadCache.invalidate(url(2), url(3));
+
+        UploadCache reloaded = newCache(100);
+
+        assertEquals(name, reloaded.getIfPresent(url(1), null));
+        assertNull(reloaded.getIfPresent(url(2), url(3)));
+        assertEquals(name, reloaded.getOrUpload(url(1), null).getName());
+        assertEquals(2, server.getRequestCount(RbmEndpoint.FILES));
+
+        // the invalidated entry was dropped from the file
+        assertEquals(1, lineCount());
+    }
+
+    @Test
+    public void reloadEvictsDownToTheMaximumSize() throws IOException {
+        UploadCache uploadCache = newCache(100);
+        for (int i = 0; i < 30; i++) {
+            uploadCache.getOrUpload(url(i), null);
+        }
+
+        UploadCache reloaded = newCache(20);
+
+        assertTrue("size " + reloaded.size(), reloaded.size() <= 20);
+        assertEquals(reloaded.size(), lineCount());
+    }
+
+    @Test
+    public void evictedEntriesDoNotGrowTheIndex() throws IOException {
+        UploadCache uploadCache = newCache(10);
+        for (int i = 0; i < 40; i++) {
+            uploadCache.getOrUpload(url(i), null);
+        }
+
+        assertTrue("size " + uploadCache.size(), uploadCache.size() <= 10);
+        assertTrue("lines " + lineCount(), lineCount() <= uploadCache.size() + 10);
+
+        // entries evicted before the restart do not come back
+        UploadCache reloaded = newCache(10);
+        for (int i = 0; i < 40; i++) {
+            if (uploadCache.getIfPresent(url(i), null) == null) {
+                assertNull(url(i), reloaded.getIfPresent(url(i), null));
+            } else {
+                assertNotNull(url(i), reloaded.getIfPresent(url(i), null));
+            }
+        }
+    }
+
+    private UploadCache newCache(int maxSize) {
+        return UploadCache.newBuilder(rbmApi)
+                .setMaxSize(maxSize)
+                .setIndexFile(indexFile)
+                .build();
+    }
+
+    private int lineCount() throws IOException {
+        return Files.readAllLines(indexFile).size();
+    }
+
+    private static String url(int i) {
+        return "https://example.com/media/" + i + ".jpg";
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.services.rcsbusinessmessaging.v1.testing.FakeRbmServer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UserReachabilityCheckerTest {
+    private FakeRbmServer server;
+    private AsyncRequestExecutor executor;
+    private UserReachabilityChecker checker;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+        executor = new AsyncRequestExecutor(Executors.newFixedThreadPool(4), 2);
+        checker = new UserReachabilityChecker(
+                TestClients.newClient(server.getRootUrl(), RetryPolicy.noRetries()), executor, 10);
+    }
+
+    @After
+    public void tearDown() {
+        ((ExecutorService) executor.getExecutor()).shutdownNow();
+        server.close();
+    }
+
+    @Test
+    public void aggregatesEveryChunk() throws Exception {
+        List<String> phoneNumbers = phoneNumbers(25);
+        server.setDefaultFeatures(null);
+        for (int i = 0; i < phoneNumbers.size(); i += 2) {
+            server.setCapabilities(
+                    phoneNumbers.get(i), Collections.singletonList("RICHCARD_STANDALONE"));
+        }
+
+        List<String> reachable = new ArrayList<String>();
+        ReachEstimate estimate = checker.check(phoneNumbers.iterator(), reachable::addAll);
+
+        assertEquals(25, estimate.getCheckedUserCount());
+        assertEquals(13, estimate.getReachableUserCount());
+        assertEquals(25, estimate.getTotalRandomSampleUserCount());
+        assertEquals(13, estimate.getReachableRandomSampleUserCount());
+        assertEquals(13, reachable.size());
+        assertEquals(3, server.getRequestCount(RbmEndpoint.USERS_BATCH_GET));
+    }
+
+    @Test
+    public void failedChunkFailsTheCheck() throws Exception {
+        server.failNextRequests(1, 403);
+
+        try {
+            checker.check(phoneNumbers(25).iterator(), users -> { });
+            fail("expected the failed chunk to be reported");
+        } catch (HttpResponseException e) {
+            assertEquals(403, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void consumerFailureFailsTheCheck() throws Exception {
+        try {
+            checker.check(phoneNumbers(5).iterator(), users -> {
+                throw new IllegalStateException("consumer failed");
+            });
+            fail("expected the consumer failure to be reported");
+        } catch (IOException e) {
+            assertEquals(IllegalStateException.class, e.getCause().getClass());
+        }
+    }
+
+    private static List<String> phoneNumbers(int count) {
+        List<String> phoneNumbers = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            phoneNumbers.add("+1555" + (1000000 + i));
+        }
+
+        return phoneNumbers;
+    }
+}
@@ -0,0 +1,838 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.testing;
+
+import com.google.api.client.json.GenericJson;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.rcsbusinessmessaging.v1.RbmEndpoint;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An embeddable stand-in for the RBM API, for offline integration and load tests.
+ *
+ * <p>The server listens on the loopback interface and implements every REST path the
+ * {@link com.google.api.services.rcsbusinessmessaging.v1.RCSBusinessMessaging} client calls,
+ * including the HTTP batch endpoint. Point a client at it with
+ * {@code RCSBusinessMessaging.Builder.setRootUrl(server.getRootUrl())}.</p>
+ *
+ * <p>Responses can be slowed down with a fixed latency, and errors can be injected either at a
+ * random rate or for the next N requests. Request counts are kept per {@link RbmEndpoint}, and
+ * the number of distinct client connections is tracked so connection reuse can be measured.</p>
+ *
+ * <p>File uploads accept the resumable upload protocol as well as single requests, so that
+ * interrupted uploads can be tested with injected errors.</p>
+ *
+ * <p>The server also stands in for the OAuth token endpoint at {@link #getTokenUri()}: set it
+ * as the {@code token_uri} of a service account key and every token request is answered with a
+ * new access token. Token requests see the same latency and injected errors as API calls but
+ * are counted separately.</p>
+ *
+ * <p>The server is meant for tests; it keeps no state beyond the configured capabilities, the
+ * names of the most recently created messages, upload sessions and its counters.</p>
+ *
+ * <p>The JDK server writes headers and body separately, so without TCP_NODELAY responses stall
+ * on delayed ACKs. Run latency measurements with {@code -Dsun.net.httpserver.nodelay=true}.</p>
+ */
+public class FakeRbmServer implements Closeable {
+    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=UTF-8";
+
+    private static final String BATCH_BOUNDARY = "batch_fake_rbm_server";
+
+    // every feature of the Feature enum in enums.proto
+    private static final List<String> ALL_FEATURES = Collections.unmodifiableList(Arrays.asList(
+            "REVOCATION",
+            "RICHCARD_STANDALONE",
+            "RICHCARD_CAROUSEL",
+            "ACTION_CREATE_CALENDAR_EVENT",
+            "ACTION_DIAL",
+            "ACTION_OPEN_URL",
+            "ACTION_SHARE_LOCATION",
+            "ACTION_VIEW_LOCATION"));
+
+    private static final int DEFAULT_AGENT_MESSAGE_NAME_CAPACITY = 100_000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // behaviour, configured by tests
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile int errorStatusCode = 503;
+    private volatile Integer retryAfterSeconds;
+    private final AtomicInteger failNextCount = new AtomicInteger();
+    private volatile int failNextStatusCode = 503;
+    private volatile List<String> defaultFeatures = ALL_FEATURES;
+    private final Map<String, List<String>> capabilities = new ConcurrentHashMap<String, List<String>>();
+    private volatile long tokenLifetimeSeconds = 3600;
+    private volatile int agentMessageNameCapacity = DEFAULT_AGENT_MESSAGE_NAME_CAPACITY;
+
+    // names of the most recently created agent messages, oldest first in the queue; a repeated
+    // message id is rejected like the platform does
+    private final Set<String> agentMessageNames =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Queue<String> agentMessageNameOrder = new ConcurrentLinkedQueue<String>();
+
+    // resumable uploads by upload id, kept after completion so a repeated last chunk is
+    // answered again
+    private final Map<String, UploadSession> uploadSessions =
+            new ConcurrentHashMap<String, UploadSession>();
+
+    // counters
+    private final AtomicLong requestCount = new AtomicLong();
+    private final Map<RbmEndpoint, AtomicLong> endpointCounts =
+            new EnumMap<RbmEndpoint, AtomicLong>(RbmEndpoint.class);
+    private final AtomicLong injectedErrorCount = new AtomicLong();
+    private final AtomicLong uploadedByteCount = new AtomicLong();
+    private final AtomicLong tokenRequestCount = new AtomicLong();
+    private final Set<InetSocketAddress> connections =
+            Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+
+    /**
+     * Creates a server on a free port, served by 64 threads. Call {@link #start()} to accept
+     * requests.
+     */
+    public FakeRbmServer() throws IOException {
+        this(0, 64);
+    }
+
+    /**
+     * Creates a server. Call {@link #start()} to accept requests.
+     * @param port The port to listen on, or 0 for any free port.
+     * @param threads The number of threads handling requests.
+     */
+    public FakeRbmServer(int port, int threads) throws IOException {
+        for (RbmEndpoint endpoint : RbmEndpoint.values()) {
+            endpointCounts.put(endpoint, new AtomicLong());
+        }
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "fake-rbm-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Starts accepting requests.
+     * @return This server.
+     */
+    public FakeRbmServer start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * Stops the server immediately.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return The root URL to pass to {@code RCSBusinessMessaging.Builder.setRootUrl}.
+     */
+    public String getRootUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @return The URL of the token endpoint, to use as the {@code token_uri} of a service
+     * account key.
+     */
+    public String getTokenUri() {
+        return getRootUrl() + "token";
+    }
+
+    /**
+     * Sets the lifetime of the access tokens issued, one hour by default.
+     */
+    public FakeRbmServer setTokenLifetimeSeconds(long tokenLifetimeSeconds) {
+        this.tokenLifetimeSeconds = tokenLifetimeSeconds;
+        return this;
+    }
+
+    /**
+     * Sets how many message names are remembered to reject repeated message ids, 100,000 by
+     * default. Beyond that the oldest names are forgotten, so long load tests run in bounded
+     * memory.
+     */
+    public FakeRbmServer setAgentMessageNameCapacity(int agentMessageNameCapacity) {
+        if (agentMessageNameCapacity < 1) {
+            throw new IllegalArgumentException("agentMessageNameCapacity must be positive");
+        }
+
+        this.agentMessageNameCapacity = agentMessageNameCapacity;
+        trimAgentMessageNames();
+        return this;
+    }
+
+    /**
+     * Forgets the names of the messages created so far, so their message ids can be sent again.
+     */
+    public void clearAgentMessageNames() {
+        agentMessageNameOrder.clear();
+        agentMessageNames.clear();
+    }
+
+    /**
+     * Delays every response, batch responses once for the whole batch.
+     */
+    public FakeRbmServer setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * Fails a random share of requests with the given status code.
+     * @param errorRate The share of requests to fail, between 0 and 1.
+     * @param statusCode The status code to fail them with, for example 429, 500 or 503.
+     */
+    public FakeRbmServer setErrorRate(double errorRate, int statusCode) {
+        this.errorRate = errorRate;
+        this.errorStatusCode = statusCode;
+        return this;
+    }
+
+    /**
+     * Fails the next requests with the given status code, ahead of any random errors.
+     * @param count The number of requests to fail.
+     * @param statusCode The status code to fail them with.
+     */
+    public FakeRbmServer failNextRequests(int count, int statusCode) {
+        this.failNextStatusCode = statusCode;
+        this.failNextCount.set(count);
+        return this;
+    }
+
+    /**
+     * Adds a {@code Retry-After} header to injected errors.
+     * @param retryAfterSeconds The delay to ask for, or null to send no header.
+     */
+    public FakeRbmServer setRetryAfterSeconds(Integer retryAfterSeconds) {
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * Sets the features reported for phone numbers without explicit capabilities. By default
+     * every number is RCS-enabled and supports all features.
+     * @param features The feature names, or null to treat unknown numbers as not RCS-enabled.
+     */
+    public FakeRbmServer setDefaultFeatures(List<String> features) {
+        this.defaultFeatures = features;
+        return this;
+    }
+
+    /**
+     * Sets the features reported for a phone number.
+     * @param phoneNumber The phone number in E.164 format.
+     * @param features The feature names, or null to report the number as not RCS-enabled.
+     */
+    public FakeRbmServer setCapabilities(String phoneNumber, List<String> features) {
+        if (features == null) {
+            capabilities.put(phoneNumber, Collections.<String>emptyList());
+        } else {
+            capabilities.put(phoneNumber, new ArrayList<String>(features));
+        }
+        return this;
+    }
+
+    /**
+     * @return The number of requests handled, counting each part of a batch.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return The number of requests handled for an endpoint.
+     */
+    public long getRequestCount(RbmEndpoint endpoint) {
+        return endpointCounts.get(endpoint).get();
+    }
+
+    /**
+     * @return The number of errors injected.
+     */
+    public long getInjectedErrorCount() {
+        return injectedErrorCount.get();
+    }
+
+    /**
+     * @return The number of media bytes received in the chunks of resumable uploads, counting
+     * chunks that were sent again.
+     */
+    public long getUploadedByteCount() {
+        return uploadedByteCount.get();
+    }
+
+    /**
+     * @return The number of access token requests, which {@link #getRequestCount()} leaves out.
+     */
+    public long getTokenRequestCount() {
+        return tokenRequestCount.get();
+    }
+
+    /**
+     * @return The number of distinct client connections that sent requests.
+     */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void resetCounters() {
+        requestCount.set(0);
+        injectedErrorCount.set(0);
+        uploadedByteCount.set(0);
+        tokenRequestCount.set(0);
+        connections.clear();
+        for (AtomicLong count : endpointCounts.values()) {
+            count.set(0);
+        }
+    }
+
+    private void trimAgentMessageNames() {
+        while (agentMessageNames.size() > agentMessageNameCapacity) {
+            String oldest = agentMessageNameOrder.poll();
+            if (oldest == null) {
+                return;
+            }
+
+            agentMessageNames.remove(oldest);
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            connections.add(exchange.getRemoteAddress());
+
+            InputStream requestBody = exchange.getRequestBody();
+            if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                requestBody = new GZIPInputStream(requestBody);
+            }
+
+            byte[] body = readFully(requestBody);
+            sleep(latencyMillis);
+
+            Response response = dispatch(
+                    exchange.getRequestMethod(),
+                    exchange.getRequestURI(),
+                    exchange.getRequestHeaders(),
+                    body);
+
+            Headers headers = exchange.getResponseHeaders();
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                headers.set(header.getKey(), header.getValue());
+            }
+
+            exchange.sendResponseHeaders(response.statusCode,
+                    response.body.length == 0 ? -1 : response.body.length);
+
+            // without a body the exchange has no stream left to write to
+            if (response.body.length > 0) {
+                OutputStream out = exchange.getResponseBody();
+                out.write(response.body);
+                out.close();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Response dispatch(String method, URI uri, Headers requestHeaders, byte[] body)
+            throws IOException {
+        List<String> path = pathParts(uri);
+
+        if (path.size() == 1 && "batch".equals(path.get(0))) {
+            endpointCounts.get(RbmEndpoint.BATCH).incrementAndGet();
+            return handleBatch(requestHeaders.getFirst("Content-Type"), body);
+        }
+
+        if (path.size() == 1 && "token".equals(path.get(0)) && "POST".equals(method)) {
+            tokenRequestCount.incrementAndGet();
+
+            Response injected = injectError();
+            return injected != null ? injected : issueToken();
+        }
+
+        requestCount.incrementAndGet();
+
+        Response injected = injectError();
+        if (injected != null) {
+            return injected;
+        }
+
+        // upload/v1/files accepts the same call as v1/files with the media in the body
+        if (path.size() >= 1 && "upload".equals(path.get(0))) {
+            path = path.subList(1, path.size());
+        }
+
+        if (path.size() < 2 || !"v1".equals(path.get(0))) {
+            return error(404, "NOT_FOUND", "unknown path " + uri.getPath());
+        }
+
+        if (path.size() == 2 && "files".equals(path.get(1))) {
+            Map<String, String> query = queryParameters(uri);
+
+            if (query.containsKey("upload_id")) {
+                endpointCounts.get(RbmEndpoint.FILE_UPLOAD_SESSION).incrementAndGet();
+                return uploadChunk(query.get("upload_id"),
+                        requestHeaders.getFirst("Content-Range"), body);
+            }
+
+            if ("POST".equals(method)) {
+                endpointCounts.get(RbmEndpoint.FILES).incrementAndGet();
+
+                if ("resumable".equals(query.get("uploadType"))) {
+                    return startUpload();
+                }
+
+                return json(200, new GenericJson().set("name", "files/" + UUID.randomUUID()));
+            }
+        }
+
+        if (path.size() == 2 && "users:batchGet".equals(path.get(1)) && "POST".equals(method)) {
+            endpointCounts.get(RbmEndpoint.USERS_BATCH_GET).incrementAndGet();
+            return batchGetUsers(body);
+        }
+
+        if (path.size() >= 4 && "phones".equals(path.get(1))) {
+            return handlePhone(method, uri, path, body);
+        }
+
+        endpointCounts.get(RbmEndpoint.OTHER).incrementAndGet();
+        return error(404, "NOT_FOUND", "unknown path " + uri.getPath());
+    }
+
+    private Response handlePhone(String method, URI uri, List<String> path, byte[] body)
+            throws IOException {
+        String phoneNumber = path.get(2);
+        String parent = "phones/" + phoneNumber;
+        String collection = path.get(3);
+        Map<String, String> query = queryParameters(uri);
+
+        if ("agentMessages".equals(collection)) {
+            endpointCounts.get(RbmEndpoint.AGENT_MESSAGES).incrementAndGet();
+
+            if ("DELETE".equals(method) && path.size() == 5) {
+                return json(200, new GenericJson());
+            }
+
+            if (!capabilitiesFor(phoneNumber).isEmpty()) {
+                String name = parent + "/agentMessages/" + idOrRandom(query.get("messageId"));
+                if (!agentMessageNames.add(name)) {
+                    return error(409, "ALREADY_EXISTS", "Requested entity already exists");
+                }
+
+                agentMessageNameOrder.add(name);
+                trimAgentMessageNames();
+
+                return echo(body, name);
+            }
+
+            return error(404, "NOT_FOUND", "Requested entity was not found.");
+        }
+
+        if ("agentEvents".equals(collection)) {
+            endpointCounts.get(RbmEndpoint.AGENT_EVENTS).incrementAndGet();
+            return echo(body, parent + "/agentEvents/" + idOrRandom(query.get("eventId")));
+        }
+
+        if ("dialogflowMessages".equals(collection)) {
+            endpointCounts.get(RbmEndpoint.DIALOGFLOW_MESSAGES).incrementAndGet();
+            return echo(body, parent + "/dialogflowMessages/" + UUID.randomUUID());
+        }
+
+        if ("testers".equals(collection)) {
+            endpointCounts.get(RbmEndpoint.TESTERS).incrementAndGet();
+            return echo(body, parent + "/testers/" + UUID.randomUUID());
+        }
+
+        if ("capabilities".equals(collection)) {
+            endpointCounts.get(RbmEndpoint.CAPABILITIES).incrementAndGet();
+
+            List<String> features = capabilitiesFor(phoneNumber);
+            if (features.isEmpty()) {
+                return error(404, "NOT_FOUND", "Requested entity was not found.");
+            }
+
+            return json(200, new GenericJson().set("features", features));
+        }
+
+        if ("capability:requestCapabilityCallback".equals(collection)) {
+            endpointCounts.get(RbmEndpoint.CAPABILITY_CALLBACK).incrementAndGet();
+            return json(200, new GenericJson());
+        }
+
+        endpointCounts.get(RbmEndpoint.OTHER).incrementAndGet();
+        return error(404, "NOT_FOUND", "unknown path " + uri.getPath());
+    }
+
+    private Response batchGetUsers(byte[] body) throws IOException {
+        GenericJson request = parse(body);
+        List<String> reachable = new ArrayList<String>();
+
+        int total = 0;
+        Object users = request.get("users");
+        if (users instanceof List) {
+            for (Object user : (List<?>) users) {
+                total++;
+                if (!capabilitiesFor(String.valueOf(user)).isEmpty()) {
+                    reachable.add(String.valueOf(user));
+                }
+            }
+        }
+
+        return json(200, new GenericJson()
+                .set("reachableUsers", reachable)
+                .set("totalRandomSampleUserCount", total)
+                .set("reachableRandomSampleUserCount", reachable.size()));
+    }
+
+    /**
+     * Answers a multipart/mixed batch request by dispatching each embedded request and
+     * returning the responses in the same order.
+     */
+    private Response handleBatch(String contentType, byte[] body) throws IOException {
+        String boundary = boundaryOf(contentType);
+        if (boundary == null) {
+            return error(400, "INVALID_ARGUMENT", "missing multipart boundary");
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String content = new String(body, StandardCharsets.ISO_8859_1);
+        int partNumber = 0;
+
+        for (String part : content.split("--" + java.util.regex.Pattern.quote(boundary))) {
+            String trimmed = part.trim();
+            if (trimmed.isEmpty() || trimmed.equals("--")) {
+                continue;
+            }
+
+            partNumber++;
+
+            // part headers, then the embedded HTTP request line, headers and body
+            int requestStart = part.indexOf("\r\n\r\n");
+            String embedded = part.substring(requestStart + 4);
+            int headersEnd = embedded.indexOf("\r\n\r\n");
+            String head = headersEnd >= 0 ? embedded.substring(0, headersEnd) : embedded;
+            String requestBody = headersEnd >= 0 ? embedded.substring(headersEnd + 4) : "";
+            if (requestBody.endsWith("\r\n")) {
+                requestBody = requestBody.substring(0, requestBody.length() - 2);
+            }
+
+            String[] requestLine = head.split("\r\n")[0].split(" ");
+            Response response = dispatch(requestLine[0], URI.create(requestLine[1]),
+                    new Headers(), requestBody.getBytes(StandardCharsets.ISO_8859_1));
+
+            StringBuilder partHeader = new StringBuilder()
+                    .append("--").append(BATCH_BOUNDARY).append("\r\n")
+                    .append("Content-Type: application/http\r\n")
+                    .append("Content-ID: <response-").append(partNumber).append(">\r\n\r\n")
+                    .append("HTTP/1.1 ").append(response.statusCode).append(' ')
+                    .append(reasonPhrase(response.statusCode)).append("\r\n");
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                partHeader.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            partHeader.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+
+            out.write(partHeader.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.write(response.body);
+            out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        out.write(("--" + BATCH_BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Content-Type", "multipart/mixed; boundary=" + BATCH_BOUNDARY);
+        return new Response(200, headers, out.toByteArray());
+    }
+
+    /**
+     * Opens a resumable upload session, answering with the URL the chunks are sent to.
+     */
+    private Response startUpload() throws IOException {
+        String uploadId = UUID.randomUUID().toString();
+        uploadSessions.put(uploadId, new UploadSession());
+
+        Response response = json(200, new GenericJson());
+        response.headers.put("Location",
+                getRootUrl() + "upload/v1/files?uploadType=resumable&upload_id=" + uploadId);
+        return response;
+    }
+
+    /**
+     * Accepts a chunk of a resumable upload, {@code Content-Range: bytes first-last/total}, or
+     * answers a status query, {@code Content-Range: bytes *}{@code /total}. Until the last byte
+     * has arrived the answer is 308 with the range received so far.
+     */
+    private Response uploadChunk(String uploadId, String contentRange, byte[] body)
+            throws IOException {
+        UploadSession session = uploadSessions.get(uploadId);
+        if (session == null || contentRange == null || !contentRange.startsWith("bytes ")) {
+            return error(404, "NOT_FOUND", "unknown upload session");
+        }
+
+        String range = contentRange.substring("bytes ".length());
+        int slash = range.indexOf('/');
+        String bytes = slash >= 0 ? range.substring(0, slash) : range;
+        String total = slash >= 0 ? range.substring(slash + 1) : "*";
+
+        synchronized (session) {
+            if (session.name == null && !"*".equals(bytes)) {
+                long first = Long.parseLong(bytes.substring(0, bytes.indexOf('-')));
+
+                // a chunk that does not continue the upload is ignored, the client resumes from
+                // the range in the answer
+                if (first == session.received) {
+                    session.received += body.length;
+                    uploadedByteCount.addAndGet(body.length);
+                }
+            }
+
+            if (session.name == null && !"*".equals(total)
+                    && session.received >= Long.parseLong(total)) {
+                session.name = "files/" + UUID.randomUUID();
+            }
+
+            if (session.name != null) {
+                return json(200, new GenericJson().set("name", session.name));
+            }
+
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            if (session.received > 0) {
+                headers.put("Range", "bytes=0-" + (session.received - 1));
+            }
+            return new Response(308, headers, new byte[0]);
+        }
+    }
+
+    private Response issueToken() throws IOException {
+        return json(200, new GenericJson()
+                .set("access_token", "fake-token-" + UUID.randomUUID())
+                .set("token_type", "Bearer")
+                .set("expires_in", tokenLifetimeSeconds));
+    }
+
+    private Response injectError() throws IOException {
+        int statusCode = 0;
+
+        if (failNextCount.get() > 0 && failNextCount.getAndDecrement() > 0) {
+            statusCode = failNextStatusCode;
+        } else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            statusCode = errorStatusCode;
+        }
+
+        if (statusCode == 0) {
+            return null;
+        }
+
+        injectedErrorCount.incrementAndGet();
+
+        Response response = error(statusCode, statusCode == 429 ? "RESOURCE_EXHAUSTED" : "UNAVAILABLE",
+                "injected error");
+        if (retryAfterSeconds != null) {
+            response.headers.put("Retry-After", String.valueOf(retryAfterSeconds));
+        }
+
+        return response;
+    }
+
+    private List<String> capabilitiesFor(String phoneNumber) {
+        List<String> features = capabilities.get(phoneNumber);
+        if (features == null) {
+            features = defaultFeatures;
+        }
+        return features != null ? features : Collections.<String>emptyList();
+    }
+
+    private static Response echo(byte[] body, String name) throws IOException {
+        GenericJson resource = body.length > 0 ? parse(body) : new GenericJson();
+        resource.set("name", name);
+        return json(200, resource);
+    }
+
+    private static Response json(int statusCode, GenericJson content) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        headers.put("Content-Type", JSON_CONTENT_TYPE);
+        return new Response(statusCode, headers, JSON_FACTORY.toByteArray(content));
+    }
+
+    private static Response error(int statusCode, String status, String message) throws IOException {
+        GenericJson error = new GenericJson()
+                .set("code", statusCode)
+                .set("message", message)
+                .set("status", status);
+        return json(statusCode, new GenericJson().set("error", error));
+    }
+
+    private static GenericJson parse(byte[] body) throws IOException {
+        return JSON_FACTORY.fromInputStream(new ByteArrayInputStream(body), GenericJson.class);
+    }
+
+    private static String idOrRandom(String id) {
+        return id != null ? id : UUID.randomUUID().toString();
+    }
+
+    private static List<String> pathParts(URI uri) throws IOException {
+        List<String> parts = new ArrayList<String>();
+        for (String part : uri.getRawPath().split("/")) {
+            if (!part.isEmpty()) {
+                parts.add(decodePhoneNumber(URLDecoder.decode(part.replace("+", "%2B"), "UTF-8")));
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Older HTTP clients send the leading {@code +} of an E.164 number as a space.
+     */
+    private static String decodePhoneNumber(String part) {
+        return part.startsWith(" ") ? "+" + part.substring(1) : part;
+    }
+
+    private static Map<String, String> queryParameters(URI uri) throws IOException {
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        if (uri.getRawQuery() == null) {
+            return parameters;
+        }
+
+        for (String pair : uri.getRawQuery().split("&")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+                        URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static String boundaryOf(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+
+        for (String parameter : contentType.split(";")) {
+            String trimmed = parameter.trim();
+            if (trimmed.startsWith("boundary=")) {
+                return trimmed.substring("boundary=".length()).replace("\"", "");
+            }
+        }
+        return null;
+    }
+
+    private static String reasonPhrase(int statusCode) {
+        switch (statusCode) {
+            case 200: return "OK";
+            case 400: return "Bad Request";
+            case 404: return "Not Found";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return "Status";
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The progress of one resumable upload.
+     */
+    private static class UploadSession {
+        // guarded by this
+        long received;
+        String name;
+    }
+
+    /**
+     * A response produced for a single request or batch part.
+     */
+    private static class Response {
+        final int statusCode;
+        final Map<String, String> headers;
+        final byte[] body;
+
+        Response(int statusCode, Map<String, String> headers, byte[] body) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+}
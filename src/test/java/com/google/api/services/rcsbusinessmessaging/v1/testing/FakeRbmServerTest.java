@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2018 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.google.api.services.rcsbusinessmessaging.v1.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.rcsbusinessmessaging.v1.RCSBusinessMessaging;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentContentMessage;
+import com.google.api.services.rcsbusinessmessaging.v1.model.AgentMessage;
+
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FakeRbmServerTest {
+    private FakeRbmServer server;
+    private RCSBusinessMessaging rbmApi;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new FakeRbmServer().start();
+        rbmApi = new RCSBusinessMessaging.Builder(
+                new NetHttpTransport(), JacksonFactory.getDefaultInstance(), null)
+                .setApplicationName("fake-rbm-server-test")
+                .setRootUrl(server.getRootUrl())
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void repeatedMessageIdIsRejected() throws IOException {
+        send("id-1");
+        assertAlreadyExists("id-1");
+    }
+
+    @Test
+    public void oldestMessageNamesAreForgottenBeyondCapacity() throws IOException {
+        server.setAgentMessageNameCapacity(2);
+
+        send("id-1");
+        send("id-2");
+        send("id-3");
+
+        // id-1 was forgotten, the two most recent are still rejected
+        send("id-1");
+        assertAlreadyExists("id-3");
+    }
+
+    @Test
+    public void clearedMessageNamesCanBeSentAgain() throws IOException {
+        send("id-1");
+        server.clearAgentMessageNames();
+
+        send("id-1");
+        assertEquals(2, server.getRequestCount());
+    }
+
+    private void send(String messageId) throws IOException {
+        rbmApi.phones().agentMessages().create("phones/+12223334444", message())
+                .setMessageId(messageId)
+                .execute();
+    }
+
+    private void assertAlreadyExists(String messageId) throws IOException {
+        try {
+            send(messageId);
+            fail("expected 409 for " + messageId);
+        } catch (HttpResponseException e) {
+            assertEquals(409, e.getStatusCode());
+        }
+    }
+
+    private static AgentMessage message() {
+        return new AgentMessage().setContentMessage(new AgentContentMessage().setText("Hello"));
+    }
+}